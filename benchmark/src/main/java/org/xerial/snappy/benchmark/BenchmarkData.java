@@ -0,0 +1,114 @@
+package org.xerial.snappy.benchmark;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Input data and native memory shared by the benchmarks.
+ */
+final class BenchmarkData
+{
+    private static final byte[][] WORDS;
+
+    static {
+        String[] words = ("snappy compression is fast and reasonably good but not as dense as zlib " +
+                "the quick brown fox jumps over the lazy dog 0 1 2 3 4 5 6 7 8 9 { } < > = ; , .").split(" ");
+        WORDS = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            WORDS[i] = words[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * @return <i>size</i> bytes of text-like data, the same for each call with the same size
+     */
+    static byte[] compressible(int size)
+    {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            byte[] word = WORDS[random.nextInt(WORDS.length)];
+            int length = Math.min(word.length, size - pos);
+            System.arraycopy(word, 0, data, pos, length);
+            pos += length;
+            if (pos < size) {
+                data[pos++] = (byte) (random.nextInt(16) == 0 ? '\n' : ' ');
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return a direct buffer containing <i>data</i>, with position 0 and limit at its end
+     */
+    static ByteBuffer direct(byte[] data, int capacity)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Native memory allocated with {@code sun.misc.Unsafe}, for the raw address APIs.
+     * Reflection keeps this compilable with {@code --release 8}.
+     */
+    static final class NativeMemory
+    {
+        private static final Object unsafe;
+        private static final Method allocateMemory;
+        private static final Method freeMemory;
+        private static final Method copyMemory;
+        private static final long byteArrayOffset;
+
+        static {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                allocateMemory = unsafeClass.getMethod("allocateMemory", long.class);
+                freeMemory = unsafeClass.getMethod("freeMemory", long.class);
+                copyMemory = unsafeClass.getMethod("copyMemory", Object.class, long.class, Object.class, long.class, long.class);
+                byteArrayOffset = ((Number) unsafeClass.getMethod("arrayBaseOffset", Class.class).invoke(unsafe, byte[].class)).longValue();
+            }
+            catch (Exception e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private NativeMemory()
+        {
+        }
+
+        static long allocate(long size)
+                throws Exception
+        {
+            return (Long) allocateMemory.invoke(unsafe, size);
+        }
+
+        static long copyOf(byte[] data, int length)
+                throws Exception
+        {
+            long address = allocate(length);
+            copyMemory.invoke(unsafe, data, byteArrayOffset, null, address, (long) length);
+            return address;
+        }
+
+        static void free(long address)
+                throws Exception
+        {
+            if (address != 0) {
+                freeMemory.invoke(unsafe, address);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.BitShuffle;
+import org.xerial.snappy.BitShuffleType;
+
+/**
+ * Bit-shuffling of direct buffers for each {@link BitShuffleType}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitShuffleBenchmark
+{
+    @Param
+    public BitShuffleType type;
+
+    @Param({"64", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    private ByteBuffer input;
+    private ByteBuffer shuffled;
+    private ByteBuffer output;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws IOException
+    {
+        input = BenchmarkData.direct(BenchmarkData.compressible(size), size);
+        shuffled = ByteBuffer.allocateDirect(size);
+        BitShuffle.shuffle(input, type, shuffled);
+        output = ByteBuffer.allocateDirect(size);
+    }
+
+    @Benchmark
+    public int shuffle()
+            throws IOException
+    {
+        output.clear();
+        return BitShuffle.shuffle(input, type, output);
+    }
+
+    @Benchmark
+    public int unshuffle()
+            throws IOException
+    {
+        output.clear();
+        return BitShuffle.unshuffle(shuffled, type, output);
+    }
+}
@@ -0,0 +1,72 @@
+package org.xerial.snappy.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.CachingBufferPool;
+import org.xerial.snappy.pool.QuiescentBufferPool;
+import org.xerial.snappy.pool.SlabBufferPool;
+
+/**
+ * Allocating and releasing a buffer, as each stream does for its lifetime.
+ * The pool is shared, so running with {@code -t} measures contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufferPoolBenchmark
+{
+    @Param({"CachingBufferPool", "QuiescentBufferPool", "SlabBufferPool"})
+    public String pool;
+
+    @Param({"64", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    private BufferPool bufferPool;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        if ("CachingBufferPool".equals(pool)) {
+            bufferPool = CachingBufferPool.getInstance();
+        }
+        else if ("QuiescentBufferPool".equals(pool)) {
+            bufferPool = QuiescentBufferPool.getInstance();
+        }
+        else {
+            bufferPool = new SlabBufferPool(1024L * 1024 * 1024);
+        }
+    }
+
+    @Benchmark
+    public int allocateArray()
+    {
+        byte[] buffer = bufferPool.allocateArray(size);
+        bufferPool.releaseArray(buffer);
+        return buffer.length;
+    }
+
+    @Benchmark
+    public int allocateDirect()
+    {
+        ByteBuffer buffer = bufferPool.allocateDirect(size);
+        bufferPool.releaseDirect(buffer);
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,676 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.xerial.snappy.BitShuffle;
+import org.xerial.snappy.BitShuffleType;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Measures the compression ratio and throughput of raw {@link Snappy} blocks,
+ * {@link SnappyOutputStream} and {@link SnappyFramedOutputStream} on the
+ * Calgary corpus and on generated corpora, at several block sizes, with and
+ * without {@link BitShuffle}.
+ * <p>
+ * The result is written as CSV, one row per combination. The ratio is the
+ * uncompressed size divided by the compressed size, and throughputs are in MB/s
+ * of uncompressed data, including bit-shuffling. Given the CSV of an earlier
+ * run with {@code --baseline}, rows whose ratio or throughput dropped by more
+ * than the tolerances are printed to standard error, and the exit status is 1.
+ * </p>
+ * <pre>
+ * ./sbt "corpusReport --output report.csv"
+ * ./sbt "corpusReport --baseline report.csv"
+ * </pre>
+ * Run {@code --help} for all options.
+ */
+public final class CorpusReport
+{
+    private static final String HEADER = "corpus,codec,block_size,bitshuffle,input_bytes,compressed_bytes,ratio,compress_mb_s,uncompress_mb_s";
+
+    private static final String[] CALGARY_FILES = {"bib", "book1", "book2", "geo", "news", "obj1", "obj2", "paper1",
+            "paper2", "paper3", "paper4", "paper5", "paper6", "pic", "progc", "progl", "progp", "trans"};
+
+    private static final double MB = 1024 * 1024;
+
+    private String calgaryDir = "src/test/resources/org/xerial/snappy/testdata/calgary";
+    private int corpusSize = 4 * 1024 * 1024;
+    private int[] blockSizes = {4 * 1024, 32 * 1024, 64 * 1024};
+    private long measureNanos = 500_000_000L;
+    private String output;
+    private String baseline;
+    private double ratioTolerance = 0.01;
+    private double speedTolerance = 0.10;
+
+    private CorpusReport()
+    {
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        CorpusReport report = new CorpusReport();
+        if (!report.parseArguments(args)) {
+            usage();
+            System.exit(2);
+        }
+        System.exit(report.run() ? 0 : 1);
+    }
+
+    private static void usage()
+    {
+        System.err.println("usage: CorpusReport [options]");
+        System.err.println("  --calgary DIR             directory of the Calgary corpus (default: the test resources)");
+        System.err.println("  --size BYTES              size of each generated corpus (default: 4194304)");
+        System.err.println("  --block-sizes N,N,...     block sizes, at most 65536 (default: 4096,32768,65536)");
+        System.err.println("  --time MS                 minimum measurement time per row and direction (default: 500)");
+        System.err.println("  --output FILE             write the CSV to FILE instead of standard output");
+        System.err.println("  --baseline FILE           compare with the CSV of an earlier run");
+        System.err.println("  --ratio-tolerance F       allowed relative drop of the ratio (default: 0.01)");
+        System.err.println("  --speed-tolerance F       allowed relative drop of the throughput (default: 0.10)");
+    }
+
+    private boolean parseArguments(String[] args)
+    {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg) || i + 1 == args.length) {
+                    return false;
+                }
+                String value = args[++i];
+                if ("--calgary".equals(arg)) {
+                    calgaryDir = value;
+                }
+                else if ("--size".equals(arg)) {
+                    corpusSize = Integer.parseInt(value);
+                }
+                else if ("--block-sizes".equals(arg)) {
+                    String[] sizes = value.split(",");
+                    blockSizes = new int[sizes.length];
+                    for (int j = 0; j < sizes.length; j++) {
+                        blockSizes[j] = Integer.parseInt(sizes[j].trim());
+                        if (blockSizes[j] <= 0 || blockSizes[j] > SnappyFramedOutputStream.MAX_BLOCK_SIZE) {
+                            return false;
+                        }
+                    }
+                }
+                else if ("--time".equals(arg)) {
+                    measureNanos = Long.parseLong(value) * 1_000_000L;
+                }
+                else if ("--output".equals(arg)) {
+                    output = value;
+                }
+                else if ("--baseline".equals(arg)) {
+                    baseline = value;
+                }
+                else if ("--ratio-tolerance".equals(arg)) {
+                    ratioTolerance = Double.parseDouble(value);
+                }
+                else if ("--speed-tolerance".equals(arg)) {
+                    speedTolerance = Double.parseDouble(value);
+                }
+                else {
+                    return false;
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+        return corpusSize > 0;
+    }
+
+    /**
+     * @return false if a regression against the baseline was found
+     */
+    private boolean run()
+            throws IOException
+    {
+        Map<String, Row> baselineRows = baseline == null ? null : readRows(new File(baseline));
+        List<Row> rows = new ArrayList<Row>();
+        PrintStream out = output == null ? System.out : new PrintStream(new FileOutputStream(output), true, "UTF-8");
+        try {
+            out.println(HEADER);
+            for (Corpus corpus : corpora()) {
+                for (Codec codec : Codec.values()) {
+                    for (int blockSize : blockSizes) {
+                        for (boolean bitShuffle : new boolean[] {false, true}) {
+                            Row row = measure(corpus, codec, blockSize, bitShuffle);
+                            out.println(row);
+                            rows.add(row);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            if (out != System.out) {
+                out.close();
+            }
+        }
+        return baselineRows == null || compare(baselineRows, rows);
+    }
+
+    private List<Corpus> corpora()
+            throws IOException
+    {
+        List<Corpus> corpora = new ArrayList<Corpus>();
+        for (String name : CALGARY_FILES) {
+            File file = new File(calgaryDir, name);
+            if (file.isFile()) {
+                corpora.add(new Corpus("calgary/" + name, readFully(new FileInputStream(file)), BitShuffleType.BYTE));
+            }
+            else {
+                System.err.println("Skipping missing " + file);
+            }
+        }
+        corpora.add(new Corpus("json-logs", Corpora.jsonLogs(corpusSize), BitShuffleType.BYTE));
+        corpora.add(new Corpus("protobuf-like", Corpora.protobufLike(corpusSize), BitShuffleType.BYTE));
+        corpora.add(new Corpus("random", Corpora.random(corpusSize), BitShuffleType.BYTE));
+        corpora.add(new Corpus("zeros", new byte[corpusSize], BitShuffleType.BYTE));
+        corpora.add(new Corpus("float-array", Corpora.floats(corpusSize), BitShuffleType.FLOAT));
+        corpora.add(new Corpus("double-array", Corpora.doubles(corpusSize), BitShuffleType.DOUBLE));
+        return corpora;
+    }
+
+    private Row measure(Corpus corpus, final Codec codec, final int blockSize, boolean bitShuffle)
+            throws IOException
+    {
+        final Shuffler shuffler = bitShuffle ? new Shuffler(corpus.type, corpus.data.length) : null;
+        final byte[] data = corpus.data;
+        final byte[] compressed = codec.compress(shuffler == null ? data : shuffler.shuffle(data), blockSize);
+        byte[] restored = codec.uncompress(compressed, data.length);
+        if (!Arrays.equals(data, shuffler == null ? restored : shuffler.unshuffle(restored))) {
+            throw new IllegalStateException("Round trip failed for " + corpus.name + " with " + codec);
+        }
+
+        double compressSpeed = throughput(data.length, new Task()
+        {
+            @Override
+            public void run()
+                    throws IOException
+            {
+                codec.compress(shuffler == null ? data : shuffler.shuffle(data), blockSize);
+            }
+        });
+        double uncompressSpeed = throughput(data.length, new Task()
+        {
+            @Override
+            public void run()
+                    throws IOException
+            {
+                byte[] uncompressed = codec.uncompress(compressed, data.length);
+                if (shuffler != null) {
+                    shuffler.unshuffle(uncompressed);
+                }
+            }
+        });
+        return new Row(corpus.name, codec.name().toLowerCase(Locale.ROOT), blockSize, bitShuffle, data.length,
+                compressed.length, (double) data.length / compressed.length, compressSpeed, uncompressSpeed);
+    }
+
+    /**
+     * Runs <i>task</i> for the measurement time to warm up, and again to measure.
+     *
+     * @return MB/s of <i>bytes</i> per run
+     */
+    private double throughput(long bytes, Task task)
+            throws IOException
+    {
+        for (long start = System.nanoTime(); System.nanoTime() - start < measureNanos; ) {
+            task.run();
+        }
+        long runs = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            task.run();
+            runs++;
+            elapsed = System.nanoTime() - start;
+        }
+        while (elapsed < measureNanos);
+        return bytes * runs / MB / (elapsed / 1e9);
+    }
+
+    /**
+     * Prints the rows which regressed against <i>baselineRows</i> to standard error.
+     *
+     * @return false if any row regressed
+     */
+    private boolean compare(Map<String, Row> baselineRows, List<Row> rows)
+    {
+        int regressions = 0;
+        for (Row row : rows) {
+            Row base = baselineRows.get(row.key());
+            if (base == null) {
+                System.err.println("No baseline for " + row.key());
+                continue;
+            }
+            regressions += check(row, "ratio", base.ratio, row.ratio, ratioTolerance);
+            regressions += check(row, "compress_mb_s", base.compressSpeed, row.compressSpeed, speedTolerance);
+            regressions += check(row, "uncompress_mb_s", base.uncompressSpeed, row.uncompressSpeed, speedTolerance);
+        }
+        System.err.println(regressions == 0 ? "No regressions against " + baseline
+                : regressions + " regression(s) against " + baseline);
+        return regressions == 0;
+    }
+
+    private static int check(Row row, String column, double expected, double actual, double tolerance)
+    {
+        if (actual >= expected * (1 - tolerance)) {
+            return 0;
+        }
+        System.err.println(String.format(Locale.ROOT, "REGRESSION %s %s: %.2f -> %.2f (%+.1f%%)", row.key(), column,
+                expected, actual, (actual / expected - 1) * 100));
+        return 1;
+    }
+
+    private static Map<String, Row> readRows(File file)
+            throws IOException
+    {
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException(file + " is not a report: unexpected header " + line);
+            }
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    Row row = Row.parse(line);
+                    rows.put(row.key(), row);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    private static byte[] readFully(InputStream in)
+            throws IOException
+    {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private interface Task
+    {
+        void run()
+                throws IOException;
+    }
+
+    private enum Codec
+    {
+        /**
+         * Independent {@link Snappy} blocks, each preceded by its compressed length.
+         */
+        RAW {
+            @Override
+            byte[] compress(byte[] data, int blockSize)
+                    throws IOException
+            {
+                int blocks = (data.length + blockSize - 1) / blockSize;
+                ByteBuffer out = ByteBuffer.allocate(blocks * (4 + Snappy.maxCompressedLength(blockSize)));
+                for (int offset = 0; offset < data.length; offset += blockSize) {
+                    int length = Math.min(blockSize, data.length - offset);
+                    int position = out.position();
+                    int compressedLength = Snappy.compress(data, offset, length, out.array(), position + 4);
+                    out.putInt(compressedLength);
+                    out.position(position + 4 + compressedLength);
+                }
+                return Arrays.copyOf(out.array(), out.position());
+            }
+
+            @Override
+            byte[] uncompress(byte[] compressed, int length)
+                    throws IOException
+            {
+                byte[] data = new byte[length];
+                ByteBuffer in = ByteBuffer.wrap(compressed);
+                int offset = 0;
+                while (in.hasRemaining()) {
+                    int compressedLength = in.getInt();
+                    offset += Snappy.uncompress(compressed, in.position(), compressedLength, data, offset);
+                    in.position(in.position() + compressedLength);
+                }
+                return data;
+            }
+        },
+        STREAM {
+            @Override
+            OutputStream newOutputStream(OutputStream out, int blockSize)
+            {
+                return new SnappyOutputStream(out, blockSize);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyInputStream(in);
+            }
+        },
+        FRAMED {
+            @Override
+            OutputStream newOutputStream(OutputStream out, int blockSize)
+                    throws IOException
+            {
+                return new SnappyFramedOutputStream(out, blockSize, SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyFramedInputStream(in);
+            }
+        };
+
+        OutputStream newOutputStream(OutputStream out, int blockSize)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        InputStream newInputStream(InputStream in)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        byte[] compress(byte[] data, int blockSize)
+                throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+            OutputStream out = newOutputStream(bytes, blockSize);
+            try {
+                out.write(data);
+            }
+            finally {
+                out.close();
+            }
+            return bytes.toByteArray();
+        }
+
+        byte[] uncompress(byte[] compressed, int length)
+                throws IOException
+        {
+            byte[] data = new byte[length];
+            InputStream in = newInputStream(new ByteArrayInputStream(compressed));
+            try {
+                for (int offset = 0, n; offset < length && (n = in.read(data, offset, length - offset)) != -1; ) {
+                    offset += n;
+                }
+            }
+            finally {
+                in.close();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Bit-shuffles whole corpora through a pair of direct buffers. A trailing
+     * partial element is left as is.
+     */
+    private static final class Shuffler
+    {
+        private final BitShuffleType type;
+        private final ByteBuffer input;
+        private final ByteBuffer output;
+
+        Shuffler(BitShuffleType type, int size)
+        {
+            this.type = type;
+            this.input = ByteBuffer.allocateDirect(size);
+            this.output = ByteBuffer.allocateDirect(size);
+        }
+
+        byte[] shuffle(byte[] data)
+                throws IOException
+        {
+            return apply(data, true);
+        }
+
+        byte[] unshuffle(byte[] data)
+                throws IOException
+        {
+            return apply(data, false);
+        }
+
+        private byte[] apply(byte[] data, boolean shuffle)
+                throws IOException
+        {
+            int length = data.length - data.length % type.getTypeSize();
+            input.clear();
+            input.put(data, 0, length).flip();
+            output.clear();
+            if (shuffle) {
+                BitShuffle.shuffle(input, type, output);
+            }
+            else {
+                BitShuffle.unshuffle(input, type, output);
+            }
+            byte[] result = data.clone();
+            output.get(result, 0, length);
+            return result;
+        }
+    }
+
+    private static final class Corpus
+    {
+        final String name;
+        final byte[] data;
+        final BitShuffleType type;
+
+        Corpus(String name, byte[] data, BitShuffleType type)
+        {
+            this.name = name;
+            this.data = data;
+            this.type = type;
+        }
+    }
+
+    private static final class Row
+    {
+        final String corpus;
+        final String codec;
+        final int blockSize;
+        final boolean bitShuffle;
+        final long inputBytes;
+        final long compressedBytes;
+        final double ratio;
+        final double compressSpeed;
+        final double uncompressSpeed;
+
+        Row(String corpus, String codec, int blockSize, boolean bitShuffle, long inputBytes, long compressedBytes,
+                double ratio, double compressSpeed, double uncompressSpeed)
+        {
+            this.corpus = corpus;
+            this.codec = codec;
+            this.blockSize = blockSize;
+            this.bitShuffle = bitShuffle;
+            this.inputBytes = inputBytes;
+            this.compressedBytes = compressedBytes;
+            this.ratio = ratio;
+            this.compressSpeed = compressSpeed;
+            this.uncompressSpeed = uncompressSpeed;
+        }
+
+        static Row parse(String line)
+                throws IOException
+        {
+            String[] columns = line.split(",");
+            if (columns.length != 9) {
+                throw new IOException("Invalid report row: " + line);
+            }
+            try {
+                return new Row(columns[0], columns[1], Integer.parseInt(columns[2]), Boolean.parseBoolean(columns[3]),
+                        Long.parseLong(columns[4]), Long.parseLong(columns[5]), Double.parseDouble(columns[6]),
+                        Double.parseDouble(columns[7]), Double.parseDouble(columns[8]));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Invalid report row: " + line, e);
+            }
+        }
+
+        String key()
+        {
+            return corpus + "/" + codec + "/" + blockSize + (bitShuffle ? "/bitshuffle" : "");
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%s,%s,%d,%b,%d,%d,%.4f,%.1f,%.1f", corpus, codec, blockSize, bitShuffle,
+                    inputBytes, compressedBytes, ratio, compressSpeed, uncompressSpeed);
+        }
+    }
+
+    /**
+     * Generated corpora, the same for each run.
+     */
+    static final class Corpora
+    {
+        private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+        private static final String[] LOGGERS = {"org.example.http.RequestHandler", "org.example.db.ConnectionPool",
+                "org.example.cache.RegionCache", "org.example.auth.TokenValidator"};
+        private static final String[] MESSAGES = {"request completed", "cache miss", "connection acquired",
+                "token expired", "retrying after timeout", "slow query detected"};
+
+        private Corpora()
+        {
+        }
+
+        /**
+         * @return JSON log lines, as written by structured logging
+         */
+        static byte[] jsonLogs(int size)
+        {
+            Random random = new Random(1);
+            StringBuilder json = new StringBuilder(size + 256);
+            long timestamp = 1700000000000L;
+            while (json.length() < size) {
+                timestamp += random.nextInt(50);
+                json.append("{\"ts\":").append(timestamp)
+                        .append(",\"level\":\"").append(LEVELS[random.nextInt(LEVELS.length)])
+                        .append("\",\"logger\":\"").append(LOGGERS[random.nextInt(LOGGERS.length)])
+                        .append("\",\"thread\":\"worker-").append(random.nextInt(32))
+                        .append("\",\"msg\":\"").append(MESSAGES[random.nextInt(MESSAGES.length)])
+                        .append("\",\"request_id\":\"").append(Long.toHexString(random.nextLong()))
+                        .append("\",\"latency_ms\":").append(random.nextInt(2000))
+                        .append("}\n");
+            }
+            return Arrays.copyOf(json.toString().getBytes(StandardCharsets.UTF_8), size);
+        }
+
+        /**
+         * @return records of tagged varint, fixed64 and string fields, as in protocol buffers
+         */
+        static byte[] protobufLike(int size)
+        {
+            Random random = new Random(2);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size + 256);
+            long id = 1000000;
+            while (out.size() < size) {
+                // field 1: varint id
+                out.write(0x08);
+                writeVarint(out, id += 1 + random.nextInt(10));
+                // field 2: fixed64 timestamp
+                out.write(0x11);
+                long timestamp = 1700000000000L + id * 17;
+                for (int i = 0; i < 8; i++) {
+                    out.write((int) (timestamp >>> (8 * i)));
+                }
+                // field 3: string name
+                String name = LOGGERS[random.nextInt(LOGGERS.length)];
+                out.write(0x1a);
+                writeVarint(out, name.length());
+                out.write(name.getBytes(StandardCharsets.US_ASCII), 0, name.length());
+                // field 4: varint count
+                out.write(0x20);
+                writeVarint(out, random.nextInt(100000));
+            }
+            return Arrays.copyOf(out.toByteArray(), size);
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, long value)
+        {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        static byte[] random(int size)
+        {
+            byte[] data = new byte[size];
+            new Random(3).nextBytes(data);
+            return data;
+        }
+
+        /**
+         * @return big-endian floats of a noisy signal, as in sensor readings
+         */
+        static byte[] floats(int size)
+        {
+            Random random = new Random(4);
+            ByteBuffer buffer = ByteBuffer.allocate(size - size % 4);
+            for (int i = 0; buffer.hasRemaining(); i++) {
+                buffer.putFloat((float) (20 + 5 * Math.sin(i / 1000.0) + random.nextGaussian() * 0.01));
+            }
+            return Arrays.copyOf(buffer.array(), size);
+        }
+
+        /**
+         * @return big-endian doubles of a slowly increasing value, as in prices
+         */
+        static byte[] doubles(int size)
+        {
+            Random random = new Random(5);
+            ByteBuffer buffer = ByteBuffer.allocate(size - size % 8);
+            double value = 100;
+            while (buffer.hasRemaining()) {
+                value += Math.round(random.nextGaussian() * 100) / 10000.0;
+                buffer.putDouble(value);
+            }
+            return Arrays.copyOf(buffer.array(), size);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.xerial.snappy.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.PureJavaCrc32C;
+
+/**
+ * The CRC32C implementations used for the checksums of the framing format:
+ * {@code java.util.zip.CRC32C} when running on Java 9 or later, and
+ * {@link PureJavaCrc32C} otherwise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Crc32cBenchmark
+{
+    @Param({"org.xerial.snappy.PureJavaCrc32C", "java.util.zip.CRC32C"})
+    public String implementation;
+
+    // the block size of the framing format is at most 64KB
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private Checksum checksum;
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws Exception
+    {
+        checksum = (Checksum) Class.forName(implementation).newInstance();
+        data = BenchmarkData.compressible(size);
+    }
+
+    @Benchmark
+    public long checksum()
+    {
+        checksum.reset();
+        checksum.update(data, 0, size);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,147 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compression of primitive arrays, which are copied to and from the native
+ * library without conversion to bytes. The size is in bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrimitiveArrayBenchmark
+{
+    @Param({"64", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    private short[] shorts;
+    private int[] ints;
+    private long[] longs;
+    private float[] floats;
+    private double[] doubles;
+
+    private byte[] compressedShorts;
+    private byte[] compressedInts;
+    private byte[] compressedLongs;
+    private byte[] compressedFloats;
+    private byte[] compressedDoubles;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws IOException
+    {
+        // slowly increasing values with some noise, as in time series
+        Random random = new Random(size);
+        shorts = new short[size / 2];
+        for (int i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) (i / 16 + random.nextInt(4));
+        }
+        ints = new int[size / 4];
+        floats = new float[size / 4];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i / 16 + random.nextInt(4);
+            floats[i] = ints[i] / 4f;
+        }
+        longs = new long[size / 8];
+        doubles = new double[size / 8];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = i / 16 + random.nextInt(4);
+            doubles[i] = longs[i] / 4d;
+        }
+
+        compressedShorts = Snappy.compress(shorts);
+        compressedInts = Snappy.compress(ints);
+        compressedLongs = Snappy.compress(longs);
+        compressedFloats = Snappy.compress(floats);
+        compressedDoubles = Snappy.compress(doubles);
+    }
+
+    @Benchmark
+    public byte[] compressShorts()
+            throws IOException
+    {
+        return Snappy.compress(shorts);
+    }
+
+    @Benchmark
+    public short[] uncompressShorts()
+            throws IOException
+    {
+        return Snappy.uncompressShortArray(compressedShorts);
+    }
+
+    @Benchmark
+    public byte[] compressInts()
+            throws IOException
+    {
+        return Snappy.compress(ints);
+    }
+
+    @Benchmark
+    public int[] uncompressInts()
+            throws IOException
+    {
+        return Snappy.uncompressIntArray(compressedInts);
+    }
+
+    @Benchmark
+    public byte[] compressLongs()
+            throws IOException
+    {
+        return Snappy.compress(longs);
+    }
+
+    @Benchmark
+    public long[] uncompressLongs()
+            throws IOException
+    {
+        return Snappy.uncompressLongArray(compressedLongs);
+    }
+
+    @Benchmark
+    public byte[] compressFloats()
+            throws IOException
+    {
+        return Snappy.compress(floats);
+    }
+
+    @Benchmark
+    public float[] uncompressFloats()
+            throws IOException
+    {
+        return Snappy.uncompressFloatArray(compressedFloats);
+    }
+
+    @Benchmark
+    public byte[] compressDoubles()
+            throws IOException
+    {
+        return Snappy.compress(doubles);
+    }
+
+    @Benchmark
+    public double[] uncompressDoubles()
+            throws IOException
+    {
+        return Snappy.uncompressDoubleArray(compressedDoubles);
+    }
+}
@@ -0,0 +1,586 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Replays a distribution of payload sizes and compressibility on an increasing
+ * number of threads, to find where the library stops scaling.
+ * <p>
+ * Each operation compresses a payload and uncompresses the result, with the
+ * static {@link Snappy} API ({@code api}), or with a new
+ * {@link SnappyOutputStream}/{@link SnappyInputStream} ({@code stream}) or
+ * {@link SnappyFramedOutputStream}/{@link SnappyFramedInputStream}
+ * ({@code framed}) per payload, which exercises the shared buffer pools. Runs
+ * use platform threads, and virtual threads when running on Java 21 or later.
+ * </p>
+ * <p>
+ * For each mode, thread type and thread count, a CSV row reports the
+ * throughput, the p50/p99/p99.9 latency of an operation and the allocation rate,
+ * or {@code -1} where the JVM does not report allocations.
+ * </p>
+ * <p>
+ * The workload is read from a file given with {@code --workload}, with one
+ * {@code size,compressibility,weight} line per payload class. The
+ * compressibility is the fraction of the size saved by compression, so it can
+ * be recorded from production with a
+ * {@link org.xerial.snappy.SnappyStreamListener} as
+ * {@code 1 - storedSize / uncompressedSize} per block. The weights are
+ * relative frequencies. Lines starting with {@code #} are ignored.
+ * </p>
+ * <pre>
+ * ./sbt "scalabilityReport --workload sizes.csv --threads 1,8,64"
+ * </pre>
+ * Run {@code --help} for all options.
+ */
+public final class ScalabilityReport
+{
+    private static final String HEADER = "mode,thread_type,threads,ops,ops_s,mb_s,p50_us,p99_us,p999_us,alloc_mb_s,alloc_bytes_op";
+
+    /**
+     * Used without {@code --workload}: mostly small messages, some large blocks.
+     */
+    private static final String DEFAULT_WORKLOAD = "256,0.4,30\n1024,0.5,30\n4096,0.6,20\n65536,0.6,15\n1048576,0.5,5\n";
+
+    /**
+     * The number of payloads generated per workload line and weight unit.
+     */
+    private static final int PAYLOADS_PER_WEIGHT = 2;
+
+    private static final double MB = 1024 * 1024;
+
+    private String workload;
+    private int[] threadCounts = {1, 2, 4, 8, 16, 32, 64};
+    private List<Mode> modes = new ArrayList<Mode>();
+    private long warmupNanos = 2_000_000_000L;
+    private long measureNanos = 5_000_000_000L;
+    private String output;
+
+    private ScalabilityReport()
+    {
+        for (Mode mode : Mode.values()) {
+            modes.add(mode);
+        }
+    }
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        ScalabilityReport report = new ScalabilityReport();
+        if (!report.parseArguments(args)) {
+            usage();
+            System.exit(2);
+        }
+        report.run();
+    }
+
+    private static void usage()
+    {
+        System.err.println("usage: ScalabilityReport [options]");
+        System.err.println("  --workload FILE           size,compressibility,weight lines (default: a mix of 256 B to 1 MB payloads)");
+        System.err.println("  --threads N,N,...         thread counts (default: 1,2,4,8,16,32,64)");
+        System.err.println("  --modes M,M,...           api, stream and/or framed (default: all)");
+        System.err.println("  --warmup MS               warm-up time per row (default: 2000)");
+        System.err.println("  --time MS                 measurement time per row (default: 5000)");
+        System.err.println("  --output FILE             write the CSV to FILE instead of standard output");
+    }
+
+    private boolean parseArguments(String[] args)
+    {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg) || i + 1 == args.length) {
+                    return false;
+                }
+                String value = args[++i];
+                if ("--workload".equals(arg)) {
+                    workload = value;
+                }
+                else if ("--threads".equals(arg)) {
+                    String[] counts = value.split(",");
+                    threadCounts = new int[counts.length];
+                    for (int j = 0; j < counts.length; j++) {
+                        threadCounts[j] = Integer.parseInt(counts[j].trim());
+                        if (threadCounts[j] <= 0) {
+                            return false;
+                        }
+                    }
+                }
+                else if ("--modes".equals(arg)) {
+                    modes.clear();
+                    for (String mode : value.split(",")) {
+                        modes.add(Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)));
+                    }
+                }
+                else if ("--warmup".equals(arg)) {
+                    warmupNanos = Long.parseLong(value) * 1_000_000L;
+                }
+                else if ("--time".equals(arg)) {
+                    measureNanos = Long.parseLong(value) * 1_000_000L;
+                }
+                else if ("--output".equals(arg)) {
+                    output = value;
+                }
+                else {
+                    return false;
+                }
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+        return measureNanos > 0;
+    }
+
+    private void run()
+            throws Exception
+    {
+        byte[][] payloads = generatePayloads(readWorkload());
+        Map<String, ThreadFactory> threadTypes = threadTypes();
+        PrintStream out = output == null ? System.out : new PrintStream(new FileOutputStream(output), true, "UTF-8");
+        try {
+            out.println(HEADER);
+            for (Mode mode : modes) {
+                for (Map.Entry<String, ThreadFactory> threadType : threadTypes.entrySet()) {
+                    for (int threads : threadCounts) {
+                        out.println(measure(mode, threadType.getKey(), threadType.getValue(), threads, payloads));
+                    }
+                }
+            }
+        }
+        finally {
+            if (out != System.out) {
+                out.close();
+            }
+        }
+    }
+
+    private static Map<String, ThreadFactory> threadTypes()
+    {
+        Map<String, ThreadFactory> types = new LinkedHashMap<String, ThreadFactory>();
+        types.put("platform", Executors.defaultThreadFactory());
+        ThreadFactory virtual = virtualThreadFactory();
+        if (virtual != null) {
+            types.put("virtual", virtual);
+        }
+        else {
+            System.err.println("Virtual threads are not available, skipping them");
+        }
+        return types;
+    }
+
+    /**
+     * @return {@code Thread.ofVirtual().factory()}, or null before Java 21
+     */
+    static ThreadFactory virtualThreadFactory()
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    private List<double[]> readWorkload()
+            throws IOException
+    {
+        InputStream in = workload == null
+                ? new ByteArrayInputStream(DEFAULT_WORKLOAD.getBytes(StandardCharsets.US_ASCII))
+                : new FileInputStream(workload);
+        List<double[]> classes = new ArrayList<double[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            for (String line; (line = reader.readLine()) != null; ) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split(",");
+                try {
+                    double[] payloadClass = {Integer.parseInt(columns[0].trim()), Double.parseDouble(columns[1].trim()),
+                            columns.length > 2 ? Double.parseDouble(columns[2].trim()) : 1};
+                    if (payloadClass[0] <= 0 || payloadClass[1] < 0 || payloadClass[1] > 1 || payloadClass[2] < 0) {
+                        throw new IOException("Invalid workload line: " + line);
+                    }
+                    classes.add(payloadClass);
+                }
+                catch (RuntimeException e) {
+                    throw new IOException("Invalid workload line: " + line, e);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        if (classes.isEmpty()) {
+            throw new IOException("The workload is empty");
+        }
+        return classes;
+    }
+
+    /**
+     * @return payloads in proportion to the weights, in random order
+     */
+    private static byte[][] generatePayloads(List<double[]> classes)
+    {
+        double totalWeight = 0;
+        for (double[] payloadClass : classes) {
+            totalWeight += payloadClass[2];
+        }
+        Random random = new Random(0);
+        List<byte[]> payloads = new ArrayList<byte[]>();
+        for (double[] payloadClass : classes) {
+            long count = Math.max(1, Math.round(payloadClass[2] / totalWeight * 100 * PAYLOADS_PER_WEIGHT));
+            for (long i = 0; i < count; i++) {
+                payloads.add(payload(random, (int) payloadClass[0], payloadClass[1]));
+            }
+        }
+        Collections.shuffle(payloads, random);
+        return payloads.toArray(new byte[payloads.size()][]);
+    }
+
+    /**
+     * Fills a payload with random bytes and runs repeating earlier ones, so that
+     * roughly the <i>compressibility</i> fraction of it is saved by compression.
+     */
+    static byte[] payload(Random random, int size, double compressibility)
+    {
+        byte[] data = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            int length = Math.min(32 + random.nextInt(32), size - pos);
+            if (pos >= 64 && random.nextDouble() < compressibility) {
+                System.arraycopy(data, random.nextInt(pos - length < 1 ? 1 : pos - length), data, pos, length);
+            }
+            else {
+                for (int i = pos; i < pos + length; i++) {
+                    data[i] = (byte) random.nextInt(256);
+                }
+            }
+            pos += length;
+        }
+        return data;
+    }
+
+    private String measure(final Mode mode, String threadType, ThreadFactory factory, int threads, final byte[][] payloads)
+            throws Exception
+    {
+        final Phase phase = new Phase();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            final Worker worker = new Worker(mode, payloads, i);
+            workers[i] = worker;
+            Thread thread = factory.newThread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        worker.run(phase);
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        phase.state = Phase.STOP;
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Thread.sleep(warmupNanos / 1_000_000L);
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        phase.state = Phase.MEASURE;
+        Thread.sleep(measureNanos / 1_000_000L);
+        phase.state = Phase.STOP;
+        long elapsed = System.nanoTime() - start;
+        Map<Long, Long> allocatedAfter = allocatedBytes();
+        done.await();
+        if (failure.get() != null) {
+            throw new IllegalStateException(mode + " failed on " + threads + " " + threadType + " threads", failure.get());
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        long ops = 0;
+        long bytes = 0;
+        for (Worker worker : workers) {
+            latencies.add(worker.latencies);
+            ops += worker.ops;
+            bytes += worker.bytes;
+        }
+        long allocated = -1;
+        if (allocatedBefore != null && allocatedAfter != null) {
+            allocated = 0;
+            for (Map.Entry<Long, Long> entry : allocatedAfter.entrySet()) {
+                Long before = allocatedBefore.get(entry.getKey());
+                allocated += entry.getValue() - (before == null ? 0 : before);
+            }
+        }
+        double seconds = elapsed / 1e9;
+        return String.format(Locale.ROOT, "%s,%s,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d",
+                mode.name().toLowerCase(Locale.ROOT), threadType, threads, ops, ops / seconds, bytes / MB / seconds,
+                latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3,
+                allocated < 0 ? -1 : allocated / MB / seconds, allocated < 0 || ops == 0 ? -1 : allocated / ops);
+    }
+
+    /**
+     * @return the bytes allocated so far by each live platform thread, which
+     * includes the carriers of virtual threads, or null if not supported
+     */
+    private static Map<Long, Long> allocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            // com.sun.management.ThreadMXBean of HotSpot and OpenJ9
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long[].class);
+            long[] ids = bean.getAllThreadIds();
+            long[] allocated = (long[]) method.invoke(bean, (Object) ids);
+            Map<Long, Long> result = new HashMap<Long, Long>();
+            for (int i = 0; i < ids.length; i++) {
+                if (allocated[i] >= 0) {
+                    result.put(ids[i], allocated[i]);
+                }
+            }
+            return result;
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static final class Phase
+    {
+        static final int WARMUP = 0;
+        static final int MEASURE = 1;
+        static final int STOP = 2;
+
+        volatile int state = WARMUP;
+    }
+
+    private enum Mode
+    {
+        API {
+            @Override
+            void roundTrip(byte[] payload, Worker worker)
+                    throws IOException
+            {
+                Snappy.uncompress(Snappy.compress(payload));
+            }
+        },
+        STREAM {
+            @Override
+            OutputStream newOutputStream(OutputStream out)
+            {
+                return new SnappyOutputStream(out);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyInputStream(in);
+            }
+        },
+        FRAMED {
+            @Override
+            OutputStream newOutputStream(OutputStream out)
+                    throws IOException
+            {
+                return new SnappyFramedOutputStream(out);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyFramedInputStream(in);
+            }
+        };
+
+        OutputStream newOutputStream(OutputStream out)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        InputStream newInputStream(InputStream in)
+                throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Writes <i>payload</i> to a new stream and reads it back from another.
+         */
+        void roundTrip(byte[] payload, Worker worker)
+                throws IOException
+        {
+            worker.sink.reset();
+            OutputStream out = newOutputStream(worker.sink);
+            try {
+                out.write(payload);
+            }
+            finally {
+                out.close();
+            }
+            InputStream in = newInputStream(new ByteArrayInputStream(worker.sink.buffer(), 0, worker.sink.size()));
+            try {
+                while (in.read(worker.readBuffer) != -1) {
+                    // discard
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    private static final class Worker
+    {
+        final Mode mode;
+        final byte[][] payloads;
+        final Random random;
+        final ExposedByteArrayOutputStream sink = new ExposedByteArrayOutputStream();
+        final byte[] readBuffer = new byte[8192];
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long ops;
+        long bytes;
+
+        Worker(Mode mode, byte[][] payloads, int seed)
+        {
+            this.mode = mode;
+            this.payloads = payloads;
+            this.random = new Random(seed);
+        }
+
+        void run(Phase phase)
+                throws IOException
+        {
+            int next = random.nextInt(payloads.length);
+            for (int state; (state = phase.state) != Phase.STOP; ) {
+                byte[] payload = payloads[next];
+                next = next + 1 == payloads.length ? 0 : next + 1;
+                long start = System.nanoTime();
+                mode.roundTrip(payload, this);
+                if (state == Phase.MEASURE) {
+                    latencies.record(System.nanoTime() - start);
+                    ops++;
+                    bytes += payload.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives access to the written bytes without copying them.
+     */
+    private static final class ExposedByteArrayOutputStream
+            extends ByteArrayOutputStream
+    {
+        byte[] buffer()
+        {
+            return buf;
+        }
+    }
+
+    /**
+     * Counts latencies in buckets of about 3% relative width, without allocating.
+     */
+    static final class LatencyHistogram
+    {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long total;
+
+        void record(long nanos)
+        {
+            counts[index(Math.max(nanos, 0))]++;
+            total++;
+        }
+
+        void add(LatencyHistogram other)
+        {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+
+        /**
+         * @return the lower bound in nanoseconds of the bucket containing the <i>quantile</i>
+         */
+        long percentile(double quantile)
+        {
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+
+        static int index(long value)
+        {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+        }
+
+        static long lowerBound(int index)
+        {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long mantissa = index % SUB_BUCKETS;
+            return (1L << exponent) | (mantissa << (exponent - SUB_BUCKET_BITS));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.benchmark.BenchmarkData.NativeMemory;
+
+/**
+ * Block compression of byte arrays, direct buffers and raw addresses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnappyBenchmark
+{
+    @Param({"64", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] input;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] compressOutput;
+    private byte[] uncompressOutput;
+
+    private ByteBuffer directInput;
+    private ByteBuffer directCompressed;
+    private ByteBuffer directCompressOutput;
+    private ByteBuffer directUncompressOutput;
+
+    private long inputAddress;
+    private long compressedAddress;
+    private long compressOutputAddress;
+    private long uncompressOutputAddress;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws Exception
+    {
+        int maxCompressedLength = Snappy.maxCompressedLength(size);
+        input = BenchmarkData.compressible(size);
+        compressOutput = new byte[maxCompressedLength];
+        compressedLength = Snappy.compress(input, 0, size, compressOutput, 0);
+        compressed = new byte[compressedLength];
+        System.arraycopy(compressOutput, 0, compressed, 0, compressedLength);
+        uncompressOutput = new byte[size];
+
+        directInput = BenchmarkData.direct(input, size);
+        directCompressed = BenchmarkData.direct(compressed, compressedLength);
+        directCompressOutput = ByteBuffer.allocateDirect(maxCompressedLength);
+        directUncompressOutput = ByteBuffer.allocateDirect(size);
+
+        inputAddress = NativeMemory.copyOf(input, size);
+        compressedAddress = NativeMemory.copyOf(compressed, compressedLength);
+        compressOutputAddress = NativeMemory.allocate(maxCompressedLength);
+        uncompressOutputAddress = NativeMemory.allocate(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+            throws Exception
+    {
+        NativeMemory.free(inputAddress);
+        NativeMemory.free(compressedAddress);
+        NativeMemory.free(compressOutputAddress);
+        NativeMemory.free(uncompressOutputAddress);
+    }
+
+    @Benchmark
+    public int compressByteArray()
+            throws IOException
+    {
+        return Snappy.compress(input, 0, size, compressOutput, 0);
+    }
+
+    @Benchmark
+    public int uncompressByteArray()
+            throws IOException
+    {
+        return Snappy.uncompress(compressed, 0, compressedLength, uncompressOutput, 0);
+    }
+
+    @Benchmark
+    public byte[] compressNewByteArray()
+            throws IOException
+    {
+        return Snappy.compress(input);
+    }
+
+    @Benchmark
+    public byte[] uncompressNewByteArray()
+            throws IOException
+    {
+        return Snappy.uncompress(compressed);
+    }
+
+    @Benchmark
+    public int compressDirectBuffer()
+            throws IOException
+    {
+        directCompressOutput.clear();
+        return Snappy.compress(directInput, directCompressOutput);
+    }
+
+    @Benchmark
+    public int uncompressDirectBuffer()
+            throws IOException
+    {
+        directUncompressOutput.clear();
+        return Snappy.uncompress(directCompressed, directUncompressOutput);
+    }
+
+    @Benchmark
+    public long compressRawAddress()
+            throws IOException
+    {
+        return Snappy.rawCompress(inputAddress, size, compressOutputAddress);
+    }
+
+    @Benchmark
+    public long uncompressRawAddress()
+            throws IOException
+    {
+        return Snappy.rawUncompress(compressedAddress, compressedLength, uncompressOutputAddress);
+    }
+}
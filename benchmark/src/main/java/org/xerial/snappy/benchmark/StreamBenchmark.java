@@ -0,0 +1,137 @@
+package org.xerial.snappy.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+import org.xerial.snappy.SnappyInputStream;
+import org.xerial.snappy.SnappyOutputStream;
+
+/**
+ * Writing and reading whole streams, including the creation of the stream and
+ * so the use of the buffer pools.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark
+{
+    public enum Format
+    {
+        /**
+         * {@link SnappyOutputStream} and {@link SnappyInputStream}
+         */
+        SNAPPY {
+            @Override
+            OutputStream newOutputStream(OutputStream out)
+            {
+                return new SnappyOutputStream(out);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyInputStream(in);
+            }
+        },
+        /**
+         * {@link SnappyFramedOutputStream} and {@link SnappyFramedInputStream}
+         */
+        FRAMED {
+            @Override
+            OutputStream newOutputStream(OutputStream out)
+                    throws IOException
+            {
+                return new SnappyFramedOutputStream(out);
+            }
+
+            @Override
+            InputStream newInputStream(InputStream in)
+                    throws IOException
+            {
+                return new SnappyFramedInputStream(in);
+            }
+        };
+
+        abstract OutputStream newOutputStream(OutputStream out)
+                throws IOException;
+
+        abstract InputStream newInputStream(InputStream in)
+                throws IOException;
+    }
+
+    @Param
+    public Format format;
+
+    @Param({"64", "4096", "65536", "1048576", "67108864"})
+    public int size;
+
+    private byte[] input;
+    private byte[] compressed;
+    private byte[] readBuffer;
+    private ByteArrayOutputStream sink;
+
+    @Setup(Level.Trial)
+    public void setUp()
+            throws IOException
+    {
+        input = BenchmarkData.compressible(size);
+        sink = new ByteArrayOutputStream(size);
+        write();
+        compressed = sink.toByteArray();
+        readBuffer = new byte[8192];
+    }
+
+    @Benchmark
+    public int write()
+            throws IOException
+    {
+        sink.reset();
+        OutputStream out = format.newOutputStream(sink);
+        try {
+            out.write(input);
+        }
+        finally {
+            out.close();
+        }
+        return sink.size();
+    }
+
+    @Benchmark
+    public long read()
+            throws IOException
+    {
+        InputStream in = format.newInputStream(new ByteArrayInputStream(compressed));
+        try {
+            long total = 0;
+            for (int n; (n = in.read(readBuffer)) != -1; ) {
+                total += n;
+            }
+            return total;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
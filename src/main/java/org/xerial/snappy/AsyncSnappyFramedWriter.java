@@ -0,0 +1,384 @@
+package org.xerial.snappy;
+
+import static org.xerial.snappy.SnappyFramed.FRAME_HEADER_SIZE;
+import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO;
+import static org.xerial.snappy.SnappyFramedOutputStream.MAX_BLOCK_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Writes the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format to an {@link AsynchronousFileChannel} without
+ * blocking the calling thread.
+ * <p>
+ * Blocks are compressed on an {@link Executor}, several at a time, and the
+ * resulting frames are written in order with positional writes starting at
+ * the position given to the constructor. At most <i>maxInFlight</i> blocks are
+ * compressed or written at any time: the future returned by
+ * {@link #write(ByteBuffer)} does not complete until all of its data has been
+ * taken into blocks within this limit, which bounds the memory used however
+ * fast the caller produces data.
+ * </p>
+ * <p>
+ * As with {@link AsynchronousFileChannel}, only one {@link #write(ByteBuffer)}
+ * may be outstanding at a time, and the source buffer must not be modified
+ * until its future completes. {@link #flush()} and {@link #close()} complete
+ * once every frame has been written. The channel is not closed by this
+ * writer.
+ * </p>
+ *
+ * @see SnappyAsync
+ */
+public final class AsyncSnappyFramedWriter
+{
+    /**
+     * The default number of blocks being compressed or written at a time.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final AsynchronousFileChannel dst;
+    private final Executor executor;
+    private final BufferPool bufferPool;
+    private final int blockSize;
+    private final double minCompressionRatio;
+    private final int maxInFlight;
+
+    /**
+     * The position of the next frame in {@link #dst}. Only accessed by the
+     * stages of {@link #lastWrite}, which run one after another.
+     */
+    private long position;
+
+    // The following fields are guarded by this
+
+    /**
+     * The raw data of the block being collected.
+     */
+    private byte[] block;
+    private int buffered;
+
+    /**
+     * Completes when the last frame handed to the channel has been written.
+     */
+    private CompletableFuture<Void> lastWrite;
+
+    /**
+     * The number of blocks being compressed or written.
+     */
+    private int inFlight;
+
+    /**
+     * The source of the outstanding {@link #write(ByteBuffer)}, and its
+     * result.
+     */
+    private ByteBuffer pendingSource;
+    private CompletableFuture<Void> pendingResult;
+
+    private Throwable failure;
+    private CompletableFuture<Void> closeResult;
+
+    /**
+     * Creates a new {@link AsyncSnappyFramedWriter} writing from the start of
+     * <i>dst</i>, using the {@link ForkJoinPool#commonPool()} for compression
+     * and {@link #DEFAULT_MAX_IN_FLIGHT}.
+     *
+     * @param dst The channel to write to. Must not be {@code null}.
+     */
+    public AsyncSnappyFramedWriter(AsynchronousFileChannel dst)
+    {
+        this(dst, 0, ForkJoinPool.commonPool(), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates a new {@link AsyncSnappyFramedWriter} using the
+     * {@link SnappyFramedOutputStream#DEFAULT_BLOCK_SIZE} and
+     * {@link SnappyFramedOutputStream#DEFAULT_MIN_COMPRESSION_RATIO}.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     *
+     * @param dst The channel to write to. Must not be {@code null}.
+     * @param position The position in <i>dst</i> to write the stream header at.
+     * @param executor Runs the compression of blocks. Must not be {@code null}.
+     * @param maxInFlight The maximum number of blocks being compressed or
+     * written at a time. Must be positive.
+     */
+    public AsyncSnappyFramedWriter(AsynchronousFileChannel dst, long position,
+            Executor executor, int maxInFlight)
+    {
+        this(dst, position, executor, maxInFlight, DEFAULT_BLOCK_SIZE,
+                DEFAULT_MIN_COMPRESSION_RATIO, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link AsyncSnappyFramedWriter} instance.
+     *
+     * @param dst The channel to write to. Must not be {@code null}.
+     * @param position The position in <i>dst</i> to write the stream header at.
+     * @param executor Runs the compression of blocks. Must not be {@code null}.
+     * @param maxInFlight The maximum number of blocks being compressed or
+     * written at a time. Must be positive.
+     * @param blockSize The block size (of raw data) to compress into each frame.
+     * Must be in (0, 65536].
+     * @param minCompressionRatio Defines the minimum compression ratio (
+     * {@code compressedLength / rawLength}) that must be achieved to
+     * write the compressed data. This must be in (0, 1.0].
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public AsyncSnappyFramedWriter(AsynchronousFileChannel dst, long position,
+            Executor executor, int maxInFlight, int blockSize,
+            double minCompressionRatio, BufferPool bufferPool)
+    {
+        if (dst == null) {
+            throw new NullPointerException("dst is null");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+        if (position < 0) {
+            throw new IllegalArgumentException("position " + position + " must be >= 0");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight " + maxInFlight + " must be > 0");
+        }
+        if (minCompressionRatio <= 0 || minCompressionRatio > 1.0) {
+            throw new IllegalArgumentException("minCompressionRatio "
+                    + minCompressionRatio + " must be in (0,1.0]");
+        }
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("block size " + blockSize
+                    + " must be in (0, 65536]");
+        }
+        this.dst = dst;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.blockSize = blockSize;
+        this.minCompressionRatio = minCompressionRatio;
+        this.maxInFlight = maxInFlight;
+
+        block = bufferPool.allocateArray(blockSize);
+        this.position = position + HEADER_BYTES.length;
+        lastWrite = SnappyAsync.write(dst, ByteBuffer.wrap(HEADER_BYTES), position);
+    }
+
+    /**
+     * Compresses the content of <i>src</i>. Complete blocks are compressed
+     * and written in the background; the remainder is kept until more data
+     * arrives or {@link #flush()} is called.
+     *
+     * @param src The data to compress. Must not be modified until the returned
+     * future completes.
+     * @return A future completing once all of <i>src</i> has been consumed,
+     * or exceptionally if writing an earlier frame failed.
+     * @throws WritePendingException if the future of the previous write has
+     * not completed yet.
+     */
+    public CompletableFuture<Void> write(ByteBuffer src)
+    {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        synchronized (this) {
+            checkNotPending();
+            if (closeResult != null) {
+                result.completeExceptionally(new ClosedChannelException());
+                return result;
+            }
+            pendingSource = src;
+            pendingResult = result;
+        }
+        consumeSource();
+        return result;
+    }
+
+    /**
+     * Compresses any partially filled block and waits for all frames to be
+     * written.
+     *
+     * @return A future completing once every frame has been written to the
+     * channel.
+     * @throws WritePendingException if the future of the previous write has
+     * not completed yet.
+     */
+    public CompletableFuture<Void> flush()
+    {
+        synchronized (this) {
+            checkNotPending();
+            if (closeResult != null) {
+                final CompletableFuture<Void> result = new CompletableFuture<>();
+                result.completeExceptionally(new ClosedChannelException());
+                return result;
+            }
+            return flushBlock();
+        }
+    }
+
+    /**
+     * Flushes this writer and returns its buffers to the {@link BufferPool}.
+     * Further writes fail with {@link ClosedChannelException}. Calling this
+     * again returns the same future.
+     *
+     * @return A future completing once every frame has been written to the
+     * channel.
+     * @throws WritePendingException if the future of the previous write has
+     * not completed yet.
+     */
+    public CompletableFuture<Void> close()
+    {
+        synchronized (this) {
+            if (closeResult == null) {
+                checkNotPending();
+                closeResult = flushBlock().whenComplete((v, e) -> release());
+            }
+            return closeResult;
+        }
+    }
+
+    private void checkNotPending()
+    {
+        if (pendingSource != null) {
+            throw new WritePendingException();
+        }
+    }
+
+    private synchronized void release()
+    {
+        if (block != null) {
+            bufferPool.releaseArray(block);
+            block = null;
+        }
+    }
+
+    /**
+     * Seals any buffered data as a block, even if {@link #maxInFlight} blocks
+     * are already in flight.
+     *
+     * @return A future completing once every frame has been written.
+     */
+    private CompletableFuture<Void> flushBlock()
+    {
+        assert Thread.holdsLock(this);
+        if (buffered > 0) {
+            sealBlock();
+        }
+        // do not let callers complete the internal future
+        return lastWrite.thenApply(v -> null);
+    }
+
+    /**
+     * Copies the pending source into blocks while fewer than
+     * {@link #maxInFlight} blocks are in flight, and completes the pending
+     * write once all of it has been consumed. Called again whenever a block
+     * completes.
+     */
+    private void consumeSource()
+    {
+        final CompletableFuture<Void> result;
+        final Throwable error;
+        synchronized (this) {
+            if (pendingSource == null) {
+                return;
+            }
+            error = failure;
+            if (error == null) {
+                while (true) {
+                    if (buffered == blockSize) {
+                        if (inFlight >= maxInFlight) {
+                            // resumed when a block completes
+                            return;
+                        }
+                        sealBlock();
+                    }
+                    if (!pendingSource.hasRemaining()) {
+                        break;
+                    }
+                    final int toCopy = Math.min(pendingSource.remaining(), blockSize - buffered);
+                    pendingSource.get(block, buffered, toCopy);
+                    buffered += toCopy;
+                }
+            }
+            result = pendingResult;
+            pendingSource = null;
+            pendingResult = null;
+        }
+
+        if (error != null) {
+            result.completeExceptionally(error);
+        }
+        else {
+            result.complete(null);
+        }
+    }
+
+    /**
+     * Compresses the buffered block on the {@link #executor} and appends the
+     * write of its frame to {@link #lastWrite}.
+     */
+    private void sealBlock()
+    {
+        assert Thread.holdsLock(this);
+        final byte[] data = block;
+        final int length = buffered;
+        block = bufferPool.allocateArray(blockSize);
+        buffered = 0;
+        inFlight++;
+
+        final CompletableFuture<ByteBuffer> frame = CompletableFuture.supplyAsync(() -> encode(data, length), executor);
+        lastWrite = lastWrite.thenCombine(frame, (v, f) -> f).thenCompose(this::writeFrame);
+        // never run inline, as this thread holds the lock while consuming the source
+        lastWrite.whenCompleteAsync((v, e) -> blockCompleted(e), executor);
+    }
+
+    private ByteBuffer encode(byte[] data, int length)
+    {
+        final ByteBuffer directInputBuffer = bufferPool.allocateDirect(blockSize);
+        final ByteBuffer frame = bufferPool.allocateDirect(FRAME_HEADER_SIZE + Snappy.maxCompressedLength(blockSize));
+        try {
+            SnappyFramed.encodeFrame(SnappyFramed.getCRC32C(), data, 0, length,
+                    directInputBuffer, frame, minCompressionRatio);
+            return frame;
+        }
+        catch (IOException e) {
+            bufferPool.releaseDirect(frame);
+            throw new CompletionException(e);
+        }
+        finally {
+            bufferPool.releaseDirect(directInputBuffer);
+            bufferPool.releaseArray(data);
+        }
+    }
+
+    private CompletableFuture<Void> writeFrame(ByteBuffer frame)
+    {
+        final long framePosition = position;
+        position += frame.remaining();
+        return SnappyAsync.write(dst, frame, framePosition)
+                .whenComplete((v, e) -> bufferPool.releaseDirect(frame));
+    }
+
+    private void blockCompleted(Throwable error)
+    {
+        synchronized (this) {
+            inFlight--;
+            if (error != null && failure == null) {
+                failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            }
+        }
+        consumeSource();
+    }
+}
@@ -0,0 +1,599 @@
+package org.xerial.snappy;
+
+import static org.xerial.snappy.SnappyFramed.FRAME_HEADER_SIZE;
+import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO;
+import static org.xerial.snappy.SnappyFramedOutputStream.MAX_BLOCK_SIZE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Checksum;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Writes the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format for many threads appending concurrently, such
+ * as request threads writing records to a shared journal.
+ * <p>
+ * Producers reserve space in the current block with a compare-and-set and
+ * copy their data into it without taking a lock. A record which does not fit
+ * in the rest of the current block starts a new one, so records no larger
+ * than the block size are never interleaved with other producers' data. The
+ * producer whose record fills a block (or the
+ * {@link #flush()} sealing a partial one) compresses it, on its own thread
+ * or on the optional {@link Executor}, outside of any lock. Frames are then
+ * written in order under a lock covering only the write itself.
+ * </p>
+ * <p>
+ * Blocks are staged in a ring of <i>ringSize</i> buffers; when all of them
+ * are waiting to be written, producers wait for a block to be written.
+ * {@link #append(byte[], int, int)} returns the position of the end of the
+ * record in the uncompressed stream, and {@link #whenWritten(long)} completes
+ * once everything up to a position has been written (and forced to the
+ * device, when enabled for a {@link FileChannel}). Data only reaches the
+ * channel once its block is full or {@link #flush()} is called.
+ * </p>
+ */
+public final class ConcurrentSnappyFramedWriter
+        implements Closeable
+{
+    /**
+     * The default number of blocks being filled, compressed or written at a
+     * time.
+     */
+    public static final int DEFAULT_RING_SIZE = 4;
+
+    private final WritableByteChannel out;
+    private final BufferPool bufferPool;
+    private final int blockSize;
+    private final double minCompressionRatio;
+    private final Executor executor;
+    private final boolean force;
+
+    private final Block[] ring;
+    private final AtomicReference<Block> current;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * The sequence number of the next block to write. Guarded by
+     * {@link #writeLock}.
+     */
+    private long nextToWrite;
+
+    /**
+     * The position in the uncompressed stream up to which all data has been
+     * written.
+     */
+    private volatile long writtenPosition;
+
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters = new ConcurrentSkipListMap<>();
+
+    /**
+     * The number of sealed blocks being compressed or written, or queued on
+     * the {@link #executor} to be.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    /**
+     * A block of the ring. The fields other than the counters are written
+     * before the block is published as {@link #current}, or by its sealer
+     * before it is marked {@link #ready}.
+     */
+    private static final class Block
+    {
+        final byte[] data;
+        final ByteBuffer directInputBuffer;
+        final ByteBuffer frame;
+        final Checksum crc32 = SnappyFramed.getCRC32C();
+
+        /**
+         * The number of bytes reserved by producers. Set above the block size
+         * when a partial block is sealed.
+         */
+        final AtomicInteger reserved = new AtomicInteger();
+
+        /**
+         * The number of reserved bytes which have been copied.
+         */
+        final AtomicInteger committed = new AtomicInteger();
+
+        volatile long sequence;
+        volatile long start;
+        volatile int length;
+
+        /**
+         * Indicates the frame is encoded and may be written.
+         */
+        volatile boolean ready;
+
+        /**
+         * Indicates the block has been written and may be reused. Guarded by
+         * the block itself.
+         */
+        boolean free;
+
+        Block(BufferPool bufferPool, int blockSize)
+        {
+            data = bufferPool.allocateArray(blockSize);
+            directInputBuffer = bufferPool.allocateDirect(blockSize);
+            frame = bufferPool.allocateDirect(FRAME_HEADER_SIZE + Snappy.maxCompressedLength(blockSize));
+            free = true;
+        }
+    }
+
+    /**
+     * Creates a new {@link ConcurrentSnappyFramedWriter} using the
+     * {@link SnappyFramedOutputStream#DEFAULT_BLOCK_SIZE} and
+     * {@link #DEFAULT_RING_SIZE}, compressing on the producer threads.
+     *
+     * @param out The underlying {@link OutputStream} to write to. Must not be
+     * {@code null}.
+     * @throws IOException
+     */
+    public ConcurrentSnappyFramedWriter(OutputStream out)
+            throws IOException
+    {
+        this(Channels.newChannel(out));
+    }
+
+    /**
+     * Creates a new {@link ConcurrentSnappyFramedWriter} using the
+     * {@link SnappyFramedOutputStream#DEFAULT_BLOCK_SIZE} and
+     * {@link #DEFAULT_RING_SIZE}, compressing on the producer threads.
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @throws IOException
+     */
+    public ConcurrentSnappyFramedWriter(WritableByteChannel out)
+            throws IOException
+    {
+        this(out, DEFAULT_BLOCK_SIZE, DEFAULT_RING_SIZE, null, false, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link ConcurrentSnappyFramedWriter} instance.
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @param blockSize The block size (of raw data) to compress before writing frames
+     * to <i>out</i>. Must be in (0, 65536].
+     * @param ringSize The number of blocks being filled, compressed or written
+     * at a time. Must be at least 2.
+     * @param executor Runs the compression and writing of sealed blocks, or
+     * {@code null} to run them on the thread sealing the block.
+     * @param force Indicates if <i>out</i>, which must then be a
+     * {@link FileChannel}, is forced to the storage device before
+     * {@link #whenWritten(long)} completes.
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @throws IOException
+     */
+    public ConcurrentSnappyFramedWriter(WritableByteChannel out, int blockSize, int ringSize,
+            Executor executor, boolean force, BufferPool bufferPool)
+            throws IOException
+    {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("block size " + blockSize
+                    + " must be in (0, 65536]");
+        }
+        if (ringSize < 2) {
+            throw new IllegalArgumentException("ringSize " + ringSize + " must be >= 2");
+        }
+        if (force && !(out instanceof FileChannel)) {
+            throw new IllegalArgumentException("force requires a FileChannel");
+        }
+        this.out = out;
+        this.bufferPool = bufferPool;
+        this.blockSize = blockSize;
+        this.minCompressionRatio = DEFAULT_MIN_COMPRESSION_RATIO;
+        this.executor = executor;
+        this.force = force;
+
+        ring = new Block[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            ring[i] = new Block(bufferPool, blockSize);
+        }
+        ring[0].free = false;
+        current = new AtomicReference<>(ring[0]);
+
+        final ByteBuffer header = ByteBuffer.wrap(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    /**
+     * Appends <i>b</i> as one record.
+     *
+     * @return See {@link #append(byte[], int, int)}.
+     * @throws IOException
+     */
+    public long append(byte[] b)
+            throws IOException
+    {
+        return append(b, 0, b.length);
+    }
+
+    /**
+     * Appends <i>len</i> bytes of <i>b</i> as one record, which is not
+     * interleaved with the data of other producers unless it is larger than
+     * the block size. May be called by any number of threads concurrently.
+     *
+     * @return The position in the uncompressed stream of the end of the
+     * record, for {@link #whenWritten(long)}.
+     * @throws IOException if writing an earlier block failed, or this writer
+     * is closed.
+     */
+    public long append(byte[] b, int off, int len)
+            throws IOException
+    {
+        if ((off < 0) || (off > b.length) || (len < 0)
+                || ((off + len) > b.length) || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+
+        int spins = 0;
+        while (true) {
+            final Block block = current.get();
+            final int reserved = block.reserved.get();
+            if (reserved >= blockSize) {
+                // the block is full and being replaced by its sealer, which
+                // fails this writer if it cannot
+                ensureOpen();
+                spins = backoff(spins);
+                continue;
+            }
+            if (blockSize - reserved < len && reserved > 0) {
+                // the record does not fit: seal the block and retry in the next one
+                if (block.reserved.compareAndSet(reserved, reserved + blockSize + 1)) {
+                    seal(block, reserved);
+                }
+                continue;
+            }
+            final int take = Math.min(len, blockSize - reserved);
+            if (!block.reserved.compareAndSet(reserved, reserved + take)) {
+                continue;
+            }
+            // the block cannot be reused before this reservation is committed
+            final long start = block.start;
+            System.arraycopy(b, off, block.data, reserved, take);
+            block.committed.addAndGet(take);
+            if (reserved + take == blockSize) {
+                seal(block, blockSize);
+            }
+            if (take == len) {
+                return start + reserved + take;
+            }
+            // a record larger than a block spans several blocks
+            off += take;
+            len -= take;
+            ensureOpen();
+        }
+    }
+
+    /**
+     * Returns a future completing once all data up to <i>position</i> in the
+     * uncompressed stream has been written, and forced if enabled. It
+     * completes exceptionally if writing fails.
+     *
+     * @param position A position returned by {@link #append(byte[], int, int)}.
+     */
+    public CompletableFuture<Void> whenWritten(long position)
+    {
+        if (position <= writtenPosition) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> result = waiters.computeIfAbsent(position, p -> new CompletableFuture<>());
+        // the position may have been written meanwhile
+        completeWaiters();
+        return result;
+    }
+
+    /**
+     * Seals the current block, if it holds any data, and waits until
+     * everything appended before has been written (and forced if enabled).
+     *
+     * @throws IOException
+     */
+    public void flush()
+            throws IOException
+    {
+        ensureOpen();
+        int spins = 0;
+        long target;
+        while (true) {
+            final Block block = current.get();
+            final int reserved = block.reserved.get();
+            if (reserved >= blockSize) {
+                ensureOpen();
+                spins = backoff(spins);
+                continue;
+            }
+            if (reserved == 0) {
+                target = block.start;
+                break;
+            }
+            if (block.reserved.compareAndSet(reserved, reserved + blockSize + 1)) {
+                target = block.start + reserved;
+                seal(block, reserved);
+                break;
+            }
+        }
+
+        try {
+            whenWritten(target).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for blocks to be written");
+        }
+        catch (ExecutionException e) {
+            throw toIOException(e.getCause());
+        }
+    }
+
+    /**
+     * Flushes this writer, closes the underlying channel and returns the
+     * buffers to the pool. Must not be called concurrently with
+     * {@link #append(byte[], int, int)}.
+     * <p>
+     * If writing failed and blocks are still being compressed or written,
+     * possibly on the {@link Executor}, the buffers are not returned to the
+     * pool but left to the garbage collector, as those tasks may still use
+     * them.
+     * </p>
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        try {
+            if (failure == null) {
+                flush();
+            }
+        }
+        finally {
+            closed = true;
+            try {
+                out.close();
+            }
+            finally {
+                if (inFlight.get() == 0) {
+                    for (Block block : ring) {
+                        bufferPool.releaseArray(block.data);
+                        bufferPool.releaseDirect(block.directInputBuffer);
+                        bufferPool.releaseDirect(block.frame);
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureOpen()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        final Throwable error = failure;
+        if (error != null) {
+            throw toIOException(error);
+        }
+    }
+
+    private static IOException toIOException(Throwable error)
+    {
+        return error instanceof IOException ? new IOException(error.getMessage(), error) : new IOException(error);
+    }
+
+    private static int backoff(int spins)
+    {
+        if (spins < 100) {
+            Thread.yield();
+        }
+        else {
+            LockSupport.parkNanos(10 * 1000);
+        }
+        return spins + 1;
+    }
+
+    /**
+     * Called by the one thread which sealed <i>block</i> at <i>length</i>
+     * bytes: publishes the next block, waits for the producers still copying
+     * into <i>block</i> and compresses and writes it.
+     */
+    private void seal(final Block block, int length)
+            throws IOException
+    {
+        block.length = length;
+        try {
+            publishNext(block);
+        }
+        catch (IOException e) {
+            // the other producers wait for the next block to be published
+            fail(e);
+            throw e;
+        }
+
+        int spins = 0;
+        while (block.committed.get() < length) {
+            spins = backoff(spins);
+        }
+
+        inFlight.incrementAndGet();
+        if (executor == null) {
+            compressAndWrite(block);
+        }
+        else {
+            try {
+                executor.execute(() -> compressAndWrite(block));
+            }
+            catch (RuntimeException e) {
+                inFlight.decrementAndGet();
+                fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Makes the block following <i>block</i> the {@link #current} one,
+     * waiting for it to be written first if the ring is full.
+     */
+    private void publishNext(Block block)
+            throws IOException
+    {
+        final long sequence = block.sequence + 1;
+        final Block next = ring[(int) (sequence % ring.length)];
+        synchronized (next) {
+            while (!next.free) {
+                if (failure != null) {
+                    throw toIOException(failure);
+                }
+                try {
+                    next.wait(100);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for a free block");
+                }
+            }
+            next.free = false;
+        }
+        next.sequence = sequence;
+        next.start = block.start + block.length;
+        next.length = 0;
+        next.committed.set(0);
+        next.reserved.set(0);
+        current.set(next);
+    }
+
+    private void compressAndWrite(Block block)
+    {
+        try {
+            try {
+                SnappyFramed.encodeFrame(block.crc32, block.data, 0, block.length,
+                        block.directInputBuffer, block.frame, minCompressionRatio);
+            }
+            catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            block.ready = true;
+
+            writeLock.lock();
+            try {
+                writeReady();
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+        finally {
+            inFlight.decrementAndGet();
+        }
+        completeWaiters();
+    }
+
+    /**
+     * Writes all frames which are ready, in sequence.
+     */
+    private void writeReady()
+    {
+        assert writeLock.isHeldByCurrentThread();
+        long written = -1;
+        try {
+            while (failure == null) {
+                final Block block = ring[(int) (nextToWrite % ring.length)];
+                if (block.sequence != nextToWrite || !block.ready) {
+                    break;
+                }
+                while (block.frame.hasRemaining()) {
+                    out.write(block.frame);
+                }
+                written = block.start + block.length;
+                block.ready = false;
+                nextToWrite++;
+                synchronized (block) {
+                    block.free = true;
+                    block.notifyAll();
+                }
+            }
+            if (written >= 0) {
+                if (force) {
+                    ((FileChannel) out).force(false);
+                }
+                writtenPosition = written;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable error)
+    {
+        if (failure == null) {
+            failure = error;
+        }
+        for (Block block : ring) {
+            synchronized (block) {
+                block.notifyAll();
+            }
+        }
+        completeWaiters();
+    }
+
+    private void completeWaiters()
+    {
+        final Throwable error = failure;
+        final long written = writtenPosition;
+        Map.Entry<Long, CompletableFuture<Void>> entry;
+        while ((entry = waiters.firstEntry()) != null) {
+            if (error == null && entry.getKey() > written) {
+                break;
+            }
+            if (waiters.remove(entry.getKey(), entry.getValue())) {
+                if (error == null) {
+                    entry.getValue().complete(null);
+                }
+                else {
+                    entry.getValue().completeExceptionally(error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.xerial.snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.xerial.snappy.SnappyMetrics.Operation;
+
+/**
+ * A {@link SnappyApi} which records compress, uncompress and validate calls of
+ * another implementation in {@link SnappyMetrics}. Installed by
+ * {@link SnappyLoader} when {@link SnappyLoader#KEY_SNAPPY_METRICS} is
+ * {@code true}.
+ */
+final class InstrumentedSnappyApi
+        implements SnappyApi
+{
+    private final SnappyApi impl;
+    private final SnappyMetrics metrics;
+
+    InstrumentedSnappyApi(SnappyApi impl, SnappyMetrics metrics)
+    {
+        this.impl = impl;
+        this.metrics = metrics;
+        metrics.enable();
+    }
+
+    private long start()
+    {
+        return metrics.sample() ? System.nanoTime() : Long.MIN_VALUE;
+    }
+
+    private void record(Operation operation, long inputBytes, long outputBytes, long start)
+    {
+        metrics.record(operation, inputBytes, outputBytes, start == Long.MIN_VALUE ? -1 : System.nanoTime() - start);
+    }
+
+    @Override
+    public long rawCompress(long inputAddr, long inputSize, long destAddr)
+            throws IOException
+    {
+        final long start = start();
+        final long result = impl.rawCompress(inputAddr, inputSize, destAddr);
+        record(Operation.COMPRESS, inputSize, result, start);
+        return result;
+    }
+
+    @Override
+    public long rawUncompress(long inputAddr, long inputSize, long destAddr)
+            throws IOException
+    {
+        final long start = start();
+        final long result = impl.rawUncompress(inputAddr, inputSize, destAddr);
+        record(Operation.UNCOMPRESS, inputSize, result, start);
+        return result;
+    }
+
+    @Override
+    public int rawCompress(ByteBuffer input, int inputOffset, int inputLength, ByteBuffer compressed,
+            int outputOffset)
+            throws IOException
+    {
+        final long start = start();
+        final int result = impl.rawCompress(input, inputOffset, inputLength, compressed, outputOffset);
+        record(Operation.COMPRESS, inputLength, result, start);
+        return result;
+    }
+
+    @Override
+    public int rawCompress(Object input, int inputOffset, int inputByteLength, Object output, int outputOffset)
+            throws IOException
+    {
+        final long start = start();
+        final int result = impl.rawCompress(input, inputOffset, inputByteLength, output, outputOffset);
+        record(Operation.COMPRESS, inputByteLength, result, start);
+        return result;
+    }
+
+    @Override
+    public int rawUncompress(ByteBuffer compressed, int inputOffset, int inputLength, ByteBuffer uncompressed,
+            int outputOffset)
+            throws IOException
+    {
+        final long start = start();
+        final int result = impl.rawUncompress(compressed, inputOffset, inputLength, uncompressed, outputOffset);
+        record(Operation.UNCOMPRESS, inputLength, result, start);
+        return result;
+    }
+
+    @Override
+    public int rawUncompress(Object input, int inputOffset, int inputLength, Object output, int outputOffset)
+            throws IOException
+    {
+        final long start = start();
+        final int result = impl.rawUncompress(input, inputOffset, inputLength, output, outputOffset);
+        record(Operation.UNCOMPRESS, inputLength, result, start);
+        return result;
+    }
+
+    @Override
+    public int maxCompressedLength(int source_bytes)
+    {
+        return impl.maxCompressedLength(source_bytes);
+    }
+
+    @Override
+    public int uncompressedLength(ByteBuffer compressed, int offset, int len)
+            throws IOException
+    {
+        return impl.uncompressedLength(compressed, offset, len);
+    }
+
+    @Override
+    public int uncompressedLength(Object input, int offset, int len)
+            throws IOException
+    {
+        return impl.uncompressedLength(input, offset, len);
+    }
+
+    @Override
+    public long uncompressedLength(long inputAddr, long len)
+            throws IOException
+    {
+        return impl.uncompressedLength(inputAddr, len);
+    }
+
+    @Override
+    public boolean isValidCompressedBuffer(ByteBuffer compressed, int offset, int len)
+            throws IOException
+    {
+        final long start = start();
+        final boolean result = impl.isValidCompressedBuffer(compressed, offset, len);
+        record(Operation.VALIDATE, len, 0, start);
+        return result;
+    }
+
+    @Override
+    public boolean isValidCompressedBuffer(Object input, int offset, int len)
+            throws IOException
+    {
+        final long start = start();
+        final boolean result = impl.isValidCompressedBuffer(input, offset, len);
+        record(Operation.VALIDATE, len, 0, start);
+        return result;
+    }
+
+    @Override
+    public boolean isValidCompressedBuffer(long inputAddr, long offset, long len)
+            throws IOException
+    {
+        final long start = start();
+        final boolean result = impl.isValidCompressedBuffer(inputAddr, offset, len);
+        record(Operation.VALIDATE, len, 0, start);
+        return result;
+    }
+
+    @Override
+    public void arrayCopy(Object src, int offset, int byteLength, Object dest, int dOffset)
+            throws IOException
+    {
+        impl.arrayCopy(src, offset, byteLength, dest, dOffset);
+    }
+}
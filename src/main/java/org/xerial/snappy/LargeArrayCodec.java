@@ -0,0 +1,181 @@
+package org.xerial.snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+import org.xerial.snappy.pool.QuiescentBufferPool;
+
+/**
+ * Compresses and uncompresses large heap arrays without holding a JNI
+ * critical region for the whole operation.
+ * <p>
+ * The native methods taking arrays pin them with
+ * {@code GetPrimitiveArrayCritical}, which blocks garbage collection in all
+ * other threads until the native call returns. For arrays larger than
+ * {@link Snappy#getCriticalRegionLimit()}:
+ * </p>
+ * <ul>
+ * <li>Compression is done in chunks of at most the limit (rounded down to a
+ * multiple of 64KB, at least 64KB), each in its own native call. Snappy
+ * compresses every 64KB fragment independently, so the chunks are joined
+ * into exactly the output of a single call.</li>
+ * <li>Uncompression cannot be split, so the data is copied into direct
+ * buffers, which need no pinning, and copied back in Java. These buffers
+ * take as much direct memory as the compressed and the uncompressed data
+ * together, which {@code -XX:MaxDirectMemorySize} must allow for. They are
+ * allocated from the {@link QuiescentBufferPool} and freed as soon as the
+ * call returns, rather than kept by a caching pool.</li>
+ * </ul>
+ */
+final class LargeArrayCodec
+{
+    private static final int FRAGMENT_SIZE = 64 * 1024;
+
+    private static volatile int limit = readLimitProperty();
+
+    private LargeArrayCodec()
+    {
+    }
+
+    private static int readLimitProperty()
+    {
+        final String value = System.getProperty(Snappy.CRITICAL_REGION_LIMIT_PROPERTY);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            Logger.getLogger(LargeArrayCodec.class.getName()).log(Level.WARNING,
+                    "Ignoring invalid " + Snappy.CRITICAL_REGION_LIMIT_PROPERTY + " value: " + value);
+            return 0;
+        }
+    }
+
+    static int getLimit()
+    {
+        return limit;
+    }
+
+    static void setLimit(int byteLimit)
+    {
+        if (byteLimit < 0) {
+            throw new IllegalArgumentException("limit " + byteLimit + " must be >= 0");
+        }
+        limit = byteLimit;
+    }
+
+    /**
+     * @return true if processing <i>byteLength</i> bytes in a single native
+     * call would exceed the limit
+     */
+    static boolean exceedsLimit(long byteLength)
+    {
+        final int l = limit;
+        return l > 0 && byteLength > l;
+    }
+
+    static int compress(SnappyApi impl, Object input, int inputOffset, int inputLength, byte[] output,
+            int outputOffset)
+            throws IOException
+    {
+        final int chunkSize = chunkSize();
+        final BufferPool pool = DefaultPoolFactory.getDefaultPool();
+        final byte[] staging = pool.allocateArray(impl.maxCompressedLength(chunkSize));
+        try {
+            int pos = writeVarInt(output, outputOffset, inputLength);
+            for (int offset = 0; offset < inputLength; offset += chunkSize) {
+                final int length = Math.min(chunkSize, inputLength - offset);
+                final int compressedLength = impl.rawCompress(input, inputOffset + offset, length, staging, 0);
+                // drop the uncompressed length that starts each chunk
+                final int header = varIntLength(length);
+                System.arraycopy(staging, header, output, pos, compressedLength - header);
+                pos += compressedLength - header;
+            }
+            return pos - outputOffset;
+        }
+        finally {
+            pool.releaseArray(staging);
+        }
+    }
+
+    static int uncompress(SnappyApi impl, byte[] input, int inputOffset, int inputLength, Object output,
+            int outputOffset, int uncompressedLength)
+            throws IOException
+    {
+        final BufferPool pool = DefaultPoolFactory.getDefaultPool();
+        // sized to the whole data, which is too large to be worth caching
+        final BufferPool directPool = QuiescentBufferPool.getInstance();
+        final ByteBuffer compressed = directPool.allocateDirect(inputLength);
+        final ByteBuffer uncompressed;
+        try {
+            uncompressed = directPool.allocateDirect(Math.max(1, uncompressedLength));
+        }
+        catch (RuntimeException | Error e) {
+            directPool.releaseDirect(compressed);
+            throw e;
+        }
+        // bulk copies between heap arrays and direct buffers do not reach a
+        // safepoint either, so they are split as well
+        final int chunkSize = chunkSize();
+        try {
+            compressed.clear();
+            for (int offset = 0; offset < inputLength; offset += chunkSize) {
+                compressed.put(input, inputOffset + offset, Math.min(chunkSize, inputLength - offset));
+            }
+            final int size = impl.rawUncompress(compressed, 0, inputLength, uncompressed, 0);
+
+            uncompressed.clear();
+            if (output instanceof byte[]) {
+                for (int offset = 0; offset < size; offset += chunkSize) {
+                    uncompressed.get((byte[]) output, outputOffset + offset, Math.min(chunkSize, size - offset));
+                }
+            }
+            else {
+                final byte[] staging = pool.allocateArray(chunkSize);
+                try {
+                    for (int offset = 0; offset < size; offset += chunkSize) {
+                        final int length = Math.min(chunkSize, size - offset);
+                        uncompressed.get(staging, 0, length);
+                        Snappy.arrayCopy(staging, 0, length, output, outputOffset + offset);
+                    }
+                }
+                finally {
+                    pool.releaseArray(staging);
+                }
+            }
+            return size;
+        }
+        finally {
+            directPool.releaseDirect(compressed);
+            directPool.releaseDirect(uncompressed);
+        }
+    }
+
+    /**
+     * @return the limit rounded down to a multiple of 64KB, at least 64KB
+     */
+    private static int chunkSize()
+    {
+        return Math.max(FRAGMENT_SIZE, limit / FRAGMENT_SIZE * FRAGMENT_SIZE);
+    }
+
+    private static int writeVarInt(byte[] dst, int offset, int v)
+    {
+        return SnappyOutputStream.writeVarLong(dst, offset, v & 0xFFFFFFFFL);
+    }
+
+    private static int varIntLength(int v)
+    {
+        int length = 1;
+        while ((v >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,192 @@
+package org.xerial.snappy;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.security.PrivilegedExceptionAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies bytes between primitive arrays in Java, as a replacement for the
+ * native {@link SnappyApi#arrayCopy(Object, int, int, Object, int)}.
+ * <p>
+ * Like the native version, the bytes are copied in the native byte order of
+ * the arrays, so for example a {@code long[]} can be copied into a
+ * {@code byte[]} and back at any byte offset. This uses
+ * {@code sun.misc.Unsafe.copyMemory}, which the JIT compiles to an inlined
+ * copy and so avoids the JNI transition that dominates for small arrays.
+ * When it is not available, {@link #copy(Object, int, int, Object, int)}
+ * returns {@code false} and the caller is expected to use the native copy.
+ * </p>
+ */
+final class PrimitiveArrayCopy
+{
+    private static final MethodHandle COPY_MEMORY;
+    private static final long BYTE_ARRAY_OFFSET;
+    private static final long SHORT_ARRAY_OFFSET;
+    private static final long CHAR_ARRAY_OFFSET;
+    private static final long INT_ARRAY_OFFSET;
+    private static final long FLOAT_ARRAY_OFFSET;
+    private static final long LONG_ARRAY_OFFSET;
+    private static final long DOUBLE_ARRAY_OFFSET;
+
+    static {
+        MethodHandle copyMemory = null;
+        long[] offsets = new long[7];
+        try {
+            @SuppressWarnings("removal")  // AccessController is deprecated for removal in Java 17+
+            final PrivilegedExceptionAction<MethodHandle> action = new PrivilegedExceptionAction<MethodHandle>()
+            {
+                @Override
+                public MethodHandle run()
+                        throws Exception
+                {
+                    final Lookup lookup = lookup();
+                    final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                    final Field f = unsafeClass.getDeclaredField("theUnsafe");
+                    f.setAccessible(true);
+                    final Object theUnsafe = f.get(null);
+
+                    final Method arrayBaseOffset = unsafeClass.getMethod("arrayBaseOffset", Class.class);
+                    final Method arrayIndexScale = unsafeClass.getMethod("arrayIndexScale", Class.class);
+                    final Class<?>[] types = {byte[].class, short[].class, char[].class, int[].class,
+                                              float[].class, long[].class, double[].class};
+                    final int[] sizes = {1, 2, 2, 4, 4, 8, 8};
+                    for (int i = 0; i < types.length; i++) {
+                        // the byte offsets passed to copy() assume densely packed elements
+                        if ((Integer) arrayIndexScale.invoke(theUnsafe, types[i]) != sizes[i]) {
+                            return null;
+                        }
+                    }
+                    for (int i = 0; i < types.length; i++) {
+                        offsets[i] = (Integer) arrayBaseOffset.invoke(theUnsafe, types[i]);
+                    }
+                    return lookup.findVirtual(unsafeClass, "copyMemory",
+                            methodType(void.class, Object.class, long.class, Object.class, long.class, long.class))
+                            .bindTo(theUnsafe);
+                }
+            };
+
+            @SuppressWarnings("removal")  // AccessController is deprecated for removal in Java 17+
+            MethodHandle temp = AccessController.doPrivileged(action);
+            copyMemory = temp;
+        }
+        catch (Throwable t) {
+            Logger.getLogger(PrimitiveArrayCopy.class.getName()).log(Level.FINE, "Unable to use Unsafe.copyMemory for array copies", t);
+        }
+        COPY_MEMORY = copyMemory;
+        BYTE_ARRAY_OFFSET = offsets[0];
+        SHORT_ARRAY_OFFSET = offsets[1];
+        CHAR_ARRAY_OFFSET = offsets[2];
+        INT_ARRAY_OFFSET = offsets[3];
+        FLOAT_ARRAY_OFFSET = offsets[4];
+        LONG_ARRAY_OFFSET = offsets[5];
+        DOUBLE_ARRAY_OFFSET = offsets[6];
+    }
+
+    private PrimitiveArrayCopy()
+    {
+    }
+
+    /**
+     * @return true if copies are done in Java
+     */
+    static boolean isAvailable()
+    {
+        return COPY_MEMORY != null;
+    }
+
+    /**
+     * Copies <i>byteLength</i> bytes of <i>src</i> starting at byte
+     * <i>offset</i> into <i>dest</i> starting at byte <i>destOffset</i>.
+     *
+     * @return false if the copy could not be done in Java because
+     * {@code Unsafe} is not available or an argument is not a primitive
+     * array. Nothing is copied in that case.
+     * @throws ArrayIndexOutOfBoundsException if the range is outside either
+     * array
+     */
+    static boolean copy(Object src, int offset, int byteLength, Object dest, int destOffset)
+    {
+        if (COPY_MEMORY == null) {
+            return false;
+        }
+        final long srcBase = baseOffset(src);
+        final long destBase = baseOffset(dest);
+        if (srcBase < 0 || destBase < 0) {
+            return false;
+        }
+        if (offset < 0 || destOffset < 0 || byteLength < 0
+                || (long) offset + byteLength > byteSize(src)
+                || (long) destOffset + byteLength > byteSize(dest)) {
+            throw new ArrayIndexOutOfBoundsException(String.format(
+                    "copy of %,d bytes from offset %,d of %s to offset %,d of %s", byteLength, offset,
+                    src.getClass().getSimpleName(), destOffset, dest.getClass().getSimpleName()));
+        }
+        try {
+            COPY_MEMORY.invokeExact(src, srcBase + offset, dest, destBase + destOffset, (long) byteLength);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset of the first element of the primitive array, or -1
+     * if the object is not a primitive array
+     */
+    private static long baseOffset(Object array)
+    {
+        if (array instanceof byte[]) {
+            return BYTE_ARRAY_OFFSET;
+        }
+        if (array instanceof long[]) {
+            return LONG_ARRAY_OFFSET;
+        }
+        if (array instanceof int[]) {
+            return INT_ARRAY_OFFSET;
+        }
+        if (array instanceof double[]) {
+            return DOUBLE_ARRAY_OFFSET;
+        }
+        if (array instanceof float[]) {
+            return FLOAT_ARRAY_OFFSET;
+        }
+        if (array instanceof short[]) {
+            return SHORT_ARRAY_OFFSET;
+        }
+        if (array instanceof char[]) {
+            return CHAR_ARRAY_OFFSET;
+        }
+        return -1;
+    }
+
+    private static long byteSize(Object array)
+    {
+        final int length = Array.getLength(array);
+        if (array instanceof byte[]) {
+            return length;
+        }
+        if (array instanceof short[] || array instanceof char[]) {
+            return (long) length * 2;
+        }
+        if (array instanceof int[] || array instanceof float[]) {
+            return (long) length * 4;
+        }
+        return (long) length * 8;
+    }
+}
@@ -47,6 +47,12 @@ public class Snappy
         init();
     }
 
+    /**
+     * Name of the system property setting the initial value of
+     * {@link #getCriticalRegionLimit()}.
+     */
+    public static final String CRITICAL_REGION_LIMIT_PROPERTY = "org.xerial.snappy.critical.region.limit";
+
     /**
      * An instance of SnappyNative
      */
@@ -65,6 +71,64 @@ public class Snappy
         SnappyLoader.setSnappyApi(null);
     }
 
+    /**
+     * Returns the number of bytes above which primitive arrays are not
+     * passed to the native library in a single call. {@code 0} (the default)
+     * means no limit.
+     * <p>
+     * The native library accesses arrays in a JNI critical region, during
+     * which no garbage collection can happen in any thread. With a limit,
+     * larger arrays are compressed in chunks of at most this size (rounded
+     * down to a multiple of 64KB, at least 64KB) and uncompressed through
+     * direct buffers, so that a single call on a huge array does not stall
+     * the garbage collector. The compressed data is the same either way.
+     * Uncompressing such an array temporarily takes direct memory for both
+     * the compressed and the uncompressed data, which is freed when the call
+     * returns.
+     * </p>
+     *
+     * @return the limit in bytes, or {@code 0} for none
+     * @see #CRITICAL_REGION_LIMIT_PROPERTY
+     */
+    public static int getCriticalRegionLimit()
+    {
+        return LargeArrayCodec.getLimit();
+    }
+
+    /**
+     * Sets the limit returned by {@link #getCriticalRegionLimit()}.
+     *
+     * @param byteLimit the limit in bytes, or {@code 0} for none
+     */
+    public static void setCriticalRegionLimit(int byteLimit)
+    {
+        LargeArrayCodec.setLimit(byteLimit);
+    }
+
+    private static volatile SnappyStreamListener streamListener;
+
+    /**
+     * Returns the listener which streams created from now on notify of each
+     * block they process.
+     *
+     * @return the listener, or {@code null} for none
+     */
+    public static SnappyStreamListener getStreamListener()
+    {
+        return streamListener;
+    }
+
+    /**
+     * Sets the listener returned by {@link #getStreamListener()}. Existing
+     * streams keep their listener.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public static void setStreamListener(SnappyStreamListener listener)
+    {
+        streamListener = listener;
+    }
+
     static void init() {
         try {
             impl = SnappyLoader.loadSnappyApi();
@@ -75,7 +139,9 @@ public class Snappy
     }
 
     /**
-     * Copy bytes from source to destination
+     * Copy bytes from source to destination. Primitive arrays are copied in
+     * Java when possible, which avoids the cost of a JNI call for small
+     * copies; the native copy is used otherwise.
      *
      * @param src pointer to the source array
      * @param offset byte offset in the source array
@@ -87,7 +153,9 @@ public class Snappy
     public static void arrayCopy(Object src, int offset, int byteLength, Object dest, int dest_offset)
             throws IOException
     {
-        impl.arrayCopy(src, offset, byteLength, dest, dest_offset);
+        if (!PrimitiveArrayCopy.copy(src, offset, byteLength, dest, dest_offset)) {
+            impl.arrayCopy(src, offset, byteLength, dest, dest_offset);
+        }
     }
 
     /**
@@ -150,8 +218,10 @@ public class Snappy
         int uPos = uncompressed.position();
         int uLen = uncompressed.remaining();
         int cPos = compressed.position();
+        Object event = SnappyEvents.beginCompress(uLen);
         int compressedSize = impl.rawCompress(uncompressed, uPos, uLen, compressed,
                 cPos);
+        SnappyEvents.endCodec(event, uLen, compressedSize);
 
         //         pos  limit
         // [ ......BBBBBBB.........]
@@ -447,7 +517,7 @@ public class Snappy
             throws IOException
     {
         byte[] buf = new byte[Snappy.maxCompressedLength(byteSize)];
-        int compressedByteSize = impl.rawCompress(data, 0, byteSize, buf, 0);
+        int compressedByteSize = rawCompress(data, 0, byteSize, buf, 0);
         byte[] result = new byte[compressedByteSize];
         System.arraycopy(buf, 0, result, 0, compressedByteSize);
         return result;
@@ -472,8 +542,15 @@ public class Snappy
             throw new NullPointerException("input or output is null");
         }
 
-        int compressedSize = impl
-                .rawCompress(input, inputOffset, inputLength, output, outputOffset);
+        Object event = SnappyEvents.beginCompress(inputLength);
+        int compressedSize;
+        if (LargeArrayCodec.exceedsLimit(inputLength)) {
+            compressedSize = LargeArrayCodec.compress(impl, input, inputOffset, inputLength, output, outputOffset);
+        }
+        else {
+            compressedSize = impl.rawCompress(input, inputOffset, inputLength, output, outputOffset);
+        }
+        SnappyEvents.endCodec(event, inputLength, compressedSize);
         return compressedSize;
     }
 
@@ -501,7 +578,20 @@ public class Snappy
         if (input == null || output == null) {
             throw new NullPointerException("input or output is null");
         }
-        return impl.rawUncompress(input, inputOffset, inputLength, output, outputOffset);
+        Object event = SnappyEvents.beginUncompress(inputLength);
+        int uncompressedSize = -1;
+        if (LargeArrayCodec.getLimit() > 0) {
+            int uncompressedLength = impl.uncompressedLength(input, inputOffset, inputLength);
+            if (LargeArrayCodec.exceedsLimit(Math.max(inputLength, uncompressedLength))) {
+                uncompressedSize = LargeArrayCodec.uncompress(impl, input, inputOffset, inputLength, output,
+                        outputOffset, uncompressedLength);
+            }
+        }
+        if (uncompressedSize < 0) {
+            uncompressedSize = impl.rawUncompress(input, inputOffset, inputLength, output, outputOffset);
+        }
+        SnappyEvents.endCodec(event, inputLength, uncompressedSize);
+        return uncompressedSize;
     }
 
     /**
@@ -575,8 +665,10 @@ public class Snappy
 
         //         pos  limit
         // [ ......UUUUUU.........]
+        Object event = SnappyEvents.beginUncompress(cLen);
         int decompressedSize = impl.rawUncompress(compressed, cPos, cLen, uncompressed,
                 uPos);
+        SnappyEvents.endCodec(event, cLen, decompressedSize);
         uncompressed.limit(uPos + decompressedSize);
 
         return decompressedSize;
@@ -609,7 +701,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         char[] result = new char[uncompressedLength / 2];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -640,7 +732,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         double[] result = new double[uncompressedLength / 8];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -742,7 +834,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         float[] result = new float[uncompressedLength / 4];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -773,7 +865,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         int[] result = new int[uncompressedLength / 4];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -804,7 +896,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         long[] result = new long[uncompressedLength / 8];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -835,7 +927,7 @@ public class Snappy
     {
         int uncompressedLength = Snappy.uncompressedLength(input, offset, length);
         short[] result = new short[uncompressedLength / 2];
-        impl.rawUncompress(input, offset, length, result, 0);
+        rawUncompress(input, offset, length, result, 0);
         return result;
     }
 
@@ -0,0 +1,306 @@
+package org.xerial.snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Compresses and uncompresses files in the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format through {@link AsynchronousFileChannel}s,
+ * without blocking the calling thread.
+ * <p>
+ * Reads and writes are positional and start at position 0 of both channels.
+ * The channels are not closed. Compression overlaps the read of the following
+ * blocks, see {@link AsyncSnappyFramedWriter}.
+ * </p>
+ */
+public final class SnappyAsync
+{
+    private static final int IO_BUFFER_SIZE = SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private SnappyAsync()
+    {
+    }
+
+    /**
+     * Compresses the content of <i>src</i> into <i>dst</i>, using the
+     * {@link ForkJoinPool#commonPool()} and
+     * {@link AsyncSnappyFramedWriter#DEFAULT_MAX_IN_FLIGHT}.
+     *
+     * @return A future completing with the number of bytes read from
+     * <i>src</i> once all of them have been written to <i>dst</i>.
+     */
+    public static CompletableFuture<Long> compress(AsynchronousFileChannel src, AsynchronousFileChannel dst)
+    {
+        return compress(src, dst, ForkJoinPool.commonPool(), AsyncSnappyFramedWriter.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Compresses the content of <i>src</i> into <i>dst</i>.
+     *
+     * @param executor Runs the compression of blocks.
+     * @param maxInFlight The maximum number of blocks being compressed or
+     * written at a time.
+     * @return A future completing with the number of bytes read from
+     * <i>src</i> once all of them have been written to <i>dst</i>.
+     */
+    public static CompletableFuture<Long> compress(AsynchronousFileChannel src, AsynchronousFileChannel dst,
+            Executor executor, int maxInFlight)
+    {
+        final AsyncSnappyFramedWriter writer = new AsyncSnappyFramedWriter(dst, 0, executor, maxInFlight);
+        final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+        transfer(src, 0, buffer, writer).whenComplete((total, e) -> {
+            final CompletableFuture<Void> closed;
+            try {
+                closed = writer.close();
+            }
+            catch (RuntimeException closeFailure) {
+                result.completeExceptionally(e != null ? e : closeFailure);
+                return;
+            }
+            closed.whenComplete((v, closeFailure) -> {
+                if (e != null || closeFailure != null) {
+                    result.completeExceptionally(e != null ? e : closeFailure);
+                }
+                else {
+                    result.complete(total);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Reads <i>src</i> from <i>position</i> to its end into <i>writer</i>,
+     * one buffer at a time.
+     *
+     * @return A future completing with the position of the end of <i>src</i>.
+     */
+    private static CompletableFuture<Long> transfer(final AsynchronousFileChannel src, final long position,
+            final ByteBuffer buffer, final AsyncSnappyFramedWriter writer)
+    {
+        buffer.clear();
+        return read(src, buffer, position).thenCompose(read -> {
+            if (read == 0) {
+                return CompletableFuture.completedFuture(position);
+            }
+            buffer.flip();
+            return writer.write(buffer).thenCompose(v -> transfer(src, position + read, buffer, writer));
+        });
+    }
+
+    /**
+     * Uncompresses the content of <i>src</i> into <i>dst</i>, using the
+     * {@link ForkJoinPool#commonPool()}.
+     *
+     * @return A future completing with the number of bytes written to
+     * <i>dst</i>.
+     */
+    public static CompletableFuture<Long> uncompress(AsynchronousFileChannel src, AsynchronousFileChannel dst)
+    {
+        return uncompress(src, dst, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Uncompresses the content of <i>src</i> into <i>dst</i>. The checksums of
+     * all frames are verified.
+     *
+     * @param executor Runs the decompression.
+     * @return A future completing with the number of bytes written to
+     * <i>dst</i>.
+     */
+    public static CompletableFuture<Long> uncompress(AsynchronousFileChannel src, AsynchronousFileChannel dst,
+            Executor executor)
+    {
+        return new Uncompression(src, dst, executor, DefaultPoolFactory.getDefaultPool()).start();
+    }
+
+    /**
+     * Feeds the content of a channel through a {@link SnappyFramedDecoder},
+     * writing each decoded buffer before reading or decoding more.
+     */
+    private static final class Uncompression
+    {
+        private final AsynchronousFileChannel src;
+        private final AsynchronousFileChannel dst;
+        private final Executor executor;
+        private final BufferPool bufferPool;
+        private final SnappyFramedDecoder decoder;
+        private final ByteBuffer input;
+        private final ByteBuffer output;
+
+        // Only accessed by one stage at a time
+        private long srcPosition;
+        private long dstPosition;
+
+        Uncompression(AsynchronousFileChannel src, AsynchronousFileChannel dst,
+                Executor executor, BufferPool bufferPool)
+        {
+            this.src = src;
+            this.dst = dst;
+            this.executor = executor;
+            this.bufferPool = bufferPool;
+            this.decoder = new SnappyFramedDecoder(true, bufferPool);
+            this.input = bufferPool.allocateDirect(IO_BUFFER_SIZE);
+            this.output = bufferPool.allocateDirect(IO_BUFFER_SIZE);
+        }
+
+        CompletableFuture<Long> start()
+        {
+            input.clear();
+            input.limit(IO_BUFFER_SIZE);
+            output.clear();
+            output.limit(IO_BUFFER_SIZE);
+            return readInput().whenComplete((total, e) -> {
+                decoder.close();
+                bufferPool.releaseDirect(input);
+                bufferPool.releaseDirect(output);
+            });
+        }
+
+        /**
+         * Fills {@link #input}, which is in write mode, and decodes it.
+         */
+        private CompletableFuture<Long> readInput()
+        {
+            return read(src, input, srcPosition).thenComposeAsync(read -> {
+                srcPosition += read;
+                // a partially filled buffer means the end of the input
+                final boolean endOfInput = input.hasRemaining();
+                input.flip();
+                return decode(endOfInput);
+            }, executor);
+        }
+
+        private CompletableFuture<Long> decode(final boolean endOfInput)
+        {
+            final SnappyCoderResult result;
+            try {
+                result = decoder.decode(input, output, endOfInput);
+            }
+            catch (IOException e) {
+                final CompletableFuture<Long> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            output.flip();
+            final long position = dstPosition;
+            dstPosition += output.remaining();
+            return write(dst, output, position).thenComposeAsync(v -> {
+                output.clear();
+                output.limit(IO_BUFFER_SIZE);
+                if (result.isOverflow()) {
+                    return decode(endOfInput);
+                }
+                if (endOfInput) {
+                    return CompletableFuture.completedFuture(dstPosition);
+                }
+                input.compact();
+                input.limit(IO_BUFFER_SIZE);
+                return readInput();
+            }, executor);
+        }
+    }
+
+    /**
+     * Reads from <i>channel</i> at <i>position</i> until <i>dst</i> is full or
+     * the end of the channel is reached.
+     *
+     * @return A future completing with the number of bytes read, {@code 0} at
+     * the end of the channel.
+     */
+    static CompletableFuture<Integer> read(final AsynchronousFileChannel channel, final ByteBuffer dst,
+            final long position)
+    {
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            channel.read(dst, position, null, new CompletionHandler<Integer, Void>()
+            {
+                private int total;
+
+                @Override
+                public void completed(Integer read, Void attachment)
+                {
+                    if (read > 0) {
+                        total += read;
+                    }
+                    if (read < 0 || !dst.hasRemaining()) {
+                        result.complete(total);
+                        return;
+                    }
+                    try {
+                        channel.read(dst, position + total, null, this);
+                    }
+                    catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment)
+                {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Writes all remaining bytes of <i>src</i> to <i>channel</i> at
+     * <i>position</i>.
+     */
+    static CompletableFuture<Void> write(final AsynchronousFileChannel channel, final ByteBuffer src,
+            final long position)
+    {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!src.hasRemaining()) {
+            result.complete(null);
+            return result;
+        }
+        try {
+            channel.write(src, position, null, new CompletionHandler<Integer, Void>()
+            {
+                private long written;
+
+                @Override
+                public void completed(Integer count, Void attachment)
+                {
+                    written += count;
+                    if (!src.hasRemaining()) {
+                        result.complete(null);
+                        return;
+                    }
+                    try {
+                        channel.write(src, position + written, null, this);
+                    }
+                    catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable e, Void attachment)
+                {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,360 @@
+package org.xerial.snappy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.xerial.snappy.buffer.BufferAllocator;
+import org.xerial.snappy.buffer.BufferAllocatorFactory;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+/**
+ * A push-based decoder for data written by {@link SnappyOutputStream} or
+ * {@link SnappyBlockStreamEncoder}, in the style of
+ * {@link java.nio.charset.CharsetDecoder}. It never blocks: input may arrive
+ * in fragments of any size, and the decoder keeps the state of a partially
+ * received header, block length or block between calls. Like
+ * {@link SnappyInputStream}, it handles concatenated streams, each starting
+ * with its own {@link SnappyCodec} header.
+ * <p>
+ * Unlike {@link SnappyInputStream}, input without the {@link SnappyCodec}
+ * header (the raw output of {@link Snappy#compress(byte[])}) is not
+ * supported, as it cannot be decoded before the whole input is available.
+ * Blocks which cannot be decoded in place are collected in buffers obtained
+ * from a {@link BufferAllocatorFactory}, which are returned by
+ * {@link #close()}. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyBlockStreamEncoder
+ */
+public class SnappyBlockStreamDecoder
+        implements Closeable
+{
+    private static final int STATE_HEADER = 0;
+    private static final int STATE_CHUNK_SIZE = 1;
+    private static final int STATE_CHUNK = 2;
+    private static final int STATE_FINISHED = 3;
+
+    private final int maxChunkSize;
+    private final BufferAllocatorFactory bufferAllocatorFactory;
+
+    /**
+     * Collects the {@link SnappyCodec} header or the 4 byte chunk size.
+     */
+    private final byte[] header = new byte[SnappyCodec.headerSize()];
+    private int headerLength;
+
+    private int state;
+
+    /**
+     * Indicates if any input has been consumed since the last reset.
+     */
+    private boolean started;
+
+    /**
+     * Indicates if the header at the start of the stream has been read.
+     */
+    private boolean headerRead;
+
+    private BufferAllocator compressedAllocator;
+    private byte[] compressed;
+    private int chunkSize;
+    private int compressedLength;
+
+    private BufferAllocator uncompressedAllocator;
+    private byte[] uncompressed;
+    private int uncompressedCursor;
+    private int uncompressedLimit;
+
+    private boolean closed;
+
+    public SnappyBlockStreamDecoder()
+    {
+        this(SnappyInputStream.MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * @param maxChunkSize the maximum accepted compressed block size
+     */
+    public SnappyBlockStreamDecoder(int maxChunkSize)
+    {
+        this(maxChunkSize, CachedBufferAllocator.getBufferAllocatorFactory());
+    }
+
+    /**
+     * @param maxChunkSize the maximum accepted compressed block size
+     * @param bufferAllocatorFactory used to obtain the internal buffers
+     */
+    public SnappyBlockStreamDecoder(int maxChunkSize, BufferAllocatorFactory bufferAllocatorFactory)
+    {
+        this.maxChunkSize = maxChunkSize;
+        this.bufferAllocatorFactory = bufferAllocatorFactory;
+        reset();
+    }
+
+    /**
+     * Discards any partially decoded data and expects the start of a new
+     * stream. Internal buffers are kept.
+     *
+     * @throws IllegalStateException if this decoder has been closed.
+     */
+    public void reset()
+    {
+        ensureOpen();
+        state = STATE_HEADER;
+        headerLength = 0;
+        started = false;
+        headerRead = false;
+        uncompressedCursor = 0;
+        uncompressedLimit = 0;
+    }
+
+    /**
+     * Equivalent to {@code decode(in, out, false)}.
+     *
+     * @see #decode(ByteBuffer, ByteBuffer, boolean)
+     */
+    public SnappyCoderResult decode(ByteBuffer in, ByteBuffer out)
+            throws IOException
+    {
+        return decode(in, out, false);
+    }
+
+    /**
+     * Consumes as much of <i>in</i> as possible, writing uncompressed data to
+     * <i>out</i>. Incomplete headers and blocks at the end of <i>in</i> are
+     * kept until more input arrives. Once a concatenated header that is not a
+     * valid {@link SnappyCodec} header is encountered, all further input is
+     * ignored, as {@link SnappyInputStream} does.
+     *
+     * @param in The compressed input.
+     * @param out The buffer to write uncompressed data to.
+     * @param endOfInput {@code true} if <i>in</i> holds the last of the input,
+     * in which case the stream must not end in the middle of a block.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all of <i>in</i> has been
+     * consumed and all of its data written to <i>out</i>,
+     * {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room left for
+     * pending output.
+     * @throws IOException if the input is not valid, or is truncated and
+     * <i>endOfInput</i> is {@code true}.
+     */
+    public SnappyCoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput)
+            throws IOException
+    {
+        ensureOpen();
+        while (true) {
+            if (uncompressedCursor < uncompressedLimit) {
+                final int toCopy = Math.min(out.remaining(), uncompressedLimit - uncompressedCursor);
+                out.put(uncompressed, uncompressedCursor, toCopy);
+                uncompressedCursor += toCopy;
+                if (uncompressedCursor < uncompressedLimit) {
+                    return SnappyCoderResult.OVERFLOW;
+                }
+            }
+
+            if (!in.hasRemaining()) {
+                if (endOfInput) {
+                    checkEndOfInput();
+                }
+                return SnappyCoderResult.UNDERFLOW;
+            }
+            started = true;
+
+            switch (state) {
+                case STATE_HEADER:
+                    if (collectHeader(in, header.length)) {
+                        readHeader();
+                    }
+                    break;
+                case STATE_CHUNK_SIZE:
+                    if (collectHeader(in, 4)) {
+                        readChunkSize();
+                    }
+                    break;
+                case STATE_CHUNK:
+                    readChunk(in, out);
+                    break;
+                default:
+                    // ignore anything following an invalid concatenated header
+                    in.position(in.limit());
+            }
+        }
+    }
+
+    /**
+     * Returns the buffers to the allocators. Any data not yet decoded is
+     * discarded.
+     */
+    @Override
+    public void close()
+    {
+        if (!closed) {
+            closed = true;
+            if (compressed != null) {
+                compressedAllocator.release(compressed);
+                compressed = null;
+            }
+            if (uncompressed != null) {
+                uncompressedAllocator.release(uncompressed);
+                uncompressed = null;
+            }
+        }
+    }
+
+    private void ensureOpen()
+    {
+        if (closed) {
+            throw new IllegalStateException("decoder is closed");
+        }
+    }
+
+    private void checkEndOfInput()
+            throws IOException
+    {
+        if (!started) {
+            // Snappy produces at least 1-byte result. So the empty input is not a valid input
+            throw new SnappyIOException(SnappyErrorCode.EMPTY_INPUT, "Cannot decompress empty stream");
+        }
+        switch (state) {
+            case STATE_HEADER:
+                throw new SnappyIOException(SnappyErrorCode.FAILED_TO_UNCOMPRESS, "Insufficient header size");
+            case STATE_CHUNK:
+                throw new IOException("failed to read chunk");
+            default:
+                // a partial chunk size is ignored, as in SnappyInputStream
+        }
+    }
+
+    /**
+     * Collects bytes from <i>in</i> into {@link #header}.
+     *
+     * @return {@code true} once {@link #header} holds <i>length</i> bytes.
+     */
+    private boolean collectHeader(ByteBuffer in, int length)
+    {
+        final int toCopy = Math.min(length - headerLength, in.remaining());
+        in.get(header, headerLength, toCopy);
+        headerLength += toCopy;
+        return headerLength == length;
+    }
+
+    private void readHeader()
+            throws IOException
+    {
+        headerLength = 0;
+        if (!SnappyCodec.hasMagicHeaderPrefix(header)) {
+            if (headerRead) {
+                // an invalid concatenated header ends the stream
+                state = STATE_FINISHED;
+                return;
+            }
+            throw new SnappyIOException(SnappyErrorCode.PARSING_ERROR, "Missing SnappyCodec header");
+        }
+        int version = SnappyOutputStream.readInt(header, SnappyCodec.MAGIC_LEN);
+        if (version < SnappyCodec.MINIMUM_COMPATIBLE_VERSION) {
+            throw new SnappyIOException(SnappyErrorCode.INCOMPATIBLE_VERSION, String.format(
+                    "Compressed with an incompatible codec version %d. At least version %d is required",
+                    version, SnappyCodec.MINIMUM_COMPATIBLE_VERSION));
+        }
+        headerRead = true;
+        state = STATE_CHUNK_SIZE;
+    }
+
+    private void readChunkSize()
+    {
+        chunkSize = SnappyOutputStream.readInt(header, 0);
+        if (chunkSize == SnappyCodec.MAGIC_HEADER_HEAD) {
+            // Concatenated data: keep the 4 bytes read so far as the start of the header
+            state = STATE_HEADER;
+            return;
+        }
+        headerLength = 0;
+
+        // chunkSize is negative
+        if (chunkSize < 0) {
+            throw new SnappyError(SnappyErrorCode.INVALID_CHUNK_SIZE, "chunkSize is too big or negative : " + chunkSize);
+        }
+
+        // chunkSize is big
+        if (chunkSize > maxChunkSize) {
+            throw new SnappyError(SnappyErrorCode.FAILED_TO_UNCOMPRESS, String.format("Received chunkSize %,d is greater than max configured chunk size %,d", chunkSize, maxChunkSize));
+        }
+        compressedLength = 0;
+        state = STATE_CHUNK;
+    }
+
+    private void readChunk(ByteBuffer in, ByteBuffer out)
+            throws IOException
+    {
+        if (compressedLength == 0 && in.hasArray() && in.remaining() >= chunkSize) {
+            // the whole chunk is available, so uncompress it in place
+            final int offset = in.arrayOffset() + in.position();
+            in.position(in.position() + chunkSize);
+            uncompressChunk(in.array(), offset, out);
+            return;
+        }
+
+        // extend the compressed data buffer size
+        if (compressed == null || chunkSize > compressed.length) {
+            if (compressed != null) {
+                compressedAllocator.release(compressed);
+            }
+            final int size = bufferSize(chunkSize);
+            compressedAllocator = bufferAllocatorFactory.getBufferAllocator(size);
+            compressed = compressedAllocator.allocate(size);
+        }
+        final int toCopy = Math.min(chunkSize - compressedLength, in.remaining());
+        in.get(compressed, compressedLength, toCopy);
+        compressedLength += toCopy;
+        if (compressedLength == chunkSize) {
+            uncompressChunk(compressed, 0, out);
+        }
+    }
+
+    private void uncompressChunk(byte[] input, int offset, ByteBuffer out)
+            throws IOException
+    {
+        state = STATE_CHUNK_SIZE;
+        int uncompressedLength = Snappy.uncompressedLength(input, offset, chunkSize);
+        if (out.hasArray() && out.remaining() >= uncompressedLength) {
+            // uncompress directly to the output
+            int actualUncompressedLength = Snappy.uncompress(input, offset, chunkSize, out.array(), out.arrayOffset() + out.position());
+            checkUncompressedLength(uncompressedLength, actualUncompressedLength);
+            out.position(out.position() + actualUncompressedLength);
+            return;
+        }
+
+        if (uncompressed == null || uncompressedLength > uncompressed.length) {
+            if (uncompressed != null) {
+                uncompressedAllocator.release(uncompressed);
+            }
+            final int size = bufferSize(uncompressedLength);
+            uncompressedAllocator = bufferAllocatorFactory.getBufferAllocator(size);
+            uncompressed = uncompressedAllocator.allocate(size);
+        }
+        int actualUncompressedLength = Snappy.uncompress(input, offset, chunkSize, uncompressed, 0);
+        checkUncompressedLength(uncompressedLength, actualUncompressedLength);
+        uncompressedCursor = 0;
+        uncompressedLimit = actualUncompressedLength;
+    }
+
+    /**
+     * @return <i>length</i> rounded up to a power of two of at least
+     * {@link SnappyOutputStream#DEFAULT_BLOCK_SIZE}, so that blocks of
+     * varying sizes share a few allocators
+     */
+    static int bufferSize(int length)
+    {
+        final int size = Math.max(SnappyOutputStream.DEFAULT_BLOCK_SIZE, length);
+        final int rounded = Integer.highestOneBit(size);
+        return rounded == size || rounded == 1 << 30 ? size : rounded << 1;
+    }
+
+    private static void checkUncompressedLength(int expected, int actual)
+            throws IOException
+    {
+        if (expected != actual) {
+            throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, String.format("expected %,d bytes, but decompressed chunk has %,d bytes", expected, actual));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.xerial.snappy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.xerial.snappy.buffer.BufferAllocator;
+import org.xerial.snappy.buffer.BufferAllocatorFactory;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+/**
+ * A push-based encoder producing the same format as {@link SnappyOutputStream}
+ * (a {@link SnappyCodec} header followed by length-prefixed compressed
+ * blocks), in the style of {@link java.nio.charset.CharsetEncoder}. It never
+ * blocks: the caller supplies input and output {@link ByteBuffer}s of any
+ * size, and the encoder keeps any partially written block between calls.
+ * <p>
+ * Call {@link #encode(ByteBuffer, ByteBuffer)} for each piece of input and
+ * {@link #flush(ByteBuffer)} at the end (or whenever buffered data should be
+ * emitted), repeating either call with a drained output buffer while it
+ * returns {@link SnappyCoderResult#OVERFLOW}. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyBlockStreamDecoder
+ */
+public class SnappyBlockStreamEncoder
+        implements Closeable
+{
+    private final int blockSize;
+
+    private final BufferAllocator inputBufferAllocator;
+    private final BufferAllocator outputBufferAllocator;
+
+    // The input and output buffer fields are set to null when closing this encoder:
+    private byte[] inputBuffer;
+    private byte[] outputBuffer;
+    private int inputCursor;
+
+    /**
+     * The range of {@link #outputBuffer} not yet written to the output.
+     */
+    private int outputCursor;
+    private int outputLimit;
+
+    public SnappyBlockStreamEncoder()
+    {
+        this(SnappyOutputStream.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize byte size of the internal buffer size
+     * @throws IllegalArgumentException when blockSize is larger than 512 MiB
+     */
+    public SnappyBlockStreamEncoder(int blockSize)
+    {
+        this(blockSize, CachedBufferAllocator.getBufferAllocatorFactory());
+    }
+
+    public SnappyBlockStreamEncoder(int blockSize, BufferAllocatorFactory bufferAllocatorFactory)
+    {
+        this.blockSize = Math.max(SnappyOutputStream.MIN_BLOCK_SIZE, blockSize);
+        if (this.blockSize > SnappyOutputStream.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException(String.format("Provided chunk size %,d larger than max %,d", this.blockSize, SnappyOutputStream.MAX_BLOCK_SIZE));
+        }
+        int inputSize = this.blockSize;
+        int outputSize = SnappyCodec.HEADER_SIZE + 4 + Snappy.maxCompressedLength(this.blockSize);
+
+        this.inputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(inputSize);
+        this.outputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(outputSize);
+
+        inputBuffer = inputBufferAllocator.allocate(inputSize);
+        outputBuffer = outputBufferAllocator.allocate(outputSize);
+
+        reset();
+    }
+
+    /**
+     * Discards any buffered data and starts a new stream, so that the next
+     * output begins with the {@link SnappyCodec} header.
+     *
+     * @throws IllegalStateException if this encoder has been closed.
+     */
+    public void reset()
+    {
+        ensureOpen();
+        inputCursor = 0;
+        outputCursor = 0;
+        outputLimit = SnappyCodec.currentHeader.writeHeader(outputBuffer, 0);
+    }
+
+    /**
+     * Consumes as much of <i>in</i> as possible, writing complete blocks to
+     * <i>out</i>. Data not filling a complete block is kept until more input
+     * arrives or {@link #flush(ByteBuffer)} is called.
+     *
+     * @param in The raw data to encode.
+     * @param out The buffer to write encoded data to.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all of <i>in</i> has been
+     * consumed, {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room
+     * left for pending output.
+     * @throws IOException
+     */
+    public SnappyCoderResult encode(ByteBuffer in, ByteBuffer out)
+            throws IOException
+    {
+        ensureOpen();
+        while (true) {
+            if (!drain(out)) {
+                return SnappyCoderResult.OVERFLOW;
+            }
+            if (!in.hasRemaining()) {
+                return SnappyCoderResult.UNDERFLOW;
+            }
+
+            if (inputCursor == 0 && in.hasArray() && in.remaining() >= blockSize) {
+                // compress a whole block directly from the input
+                compressBlock(in.array(), in.arrayOffset() + in.position(), blockSize);
+                in.position(in.position() + blockSize);
+                continue;
+            }
+
+            final int toCopy = Math.min(in.remaining(), blockSize - inputCursor);
+            in.get(inputBuffer, inputCursor, toCopy);
+            inputCursor += toCopy;
+
+            if (inputCursor == blockSize) {
+                compressBlock(inputBuffer, 0, inputCursor);
+                inputCursor = 0;
+            }
+        }
+    }
+
+    /**
+     * Compresses any partially filled block and writes all pending output to
+     * <i>out</i>. Encoding may continue afterwards.
+     *
+     * @param out The buffer to write encoded data to.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all output has been
+     * written, {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room
+     * left and this method must be called again.
+     * @throws IOException
+     */
+    public SnappyCoderResult flush(ByteBuffer out)
+            throws IOException
+    {
+        ensureOpen();
+        if (!drain(out)) {
+            return SnappyCoderResult.OVERFLOW;
+        }
+        if (inputCursor > 0) {
+            compressBlock(inputBuffer, 0, inputCursor);
+            inputCursor = 0;
+            if (!drain(out)) {
+                return SnappyCoderResult.OVERFLOW;
+            }
+        }
+        return SnappyCoderResult.UNDERFLOW;
+    }
+
+    /**
+     * Returns the buffers to the allocators. Any data not yet
+     * {@link #flush(ByteBuffer) flushed} is discarded.
+     */
+    @Override
+    public void close()
+    {
+        if (inputBuffer != null) {
+            inputBufferAllocator.release(inputBuffer);
+            outputBufferAllocator.release(outputBuffer);
+            inputBuffer = null;
+            outputBuffer = null;
+        }
+    }
+
+    private void ensureOpen()
+    {
+        if (inputBuffer == null) {
+            throw new IllegalStateException("encoder is closed");
+        }
+    }
+
+    /**
+     * @return {@code true} if all pending output has been written to <i>out</i>.
+     */
+    private boolean drain(ByteBuffer out)
+    {
+        if (outputCursor < outputLimit) {
+            final int toCopy = Math.min(out.remaining(), outputLimit - outputCursor);
+            out.put(outputBuffer, outputCursor, toCopy);
+            outputCursor += toCopy;
+        }
+        return outputCursor == outputLimit;
+    }
+
+    /**
+     * Compresses a block into {@link #outputBuffer}, which must have been
+     * fully drained.
+     */
+    private void compressBlock(byte[] input, int offset, int length)
+            throws IOException
+    {
+        assert outputCursor == outputLimit;
+        int compressedSize = Snappy.compress(input, offset, length, outputBuffer, 4);
+        // Write compressed data size
+        SnappyOutputStream.writeInt(outputBuffer, 0, compressedSize);
+        outputCursor = 0;
+        outputLimit = 4 + compressedSize;
+    }
+}
@@ -27,6 +27,7 @@ package org.xerial.snappy;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.xerial.snappy.pool.MemoryPressureMonitor;
 
 import java.util.jar.Manifest;
 
@@ -58,7 +59,11 @@ public class SnappyBundleActivator
             library = library.replace(".dylib", ".jnilib");
         }
         System.loadLibrary(library);
-        SnappyLoader.setSnappyApi(new SnappyNative());
+        SnappyLoader.setSnappyApi(SnappyLoader.newSnappyApi());
+        MemoryPressureMonitor.install();
+        if (Boolean.parseBoolean(System.getProperty(SnappyLoader.KEY_SNAPPY_MBEANS, "false"))) {
+            SnappyMBeans.registerAll();
+        }
     }
 
     public void stop(BundleContext context)
@@ -66,5 +71,7 @@ public class SnappyBundleActivator
     {
         SnappyLoader.setSnappyApi(null);
         SnappyLoader.cleanUpExtractedNativeLib();
+        SnappyMBeans.unregisterAll();
+        MemoryPressureMonitor.uninstall();
     }
 }
@@ -0,0 +1,34 @@
+package org.xerial.snappy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The outcome of a call to one of the push-based encoders or decoders, such as
+ * {@link SnappyFramedEncoder} and {@link SnappyFramedDecoder}. This follows
+ * {@link java.nio.charset.CoderResult}.
+ */
+public enum SnappyCoderResult
+{
+    /**
+     * All of the input {@link ByteBuffer} has been consumed and all output
+     * produced from it has been written. More input is required to make
+     * progress.
+     */
+    UNDERFLOW,
+
+    /**
+     * The output {@link ByteBuffer} is full. The call should be repeated with
+     * an output buffer that has room, and the same input buffer.
+     */
+    OVERFLOW;
+
+    public boolean isUnderflow()
+    {
+        return this == UNDERFLOW;
+    }
+
+    public boolean isOverflow()
+    {
+        return this == OVERFLOW;
+    }
+}
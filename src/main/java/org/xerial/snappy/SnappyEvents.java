@@ -0,0 +1,373 @@
+package org.xerial.snappy;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JDK Flight Recorder events of this library.
+ * <p>
+ * The following events are emitted while a recording is running, on JVMs
+ * which include JFR (JDK 11 and later, and some JDK 8 updates):
+ * </p>
+ * <ul>
+ * <li>{@code org.xerial.snappy.Compress} and {@code org.xerial.snappy.Uncompress}
+ * for {@link Snappy} calls whose input is at least {@link #THRESHOLD_PROPERTY}
+ * bytes, with the input and output sizes.</li>
+ * <li>{@code org.xerial.snappy.StreamBlock} for each block or frame compressed
+ * or uncompressed by {@link SnappyOutputStream}, {@link SnappyInputStream},
+ * {@link SnappyFramedOutputStream} and {@link SnappyFramedInputStream}, with
+ * the sizes and whether the data was stored compressed or raw.</li>
+ * <li>{@code org.xerial.snappy.BufferPoolMiss} when a buffer pool has to create
+ * a new buffer.</li>
+ * <li>{@code org.xerial.snappy.NativeLibraryLoad} when {@link SnappyLoader}
+ * loads the native library, with the time spent extracting it.</li>
+ * </ul>
+ * <p>
+ * The library is compiled for Java 8, so the event types are defined at
+ * runtime with {@code jdk.jfr.EventFactory}. When no recording is running,
+ * each instrumented call costs one volatile read.
+ * </p>
+ */
+public final class SnappyEvents
+{
+    /**
+     * Name of the system property for the minimum input size, in bytes, of
+     * {@link Snappy} calls recorded as events. Defaults to 65536.
+     */
+    public static final String THRESHOLD_PROPERTY = "org.xerial.snappy.jfr.threshold";
+
+    private static final Logger LOGGER = Logger.getLogger(SnappyEvents.class.getName());
+
+    private static final long THRESHOLD = readThreshold();
+
+    private static volatile boolean recording;
+
+    private static EventType compress;
+    private static EventType uncompress;
+    private static EventType streamBlock;
+    private static EventType bufferPoolMiss;
+    private static EventType libraryLoad;
+
+    static {
+        install();
+    }
+
+    private SnappyEvents()
+    {
+    }
+
+    /**
+     * @return whether a JFR recording is running
+     */
+    public static boolean isEnabled()
+    {
+        return recording;
+    }
+
+    /**
+     * @return a started {@code Compress} event, or {@code null} if it is not recorded
+     */
+    static Object beginCompress(long inputSize)
+    {
+        return recording && inputSize >= THRESHOLD ? compress.begin() : null;
+    }
+
+    /**
+     * @return a started {@code Uncompress} event, or {@code null} if it is not recorded
+     */
+    static Object beginUncompress(long inputSize)
+    {
+        return recording && inputSize >= THRESHOLD ? uncompress.begin() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginCompress(long)} or {@link #beginUncompress(long)}.
+     */
+    static void endCodec(Object event, long inputSize, long outputSize)
+    {
+        if (event != null) {
+            EventType.commit(event, inputSize, outputSize);
+        }
+    }
+
+    /**
+     * @return a started {@code StreamBlock} event, or {@code null} if it is not recorded
+     */
+    static Object beginBlock()
+    {
+        return recording ? streamBlock.begin() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginBlock()}.
+     *
+     * @param stream the stream processing the block
+     * @param compressed whether the block is stored compressed rather than raw
+     */
+    static void endBlock(Object event, Object stream, boolean compressed, long uncompressedSize, long storedSize)
+    {
+        if (event != null) {
+            EventType.commit(event, stream.getClass().getName(), compressed, uncompressedSize, storedSize,
+                    uncompressedSize == 0 ? 1.0 : (double) storedSize / uncompressedSize);
+        }
+    }
+
+    /**
+     * Records that <i>pool</i> created a new buffer of <i>size</i> bytes.
+     */
+    public static void bufferPoolMiss(String pool, long size)
+    {
+        if (recording) {
+            final Object event = bufferPoolMiss.begin();
+            EventType.commit(event, pool, size);
+        }
+    }
+
+    /**
+     * @return a started {@code NativeLibraryLoad} event, or {@code null} if it is not recorded
+     */
+    static Object beginLibraryLoad()
+    {
+        return recording ? libraryLoad.begin() : null;
+    }
+
+    /**
+     * Commits an event returned by {@link #beginLibraryLoad()}.
+     *
+     * @param path the loaded file, or {@code null} if loaded from java.library.path
+     */
+    static void endLibraryLoad(Object event, String path, long extractNanos)
+    {
+        if (event != null) {
+            EventType.commit(event, path, extractNanos);
+        }
+    }
+
+    private static long readThreshold()
+    {
+        final String value = System.getProperty(THRESHOLD_PROPERTY);
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()));
+            }
+            catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Ignoring invalid " + THRESHOLD_PROPERTY + " value: " + value);
+            }
+        }
+        return 64 * 1024;
+    }
+
+    /**
+     * Listens to recording state changes, if JFR is available.
+     */
+    private static void install()
+    {
+        try {
+            final Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+            final Class<?> listenerType = Class.forName("jdk.jfr.FlightRecorderListener");
+            final Object listener = Proxy.newProxyInstance(SnappyEvents.class.getClassLoader(),
+                    new Class<?>[] {listenerType}, new InvocationHandler()
+                    {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                        {
+                            if (method.getDeclaringClass() == Object.class) {
+                                if ("equals".equals(method.getName())) {
+                                    return proxy == args[0];
+                                }
+                                return "hashCode".equals(method.getName()) ? System.identityHashCode(proxy)
+                                        : "SnappyEvents listener";
+                            }
+                            if ("recordingStateChanged".equals(method.getName())) {
+                                update(flightRecorder);
+                            }
+                            return null;
+                        }
+                    });
+            flightRecorder.getMethod("addListener", listenerType).invoke(null, listener);
+            if ((Boolean) flightRecorder.getMethod("isInitialized").invoke(null)) {
+                update(flightRecorder);
+            }
+        }
+        catch (ClassNotFoundException e) {
+            // no JFR in this JVM
+        }
+        catch (Throwable t) {
+            LOGGER.log(Level.FINE, "Unable to listen to JFR recordings", t);
+        }
+    }
+
+    private static synchronized void update(Class<?> flightRecorder)
+    {
+        try {
+            boolean running = false;
+            final Object recorder = flightRecorder.getMethod("getFlightRecorder").invoke(null);
+            for (Object r : (List<?>) flightRecorder.getMethod("getRecordings").invoke(recorder)) {
+                running |= "RUNNING".equals(String.valueOf(r.getClass().getMethod("getState").invoke(r)));
+            }
+            if (running && compress == null) {
+                defineEventTypes();
+            }
+            recording = running;
+        }
+        catch (Throwable t) {
+            LOGGER.log(Level.FINE, "Unable to define JFR events", t);
+            recording = false;
+        }
+    }
+
+    private static void defineEventTypes()
+            throws ReflectiveOperationException
+    {
+        compress = new EventType("Compress", "Snappy Compress",
+                new Field(long.class, "inputSize", "Input Size", "BYTES"),
+                new Field(long.class, "outputSize", "Output Size", "BYTES"));
+        uncompress = new EventType("Uncompress", "Snappy Uncompress",
+                new Field(long.class, "inputSize", "Input Size", "BYTES"),
+                new Field(long.class, "outputSize", "Output Size", "BYTES"));
+        streamBlock = new EventType("StreamBlock", "Snappy Stream Block",
+                new Field(String.class, "stream", "Stream", null),
+                new Field(boolean.class, "compressed", "Compressed", null),
+                new Field(long.class, "uncompressedSize", "Uncompressed Size", "BYTES"),
+                new Field(long.class, "storedSize", "Stored Size", "BYTES"),
+                new Field(double.class, "ratio", "Ratio", null));
+        bufferPoolMiss = new EventType("BufferPoolMiss", "Snappy Buffer Pool Miss",
+                new Field(String.class, "pool", "Pool", null),
+                new Field(long.class, "size", "Size", "BYTES"));
+        libraryLoad = new EventType("NativeLibraryLoad", "Snappy Native Library Load",
+                new Field(String.class, "path", "Path", null),
+                new Field(long.class, "extractDuration", "Extract Duration", "NANOSECONDS"));
+    }
+
+    private static final class Field
+    {
+        final Class<?> type;
+        final String name;
+        final String label;
+        /**
+         * A {@code jdk.jfr.DataAmount} unit for {@code BYTES}, a
+         * {@code jdk.jfr.Timespan} unit for {@code NANOSECONDS}, or {@code null}
+         */
+        final String unit;
+
+        Field(Class<?> type, String name, String label, String unit)
+        {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.unit = unit;
+        }
+    }
+
+    /**
+     * An event type created with {@code jdk.jfr.EventFactory}, used through
+     * method handles.
+     */
+    private static final class EventType
+    {
+        private static MethodHandle begin;
+        private static MethodHandle end;
+        private static MethodHandle shouldCommit;
+        private static MethodHandle set;
+        private static MethodHandle commit;
+
+        private final MethodHandle newEvent;
+
+        EventType(String name, String label, Field... fields)
+                throws ReflectiveOperationException
+        {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            if (begin == null) {
+                begin = lookup.findVirtual(eventClass, "begin", methodType(void.class))
+                        .asType(methodType(void.class, Object.class));
+                end = lookup.findVirtual(eventClass, "end", methodType(void.class))
+                        .asType(methodType(void.class, Object.class));
+                shouldCommit = lookup.findVirtual(eventClass, "shouldCommit", methodType(boolean.class))
+                        .asType(methodType(boolean.class, Object.class));
+                set = lookup.findVirtual(eventClass, "set", methodType(void.class, int.class, Object.class))
+                        .asType(methodType(void.class, Object.class, int.class, Object.class));
+                commit = lookup.findVirtual(eventClass, "commit", methodType(void.class))
+                        .asType(methodType(void.class, Object.class));
+            }
+
+            final List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotation("jdk.jfr.Name", "org.xerial.snappy." + name));
+            annotations.add(annotation("jdk.jfr.Label", label));
+            annotations.add(annotation("jdk.jfr.Category", new String[] {"Snappy"}));
+            final List<Object> descriptors = new ArrayList<Object>();
+            final Constructor<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class);
+            for (Field field : fields) {
+                final List<Object> fieldAnnotations = new ArrayList<Object>();
+                fieldAnnotations.add(annotation("jdk.jfr.Label", field.label));
+                if ("BYTES".equals(field.unit)) {
+                    fieldAnnotations.add(annotation("jdk.jfr.DataAmount", field.unit));
+                }
+                else if (field.unit != null) {
+                    fieldAnnotations.add(annotation("jdk.jfr.Timespan", field.unit));
+                }
+                descriptors.add(descriptor.newInstance(field.type, field.name, fieldAnnotations));
+            }
+            final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Object factory = factoryClass.getMethod("create", List.class, List.class)
+                    .invoke(null, annotations, descriptors);
+            newEvent = lookup.findVirtual(factoryClass, "newEvent", methodType(eventClass))
+                    .bindTo(factory)
+                    .asType(methodType(Object.class));
+        }
+
+        private static Object annotation(String type, Object value)
+                throws ReflectiveOperationException
+        {
+            return Class.forName("jdk.jfr.AnnotationElement")
+                    .getConstructor(Class.class, Object.class)
+                    .newInstance(Class.forName(type), value);
+        }
+
+        Object begin()
+        {
+            try {
+                final Object event = newEvent.invokeExact();
+                begin.invokeExact(event);
+                return event;
+            }
+            catch (Throwable t) {
+                return null;
+            }
+        }
+
+        /**
+         * Ends <i>event</i> and commits it with <i>values</i> for its fields,
+         * unless the recording settings filter it out.
+         */
+        static void commit(Object event, Object... values)
+        {
+            if (event == null) {
+                return;
+            }
+            try {
+                end.invokeExact(event);
+                if ((boolean) shouldCommit.invokeExact(event)) {
+                    for (int i = 0; i < values.length; i++) {
+                        set.invokeExact(event, i, values[i]);
+                    }
+                    commit.invokeExact(event);
+                }
+            }
+            catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Unable to commit JFR event", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.xerial.snappy;
+
+/**
+ * Interfaces for demand-driven streams of buffers, with the same methods and
+ * contracts as {@code java.util.concurrent.Flow} (and the Reactive Streams
+ * specification). snappy-java targets Java 8, where {@code Flow} is not
+ * available; on later versions an adapter to {@code Flow} only needs to
+ * forward each method.
+ *
+ * @see SnappyProcessor
+ */
+public final class SnappyFlow
+{
+    private SnappyFlow()
+    {
+    }
+
+    /**
+     * A producer of items received by {@link Subscriber}s.
+     */
+    public interface Publisher<T>
+    {
+        /**
+         * Adds the given subscriber, which is then sent
+         * {@link Subscriber#onSubscribe(Subscription)}.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods are never called concurrently.
+     */
+    public interface Subscriber<T>
+    {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a {@link Publisher} and a {@link Subscriber}.
+     */
+    public interface Subscription
+    {
+        /**
+         * Adds <i>n</i> items to the number the subscriber is prepared to
+         * receive.
+         */
+        void request(long n);
+
+        /**
+         * Stops sending items to the subscriber.
+         */
+        void cancel();
+    }
+
+    /**
+     * A component acting as both a {@link Subscriber} and a {@link Publisher}.
+     */
+    public interface Processor<T, R>
+            extends Subscriber<T>, Publisher<R>
+    {
+    }
+}
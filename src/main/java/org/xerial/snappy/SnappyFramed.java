@@ -29,6 +29,12 @@ final class SnappyFramed
 
     public static final int STREAM_IDENTIFIER_FLAG = 0xff;
 
+    /**
+     * The size of the header (flag, length and crc32c) preceding the data of
+     * a compressed or uncompressed data chunk.
+     */
+    public static final int FRAME_HEADER_SIZE = 8;
+
     private static final int MASK_DELTA = 0xa282ead8;
 
     private static final Supplier<Checksum> CHECKSUM_SUPPLIER;
@@ -109,6 +115,105 @@ final class SnappyFramed
         return ((crc >>> 15) | (crc << 17)) + MASK_DELTA;
     }
 
+    /**
+     * Writes the header of a data chunk into <i>dst</i> at <i>offset</i>,
+     * without changing the position of <i>dst</i>.
+     *
+     * @param dst The buffer to write to.
+     * @param offset The position in <i>dst</i> of the chunk.
+     * @param compressed Indicates if the data is the compressed or raw content.
+     * @param dataLength The length of the chunk data following the header.
+     * @param crc32c The masked checksum of the uncompressed data.
+     */
+    static void writeFrameHeader(ByteBuffer dst, int offset, boolean compressed,
+            int dataLength, int crc32c)
+    {
+        dst.put(offset, (byte) (compressed ? COMPRESSED_DATA_FLAG
+                : UNCOMPRESSED_DATA_FLAG));
+
+        // the length written out to the header is both the checksum and the
+        // frame
+        final int headerLength = dataLength + 4;
+
+        // write length
+        dst.put(offset + 1, (byte) headerLength);
+        dst.put(offset + 2, (byte) (headerLength >>> 8));
+        dst.put(offset + 3, (byte) (headerLength >>> 16));
+
+        // write crc32c of user input data in little endian order
+        dst.put(offset + 4, (byte) crc32c);
+        dst.put(offset + 5, (byte) (crc32c >>> 8));
+        dst.put(offset + 6, (byte) (crc32c >>> 16));
+        dst.put(offset + 7, (byte) (crc32c >>> 24));
+    }
+
+    /**
+     * Encodes <i>length</i> bytes of <i>data</i> as a single data chunk
+     * (header and compressed or raw data), which is left in <i>frame</i> in
+     * read mode.
+     *
+     * @param crc32c Used to calculate the checksum of <i>data</i>.
+     * @param directInputBuffer A direct buffer with room for <i>length</i>
+     * bytes, used as the input of the compression.
+     * @param frame A direct buffer with room for {@link #FRAME_HEADER_SIZE}
+     * plus {@link Snappy#maxCompressedLength(int)} bytes.
+     * @param minCompressionRatio The compressed data is only used if
+     * {@code compressedLength / length} does not exceed this.
+     * @throws IOException
+     */
+    static void encodeFrame(Checksum crc32c, byte[] data, int offset, int length,
+            ByteBuffer directInputBuffer, ByteBuffer frame, double minCompressionRatio)
+            throws IOException
+    {
+        // crc is based on the user supplied input data
+        final int crc = maskedCrc32c(crc32c, data, offset, length);
+
+        directInputBuffer.clear();
+        directInputBuffer.put(data, offset, length);
+        directInputBuffer.flip();
+
+        frame.clear();
+        frame.position(FRAME_HEADER_SIZE);
+        Snappy.compress(directInputBuffer, frame);
+
+        final int compressedLength = frame.remaining();
+        frame.limit(frame.capacity());
+
+        // only use the compressed data if compression ratio is <= the
+        // minCompressonRatio
+        final boolean compressed = ((double) compressedLength / (double) length) <= minCompressionRatio;
+        if (compressed) {
+            frame.position(FRAME_HEADER_SIZE + compressedLength);
+        }
+        else {
+            frame.position(FRAME_HEADER_SIZE);
+            frame.put(directInputBuffer);
+        }
+
+        writeFrameHeader(frame, 0, compressed, frame.position() - FRAME_HEADER_SIZE, crc);
+        frame.flip();
+    }
+
+    /**
+     * Copies as many bytes as fit from <i>src</i> to <i>dst</i>.
+     *
+     * @return The number of bytes copied.
+     */
+    static int transfer(ByteBuffer src, ByteBuffer dst)
+    {
+        final int length = Math.min(src.remaining(), dst.remaining());
+        if (length == src.remaining()) {
+            dst.put(src);
+        }
+        else {
+            final int limit = src.limit();
+            src.limit(src.position() + length);
+            dst.put(src);
+            src.limit(limit);
+        }
+        return length;
+    }
+
     static final int readBytes(ReadableByteChannel source, ByteBuffer dest)
             throws IOException
     {
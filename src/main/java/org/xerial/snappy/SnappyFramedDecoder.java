@@ -0,0 +1,367 @@
+package org.xerial.snappy;
+
+import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
+import static org.xerial.snappy.SnappyFramed.STREAM_IDENTIFIER_FLAG;
+import static org.xerial.snappy.SnappyFramed.transfer;
+import static org.xerial.snappy.SnappyFramedOutputStream.MAX_BLOCK_SIZE;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+import org.xerial.snappy.SnappyFramedInputStream.FrameAction;
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * A push-based decoder for the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format, in the style of
+ * {@link java.nio.charset.CharsetDecoder}. Unlike
+ * {@link SnappyFramedInputStream}, it never blocks: input may arrive in
+ * fragments of any size (for example as read from a non-blocking channel), and
+ * the decoder keeps the state of a partially received frame header or frame
+ * between calls.
+ * <p>
+ * A typical loop reads from a non-blocking channel:
+ * </p>
+ * <pre>
+ * channel.read(in);
+ * in.flip();
+ * while (decoder.decode(in, out, endOfInput) == SnappyCoderResult.OVERFLOW) {
+ *     out.flip();
+ *     consume(out);
+ *     out.clear();
+ * }
+ * in.compact();
+ * </pre>
+ * <p>
+ * All buffers are obtained once from the {@link BufferPool} and returned by
+ * {@link #close()}; decoding does not allocate unless a frame is larger than
+ * the framing format's recommended maximum. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyFramedEncoder
+ */
+public final class SnappyFramedDecoder
+        implements Closeable
+{
+    private static final int STATE_HEADER = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_SKIP = 2;
+
+    private final Checksum crc32 = SnappyFramed.getCRC32C();
+    private final boolean verifyChecksums;
+    private final BufferPool bufferPool;
+
+    /**
+     * Collects the 4 byte chunk header.
+     */
+    private final byte[] frameHeader = new byte[4];
+
+    /**
+     * The number of bytes in {@link #frameHeader}.
+     */
+    private int frameHeaderLength;
+
+    private int state;
+
+    /**
+     * The action for the current chunk.
+     */
+    private FrameAction frameAction;
+
+    /**
+     * The number of bytes of the current chunk left to skip.
+     */
+    private int toSkip;
+
+    /**
+     * Indicates if the stream identifier at the start of the stream has been
+     * read.
+     */
+    private boolean streamHeaderRead;
+
+    /**
+     * Collects the body of the current chunk.
+     */
+    private ByteBuffer input;
+
+    /**
+     * The decompressed data from {@link #input}.
+     */
+    private ByteBuffer uncompressedDirect;
+
+    /**
+     * Buffer contains a copy of the uncompressed data for the block.
+     */
+    private byte[] buffer;
+
+    /**
+     * The position in {@link #buffer} of the end of the uncompressed data.
+     */
+    private int valid;
+
+    /**
+     * The next position to write to the output from {@link #buffer}.
+     */
+    private int position;
+
+    /**
+     * Creates a new {@link SnappyFramedDecoder} which verifies checksums.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     */
+    public SnappyFramedDecoder()
+    {
+        this(true, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link SnappyFramedDecoder} instance.
+     *
+     * @param verifyChecksums if true, checksums in the input will be verified
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public SnappyFramedDecoder(boolean verifyChecksums, BufferPool bufferPool)
+    {
+        if (bufferPool == null) {
+            throw new NullPointerException("bufferPool is null");
+        }
+        this.verifyChecksums = verifyChecksums;
+        this.bufferPool = bufferPool;
+
+        allocateBuffersBasedOnSize(MAX_BLOCK_SIZE + 5);
+        reset();
+    }
+
+    /**
+     * Discards any partially decoded data and expects the start of a new
+     * stream.
+     *
+     * @throws IllegalStateException if this decoder has been closed.
+     */
+    public void reset()
+    {
+        ensureOpen();
+        state = STATE_HEADER;
+        frameHeaderLength = 0;
+        streamHeaderRead = false;
+        position = 0;
+        valid = 0;
+    }
+
+    /**
+     * Equivalent to {@code decode(in, out, false)}.
+     *
+     * @see #decode(ByteBuffer, ByteBuffer, boolean)
+     */
+    public SnappyCoderResult decode(ByteBuffer in, ByteBuffer out)
+            throws IOException
+    {
+        return decode(in, out, false);
+    }
+
+    /**
+     * Consumes as much of <i>in</i> as possible, writing uncompressed data to
+     * <i>out</i>. Incomplete chunks at the end of <i>in</i> are kept until
+     * more input arrives.
+     *
+     * @param in The framed input.
+     * @param out The buffer to write uncompressed data to.
+     * @param endOfInput {@code true} if <i>in</i> holds the last of the input,
+     * in which case the stream must not end in the middle of a chunk.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all of <i>in</i> has been
+     * consumed and all of its data written to <i>out</i>,
+     * {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room left for
+     * pending output.
+     * @throws EOFException if <i>endOfInput</i> is {@code true} and the input
+     * ends in the middle of a chunk or before the stream header.
+     * @throws IOException if the input is not valid.
+     */
+    public SnappyCoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput)
+            throws IOException
+    {
+        ensureOpen();
+        while (true) {
+            if (position < valid) {
+                final int toCopy = Math.min(out.remaining(), valid - position);
+                out.put(buffer, position, toCopy);
+                position += toCopy;
+                if (position < valid) {
+                    return SnappyCoderResult.OVERFLOW;
+                }
+            }
+
+            if (!in.hasRemaining()) {
+                if (endOfInput) {
+                    checkEndOfInput();
+                }
+                return SnappyCoderResult.UNDERFLOW;
+            }
+
+            switch (state) {
+                case STATE_HEADER:
+                    readFrameHeader(in);
+                    break;
+                case STATE_SKIP: {
+                    final int skipped = Math.min(toSkip, in.remaining());
+                    in.position(in.position() + skipped);
+                    toSkip -= skipped;
+                    if (toSkip == 0) {
+                        state = STATE_HEADER;
+                    }
+                    break;
+                }
+                default:
+                    transfer(in, input);
+                    if (!input.hasRemaining()) {
+                        input.flip();
+                        decodeFrame();
+                        state = STATE_HEADER;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Returns the buffers to the {@link BufferPool}.
+     */
+    @Override
+    public void close()
+    {
+        if (buffer != null) {
+            bufferPool.releaseDirect(input);
+            bufferPool.releaseDirect(uncompressedDirect);
+            bufferPool.releaseArray(buffer);
+            input = null;
+            uncompressedDirect = null;
+            buffer = null;
+        }
+    }
+
+    private void ensureOpen()
+    {
+        if (buffer == null) {
+            throw new IllegalStateException("decoder is closed");
+        }
+    }
+
+    private void checkEndOfInput()
+            throws EOFException
+    {
+        if (!streamHeaderRead) {
+            throw new EOFException("encountered EOF while reading stream header");
+        }
+        if (state != STATE_HEADER || frameHeaderLength != 0) {
+            throw new EOFException("unexpected EOF when reading frame");
+        }
+    }
+
+    private void allocateBuffersBasedOnSize(int size)
+    {
+        if (input != null) {
+            bufferPool.releaseDirect(input);
+        }
+
+        if (uncompressedDirect != null) {
+            bufferPool.releaseDirect(uncompressedDirect);
+        }
+
+        if (buffer != null) {
+            bufferPool.releaseArray(buffer);
+        }
+
+        input = bufferPool.allocateDirect(size);
+        final int maxCompressedLength = Snappy.maxCompressedLength(size);
+        uncompressedDirect = bufferPool.allocateDirect(maxCompressedLength);
+        buffer = bufferPool.allocateArray(maxCompressedLength);
+    }
+
+    private void readFrameHeader(ByteBuffer in)
+            throws IOException
+    {
+        final int toCopy = Math.min(frameHeader.length - frameHeaderLength, in.remaining());
+        in.get(frameHeader, frameHeaderLength, toCopy);
+        frameHeaderLength += toCopy;
+        if (frameHeaderLength < frameHeader.length) {
+            return;
+        }
+        frameHeaderLength = 0;
+
+        final int flag = frameHeader[0] & 0xFF;
+        int length = (frameHeader[1] & 0xFF);
+        length |= (frameHeader[2] & 0xFF) << 8;
+        length |= (frameHeader[3] & 0xFF) << 16;
+
+        if (!streamHeaderRead && flag != STREAM_IDENTIFIER_FLAG) {
+            throw new IOException("invalid stream header");
+        }
+
+        frameAction = SnappyFramedInputStream.getFrameAction(flag, length);
+        if (FrameAction.SKIP == frameAction && streamHeaderRead) {
+            toSkip = length;
+            state = length == 0 ? STATE_HEADER : STATE_SKIP;
+            return;
+        }
+
+        if (length > input.capacity()) {
+            allocateBuffersBasedOnSize(length);
+        }
+        input.clear();
+        input.limit(length);
+        state = STATE_BODY;
+    }
+
+    private void decodeFrame()
+            throws IOException
+    {
+        if (!streamHeaderRead) {
+            // the body of the stream identifier must be "sNaPpY"
+            for (int i = 0; i < input.remaining(); i++) {
+                if (input.get(i) != HEADER_BYTES[4 + i]) {
+                    throw new IOException("invalid stream header");
+                }
+            }
+            streamHeaderRead = true;
+            return;
+        }
+
+        // the first 4 bytes are the crc32c value in little endian order
+        input.order(ByteOrder.LITTLE_ENDIAN);
+        final int checkSum = input.getInt(0);
+        input.position(4);
+
+        if (FrameAction.UNCOMPRESS == frameAction) {
+            final int uncompressedLength = Snappy.uncompressedLength(input);
+
+            if (uncompressedLength > uncompressedDirect.capacity()) {
+                bufferPool.releaseDirect(uncompressedDirect);
+                bufferPool.releaseArray(buffer);
+                uncompressedDirect = bufferPool.allocateDirect(uncompressedLength);
+                buffer = bufferPool.allocateArray(uncompressedLength);
+            }
+
+            uncompressedDirect.clear();
+            valid = Snappy.uncompress(input, uncompressedDirect);
+            uncompressedDirect.get(buffer, 0, valid);
+        }
+        else {
+            valid = input.remaining();
+            input.get(buffer, 0, valid);
+        }
+        position = 0;
+
+        if (verifyChecksums) {
+            final int actualCrc32c = SnappyFramed.maskedCrc32c(crc32, buffer,
+                    0, valid);
+            if (checkSum != actualCrc32c) {
+                throw new IOException("Corrupt input: invalid checksum");
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.xerial.snappy;
+
+import static org.xerial.snappy.SnappyFramed.FRAME_HEADER_SIZE;
+import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
+import static org.xerial.snappy.SnappyFramed.encodeFrame;
+import static org.xerial.snappy.SnappyFramed.transfer;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE;
+import static org.xerial.snappy.SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO;
+import static org.xerial.snappy.SnappyFramedOutputStream.MAX_BLOCK_SIZE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * A push-based encoder for the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format, in the style of
+ * {@link java.nio.charset.CharsetEncoder}. Unlike
+ * {@link SnappyFramedOutputStream}, it never blocks: the caller supplies
+ * input and output {@link ByteBuffer}s of any size (heap or direct), and the
+ * encoder keeps any partially written frame between calls.
+ * <p>
+ * A typical loop writes to a non-blocking channel:
+ * </p>
+ * <pre>
+ * while (encoder.encode(in, out) == SnappyCoderResult.OVERFLOW) {
+ *     out.flip();
+ *     channel.write(out); // or wait for the channel to become writable
+ *     out.compact();
+ * }
+ * </pre>
+ * <p>
+ * and calls {@link #flush(ByteBuffer)} in the same way to emit a partially
+ * filled block. All buffers are obtained once from the {@link BufferPool} and
+ * returned by {@link #close()}. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyFramedDecoder
+ */
+public final class SnappyFramedEncoder
+        implements Closeable
+{
+    private final Checksum crc32 = SnappyFramed.getCRC32C();
+    private final BufferPool bufferPool;
+    private final int blockSize;
+    private final double minCompressionRatio;
+
+    /**
+     * The raw data of the block being collected. Held as a {@code byte[]} for
+     * calculating the checksum.
+     */
+    private byte[] buffer;
+
+    /**
+     * The number of bytes in {@link #buffer}.
+     */
+    private int buffered;
+
+    private ByteBuffer directInputBuffer;
+
+    /**
+     * Holds the encoded stream header or frame in read mode ([position, limit)
+     * is not yet written to the output).
+     */
+    private ByteBuffer outputBuffer;
+
+    /**
+     * Creates a new {@link SnappyFramedEncoder} using the
+     * {@link SnappyFramedOutputStream#DEFAULT_BLOCK_SIZE} and
+     * {@link SnappyFramedOutputStream#DEFAULT_MIN_COMPRESSION_RATIO}.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     */
+    public SnappyFramedEncoder()
+    {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_MIN_COMPRESSION_RATIO, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link SnappyFramedEncoder} instance.
+     *
+     * @param blockSize The block size (of raw data) to compress into each frame.
+     * Must be in (0, 65536].
+     * @param minCompressionRatio Defines the minimum compression ratio (
+     * {@code compressedLength / rawLength}) that must be achieved to
+     * write the compressed data. This must be in (0, 1.0].
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public SnappyFramedEncoder(int blockSize, double minCompressionRatio,
+            BufferPool bufferPool)
+    {
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+
+        if (minCompressionRatio <= 0 || minCompressionRatio > 1.0) {
+            throw new IllegalArgumentException("minCompressionRatio "
+                    + minCompressionRatio + " must be in (0,1.0]");
+        }
+
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("block size " + blockSize
+                    + " must be in (0, 65536]");
+        }
+        this.blockSize = blockSize;
+        this.minCompressionRatio = minCompressionRatio;
+        this.bufferPool = bufferPool;
+
+        buffer = bufferPool.allocateArray(blockSize);
+        directInputBuffer = bufferPool.allocateDirect(blockSize);
+        outputBuffer = bufferPool.allocateDirect(FRAME_HEADER_SIZE
+                + Snappy.maxCompressedLength(blockSize));
+
+        reset();
+    }
+
+    /**
+     * Discards any buffered data and starts a new stream, so that the next
+     * output begins with the stream header.
+     *
+     * @throws IllegalStateException if this encoder has been closed.
+     */
+    public void reset()
+    {
+        ensureOpen();
+        buffered = 0;
+        outputBuffer.clear();
+        outputBuffer.put(HEADER_BYTES);
+        outputBuffer.flip();
+    }
+
+    /**
+     * Consumes as much of <i>in</i> as possible, writing complete frames to
+     * <i>out</i>. Data not filling a complete block is kept until more input
+     * arrives or {@link #flush(ByteBuffer)} is called.
+     *
+     * @param in The raw data to encode.
+     * @param out The buffer to write encoded data to.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all of <i>in</i> has been
+     * consumed, {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room
+     * left for pending output.
+     * @throws IOException
+     */
+    public SnappyCoderResult encode(ByteBuffer in, ByteBuffer out)
+            throws IOException
+    {
+        ensureOpen();
+        while (true) {
+            if (!drain(out)) {
+                return SnappyCoderResult.OVERFLOW;
+            }
+            if (!in.hasRemaining()) {
+                return SnappyCoderResult.UNDERFLOW;
+            }
+
+            final int toCopy = Math.min(in.remaining(), blockSize - buffered);
+            in.get(buffer, buffered, toCopy);
+            buffered += toCopy;
+
+            if (buffered == blockSize) {
+                encodeBlock();
+            }
+        }
+    }
+
+    /**
+     * Encodes any partially filled block as a frame and writes all pending
+     * output to <i>out</i>. Encoding may continue afterwards.
+     *
+     * @param out The buffer to write encoded data to.
+     * @return {@link SnappyCoderResult#UNDERFLOW} if all output has been
+     * written, {@link SnappyCoderResult#OVERFLOW} if <i>out</i> has no room
+     * left and this method must be called again.
+     * @throws IOException
+     */
+    public SnappyCoderResult flush(ByteBuffer out)
+            throws IOException
+    {
+        ensureOpen();
+        if (!drain(out)) {
+            return SnappyCoderResult.OVERFLOW;
+        }
+        if (buffered > 0) {
+            encodeBlock();
+            if (!drain(out)) {
+                return SnappyCoderResult.OVERFLOW;
+            }
+        }
+        return SnappyCoderResult.UNDERFLOW;
+    }
+
+    /**
+     * Returns the buffers to the {@link BufferPool}. Any data not yet
+     * {@link #flush(ByteBuffer) flushed} is discarded.
+     */
+    @Override
+    public void close()
+    {
+        if (buffer != null) {
+            bufferPool.releaseArray(buffer);
+            bufferPool.releaseDirect(directInputBuffer);
+            bufferPool.releaseDirect(outputBuffer);
+            buffer = null;
+            directInputBuffer = null;
+            outputBuffer = null;
+        }
+    }
+
+    private void ensureOpen()
+    {
+        if (buffer == null) {
+            throw new IllegalStateException("encoder is closed");
+        }
+    }
+
+    /**
+     * @return {@code true} if all pending output has been written to <i>out</i>.
+     */
+    private boolean drain(ByteBuffer out)
+    {
+        if (outputBuffer.hasRemaining()) {
+            transfer(outputBuffer, out);
+        }
+        return !outputBuffer.hasRemaining();
+    }
+
+    /**
+     * Encodes the {@link #buffered} bytes of {@link #buffer} as a single frame
+     * into {@link #outputBuffer}, which must have been fully drained.
+     */
+    private void encodeBlock()
+            throws IOException
+    {
+        assert !outputBuffer.hasRemaining();
+        encodeFrame(crc32, buffer, 0, buffered, directInputBuffer, outputBuffer, minCompressionRatio);
+        buffered = 0;
+    }
+}
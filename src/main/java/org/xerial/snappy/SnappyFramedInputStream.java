@@ -8,7 +8,6 @@ import static org.xerial.snappy.SnappyFramed.COMPRESSED_DATA_FLAG;
 import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
 import static org.xerial.snappy.SnappyFramed.STREAM_IDENTIFIER_FLAG;
 import static org.xerial.snappy.SnappyFramed.UNCOMPRESSED_DATA_FLAG;
-import static org.xerial.snappy.SnappyFramed.readBytes;
 import static org.xerial.snappy.SnappyFramedOutputStream.MAX_BLOCK_SIZE;
 
 import java.io.EOFException;
@@ -42,11 +41,26 @@ public final class SnappyFramedInputStream
         ReadableByteChannel
 {
 
+    /**
+     * The default size of the read-ahead buffer used by
+     * {@link #SnappyFramedInputStream(ReadableByteChannel, boolean, BufferPool, int)}.
+     */
+    public static final int DEFAULT_READ_AHEAD_SIZE = 1024 * 1024;
+
     private final Checksum crc32 = SnappyFramed.getCRC32C();
-    private final ReadableByteChannel rbc;
+    private ReadableByteChannel rbc;
     private final ByteBuffer frameHeader;
     private final boolean verifyChecksums;
     private final BufferPool bufferPool;
+    private final int readAheadSize;
+
+    /**
+     * Optional buffer of not yet consumed bytes from {@link #rbc}, kept in
+     * read mode ([position, limit) holds the unconsumed bytes). When
+     * {@code null}, frame headers and frame bodies are read directly from
+     * {@link #rbc}.
+     */
+    private ByteBuffer readAhead;
 
     /**
      * A single frame read from the underlying {@link InputStream}.
@@ -83,6 +97,8 @@ public final class SnappyFramedInputStream
      */
     private byte[] buffer;
 
+    private SnappyStreamListener listener = Snappy.getStreamListener();
+
     /**
      * Creates a Snappy input stream to read data from the specified underlying
      * input stream.
@@ -146,6 +162,25 @@ public final class SnappyFramedInputStream
         this(Channels.newChannel(in), verifyChecksums, bufferPool);
     }
 
+    /**
+     * Creates a Snappy input stream to read data from the specified underlying
+     * input stream, reading ahead up to <i>readAheadSize</i> bytes at a time.
+     *
+     * @param in the underlying input stream. Must not be {@code null}.
+     * @param verifyChecksums if true, checksums in input stream will be verified
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @param readAheadSize the number of bytes to read from <i>in</i> at once.
+     * Must be {@code >= 0}. See
+     * {@link #SnappyFramedInputStream(ReadableByteChannel, boolean, BufferPool, int)}.
+     * @throws IOException
+     */
+    public SnappyFramedInputStream(InputStream in, boolean verifyChecksums,
+            BufferPool bufferPool, int readAheadSize)
+            throws IOException
+    {
+        this(Channels.newChannel(in), verifyChecksums, bufferPool, readAheadSize);
+    }
+
     /**
      * Creates a Snappy input stream to read data from the specified underlying
      * channel.
@@ -206,6 +241,38 @@ public final class SnappyFramedInputStream
     public SnappyFramedInputStream(ReadableByteChannel in,
             boolean verifyChecksums, BufferPool bufferPool)
             throws IOException
+    {
+        this(in, verifyChecksums, bufferPool, 0);
+    }
+
+    /**
+     * Creates a Snappy input stream to read data from the specified underlying
+     * channel, reading ahead up to <i>readAheadSize</i> bytes at a time.
+     * <p>
+     * Without read-ahead, each frame costs two reads from <i>in</i>: one for
+     * the 4 byte frame header and one for the frame body. With read-ahead,
+     * large chunks are read into a pooled buffer and as many frames as fit are
+     * parsed (and decompressed in place) from it, which greatly reduces the
+     * number of reads on pipes and sockets. Frames straddling the end of the
+     * buffer are handled by compacting and refilling it, and frames larger
+     * than the buffer are copied out as without read-ahead.
+     * </p>
+     * <p>
+     * Note that the stream may consume bytes from <i>in</i> beyond the end of
+     * the snappy framed content.
+     * </p>
+     *
+     * @param in the underlying readable channel. Must not be {@code null}.
+     * @param verifyChecksums if true, checksums in input stream will be verified
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @param readAheadSize the number of bytes to read from <i>in</i> at once,
+     * for example {@link #DEFAULT_READ_AHEAD_SIZE}. {@code 0} disables
+     * read-ahead. Must be {@code >= 0}.
+     * @throws IOException
+     */
+    public SnappyFramedInputStream(ReadableByteChannel in,
+            boolean verifyChecksums, BufferPool bufferPool, int readAheadSize)
+            throws IOException
     {
         if (in == null) {
             throw new NullPointerException("in is null");
@@ -215,19 +282,98 @@ public final class SnappyFramedInputStream
             throw new NullPointerException("bufferPool is null");
         }
 
+        if (readAheadSize < 0) {
+            throw new IllegalArgumentException("readAheadSize is invalid: "
+                    + readAheadSize);
+        }
+
         this.bufferPool = bufferPool;
         this.rbc = in;
         this.verifyChecksums = verifyChecksums;
+        this.readAheadSize = readAheadSize;
 
         allocateBuffersBasedOnSize(MAX_BLOCK_SIZE + 5);
         this.frameHeader = ByteBuffer.allocate(4);
 
+        if (readAheadSize > 0) {
+            readAhead = bufferPool.allocateDirect(readAheadSize);
+            readAhead.limit(0);
+        }
+
+        readStreamHeader();
+    }
+
+    /**
+     * Sets the listener notified of each block this stream processes,
+     * replacing the one taken from {@link Snappy#getStreamListener()} when the
+     * stream was created.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setStreamListener(SnappyStreamListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts reading a new stream from <i>in</i>, keeping the buffers and
+     * settings of this instance. Any data not yet read from the previous
+     * stream is discarded, and the previous underlying stream is not closed.
+     * This allows instances to be reused, for example per thread, without
+     * allocating new buffers. A closed instance obtains its buffers from the
+     * {@link BufferPool} again.
+     *
+     * @param in the underlying input stream. Must not be {@code null}.
+     * @throws IOException if the stream header cannot be read
+     */
+    public void reset(InputStream in)
+            throws IOException
+    {
+        reset(Channels.newChannel(in));
+    }
+
+    /**
+     * Starts reading a new stream from <i>in</i>, as
+     * {@link #reset(InputStream)}.
+     *
+     * @param in the underlying readable channel. Must not be {@code null}.
+     * @throws IOException if the stream header cannot be read
+     */
+    public void reset(ReadableByteChannel in)
+            throws IOException
+    {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+
+        if (closed) {
+            closed = false;
+            allocateBuffersBasedOnSize(MAX_BLOCK_SIZE + 5);
+            if (readAheadSize > 0) {
+                readAhead = bufferPool.allocateDirect(readAheadSize);
+            }
+        }
+        if (readAhead != null) {
+            readAhead.clear();
+            readAhead.limit(0);
+        }
+        this.rbc = in;
+        eof = false;
+        valid = 0;
+        position = 0;
+
+        readStreamHeader();
+    }
+
+    private void readStreamHeader()
+            throws IOException
+    {
         // stream must begin with stream header
         final byte[] expectedHeader = HEADER_BYTES;
         final byte[] actualHeader = new byte[expectedHeader.length];
         final ByteBuffer actualBuffer = ByteBuffer.wrap(actualHeader);
 
-        final int read = SnappyFramed.readBytes(in, actualBuffer);
+        final int read = readBytes(actualBuffer);
         if (read < expectedHeader.length) {
             throw new EOFException(
                     "encountered EOF while reading stream header");
@@ -464,6 +610,11 @@ public final class SnappyFramedInputStream
                     bufferPool.releaseArray(buffer);
                     buffer = null;
                 }
+
+                if (readAhead != null) {
+                    bufferPool.releaseDirect(readAhead);
+                    readAhead = null;
+                }
             }
         }
     }
@@ -526,8 +677,7 @@ public final class SnappyFramedInputStream
         final FrameMetaData frameMetaData = getFrameMetaData(frameHeader);
 
         if (FrameAction.SKIP == frameMetaData.frameAction) {
-            SnappyFramed.skip(rbc, frameMetaData.length,
-                    ByteBuffer.wrap(buffer));
+            skip(frameMetaData.length);
             return ensureBuffer();
         }
 
@@ -535,22 +685,42 @@ public final class SnappyFramedInputStream
             allocateBuffersBasedOnSize(frameMetaData.length);
         }
 
-        input.clear();
-        input.limit(frameMetaData.length);
+        final ByteBuffer frame;
+        final int frameStart;
+        final int readAheadLimit;
+        if (fillReadAhead(frameMetaData.length)) {
+            // the whole frame is available in the read-ahead buffer, so
+            // process it in place
+            frame = readAhead;
+            frameStart = readAhead.position();
+            readAheadLimit = readAhead.limit();
+            readAhead.limit(frameStart + frameMetaData.length);
+        }
+        else {
+            frame = input;
+            frameStart = 0;
+            readAheadLimit = -1;
+
+            input.clear();
+            input.limit(frameMetaData.length);
 
-        final int actualRead = readBytes(rbc, input);
-        if (actualRead != frameMetaData.length) {
-            throw new EOFException("unexpectd EOF when reading frame");
+            final int actualRead = readBytes(input);
+            if (actualRead != frameMetaData.length) {
+                throw new EOFException("unexpectd EOF when reading frame");
+            }
+            input.flip();
         }
-        input.flip();
 
-        final FrameData frameData = getFrameData(input);
+        final SnappyStreamListener l = listener;
+        final long start = l == null ? 0 : System.nanoTime();
+        final Object event = SnappyEvents.beginBlock();
+        final FrameData frameData = getFrameData(frame);
 
         if (FrameAction.UNCOMPRESS == frameMetaData.frameAction) {
 
-            input.position(frameData.offset);
+            frame.position(frameStart + frameData.offset);
 
-            final int uncompressedLength = Snappy.uncompressedLength(input);
+            final int uncompressedLength = Snappy.uncompressedLength(frame);
 
             if (uncompressedLength > uncompressedDirect.capacity()) {
                 bufferPool.releaseDirect(uncompressedDirect);
@@ -561,17 +731,23 @@ public final class SnappyFramedInputStream
 
             uncompressedDirect.clear();
 
-            this.valid = Snappy.uncompress(input, uncompressedDirect);
+            this.valid = Snappy.uncompress(frame, uncompressedDirect);
 
             uncompressedDirect.get(buffer, 0, valid);
             this.position = 0;
         }
         else {
             // we need to start reading at the offset
-            input.position(frameData.offset);
+            frame.position(frameStart + frameData.offset);
             this.position = 0;
-            this.valid = input.remaining();
-            this.input.get(buffer, 0, input.remaining());
+            this.valid = frame.remaining();
+            frame.get(buffer, 0, frame.remaining());
+        }
+
+        if (frame == readAhead) {
+            // consume the frame from the read-ahead buffer
+            readAhead.limit(readAheadLimit);
+            readAhead.position(frameStart + frameMetaData.length);
         }
 
         if (verifyChecksums) {
@@ -582,6 +758,13 @@ public final class SnappyFramedInputStream
             }
         }
 
+        SnappyEvents.endBlock(event, this, FrameAction.UNCOMPRESS == frameMetaData.frameAction, valid,
+                frameMetaData.length - frameData.offset);
+        if (l != null) {
+            l.blockRead(this, valid, frameMetaData.length - frameData.offset,
+                    FrameAction.UNCOMPRESS != frameMetaData.frameAction, System.nanoTime() - start);
+        }
+
         return true;
     }
 
@@ -589,7 +772,7 @@ public final class SnappyFramedInputStream
             throws IOException
     {
         frameHeader.clear();
-        int read = readBytes(rbc, frameHeader);
+        int read = readBytes(frameHeader);
 
         if (read == -1) {
             return false;
@@ -603,6 +786,100 @@ public final class SnappyFramedInputStream
         return true;
     }
 
+    /**
+     * Reads from the read-ahead buffer, if any, or {@link #rbc} into
+     * <i>dest</i>, with the same contract as
+     * {@link SnappyFramed#readBytes(ReadableByteChannel, ByteBuffer)}.
+     */
+    private int readBytes(ByteBuffer dest)
+            throws IOException
+    {
+        if (readAhead == null) {
+            return SnappyFramed.readBytes(rbc, dest);
+        }
+
+        int totalRead = 0;
+        while (dest.hasRemaining()) {
+            if (!readAhead.hasRemaining() && !refillReadAhead()) {
+                break;
+            }
+            final int toCopy = min(dest.remaining(), readAhead.remaining());
+            final int limit = readAhead.limit();
+            readAhead.limit(readAhead.position() + toCopy);
+            dest.put(readAhead);
+            readAhead.limit(limit);
+            totalRead += toCopy;
+        }
+
+        if (totalRead > 0) {
+            dest.limit(dest.position());
+            return totalRead;
+        }
+        dest.position(dest.limit());
+        return -1;
+    }
+
+    /**
+     * Discards <i>length</i> bytes, first from the read-ahead buffer, if any,
+     * then from {@link #rbc}.
+     */
+    private void skip(int length)
+            throws IOException
+    {
+        if (readAhead != null) {
+            final int skipped = min(length, readAhead.remaining());
+            readAhead.position(readAhead.position() + skipped);
+            length -= skipped;
+        }
+        SnappyFramed.skip(rbc, length, ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Makes sure the read-ahead buffer holds at least <i>length</i>
+     * unconsumed bytes, reading more from {@link #rbc} as required. Bytes of
+     * a frame straddling the end of the buffer are moved to the start of the
+     * buffer first.
+     *
+     * @return {@code false} if there is no read-ahead buffer, it is too small
+     * or EOF was reached before <i>length</i> bytes were available.
+     */
+    private boolean fillReadAhead(int length)
+            throws IOException
+    {
+        if (readAhead == null || length > readAhead.capacity()) {
+            return false;
+        }
+        while (readAhead.remaining() < length) {
+            if (!refillReadAhead()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads as many bytes as are available (at least 1) from {@link #rbc}
+     * into the free space of the read-ahead buffer.
+     *
+     * @return {@code false} on EOF.
+     */
+    private boolean refillReadAhead()
+            throws IOException
+    {
+        readAhead.compact();
+        int read;
+        try {
+            do {
+                read = rbc.read(readAhead);
+            }
+            while (read == 0 && readAhead.hasRemaining());
+        }
+        finally {
+            readAhead.flip();
+        }
+        return read > 0;
+    }
+
     /**
      * @param frameHeader
      * @return
@@ -620,9 +897,25 @@ public final class SnappyFramedInputStream
         length |= (frameHeaderArray[2] & 0xFF) << 8;
         length |= (frameHeaderArray[3] & 0xFF) << 16;
 
+        final FrameAction frameAction = getFrameAction(frameHeaderArray[0] & 0xFF, length);
+
+        return new FrameMetaData(frameAction, length);
+    }
+
+    /**
+     * Determines how to handle a chunk, validating its length.
+     *
+     * @param flag the chunk type.
+     * @param length the length of the chunk, following the 4 byte header.
+     * @return the action to take for the chunk.
+     * @throws IOException if the chunk type is unsupported or the length is
+     * invalid.
+     */
+    static FrameAction getFrameAction(int flag, int length)
+            throws IOException
+    {
         int minLength = 0;
         final FrameAction frameAction;
-        final int flag = frameHeaderArray[0] & 0xFF;
         switch (flag) {
             case COMPRESSED_DATA_FLAG:
                 frameAction = FrameAction.UNCOMPRESS;
@@ -659,7 +952,7 @@ public final class SnappyFramedInputStream
                     + " for chunk flag: " + Integer.toHexString(flag));
         }
 
-        return new FrameMetaData(frameAction, length);
+        return frameAction;
     }
 
     /**
@@ -3,16 +3,15 @@
  */
 package org.xerial.snappy;
 
-import static org.xerial.snappy.SnappyFramed.COMPRESSED_DATA_FLAG;
+import static org.xerial.snappy.SnappyFramed.FRAME_HEADER_SIZE;
 import static org.xerial.snappy.SnappyFramed.HEADER_BYTES;
-import static org.xerial.snappy.SnappyFramed.UNCOMPRESSED_DATA_FLAG;
 import static org.xerial.snappy.SnappyFramed.maskedCrc32c;
+import static org.xerial.snappy.SnappyFramed.writeFrameHeader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
@@ -61,20 +60,32 @@ public final class SnappyFramedOutputStream
     public static final double DEFAULT_MIN_COMPRESSION_RATIO = 0.85d;
 
     private final Checksum crc32 = SnappyFramed.getCRC32C();
-    private final ByteBuffer headerBuffer = ByteBuffer.allocate(8).order(
-            ByteOrder.LITTLE_ENDIAN);
     private final BufferPool bufferPool;
     private final int blockSize;
-    private final ByteBuffer buffer;
-    private final ByteBuffer directInputBuffer;
-    private final ByteBuffer outputBuffer;
+    private ByteBuffer buffer;
+    private ByteBuffer directInputBuffer;
     private final double minCompressionRatio;
 
-    private final WritableByteChannel out;
+    /**
+     * Holds complete encoded frames (header and data) not yet written to
+     * {@link #out}.
+     */
+    private ByteBuffer outputBuffer;
+    private final int outputBufferSize;
+
+    /**
+     * Indicates if several frames are accumulated in {@link #outputBuffer}
+     * before writing them to {@link #out}.
+     */
+    private final boolean batchFrames;
+
+    private WritableByteChannel out;
 
     // private int position;
     private boolean closed;
 
+    private SnappyStreamListener listener = Snappy.getStreamListener();
+
     /**
      * Creates a new {@link SnappyFramedOutputStream} using the {@link #DEFAULT_BLOCK_SIZE}
      * and {@link #DEFAULT_MIN_COMPRESSION_RATIO}.
@@ -149,6 +160,30 @@ public final class SnappyFramedOutputStream
         this(Channels.newChannel(out), blockSize, minCompressionRatio, bufferPool);
     }
 
+    /**
+     * Creates a new {@link SnappyFramedOutputStream} instance which
+     * accumulates encoded frames before writing them to <i>out</i>.
+     *
+     * @param out The underlying {@link OutputStream} to write to. Must not be
+     * {@code null}.
+     * @param blockSize The block size (of raw data) to compress before writing frames
+     * to <i>out</i>. Must be in (0, 65536].
+     * @param minCompressionRatio Defines the minimum compression ratio (
+     * {@code compressedLength / rawLength}) that must be achieved to
+     * write the compressed data. This must be in (0, 1.0].
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @param writeBufferSize The number of bytes of encoded frames to accumulate
+     * before writing to <i>out</i>. See
+     * {@link #SnappyFramedOutputStream(WritableByteChannel, int, double, BufferPool, int)}.
+     * @throws IOException
+     */
+    public SnappyFramedOutputStream(OutputStream out, int blockSize,
+            double minCompressionRatio, BufferPool bufferPool, int writeBufferSize)
+            throws IOException
+    {
+        this(Channels.newChannel(out), blockSize, minCompressionRatio, bufferPool, writeBufferSize);
+    }
+
     /**
      * Creates a new {@link SnappyFramedOutputStream} using the
      * {@link #DEFAULT_BLOCK_SIZE} and {@link #DEFAULT_MIN_COMPRESSION_RATIO}.
@@ -222,6 +257,39 @@ public final class SnappyFramedOutputStream
     public SnappyFramedOutputStream(WritableByteChannel out, int blockSize,
             double minCompressionRatio, BufferPool bufferPool)
             throws IOException
+    {
+        this(out, blockSize, minCompressionRatio, bufferPool, 0);
+    }
+
+    /**
+     * Creates a new {@link SnappyFramedOutputStream} instance which
+     * accumulates encoded frames before writing them to <i>out</i>.
+     * <p>
+     * Each frame is always written to <i>out</i> with a single write of its
+     * header and data. When <i>writeBufferSize</i> is larger than a single
+     * frame, consecutive frames are additionally collected in one buffer and
+     * written together once the next frame would not fit, or on
+     * {@link #flush()} and {@link #close()}. The output is identical either
+     * way; only the number of writes to <i>out</i> differs.
+     * </p>
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @param blockSize The block size (of raw data) to compress before writing frames
+     * to <i>out</i>. Must be in (0, 65536].
+     * @param minCompressionRatio Defines the minimum compression ratio (
+     * {@code compressedLength / rawLength}) that must be achieved to
+     * write the compressed data. This must be in (0, 1.0].
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @param writeBufferSize The number of bytes of encoded frames to accumulate
+     * before writing to <i>out</i>. Values not larger than a single frame
+     * (including {@code 0}) write every frame as soon as it is encoded. Must be
+     * {@code >= 0}.
+     * @throws IOException
+     */
+    public SnappyFramedOutputStream(WritableByteChannel out, int blockSize,
+            double minCompressionRatio, BufferPool bufferPool, int writeBufferSize)
+            throws IOException
     {
         if (out == null) {
             throw new NullPointerException("out is null");
@@ -240,6 +308,11 @@ public final class SnappyFramedOutputStream
             throw new IllegalArgumentException("block size " + blockSize
                     + " must be in (0, 65536]");
         }
+
+        if (writeBufferSize < 0) {
+            throw new IllegalArgumentException("writeBufferSize "
+                    + writeBufferSize + " must be >= 0");
+        }
         this.blockSize = blockSize;
         this.out = out;
         this.minCompressionRatio = minCompressionRatio;
@@ -247,23 +320,92 @@ public final class SnappyFramedOutputStream
         this.bufferPool = bufferPool;
         buffer = ByteBuffer.wrap(bufferPool.allocateArray(blockSize), 0, blockSize);
         directInputBuffer = bufferPool.allocateDirect(blockSize);
-        outputBuffer = bufferPool.allocateDirect(Snappy
-                .maxCompressedLength(blockSize));
 
-        writeHeader(out);
+        final int maxFrameSize = FRAME_HEADER_SIZE + Snappy.maxCompressedLength(blockSize);
+        this.batchFrames = writeBufferSize > maxFrameSize;
+        this.outputBufferSize = Math.max(maxFrameSize, writeBufferSize);
+        outputBuffer = bufferPool.allocateDirect(outputBufferSize);
+
+        writeHeader();
+    }
+
+    /**
+     * Sets the listener notified of each block this stream processes,
+     * replacing the one taken from {@link Snappy#getStreamListener()} when the
+     * stream was created.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setStreamListener(SnappyStreamListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a new stream on <i>out</i>, keeping the buffers and settings of
+     * this instance. Any data buffered for the previous stream is discarded
+     * rather than written, and the previous underlying stream is not closed,
+     * so callers should {@link #flush()} first if needed. This allows
+     * instances to be reused, for example per thread, without allocating new
+     * buffers. A closed instance obtains its buffers from the
+     * {@link BufferPool} again.
+     *
+     * @param out The underlying {@link OutputStream} to write to. Must not be
+     * {@code null}.
+     * @throws IOException if the stream header cannot be written
+     */
+    public void reset(OutputStream out)
+            throws IOException
+    {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        reset(Channels.newChannel(out));
+    }
+
+    /**
+     * Starts a new stream on <i>out</i>, as {@link #reset(OutputStream)}.
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @throws IOException if the stream header cannot be written
+     */
+    public void reset(WritableByteChannel out)
+            throws IOException
+    {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+
+        if (closed) {
+            buffer = ByteBuffer.wrap(bufferPool.allocateArray(blockSize), 0, blockSize);
+            directInputBuffer = bufferPool.allocateDirect(blockSize);
+            outputBuffer = bufferPool.allocateDirect(outputBufferSize);
+            closed = false;
+        }
+        else {
+            buffer.clear();
+            buffer.limit(blockSize);
+            outputBuffer.clear();
+        }
+        this.out = out;
+
+        writeHeader();
     }
 
     /**
      * Writes the implementation specific header or "marker bytes" to
      * <i>out</i>.
      *
-     * @param out The underlying {@link OutputStream}.
      * @throws IOException
      */
-    private void writeHeader(WritableByteChannel out)
+    private void writeHeader()
             throws IOException
     {
-        out.write(ByteBuffer.wrap(HEADER_BYTES));
+        outputBuffer.put(HEADER_BYTES);
+        if (!batchFrames) {
+            writeOutput();
+        }
     }
 
     /**
@@ -450,6 +592,7 @@ public final class SnappyFramedOutputStream
             throw new IOException("Stream is closed");
         }
         flushBuffer();
+        writeOutput();
     }
 
     @Override
@@ -490,9 +633,9 @@ public final class SnappyFramedOutputStream
 
     /**
      * {@link SnappyFramed#maskedCrc32c(byte[], int, int)} the crc, compresses
-     * the data, determines if the compression ratio is acceptable and calls
-     * {@link #writeBlock(java.nio.channels.WritableByteChannel, java.nio.ByteBuffer, boolean, int)} to
-     * actually write the frame.
+     * the data into {@link #outputBuffer}, determines if the compression ratio
+     * is acceptable (otherwise replacing it with the raw data) and writes the
+     * frame header in front of it.
      *
      * @param buffer
      * @throws IOException
@@ -501,6 +644,9 @@ public final class SnappyFramedOutputStream
             throws IOException
     {
 
+        final SnappyStreamListener l = listener;
+        final long start = l == null ? 0 : System.nanoTime();
+        final Object event = SnappyEvents.beginBlock();
         final byte[] input = buffer.array();
         final int length = buffer.remaining();
 
@@ -511,60 +657,58 @@ public final class SnappyFramedOutputStream
         directInputBuffer.put(buffer);
         directInputBuffer.flip();
 
-        outputBuffer.clear();
+        if (outputBuffer.remaining() < FRAME_HEADER_SIZE + Snappy.maxCompressedLength(length)) {
+            writeOutput();
+        }
+
+        // leave room for the frame header in front of the data
+        final int frameStart = outputBuffer.position();
+        final int dataStart = frameStart + FRAME_HEADER_SIZE;
+        outputBuffer.position(dataStart);
         Snappy.compress(directInputBuffer, outputBuffer);
 
         final int compressedLength = outputBuffer.remaining();
+        outputBuffer.limit(outputBuffer.capacity());
 
         // only use the compressed data if compression ratio is <= the
         // minCompressonRatio
-        if (((double) compressedLength / (double) length) <= minCompressionRatio) {
-            writeBlock(out, outputBuffer, true, crc32c);
+        final boolean compressed = ((double) compressedLength / (double) length) <= minCompressionRatio;
+        if (compressed) {
+            outputBuffer.position(dataStart + compressedLength);
         }
         else {
             // otherwise use the uncompressed data.
-            buffer.flip();
-            writeBlock(out, buffer, false, crc32c);
+            outputBuffer.position(dataStart);
+            outputBuffer.put(directInputBuffer);
+        }
+
+        writeFrameHeader(outputBuffer, frameStart, compressed,
+                outputBuffer.position() - dataStart, crc32c);
+        SnappyEvents.endBlock(event, this, compressed, length, outputBuffer.position() - dataStart);
+        if (l != null) {
+            l.blockWritten(this, length, outputBuffer.position() - dataStart, !compressed, System.nanoTime() - start);
+        }
+
+        if (!batchFrames) {
+            writeOutput();
         }
     }
 
     /**
-     * Write a frame (block) to <i>out</i>.
+     * Writes all frames accumulated in {@link #outputBuffer} to <i>out</i>.
+     * This does nothing if there are none.
      *
-     * @param out The {@link OutputStream} to write to.
-     * @param data The data to write.
-     * @param compressed Indicates if <i>data</i> is the compressed or raw content.
-     * This is based on whether the compression ratio desired is
-     * reached.
-     * @param crc32c The calculated checksum.
      * @throws IOException
      */
-    private void writeBlock(final WritableByteChannel out, ByteBuffer data,
-            boolean compressed, int crc32c)
+    private void writeOutput()
             throws IOException
     {
-
-        headerBuffer.clear();
-        headerBuffer.put((byte) (compressed ? COMPRESSED_DATA_FLAG
-                : UNCOMPRESSED_DATA_FLAG));
-
-        // the length written out to the header is both the checksum and the
-        // frame
-        final int headerLength = data.remaining() + 4;
-
-        // write length
-        headerBuffer.put((byte) headerLength);
-        headerBuffer.put((byte) (headerLength >>> 8));
-        headerBuffer.put((byte) (headerLength >>> 16));
-
-        // write crc32c of user input data
-        headerBuffer.putInt(crc32c);
-
-        headerBuffer.flip();
-
-        // write the header
-        out.write(headerBuffer);
-        // write the raw data
-        out.write(data);
+        if (outputBuffer.position() > 0) {
+            outputBuffer.flip();
+            while (outputBuffer.hasRemaining()) {
+                out.write(outputBuffer);
+            }
+            outputBuffer.clear();
+        }
     }
 }
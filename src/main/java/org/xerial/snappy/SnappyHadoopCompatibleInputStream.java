@@ -0,0 +1,417 @@
+package org.xerial.snappy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Reads data in the layout of Hadoop's {@code BlockCompressorStream} with the
+ * snappy codec, as written by {@link SnappyHadoopCompatibleOutputStream}:
+ * <ol>
+ * <li>uncompressed size of block 1 (4 byte integer, big-endian)
+ * <li>one or more compressed subblocks, each a pair of (compressed data size
+ * [4 byte integer, big-endian], compressed data...), until their uncompressed
+ * sizes add up to the block size
+ * <li>block 2
+ * <li>...
+ * </ol>
+ * <p>
+ * Data is decoded one subblock at a time into buffers obtained from a
+ * {@link BufferPool}, and decompressed directly into the caller's array when
+ * a read requests at least a whole subblock. {@link #skip(long)} skips whole
+ * subblocks without decompressing them. No Hadoop classes or native libraries
+ * are required.
+ * </p>
+ */
+public class SnappyHadoopCompatibleInputStream
+        extends InputStream
+        implements ReadableByteChannel
+{
+    private final InputStream in;
+    private final BufferPool bufferPool;
+
+    /**
+     * Reads the 4 byte sizes and the start of a subblock when skipping.
+     */
+    private final byte[] header = new byte[5];
+
+    private byte[] compressed;
+    private byte[] uncompressed;
+    private int uncompressedCursor;
+    private int uncompressedLimit;
+
+    /**
+     * The uncompressed size of the subblocks of the current block not yet read.
+     */
+    private int blockRemaining;
+
+    private boolean eof;
+    private boolean closed;
+
+    /**
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     *
+     * @param in the underlying input stream. Must not be {@code null}.
+     */
+    public SnappyHadoopCompatibleInputStream(InputStream in)
+    {
+        this(in, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * @param in the underlying input stream. Must not be {@code null}.
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public SnappyHadoopCompatibleInputStream(InputStream in, BufferPool bufferPool)
+    {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("bufferPool is null");
+        }
+        this.in = in;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int read()
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (uncompressedCursor >= uncompressedLimit) {
+            if (readSubblock(null, 0, 0) < 0) {
+                return -1;
+            }
+        }
+        return uncompressed[uncompressedCursor++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int byteOffset, int byteLength)
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        if (byteOffset < 0 || byteLength < 0 || byteLength > b.length - byteOffset) {
+            throw new IndexOutOfBoundsException();
+        }
+        int writtenBytes = 0;
+        while (writtenBytes < byteLength) {
+            if (uncompressedCursor >= uncompressedLimit) {
+                final int direct = readSubblock(b, byteOffset + writtenBytes, byteLength - writtenBytes);
+                if (direct < 0) {
+                    break;
+                }
+                writtenBytes += direct;
+                continue;
+            }
+            int bytesToWrite = Math.min(uncompressedLimit - uncompressedCursor, byteLength - writtenBytes);
+            System.arraycopy(uncompressed, uncompressedCursor, b, byteOffset + writtenBytes, bytesToWrite);
+            writtenBytes += bytesToWrite;
+            uncompressedCursor += bytesToWrite;
+        }
+        return writtenBytes == 0 && byteLength > 0 ? -1 : writtenBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(ByteBuffer dst)
+            throws IOException
+    {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (dst.hasArray()) {
+            final int read = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0) {
+                dst.position(dst.position() + read);
+            }
+            return read;
+        }
+
+        int writtenBytes = 0;
+        while (dst.hasRemaining()) {
+            if (uncompressedCursor >= uncompressedLimit) {
+                if (readSubblock(null, 0, 0) < 0) {
+                    break;
+                }
+                continue;
+            }
+            int bytesToWrite = Math.min(uncompressedLimit - uncompressedCursor, dst.remaining());
+            dst.put(uncompressed, uncompressedCursor, bytesToWrite);
+            writtenBytes += bytesToWrite;
+            uncompressedCursor += bytesToWrite;
+        }
+        return writtenBytes == 0 && dst.remaining() > 0 ? -1 : writtenBytes;
+    }
+
+    /**
+     * Skips over uncompressed data. Whole subblocks within the skipped range
+     * are not decompressed.
+     */
+    @Override
+    public long skip(long n)
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        long skipped = 0;
+        while (skipped < n) {
+            if (uncompressedCursor < uncompressedLimit) {
+                final int toSkip = (int) Math.min(uncompressedLimit - uncompressedCursor, n - skipped);
+                uncompressedCursor += toSkip;
+                skipped += toSkip;
+                continue;
+            }
+            final int skippedSubblock = skipSubblock(n - skipped);
+            if (skippedSubblock < 0) {
+                break;
+            }
+            skipped += skippedSubblock;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available()
+            throws IOException
+    {
+        if (closed) {
+            return 0;
+        }
+        return uncompressedLimit - uncompressedCursor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            in.close();
+        }
+        finally {
+            if (!closed) {
+                closed = true;
+                if (compressed != null) {
+                    bufferPool.releaseArray(compressed);
+                    compressed = null;
+                }
+                if (uncompressed != null) {
+                    bufferPool.releaseArray(uncompressed);
+                    uncompressed = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and decompresses the next subblock, into <i>b</i> when not
+     * {@code null} and the subblock fits in <i>length</i> bytes, otherwise
+     * into {@link #uncompressed}.
+     *
+     * @return the number of bytes written to <i>b</i> ({@code 0} if the
+     * subblock was decompressed into {@link #uncompressed}), or -1 at the end
+     * of the stream.
+     */
+    private int readSubblock(byte[] b, int offset, int length)
+            throws IOException
+    {
+        final int compressedLength = nextSubblockLength();
+        if (compressedLength < 0) {
+            return -1;
+        }
+
+        if (compressed == null || compressedLength > compressed.length) {
+            if (compressed != null) {
+                bufferPool.releaseArray(compressed);
+            }
+            compressed = bufferPool.allocateArray(compressedLength);
+        }
+        readFully(compressed, 0, compressedLength);
+
+        final int uncompressedLength = Snappy.uncompressedLength(compressed, 0, compressedLength);
+        consumeBlock(uncompressedLength);
+
+        uncompressedCursor = 0;
+        if (b != null && uncompressedLength <= length) {
+            uncompressedLimit = 0;
+            return Snappy.uncompress(compressed, 0, compressedLength, b, offset);
+        }
+
+        if (uncompressed == null || uncompressedLength > uncompressed.length) {
+            if (uncompressed != null) {
+                bufferPool.releaseArray(uncompressed);
+            }
+            uncompressed = bufferPool.allocateArray(Math.max(uncompressedLength, 1));
+        }
+        uncompressedLimit = Snappy.uncompress(compressed, 0, compressedLength, uncompressed, 0);
+        return 0;
+    }
+
+    /**
+     * Skips the next subblock without decompressing it if its uncompressed
+     * size is at most <i>max</i>, otherwise decompresses it and skips
+     * <i>max</i> bytes of it.
+     *
+     * @return the number of uncompressed bytes skipped, or -1 at the end of
+     * the stream.
+     */
+    private int skipSubblock(long max)
+            throws IOException
+    {
+        final int compressedLength = nextSubblockLength();
+        if (compressedLength < 0) {
+            return -1;
+        }
+
+        // the uncompressed length is a varint of at most 5 bytes at the start
+        final int prefix = Math.min(header.length, compressedLength);
+        readFully(header, 0, prefix);
+        final int uncompressedLength = Snappy.uncompressedLength(header, 0, prefix);
+
+        if (uncompressedLength > max) {
+            // only part of the subblock is skipped, so decompress it
+            if (compressed == null || compressedLength > compressed.length) {
+                if (compressed != null) {
+                    bufferPool.releaseArray(compressed);
+                }
+                compressed = bufferPool.allocateArray(compressedLength);
+            }
+            System.arraycopy(header, 0, compressed, 0, prefix);
+            readFully(compressed, prefix, compressedLength - prefix);
+            consumeBlock(uncompressedLength);
+            if (uncompressed == null || uncompressedLength > uncompressed.length) {
+                if (uncompressed != null) {
+                    bufferPool.releaseArray(uncompressed);
+                }
+                uncompressed = bufferPool.allocateArray(uncompressedLength);
+            }
+            uncompressedLimit = Snappy.uncompress(compressed, 0, compressedLength, uncompressed, 0);
+            uncompressedCursor = (int) max;
+            return (int) max;
+        }
+
+        consumeBlock(uncompressedLength);
+        skipFully(compressedLength - prefix);
+        uncompressedCursor = 0;
+        uncompressedLimit = 0;
+        return uncompressedLength;
+    }
+
+    /**
+     * Reads the block size if at the start of a block, then the compressed
+     * size of the next subblock.
+     *
+     * @return the compressed size, or -1 at the end of the stream.
+     */
+    private int nextSubblockLength()
+            throws IOException
+    {
+        if (eof) {
+            return -1;
+        }
+        while (blockRemaining == 0) {
+            if (!readInt(true)) {
+                eof = true;
+                return -1;
+            }
+            blockRemaining = SnappyOutputStream.readInt(header, 0);
+            if (blockRemaining < 0) {
+                throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, "invalid block size: " + blockRemaining);
+            }
+        }
+        readInt(false);
+        final int compressedLength = SnappyOutputStream.readInt(header, 0);
+        if (compressedLength <= 0) {
+            throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, "invalid compressed subblock size: " + compressedLength);
+        }
+        return compressedLength;
+    }
+
+    /**
+     * Accounts for a subblock of <i>uncompressedLength</i> bytes in the
+     * current block.
+     */
+    private void consumeBlock(int uncompressedLength)
+            throws IOException
+    {
+        if (uncompressedLength > blockRemaining) {
+            throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, String.format("subblock of %,d bytes exceeds remaining block size %,d", uncompressedLength, blockRemaining));
+        }
+        blockRemaining -= uncompressedLength;
+    }
+
+    /**
+     * Reads a 4 byte integer into {@link #header}.
+     *
+     * @param eofAllowed if {@code true}, returns {@code false} when the stream
+     * ends before the first byte.
+     */
+    private boolean readInt(boolean eofAllowed)
+            throws IOException
+    {
+        int readBytes = 0;
+        while (readBytes < 4) {
+            int ret = in.read(header, readBytes, 4 - readBytes);
+            if (ret == -1) {
+                if (readBytes == 0 && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException("unexpected EOF when reading block header");
+            }
+            readBytes += ret;
+        }
+        return true;
+    }
+
+    private void readFully(byte[] dest, int offset, int length)
+            throws IOException
+    {
+        int readBytes = 0;
+        while (readBytes < length) {
+            int ret = in.read(dest, offset + readBytes, length - readBytes);
+            if (ret == -1) {
+                throw new EOFException("unexpected EOF when reading subblock");
+            }
+            readBytes += ret;
+        }
+    }
+
+    private void skipFully(int length)
+            throws IOException
+    {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // InputStream.skip may not detect EOF
+                if (in.read() == -1) {
+                    throw new EOFException("unexpected EOF when skipping subblock");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.xerial.snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * A {@link ReadableByteChannel} reading the format produced by
+ * {@link SnappyOutputStream} and {@link SnappyOutputChannel}, including
+ * concatenated streams.
+ * <p>
+ * Compressed blocks are read into a direct buffer obtained from a
+ * {@link BufferPool} and uncompressed with
+ * {@link Snappy#uncompress(ByteBuffer, ByteBuffer)}. When the destination of
+ * {@link #read(ByteBuffer)} is a direct buffer with room for a whole block,
+ * the block is uncompressed straight into it.
+ * </p>
+ * <p>
+ * Unlike {@link SnappyInputStream}, input without a {@link SnappyCodec} header
+ * is not supported. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyOutputChannel
+ */
+public final class SnappyInputChannel
+        implements ReadableByteChannel
+{
+    private final ReadableByteChannel in;
+    private final BufferPool bufferPool;
+    private final int maxChunkSize;
+
+    /**
+     * Holds a {@link SnappyCodec} header or a block length.
+     */
+    private final ByteBuffer header;
+
+    // The compressed and uncompressed buffers grow with the block size
+    private ByteBuffer compressed;
+
+    /**
+     * Uncompressed data not yet returned, in read mode.
+     */
+    private ByteBuffer uncompressed;
+
+    private boolean finishedReading;
+    private boolean closed;
+
+    /**
+     * Creates a new {@link SnappyInputChannel} and reads the stream header.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     *
+     * @param in The underlying {@link ReadableByteChannel} to read from. Must
+     * not be {@code null}.
+     * @throws IOException if the header is missing or cannot be read
+     */
+    public SnappyInputChannel(ReadableByteChannel in)
+            throws IOException
+    {
+        this(in, SnappyInputStream.MAX_CHUNK_SIZE, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link SnappyInputChannel} and reads the stream header.
+     *
+     * @param in The underlying {@link ReadableByteChannel} to read from. Must
+     * not be {@code null}.
+     * @param maxChunkSize The largest compressed block accepted.
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @throws IOException if the header is missing or cannot be read
+     */
+    public SnappyInputChannel(ReadableByteChannel in, int maxChunkSize, BufferPool bufferPool)
+            throws IOException
+    {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+        this.in = in;
+        this.maxChunkSize = maxChunkSize;
+        this.bufferPool = bufferPool;
+        this.header = ByteBuffer.allocate(SnappyCodec.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+        int readBytes = readFully(header, SnappyCodec.HEADER_SIZE);
+        if (readBytes == 0) {
+            // Snappy produces at least 1-byte result. So the empty input is not a valid input
+            throw new SnappyIOException(SnappyErrorCode.EMPTY_INPUT, "Cannot decompress empty stream");
+        }
+        if (readBytes < SnappyCodec.HEADER_SIZE || !isValidHeader()) {
+            throw new SnappyIOException(SnappyErrorCode.PARSING_ERROR, "Missing SnappyCodec header");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Reads uncompressed data into <i>dst</i>, reading the next block from the
+     * underlying channel if nothing is buffered.
+     *
+     * @return The number of bytes read, or {@code -1} at the end of the stream.
+     */
+    @Override
+    public int read(ByteBuffer dst)
+            throws IOException
+    {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        while (uncompressed == null || !uncompressed.hasRemaining()) {
+            if (!readChunk()) {
+                return -1;
+            }
+            final int uncompressedLength = Snappy.uncompressedLength(compressed);
+            if (dst.isDirect() && dst.remaining() >= uncompressedLength) {
+                // uncompress the block straight into the destination
+                final int position = dst.position();
+                final int limit = dst.limit();
+                final int length = Snappy.uncompress(compressed, dst);
+                dst.limit(limit);
+                dst.position(position + length);
+                if (length > 0) {
+                    return length;
+                }
+                continue;
+            }
+            uncompressed = ensureCapacity(uncompressed, uncompressedLength);
+            final int length = Snappy.uncompress(compressed, uncompressed);
+            if (uncompressedLength != length) {
+                throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, String.format("expected %,d bytes, but decompressed chunk has %,d bytes", uncompressedLength, length));
+            }
+        }
+        return SnappyFramed.transfer(uncompressed, dst);
+    }
+
+    /**
+     * Closes the underlying channel and returns the buffers to the pool.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        try {
+            in.close();
+        }
+        finally {
+            closed = true;
+            if (compressed != null) {
+                bufferPool.releaseDirect(compressed);
+                compressed = null;
+            }
+            if (uncompressed != null) {
+                bufferPool.releaseDirect(uncompressed);
+                uncompressed = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next compressed block into {@link #compressed}, skipping
+     * the headers of concatenated streams.
+     *
+     * @return {@code false} at the end of the stream.
+     */
+    private boolean readChunk()
+            throws IOException
+    {
+        while (!finishedReading) {
+            header.clear();
+            if (readFully(header, 4) < 4) {
+                finishedReading = true;
+                return false;
+            }
+
+            int chunkSize = header.getInt(0);
+            if (chunkSize == SnappyCodec.MAGIC_HEADER_HEAD) {
+                // Concatenated data
+                if (readFully(header, SnappyCodec.HEADER_SIZE) < SnappyCodec.HEADER_SIZE) {
+                    throw new SnappyIOException(SnappyErrorCode.FAILED_TO_UNCOMPRESS, "Insufficient header size in a concatenated block");
+                }
+                if (!isValidHeader()) {
+                    finishedReading = true;
+                }
+                continue;
+            }
+
+            // chunkSize is negative
+            if (chunkSize < 0) {
+                throw new SnappyError(SnappyErrorCode.INVALID_CHUNK_SIZE, "chunkSize is too big or negative : " + chunkSize);
+            }
+
+            // chunkSize is big
+            if (chunkSize > maxChunkSize) {
+                throw new SnappyError(SnappyErrorCode.FAILED_TO_UNCOMPRESS, String.format("Received chunkSize %,d is greater than max configured chunk size %,d", chunkSize, maxChunkSize));
+            }
+
+            compressed = ensureCapacity(compressed, chunkSize);
+            if (readFully(compressed, chunkSize) < chunkSize) {
+                throw new IOException("failed to read chunk");
+            }
+            compressed.flip();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads from {@link #in} until <i>buffer</i> holds <i>length</i> bytes
+     * from its position or the end of the input is reached. <i>buffer</i> is
+     * left in write mode.
+     *
+     * @return The number of bytes held by <i>buffer</i>.
+     */
+    private int readFully(ByteBuffer buffer, int length)
+            throws IOException
+    {
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Validates the {@link SnappyCodec} header held by {@link #header}.
+     *
+     * @return {@code false} if it does not start with the magic header.
+     */
+    private boolean isValidHeader()
+            throws IOException
+    {
+        final byte[] array = header.array();
+        if (!SnappyCodec.hasMagicHeaderPrefix(array)) {
+            return false;
+        }
+        final int version = header.getInt(SnappyCodec.MAGIC_LEN);
+        if (version < SnappyCodec.MINIMUM_COMPATIBLE_VERSION) {
+            throw new SnappyIOException(SnappyErrorCode.INCOMPATIBLE_VERSION, String.format(
+                    "Compressed with an incompatible codec version %d. At least version %d is required",
+                    version, SnappyCodec.MINIMUM_COMPATIBLE_VERSION));
+        }
+        return true;
+    }
+
+    /**
+     * @return A cleared direct buffer from the pool with room for at least
+     * <i>capacity</i> bytes, replacing <i>buffer</i> if it is too small.
+     */
+    private ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity)
+    {
+        if (buffer == null || buffer.capacity() < capacity) {
+            if (buffer != null) {
+                bufferPool.releaseDirect(buffer);
+            }
+            buffer = bufferPool.allocateDirect(capacity);
+        }
+        buffer.clear();
+        return buffer;
+    }
+}
@@ -25,30 +25,51 @@
 package org.xerial.snappy;
 
 import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UTFDataFormatException;
 
 /**
  * A stream filter for reading data compressed by {@link SnappyOutputStream}.
+ * <p>
+ * This stream also implements {@link DataInput}, reading primitive values
+ * directly from the uncompressed block instead of through a
+ * {@link java.io.DataInputStream} wrapper.
+ * </p>
  *
  * @author leo
  */
 public class SnappyInputStream
         extends InputStream
+        implements DataInput
 {
     public static final int MAX_CHUNK_SIZE = 512 * 1024 * 1024; // 512 MiB
 
     private boolean finishedReading = false;
-    protected final InputStream in;
+    protected InputStream in;
     private final int maxChunkSize;
 
     private byte[] compressed;
     private byte[] uncompressed;
     private int uncompressedCursor = 0;
     private int uncompressedLimit = 0;
+    private SnappyStreamListener listener = Snappy.getStreamListener();
 
     private byte[] header = new byte[SnappyCodec.headerSize()];
 
+    /**
+     * Holds a single primitive value that spans two uncompressed blocks.
+     */
+    private final byte[] primitiveBuffer = new byte[8];
+
+    /**
+     * Decoder for input compressed by {@link Snappy#compress(byte[])}, which
+     * has no stream header. null for the framed format.
+     */
+    private SnappyRawStreamDecoder rawDecoder;
+
     /**
      * Create a filter for reading compressed data as a uncompressed stream
      *
@@ -77,6 +98,41 @@ public class SnappyInputStream
         readHeader();
     }
 
+    /**
+     * Sets the listener notified of each block this stream processes,
+     * replacing the one taken from {@link Snappy#getStreamListener()} when the
+     * stream was created.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setStreamListener(SnappyStreamListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts reading a new compressed stream from the given input, keeping the
+     * buffers of this instance so that it can be reused without reallocating
+     * them. Data not yet read from the previous stream is discarded, and the
+     * previous input is not closed.
+     *
+     * @param input the input stream to read the next compressed stream from
+     * @throws IOException
+     */
+    public void reset(InputStream input)
+            throws IOException
+    {
+        if (input == null) {
+            throw new NullPointerException("input is null");
+        }
+        this.in = input;
+        finishedReading = false;
+        uncompressedCursor = 0;
+        uncompressedLimit = 0;
+        releaseRawDecoder();
+        readHeader();
+    }
+
     /**
      * Close the stream
      */
@@ -87,6 +143,7 @@ public class SnappyInputStream
     public void close()
             throws IOException
     {
+        releaseRawDecoder();
         compressed = null;
         uncompressed = null;
         if (in != null) {
@@ -144,27 +201,27 @@ public class SnappyInputStream
             finishedReading = true;
             return;
         }
-        // read the entire input data to the buffer
-        compressed = new byte[Math.max(8 * 1024, fragmentLength)]; // 8K
-        System.arraycopy(fragment, 0, compressed, 0, fragmentLength);
-        int cursor = fragmentLength;
-        for (int readBytes = 0; (readBytes = in.read(compressed, cursor, compressed.length - cursor)) != -1; ) {
-            cursor += readBytes;
-            if (cursor >= compressed.length) {
-                byte[] newBuf = new byte[(compressed.length * 2)];
-                System.arraycopy(compressed, 0, newBuf, 0, compressed.length);
-                compressed = newBuf;
-            }
-        }
-
+        // decode the raw input as it is read instead of buffering all of it
+        rawDecoder = new SnappyRawStreamDecoder(in, fragment, fragmentLength);
         finishedReading = true;
-
-        // Uncompress
-        int uncompressedLength = Snappy.uncompressedLength(compressed, 0, cursor);
-        uncompressed = new byte[uncompressedLength];
-        Snappy.uncompress(compressed, 0, cursor, uncompressed, 0);
+        uncompressed = rawDecoder.getOutput();
         this.uncompressedCursor = 0;
-        this.uncompressedLimit = uncompressedLength;
+        this.uncompressedLimit = rawDecoder.decode();
+    }
+
+    /**
+     * Returns the buffers of {@link #rawDecoder}, including its output array
+     * if it is still referenced as {@link #uncompressed}.
+     */
+    private void releaseRawDecoder()
+    {
+        if (rawDecoder != null) {
+            if (uncompressed == rawDecoder.getOutput()) {
+                uncompressed = null;
+            }
+            rawDecoder.close();
+            rawDecoder = null;
+        }
     }
 
     /**
@@ -406,6 +463,15 @@ public class SnappyInputStream
     protected boolean hasNextChunk()
             throws IOException
     {
+        if (rawDecoder != null) {
+            // the raw data is decoded into a single array, so keep the cursor
+            if (rawDecoder.isFinished()) {
+                releaseRawDecoder();
+                return false;
+            }
+            uncompressedLimit = rawDecoder.decode();
+            return true;
+        }
         if (finishedReading) {
             return false;
         }
@@ -461,6 +527,9 @@ public class SnappyInputStream
         if (readBytes < chunkSize) {
             throw new IOException("failed to read chunk");
         }
+        final SnappyStreamListener l = listener;
+        final long start = l == null ? 0 : System.nanoTime();
+        Object event = SnappyEvents.beginBlock();
         int uncompressedLength = Snappy.uncompressedLength(compressed, 0, chunkSize);
         if (uncompressed == null || uncompressedLength > uncompressed.length) {
             uncompressed = new byte[uncompressedLength];
@@ -470,6 +539,10 @@ public class SnappyInputStream
             throw new SnappyIOException(SnappyErrorCode.INVALID_CHUNK_SIZE, String.format("expected %,d bytes, but decompressed chunk has %,d bytes", uncompressedLength, actualUncompressedLength));
         }
         uncompressedLimit = actualUncompressedLength;
+        SnappyEvents.endBlock(event, this, true, actualUncompressedLength, chunkSize);
+        if (l != null) {
+            l.blockRead(this, actualUncompressedLength, chunkSize, false, System.nanoTime() - start);
+        }
 
         return true;
     }
@@ -501,6 +574,313 @@ public class SnappyInputStream
         }
     }
 
+    /**
+     * Makes <i>length</i> bytes readable from {@link #uncompressed} at
+     * {@link #uncompressedCursor}, copying them into {@link #primitiveBuffer}
+     * if they span more than one block.
+     *
+     * @return the array holding the bytes, starting at the cursor if it is
+     * {@link #uncompressed} or at 0 otherwise
+     */
+    private byte[] readPrimitive(int length)
+            throws IOException
+    {
+        if (uncompressedLimit - uncompressedCursor >= length) {
+            return uncompressed;
+        }
+        readFully(primitiveBuffer, 0, length);
+        return primitiveBuffer;
+    }
+
+    @Override
+    public void readFully(byte[] b)
+            throws IOException
+    {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        int readBytes = 0;
+        while (readBytes < len) {
+            int ret = read(b, off + readBytes, len - readBytes);
+            if (ret == -1) {
+                throw new EOFException();
+            }
+            readBytes += ret;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n)
+            throws IOException
+    {
+        int skipped = 0;
+        while (skipped < n) {
+            if (uncompressedCursor >= uncompressedLimit && !hasNextChunk()) {
+                break;
+            }
+            int skipLen = Math.min(uncompressedLimit - uncompressedCursor, n - skipped);
+            uncompressedCursor += skipLen;
+            skipped += skipLen;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean()
+            throws IOException
+    {
+        return readUnsignedByte() != 0;
+    }
+
+    @Override
+    public byte readByte()
+            throws IOException
+    {
+        return (byte) readUnsignedByte();
+    }
+
+    @Override
+    public int readUnsignedByte()
+            throws IOException
+    {
+        int b = read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    @Override
+    public short readShort()
+            throws IOException
+    {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort()
+            throws IOException
+    {
+        byte[] src = readPrimitive(2);
+        if (src == uncompressed) {
+            int v = ((src[uncompressedCursor] & 0xFF) << 8) | (src[uncompressedCursor + 1] & 0xFF);
+            uncompressedCursor += 2;
+            return v;
+        }
+        return ((src[0] & 0xFF) << 8) | (src[1] & 0xFF);
+    }
+
+    @Override
+    public char readChar()
+            throws IOException
+    {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt()
+            throws IOException
+    {
+        byte[] src = readPrimitive(4);
+        if (src == uncompressed) {
+            int v = SnappyOutputStream.readInt(src, uncompressedCursor);
+            uncompressedCursor += 4;
+            return v;
+        }
+        return SnappyOutputStream.readInt(src, 0);
+    }
+
+    @Override
+    public long readLong()
+            throws IOException
+    {
+        byte[] src = readPrimitive(8);
+        if (src == uncompressed) {
+            long v = SnappyOutputStream.readLong(src, uncompressedCursor);
+            uncompressedCursor += 8;
+            return v;
+        }
+        return SnappyOutputStream.readLong(src, 0);
+    }
+
+    @Override
+    public float readFloat()
+            throws IOException
+    {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble()
+            throws IOException
+    {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads an int written by {@link SnappyOutputStream#writeVarInt(int)}.
+     *
+     * @return the value
+     * @throws IOException
+     */
+    public int readVarInt()
+            throws IOException
+    {
+        long v = readVarLong(5);
+        if ((v >>> 32) != 0) {
+            throw new IOException("Malformed variable-length int");
+        }
+        return (int) v;
+    }
+
+    /**
+     * Reads a long written by {@link SnappyOutputStream#writeVarLong(long)}.
+     *
+     * @return the value
+     * @throws IOException
+     */
+    public long readVarLong()
+            throws IOException
+    {
+        return readVarLong(10);
+    }
+
+    private long readVarLong(int maxLength)
+            throws IOException
+    {
+        long v = 0;
+        if (uncompressedLimit - uncompressedCursor >= maxLength) {
+            // the whole value is in the current block
+            for (int shift = 0; shift < maxLength * 7; shift += 7) {
+                byte b = uncompressed[uncompressedCursor++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+        }
+        else {
+            for (int shift = 0; shift < maxLength * 7; shift += 7) {
+                int b = readUnsignedByte();
+                v |= (long) (b & 0x7F) << shift;
+                if (b < 0x80) {
+                    return v;
+                }
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Reads a line of text as {@link java.io.DataInputStream#readLine()}
+     * does: each byte is converted to a char, and the line ends at
+     * {@code '\n'}, {@code '\r'} or {@code "\r\n"}.
+     */
+    @Override
+    public String readLine()
+            throws IOException
+    {
+        StringBuilder line = null;
+        for (;;) {
+            int c = read();
+            if (c == -1) {
+                return line == null ? null : line.toString();
+            }
+            if (line == null) {
+                line = new StringBuilder(80);
+            }
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c == '\r') {
+                if ((uncompressedCursor < uncompressedLimit || hasNextChunk())
+                        && uncompressedCursor < uncompressedLimit
+                        && uncompressed[uncompressedCursor] == '\n') {
+                    uncompressedCursor++;
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+    }
+
+    /**
+     * Reads a string in the modified UTF-8 encoding of
+     * {@link DataInput#readUTF()}. Strings that are within the current block
+     * are decoded directly from it.
+     */
+    @Override
+    public String readUTF()
+            throws IOException
+    {
+        final int utfLength = readUnsignedShort();
+        if (uncompressedLimit - uncompressedCursor >= utfLength) {
+            String s = decodeUTF(uncompressed, uncompressedCursor, utfLength);
+            uncompressedCursor += utfLength;
+            return s;
+        }
+        byte[] bytes = new byte[utfLength];
+        readFully(bytes, 0, utfLength);
+        return decodeUTF(bytes, 0, utfLength);
+    }
+
+    private static String decodeUTF(byte[] src, int offset, int length)
+            throws UTFDataFormatException
+    {
+        final char[] chars = new char[length];
+        final int end = offset + length;
+        int count = 0;
+        int pos = offset;
+        while (pos < end) {
+            int c = src[pos] & 0xFF;
+            switch (c >> 4) {
+                case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                    // 0xxxxxxx
+                    pos++;
+                    chars[count++] = (char) c;
+                    break;
+                case 12: case 13: {
+                    // 110x xxxx   10xx xxxx
+                    if (pos + 2 > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int c2 = src[pos + 1];
+                    if ((c2 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("malformed input around byte " + (pos - offset));
+                    }
+                    chars[count++] = (char) (((c & 0x1F) << 6) | (c2 & 0x3F));
+                    pos += 2;
+                    break;
+                }
+                case 14: {
+                    // 1110 xxxx  10xx xxxx  10xx xxxx
+                    if (pos + 3 > end) {
+                        throw new UTFDataFormatException("malformed input: partial character at end");
+                    }
+                    int c2 = src[pos + 1];
+                    int c3 = src[pos + 2];
+                    if ((c2 & 0xC0) != 0x80 || (c3 & 0xC0) != 0x80) {
+                        throw new UTFDataFormatException("malformed input around byte " + (pos - offset));
+                    }
+                    chars[count++] = (char) (((c & 0x0F) << 12) | ((c2 & 0x3F) << 6) | (c3 & 0x3F));
+                    pos += 3;
+                    break;
+                }
+                default:
+                    // 10xx xxxx,  1111 xxxx
+                    throw new UTFDataFormatException("malformed input around byte " + (pos - offset));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
     /* (non-Javadoc)
      * @see java.io.InputStream#available()
      */
@@ -81,6 +81,9 @@ public class SnappyLoader
     public static final String KEY_SNAPPY_TEMPDIR = "org.xerial.snappy.tempdir";
     public static final String KEY_SNAPPY_USE_SYSTEMLIB = "org.xerial.snappy.use.systemlib";
     public static final String KEY_SNAPPY_DISABLE_BUNDLED_LIBS = "org.xerial.snappy.disable.bundled.libs"; // Depreciated, but preserved for backward compatibility
+    public static final String KEY_SNAPPY_METRICS = "org.xerial.snappy.metrics";
+    public static final String KEY_SNAPPY_METRICS_SAMPLE_INTERVAL = "org.xerial.snappy.metrics.sample.interval";
+    public static final String KEY_SNAPPY_MBEANS = "org.xerial.snappy.mbeans";
 
     private static boolean isLoaded = false;
 
@@ -155,10 +158,23 @@ public class SnappyLoader
             return snappyApi;
         }
         loadNativeLibrary();
-        setSnappyApi(new SnappyNative());
+        setSnappyApi(newSnappyApi());
         return snappyApi;
     }
 
+    /**
+     * Creates the {@link SnappyApi} backed by the native library, recording its
+     * calls in {@link SnappyMetrics} if {@link #KEY_SNAPPY_METRICS} is true.
+     */
+    static SnappyApi newSnappyApi()
+    {
+        SnappyApi api = new SnappyNative();
+        if (Boolean.parseBoolean(System.getProperty(KEY_SNAPPY_METRICS, "false"))) {
+            api = new InstrumentedSnappyApi(api, SnappyMetrics.getInstance());
+        }
+        return api;
+    }
+
     static synchronized BitShuffleNative loadBitShuffleApi()
     {
         if (bitshuffleApi != null) {
@@ -176,7 +192,10 @@ public class SnappyLoader
     {
         if (!isLoaded) {
             try {
+                Object event = SnappyEvents.beginLibraryLoad();
+                long start = System.nanoTime();
                 nativeLibFile = findNativeLibrary();
+                long extractNanos = System.nanoTime() - start;
                 if (nativeLibFile != null) {
                     // Load extracted or specified snappyjava native library.
                     System.load(nativeLibFile.getAbsolutePath());
@@ -184,6 +203,8 @@ public class SnappyLoader
                     // Load preinstalled snappyjava (in the path -Djava.library.path)
                     System.loadLibrary("snappyjava");
                 }
+                SnappyEvents.endLibraryLoad(event, nativeLibFile == null ? null : nativeLibFile.getAbsolutePath(),
+                        extractNanos);
             }
             catch (Exception e) {
                 e.printStackTrace();
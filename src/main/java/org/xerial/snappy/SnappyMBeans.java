@@ -0,0 +1,111 @@
+package org.xerial.snappy;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Keeps track of the MXBeans of this library, under the
+ * {@code org.xerial.snappy} domain, and registers them in the platform MBean
+ * server on request.
+ * <p>
+ * The buffer pools, {@link SnappyMetrics} and
+ * {@link org.xerial.snappy.pool.LeakDetector} hand their MXBeans to this class
+ * when they are first used. The MXBeans are only registered in the platform
+ * MBean server if the system property {@link SnappyLoader#KEY_SNAPPY_MBEANS}
+ * is {@code true}, or once {@link #registerAll()} is called. A registered
+ * MXBean references the class loader of this library, so in containers which
+ * redeploy applications the MXBeans must be unregistered with
+ * {@link #unregisterAll()} when the application stops, for example from
+ * {@code ServletContextListener.contextDestroyed}. Otherwise the old class
+ * loader is never collected, and the MXBeans of the redeployed application
+ * cannot be registered under the same names. {@link SnappyBundleActivator}
+ * does this when the bundle is stopped.
+ * </p>
+ */
+public final class SnappyMBeans
+{
+    private static final Logger LOGGER = Logger.getLogger(SnappyMBeans.class.getName());
+
+    private static final Map<String, Object> mbeans = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The names of {@link #mbeans} currently registered by this class, as
+     * opposed to by another class loader.
+     */
+    private static final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty(SnappyLoader.KEY_SNAPPY_MBEANS, "false"));
+
+    private SnappyMBeans()
+    {
+    }
+
+    /**
+     * Keeps track of <i>mbean</i>, and registers it as <i>name</i> with the
+     * platform MBean server if registration is enabled. Failures, such as an
+     * MXBean of the same name registered by another class loader or
+     * {@code javax.management} not being available, are logged and otherwise
+     * ignored.
+     *
+     * @param mbean the MXBean. Must not be {@code null}.
+     * @param name the {@link ObjectName} to register it as. Must not be {@code null}.
+     */
+    public static void register(Object mbean, String name)
+    {
+        mbeans.put(name, mbean);
+        if (enabled) {
+            registerWithServer(mbean, name);
+        }
+    }
+
+    /**
+     * Registers all MXBeans handed to {@link #register(Object, String)} so
+     * far, and those handed to it from now on, with the platform MBean server.
+     */
+    public static void registerAll()
+    {
+        enabled = true;
+        for (Map.Entry<String, Object> entry : mbeans.entrySet()) {
+            if (!registered.contains(entry.getKey())) {
+                registerWithServer(entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Unregisters all MXBeans registered by this library from the platform
+     * MBean server. MXBeans are no longer registered until
+     * {@link #registerAll()} is called.
+     */
+    public static void unregisterAll()
+    {
+        enabled = false;
+        for (String name : registered) {
+            registered.remove(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+            }
+            catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Unable to unregister MBean " + name, t);
+            }
+        }
+    }
+
+    private static void registerWithServer(Object mbean, String name)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+            registered.add(name);
+        }
+        catch (Throwable t) {
+            // javax.management is not available on all platforms
+            LOGGER.log(Level.FINE, "Unable to register MBean " + name, t);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.xerial.snappy;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters of the calls made to the native library, recorded when the system
+ * property {@link SnappyLoader#KEY_SNAPPY_METRICS} is {@code true}.
+ * <p>
+ * For each {@link Operation}, the number of calls, the input and output bytes,
+ * a histogram of compression ratios and a histogram of latencies are kept.
+ * Measuring latency costs two {@link System#nanoTime()} calls, so with
+ * {@link SnappyLoader#KEY_SNAPPY_METRICS_SAMPLE_INTERVAL} set to <i>n</i> only
+ * one in <i>n</i> calls, chosen at random, is timed. The counters are exposed
+ * through {@link #getSnapshot(Operation)} and as the MXBean
+ * {@code org.xerial.snappy:type=SnappyMetrics}, which is registered and
+ * unregistered through {@link SnappyMBeans}.
+ * </p>
+ */
+public final class SnappyMetrics
+        implements SnappyMetricsMXBean
+{
+    /**
+     * The recorded operations.
+     */
+    public static enum Operation
+    {
+        COMPRESS, UNCOMPRESS, VALIDATE
+    }
+
+    /**
+     * Number of buckets of the ratio histograms. Bucket <i>i</i> counts calls
+     * whose compressed size is in [10<i>i</i>%, 10(<i>i</i>+1)%) of the
+     * uncompressed size, and the last bucket counts calls whose data grew.
+     */
+    public static final int RATIO_BUCKETS = 11;
+
+    /**
+     * Number of buckets of the latency histograms. Bucket <i>i</i> counts calls
+     * which took less than 2<sup><i>i</i></sup> nanoseconds, and at least
+     * 2<sup><i>i</i>-1</sup> for <i>i</i> > 0. The last bucket counts all
+     * longer calls.
+     */
+    public static final int LATENCY_BUCKETS = 40;
+
+    private static final SnappyMetrics INSTANCE = new SnappyMetrics(readSampleInterval());
+
+    private final int sampleInterval;
+    private final Counters[] counters = new Counters[Operation.values().length];
+    private final AtomicBoolean registered = new AtomicBoolean();
+    private volatile boolean enabled;
+
+    SnappyMetrics(int sampleInterval)
+    {
+        this.sampleInterval = sampleInterval;
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counters();
+        }
+    }
+
+    /**
+     * @return the instance the native library calls are recorded in
+     */
+    public static SnappyMetrics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    private static int readSampleInterval()
+    {
+        final String value = System.getProperty(SnappyLoader.KEY_SNAPPY_METRICS_SAMPLE_INTERVAL);
+        if (value != null) {
+            try {
+                final int interval = Integer.parseInt(value.trim());
+                if (interval > 0) {
+                    return interval;
+                }
+            }
+            catch (NumberFormatException e) {
+                // fall through
+            }
+            Logger.getLogger(SnappyMetrics.class.getName()).log(Level.WARNING,
+                    "Ignoring invalid " + SnappyLoader.KEY_SNAPPY_METRICS_SAMPLE_INTERVAL + " value: " + value);
+        }
+        return 1;
+    }
+
+    /**
+     * Marks the metrics as enabled and hands the MXBean to
+     * {@link SnappyMBeans}. Called when an
+     * {@link InstrumentedSnappyApi} is created.
+     */
+    void enable()
+    {
+        enabled = true;
+        if (this == INSTANCE && registered.compareAndSet(false, true)) {
+            SnappyMBeans.register(this, "org.xerial.snappy:type=SnappyMetrics");
+        }
+    }
+
+    /**
+     * @return whether the latency of the next call should be measured
+     */
+    boolean sample()
+    {
+        return sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+    }
+
+    /**
+     * @param elapsedNanos the latency of the call, or a negative value if it
+     * was not measured
+     */
+    void record(Operation operation, long inputBytes, long outputBytes, long elapsedNanos)
+    {
+        final Counters c = counters[operation.ordinal()];
+        c.calls.increment();
+        c.inputBytes.add(inputBytes);
+        c.outputBytes.add(outputBytes);
+        if (operation != Operation.VALIDATE) {
+            final long compressed = operation == Operation.COMPRESS ? outputBytes : inputBytes;
+            final long uncompressed = operation == Operation.COMPRESS ? inputBytes : outputBytes;
+            if (uncompressed > 0) {
+                c.ratios[(int) Math.min(RATIO_BUCKETS - 1, compressed * 10 / uncompressed)].increment();
+            }
+        }
+        if (elapsedNanos >= 0) {
+            c.sampledCalls.increment();
+            c.sampledNanos.add(elapsedNanos);
+            c.latencies[Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(elapsedNanos))].increment();
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public int getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    /**
+     * @return the counters of <i>operation</i> at this moment. The counters are
+     * not read atomically with respect to concurrent calls.
+     */
+    public Snapshot getSnapshot(Operation operation)
+    {
+        return counters[operation.ordinal()].snapshot();
+    }
+
+    @Override
+    public Snapshot getCompress()
+    {
+        return getSnapshot(Operation.COMPRESS);
+    }
+
+    @Override
+    public Snapshot getUncompress()
+    {
+        return getSnapshot(Operation.UNCOMPRESS);
+    }
+
+    @Override
+    public Snapshot getValidate()
+    {
+        return getSnapshot(Operation.VALIDATE);
+    }
+
+    private static final class Counters
+    {
+        final LongAdder calls = new LongAdder();
+        final LongAdder inputBytes = new LongAdder();
+        final LongAdder outputBytes = new LongAdder();
+        final LongAdder sampledCalls = new LongAdder();
+        final LongAdder sampledNanos = new LongAdder();
+        final LongAdder[] ratios = newAdders(RATIO_BUCKETS);
+        final LongAdder[] latencies = newAdders(LATENCY_BUCKETS);
+
+        private static LongAdder[] newAdders(int count)
+        {
+            final LongAdder[] adders = new LongAdder[count];
+            for (int i = 0; i < count; i++) {
+                adders[i] = new LongAdder();
+            }
+            return adders;
+        }
+
+        private static long[] sums(LongAdder[] adders)
+        {
+            final long[] sums = new long[adders.length];
+            for (int i = 0; i < adders.length; i++) {
+                sums[i] = adders[i].sum();
+            }
+            return sums;
+        }
+
+        Snapshot snapshot()
+        {
+            return new Snapshot(calls.sum(), inputBytes.sum(), outputBytes.sum(), sums(ratios),
+                    sampledCalls.sum(), sampledNanos.sum(), sums(latencies));
+        }
+    }
+
+    /**
+     * The counters of an {@link Operation} at one moment.
+     */
+    public static final class Snapshot
+    {
+        private final long calls;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final long[] ratioHistogram;
+        private final long sampledCalls;
+        private final long sampledNanos;
+        private final long[] latencyHistogram;
+
+        Snapshot(long calls, long inputBytes, long outputBytes, long[] ratioHistogram, long sampledCalls,
+                long sampledNanos, long[] latencyHistogram)
+        {
+            this.calls = calls;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.ratioHistogram = ratioHistogram;
+            this.sampledCalls = sampledCalls;
+            this.sampledNanos = sampledNanos;
+            this.latencyHistogram = latencyHistogram;
+        }
+
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        public long getInputBytes()
+        {
+            return inputBytes;
+        }
+
+        public long getOutputBytes()
+        {
+            return outputBytes;
+        }
+
+        /**
+         * @return the counts of the ratio buckets described at {@link SnappyMetrics#RATIO_BUCKETS}
+         */
+        public long[] getRatioHistogram()
+        {
+            return ratioHistogram.clone();
+        }
+
+        /**
+         * @return the number of calls whose latency was measured
+         */
+        public long getSampledCalls()
+        {
+            return sampledCalls;
+        }
+
+        /**
+         * @return the total latency of the measured calls
+         */
+        public long getSampledNanos()
+        {
+            return sampledNanos;
+        }
+
+        /**
+         * @return the counts of the latency buckets described at {@link SnappyMetrics#LATENCY_BUCKETS}
+         */
+        public long[] getLatencyHistogram()
+        {
+            return latencyHistogram.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Snapshot [calls=" + calls + ", inputBytes=" + inputBytes + ", outputBytes=" + outputBytes
+                    + ", ratioHistogram=" + Arrays.toString(ratioHistogram) + ", sampledCalls=" + sampledCalls
+                    + ", sampledNanos=" + sampledNanos + ", latencyHistogram=" + Arrays.toString(latencyHistogram)
+                    + "]";
+        }
+    }
+}
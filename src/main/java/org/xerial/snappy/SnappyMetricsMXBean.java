@@ -0,0 +1,23 @@
+package org.xerial.snappy;
+
+/**
+ * Management interface of {@link SnappyMetrics}.
+ */
+public interface SnappyMetricsMXBean
+{
+    /**
+     * @return whether calls to the native library are being recorded
+     */
+    boolean isEnabled();
+
+    /**
+     * @return the number of calls between latency measurements
+     */
+    int getSampleInterval();
+
+    SnappyMetrics.Snapshot getCompress();
+
+    SnappyMetrics.Snapshot getUncompress();
+
+    SnappyMetrics.Snapshot getValidate();
+}
@@ -0,0 +1,269 @@
+package org.xerial.snappy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * A {@link WritableByteChannel} producing the same format as
+ * {@link SnappyOutputStream}: a {@link SnappyCodec} header followed by
+ * length-prefixed compressed blocks.
+ * <p>
+ * Data is compressed with {@link Snappy#compress(ByteBuffer, ByteBuffer)}
+ * between direct buffers obtained from a {@link BufferPool}, and the
+ * compressed blocks are written to the underlying channel straight from a
+ * direct buffer. A whole block supplied in a direct buffer is compressed
+ * without being copied at all.
+ * </p>
+ * <p>
+ * Call {@link #flush()} to write out a partially filled block, and
+ * {@link #close()} at the end of the stream. Instances are not thread-safe.
+ * </p>
+ *
+ * @see SnappyInputChannel
+ */
+public final class SnappyOutputChannel
+        implements WritableByteChannel
+{
+    private final WritableByteChannel out;
+    private final BufferPool bufferPool;
+    private final int blockSize;
+
+    /**
+     * Uncompressed data not yet filling a complete block.
+     */
+    private final ByteBuffer inputBuffer;
+
+    /**
+     * Compressed blocks not yet written to {@link #out}, in write mode.
+     */
+    private final ByteBuffer outputBuffer;
+
+    private boolean closed;
+
+    /**
+     * Creates a new {@link SnappyOutputChannel} using
+     * {@link SnappyOutputStream#DEFAULT_BLOCK_SIZE}.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     */
+    public SnappyOutputChannel(WritableByteChannel out)
+    {
+        this(out, SnappyOutputStream.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a new {@link SnappyOutputChannel}.
+     * <p>
+     * Uses {@link DefaultPoolFactory} to obtain {@link BufferPool} for buffers.
+     * </p>
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @param blockSize byte size of the uncompressed blocks
+     * @throws IllegalArgumentException when blockSize is larger than 512 MiB
+     */
+    public SnappyOutputChannel(WritableByteChannel out, int blockSize)
+    {
+        this(out, blockSize, DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a new {@link SnappyOutputChannel}.
+     *
+     * @param out The underlying {@link WritableByteChannel} to write to. Must
+     * not be {@code null}.
+     * @param blockSize byte size of the uncompressed blocks
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     * @throws IllegalArgumentException when blockSize is larger than 512 MiB
+     */
+    public SnappyOutputChannel(WritableByteChannel out, int blockSize, BufferPool bufferPool)
+    {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+        this.blockSize = Math.max(SnappyOutputStream.MIN_BLOCK_SIZE, blockSize);
+        if (this.blockSize > SnappyOutputStream.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException(String.format("Provided chunk size %,d larger than max %,d", this.blockSize, SnappyOutputStream.MAX_BLOCK_SIZE));
+        }
+        this.out = out;
+        this.bufferPool = bufferPool;
+
+        inputBuffer = bufferPool.allocateDirect(this.blockSize);
+        inputBuffer.limit(this.blockSize);
+        outputBuffer = bufferPool.allocateDirect(SnappyCodec.HEADER_SIZE + 4 + Snappy.maxCompressedLength(this.blockSize));
+        outputBuffer.order(ByteOrder.BIG_ENDIAN);
+
+        // the header is written together with the first block
+        byte[] header = new byte[SnappyCodec.HEADER_SIZE];
+        SnappyCodec.currentHeader.writeHeader(header, 0);
+        outputBuffer.put(header);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return !closed;
+    }
+
+    /**
+     * Compresses the content of <i>src</i>. Complete blocks are written to
+     * the underlying channel, the remainder is kept until more data arrives
+     * or {@link #flush()} is called.
+     *
+     * @return The number of bytes consumed from <i>src</i>, which is always
+     * all of its remaining bytes.
+     */
+    @Override
+    public int write(ByteBuffer src)
+            throws IOException
+    {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        final int srcLength = src.remaining();
+        while (src.hasRemaining()) {
+            if (inputBuffer.position() == 0 && src.isDirect() && src.remaining() >= blockSize) {
+                // compress a whole block directly from the source
+                final int srcLimit = src.limit();
+                src.limit(src.position() + blockSize);
+                compressBlock(src);
+                src.position(src.limit());
+                src.limit(srcLimit);
+                continue;
+            }
+
+            SnappyFramed.transfer(src, inputBuffer);
+            if (!inputBuffer.hasRemaining()) {
+                flushBuffer();
+            }
+        }
+        return srcLength;
+    }
+
+    /**
+     * Transfers all the content from <i>rbc</i> to this channel, reading it
+     * directly into the buffer the blocks are compressed from.
+     *
+     * @param rbc The source of data to compress.
+     * @return The number of bytes read from <i>rbc</i>.
+     * @throws IOException
+     */
+    public long transferFrom(ReadableByteChannel rbc)
+            throws IOException
+    {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (rbc == null) {
+            throw new NullPointerException();
+        }
+
+        long totTransfered = 0;
+        int read;
+        while ((read = rbc.read(inputBuffer)) != -1) {
+            if (!inputBuffer.hasRemaining()) {
+                flushBuffer();
+            }
+            totTransfered += read;
+        }
+        return totTransfered;
+    }
+
+    /**
+     * Compresses any buffered data and writes all pending output to the
+     * underlying channel.
+     *
+     * @throws IOException
+     */
+    public void flush()
+            throws IOException
+    {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        flushBuffer();
+        writeOutput();
+    }
+
+    /**
+     * Flushes this channel, closes the underlying channel and returns the
+     * buffers to the pool.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            out.close();
+        }
+        finally {
+            closed = true;
+            bufferPool.releaseDirect(inputBuffer);
+            bufferPool.releaseDirect(outputBuffer);
+        }
+    }
+
+    /**
+     * Compresses and writes out {@link #inputBuffer}, if it holds any data.
+     */
+    private void flushBuffer()
+            throws IOException
+    {
+        if (inputBuffer.position() > 0) {
+            inputBuffer.flip();
+            compressBlock(inputBuffer);
+            inputBuffer.clear();
+            inputBuffer.limit(blockSize);
+        }
+    }
+
+    /**
+     * Compresses the remaining bytes of <i>block</i> as one length-prefixed
+     * block and writes it to {@link #out}, along with any pending output.
+     */
+    private void compressBlock(ByteBuffer block)
+            throws IOException
+    {
+        final int blockStart = outputBuffer.position();
+        outputBuffer.position(blockStart + 4);
+        final int compressedSize = Snappy.compress(block, outputBuffer);
+        outputBuffer.putInt(blockStart, compressedSize);
+        outputBuffer.limit(outputBuffer.capacity());
+        outputBuffer.position(blockStart + 4 + compressedSize);
+        writeOutput();
+    }
+
+    /**
+     * Writes the content of {@link #outputBuffer} to {@link #out}.
+     */
+    private void writeOutput()
+            throws IOException
+    {
+        outputBuffer.flip();
+        while (outputBuffer.hasRemaining()) {
+            out.write(outputBuffer);
+        }
+        outputBuffer.clear();
+    }
+}
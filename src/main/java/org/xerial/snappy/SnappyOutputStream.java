@@ -28,8 +28,10 @@ import org.xerial.snappy.buffer.BufferAllocatorFactory;
 import org.xerial.snappy.buffer.BufferAllocator;
 import org.xerial.snappy.buffer.CachedBufferAllocator;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UTFDataFormatException;
 
 /**
  * This class implements a stream filter for writing compressed data using
@@ -53,18 +55,28 @@ import java.io.OutputStream;
  * {@link Snappy#compress(byte[])} and {@link SnappyOutputStream} are different.
  * Use {@link SnappyInputStream} for uncompress the data generated by
  * {@link SnappyOutputStream}.
+ * <p>
+ * This stream also implements {@link DataOutput}, so primitive values can be
+ * written without wrapping it in a {@link java.io.DataOutputStream}. Values
+ * are encoded in the same big-endian format and are copied directly into the
+ * block buffer, so they can be read back with {@link SnappyInputStream} or
+ * with a {@link java.io.DataInputStream} around it.
+ * </p>
  *
  * @author leo
  */
 public class SnappyOutputStream
         extends OutputStream
+        implements DataOutput
 {
     public static final int MAX_BLOCK_SIZE = 512 * 1024 * 1024; // 512 MiB
     public static final int MIN_BLOCK_SIZE = 1 * 1024;
     public static final int DEFAULT_BLOCK_SIZE = 32 * 1024; // Use 32kb for the default block size
 
-    protected final OutputStream out;
+    protected OutputStream out;
     private final int blockSize;
+    private final int inputBufferSize;
+    private final int outputBufferSize;
 
     private final BufferAllocator inputBufferAllocator;
     private final BufferAllocator outputBufferAllocator;
@@ -76,6 +88,13 @@ public class SnappyOutputStream
     private int outputCursor = 0;
     private boolean headerWritten;
     private boolean closed;
+    private SnappyStreamListener listener = Snappy.getStreamListener();
+
+    /**
+     * Holds a single primitive value that does not fit into the remaining
+     * space of the current block.
+     */
+    private final byte[] primitiveBuffer = new byte[10];
 
     public SnappyOutputStream(OutputStream out)
     {
@@ -99,14 +118,51 @@ public class SnappyOutputStream
         if (this.blockSize > MAX_BLOCK_SIZE){
             throw new IllegalArgumentException(String.format("Provided chunk size %,d larger than max %,d", this.blockSize, MAX_BLOCK_SIZE));
         }
-        int inputSize = blockSize;
-        int outputSize = SnappyCodec.HEADER_SIZE + 4 + Snappy.maxCompressedLength(blockSize);
+        this.inputBufferSize = blockSize;
+        this.outputBufferSize = SnappyCodec.HEADER_SIZE + 4 + Snappy.maxCompressedLength(blockSize);
 
-        this.inputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(inputSize);
-        this.outputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(outputSize);
+        this.inputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(inputBufferSize);
+        this.outputBufferAllocator = bufferAllocatorFactory.getBufferAllocator(outputBufferSize);
 
-        inputBuffer = inputBufferAllocator.allocate(inputSize);
-        outputBuffer = outputBufferAllocator.allocate(outputSize);
+        inputBuffer = inputBufferAllocator.allocate(inputBufferSize);
+        outputBuffer = outputBufferAllocator.allocate(outputBufferSize);
+    }
+
+    /**
+     * Sets the listener notified of each block this stream processes,
+     * replacing the one taken from {@link Snappy#getStreamListener()} when the
+     * stream was created.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setStreamListener(SnappyStreamListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a new compressed stream on the given output, keeping the buffers
+     * of this instance so that it can be reused without further allocation.
+     * Data buffered for the previous stream is discarded rather than written,
+     * and the previous output is not closed; call {@link #flush()} first if
+     * it is needed. A closed stream obtains new buffers from its allocators.
+     *
+     * @param out the output stream to write the next compressed stream to
+     */
+    public void reset(OutputStream out)
+    {
+        if (out == null) {
+            throw new NullPointerException("out is null");
+        }
+        if (closed) {
+            inputBuffer = inputBufferAllocator.allocate(inputBufferSize);
+            outputBuffer = outputBufferAllocator.allocate(outputBufferSize);
+            closed = false;
+        }
+        this.out = out;
+        inputCursor = 0;
+        outputCursor = 0;
+        headerWritten = false;
     }
 
     /* (non-Javadoc)
@@ -325,6 +381,237 @@ public class SnappyOutputStream
         inputBuffer[inputCursor++] = (byte) b;
     }
 
+    /**
+     * Returns true if <i>length</i> bytes can be copied into the current
+     * block without completing it. Otherwise the value has to go through
+     * {@link #write(byte[], int, int)} so that block boundaries stay the same.
+     */
+    private boolean hasRoomFor(int length)
+            throws IOException
+    {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        return blockSize - inputCursor >= length;
+    }
+
+    @Override
+    public void writeBoolean(boolean v)
+            throws IOException
+    {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v)
+            throws IOException
+    {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v)
+            throws IOException
+    {
+        if (hasRoomFor(2)) {
+            writeShort(inputBuffer, inputCursor, v);
+            inputCursor += 2;
+        }
+        else {
+            writeShort(primitiveBuffer, 0, v);
+            write(primitiveBuffer, 0, 2);
+        }
+    }
+
+    @Override
+    public void writeChar(int v)
+            throws IOException
+    {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v)
+            throws IOException
+    {
+        if (hasRoomFor(4)) {
+            writeInt(inputBuffer, inputCursor, v);
+            inputCursor += 4;
+        }
+        else {
+            writeInt(primitiveBuffer, 0, v);
+            write(primitiveBuffer, 0, 4);
+        }
+    }
+
+    @Override
+    public void writeLong(long v)
+            throws IOException
+    {
+        if (hasRoomFor(8)) {
+            writeLong(inputBuffer, inputCursor, v);
+            inputCursor += 8;
+        }
+        else {
+            writeLong(primitiveBuffer, 0, v);
+            write(primitiveBuffer, 0, 8);
+        }
+    }
+
+    @Override
+    public void writeFloat(float v)
+            throws IOException
+    {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v)
+            throws IOException
+    {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    /**
+     * Writes an int as an unsigned variable-length integer: 7 bits per byte,
+     * least significant group first, with the high bit set on all but the last
+     * byte. Small values take a single byte, negative values take five. Use
+     * {@link SnappyInputStream#readVarInt()} to read it back.
+     *
+     * @param v the value to write
+     * @throws IOException
+     */
+    public void writeVarInt(int v)
+            throws IOException
+    {
+        if (hasRoomFor(5)) {
+            inputCursor = writeVarLong(inputBuffer, inputCursor, v & 0xFFFFFFFFL);
+        }
+        else {
+            write(primitiveBuffer, 0, writeVarLong(primitiveBuffer, 0, v & 0xFFFFFFFFL));
+        }
+    }
+
+    /**
+     * Writes a long as an unsigned variable-length integer, in the same
+     * encoding as {@link #writeVarInt(int)}. Negative values take ten bytes.
+     * Use {@link SnappyInputStream#readVarLong()} to read it back.
+     *
+     * @param v the value to write
+     * @throws IOException
+     */
+    public void writeVarLong(long v)
+            throws IOException
+    {
+        if (hasRoomFor(10)) {
+            inputCursor = writeVarLong(inputBuffer, inputCursor, v);
+        }
+        else {
+            write(primitiveBuffer, 0, writeVarLong(primitiveBuffer, 0, v));
+        }
+    }
+
+    @Override
+    public void writeBytes(String s)
+            throws IOException
+    {
+        final int length = s.length();
+        if (hasRoomFor(length)) {
+            for (int i = 0; i < length; i++) {
+                inputBuffer[inputCursor++] = (byte) s.charAt(i);
+            }
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                write(s.charAt(i));
+            }
+        }
+    }
+
+    @Override
+    public void writeChars(String s)
+            throws IOException
+    {
+        final int length = s.length();
+        if (length <= Integer.MAX_VALUE / 2 && hasRoomFor(length * 2)) {
+            for (int i = 0; i < length; i++) {
+                writeShort(inputBuffer, inputCursor, s.charAt(i));
+                inputCursor += 2;
+            }
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                writeShort(s.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Writes a string in the modified UTF-8 encoding of
+     * {@link DataOutput#writeUTF(String)}. Strings that fit into the current
+     * block are encoded directly into the block buffer.
+     */
+    @Override
+    public void writeUTF(String s)
+            throws IOException
+    {
+        final int length = s.length();
+        long utfLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                utfLength++;
+            }
+            else if (c > 0x07FF) {
+                utfLength += 3;
+            }
+            else {
+                utfLength += 2;
+            }
+        }
+        if (utfLength > 0xFFFF) {
+            throw new UTFDataFormatException("encoded string too long: " + utfLength + " bytes");
+        }
+
+        if (hasRoomFor(2 + (int) utfLength)) {
+            writeShort(inputBuffer, inputCursor, (int) utfLength);
+            inputCursor += 2;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F) {
+                    inputBuffer[inputCursor++] = (byte) c;
+                }
+                else if (c > 0x07FF) {
+                    inputBuffer[inputCursor++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                    inputBuffer[inputCursor++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    inputBuffer[inputCursor++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else {
+                    inputBuffer[inputCursor++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                    inputBuffer[inputCursor++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+        else {
+            writeShort((int) utfLength);
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x0001 && c <= 0x007F) {
+                    write(c);
+                }
+                else if (c > 0x07FF) {
+                    write(0xE0 | ((c >> 12) & 0x0F));
+                    write(0x80 | ((c >> 6) & 0x3F));
+                    write(0x80 | (c & 0x3F));
+                }
+                else {
+                    write(0xC0 | ((c >> 6) & 0x1F));
+                    write(0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see java.io.OutputStream#flush()
      */
@@ -348,6 +635,37 @@ public class SnappyOutputStream
         dst[offset + 3] = (byte) ((v >> 0) & 0xFF);
     }
 
+    static void writeShort(byte[] dst, int offset, int v)
+    {
+        dst[offset] = (byte) ((v >> 8) & 0xFF);
+        dst[offset + 1] = (byte) (v & 0xFF);
+    }
+
+    static void writeLong(byte[] dst, int offset, long v)
+    {
+        writeInt(dst, offset, (int) (v >>> 32));
+        writeInt(dst, offset + 4, (int) v);
+    }
+
+    /**
+     * Writes an unsigned variable-length integer and returns the offset
+     * following it.
+     */
+    static int writeVarLong(byte[] dst, int offset, long v)
+    {
+        while ((v & ~0x7FL) != 0) {
+            dst[offset++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        dst[offset++] = (byte) v;
+        return offset;
+    }
+
+    static long readLong(byte[] buffer, int pos)
+    {
+        return ((long) readInt(buffer, pos) << 32) | (readInt(buffer, pos + 4) & 0xFFFFFFFFL);
+    }
+
     static int readInt(byte[] buffer, int pos)
     {
         int b1 = (buffer[pos] & 0xFF) << 24;
@@ -381,7 +699,14 @@ public class SnappyOutputStream
             dumpOutput();
         }
         writeBlockPreemble();
+        final SnappyStreamListener l = listener;
+        final long start = l == null ? 0 : System.nanoTime();
+        Object event = SnappyEvents.beginBlock();
         int compressedSize = Snappy.compress(inputBuffer, 0, inputCursor, outputBuffer, outputCursor + 4);
+        SnappyEvents.endBlock(event, this, true, inputCursor, compressedSize);
+        if (l != null) {
+            l.blockWritten(this, inputCursor, compressedSize, false, System.nanoTime() - start);
+        }
         // Write compressed data size
         writeInt(outputBuffer, outputCursor, compressedSize);
         outputCursor += 4 + compressedSize;
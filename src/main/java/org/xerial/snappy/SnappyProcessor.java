@@ -0,0 +1,905 @@
+package org.xerial.snappy;
+
+import static org.xerial.snappy.SnappyFramed.FRAME_HEADER_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * A {@link SnappyFlow.Processor} compressing or uncompressing a stream of
+ * {@link ByteBuffer}s, in the <a
+ * href="https://github.com/google/snappy/blob/main/framing_format.txt"
+ * >x-snappy-framed</a> format or the format of {@link SnappyOutputStream}.
+ * <p>
+ * Demand is honored in both directions: items are only requested from the
+ * upstream publisher, one at a time, while fewer than <i>parallelism</i>
+ * output buffers are pending and the previous input has been processed, and
+ * output buffers are only sent as the subscriber requests them. Compressors
+ * keep the input in blocks, compress up to <i>parallelism</i> blocks at a
+ * time on an {@link Executor} and emit them in order, so a large input
+ * buffer does not start more compressions at once. Decompressors keep the
+ * input and uncompress it only as far as the subscriber has requested
+ * output, so a highly compressed input buffer does not fill up output
+ * buffers nobody asked for.
+ * </p>
+ * <p>
+ * Each input buffer is consumed completely in
+ * {@link #onNext(ByteBuffer)}, so the publisher may reuse it afterwards.
+ * The kept input and the output buffers are obtained from a
+ * {@link BufferPool}; the subscriber may
+ * hand them back with {@link #release(ByteBuffer)} once it is done with
+ * them. Only one subscriber is supported.
+ * </p>
+ */
+public final class SnappyProcessor
+        implements SnappyFlow.Processor<ByteBuffer, ByteBuffer>
+{
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferPool bufferPool;
+    private final int maxPending;
+    private final Codec codec;
+
+    /**
+     * Output buffers in order, which are either ready or being compressed.
+     */
+    private final Queue<CompletableFuture<ByteBuffer>> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean upstreamRequested = new AtomicBoolean();
+
+    private volatile SnappyFlow.Subscription upstream;
+    private volatile SnappyFlow.Subscriber<? super ByteBuffer> downstream;
+    private volatile boolean upstreamDone;
+    private volatile Throwable error;
+    private volatile boolean cancelled;
+
+    /**
+     * Only accessed by {@link #drain()}.
+     */
+    private boolean terminated;
+
+    private SnappyProcessor(BufferPool bufferPool, int maxPending, Codec codec)
+    {
+        this.bufferPool = bufferPool;
+        this.maxPending = maxPending;
+        this.codec = codec;
+    }
+
+    /**
+     * Creates a processor compressing to the x-snappy-framed format on the
+     * {@link ForkJoinPool#commonPool()}, with a parallelism of the number of
+     * available processors.
+     */
+    public static SnappyProcessor framedCompressor()
+    {
+        return framedCompressor(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors(),
+                DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a processor compressing to the x-snappy-framed format, using
+     * {@link SnappyFramedOutputStream#DEFAULT_BLOCK_SIZE} and
+     * {@link SnappyFramedOutputStream#DEFAULT_MIN_COMPRESSION_RATIO}.
+     *
+     * @param executor Runs the compression of blocks. Must not be {@code null}.
+     * @param parallelism The maximum number of blocks compressed at a time.
+     * Must be positive.
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public static SnappyProcessor framedCompressor(Executor executor, int parallelism, BufferPool bufferPool)
+    {
+        checkArguments(executor, parallelism, bufferPool);
+        return new SnappyProcessor(bufferPool, parallelism, new FramedCompressor(executor, bufferPool));
+    }
+
+    /**
+     * Creates a processor compressing to the format of
+     * {@link SnappyOutputStream} on the {@link ForkJoinPool#commonPool()},
+     * with a parallelism of the number of available processors.
+     */
+    public static SnappyProcessor blockCompressor()
+    {
+        return blockCompressor(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors(),
+                DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a processor compressing to the format of
+     * {@link SnappyOutputStream}, using
+     * {@link SnappyOutputStream#DEFAULT_BLOCK_SIZE}.
+     *
+     * @param executor Runs the compression of blocks. Must not be {@code null}.
+     * @param parallelism The maximum number of blocks compressed at a time.
+     * Must be positive.
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public static SnappyProcessor blockCompressor(Executor executor, int parallelism, BufferPool bufferPool)
+    {
+        checkArguments(executor, parallelism, bufferPool);
+        return new SnappyProcessor(bufferPool, parallelism, new BlockCompressor(executor, bufferPool));
+    }
+
+    /**
+     * Creates a processor uncompressing the x-snappy-framed format and
+     * verifying checksums.
+     */
+    public static SnappyProcessor framedDecompressor()
+    {
+        return framedDecompressor(DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a processor uncompressing the x-snappy-framed format and
+     * verifying checksums.
+     *
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public static SnappyProcessor framedDecompressor(BufferPool bufferPool)
+    {
+        checkArguments(ForkJoinPool.commonPool(), 1, bufferPool);
+        final SnappyFramedDecoder decoder = new SnappyFramedDecoder(true, bufferPool);
+        return new SnappyProcessor(bufferPool, 1, new Decompressor(bufferPool)
+        {
+            @Override
+            SnappyCoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput)
+                    throws IOException
+            {
+                return decoder.decode(in, out, endOfInput);
+            }
+
+            @Override
+            void release()
+            {
+                super.release();
+                decoder.close();
+            }
+        });
+    }
+
+    /**
+     * Creates a processor uncompressing the format of
+     * {@link SnappyOutputStream}.
+     */
+    public static SnappyProcessor blockDecompressor()
+    {
+        return blockDecompressor(DefaultPoolFactory.getDefaultPool());
+    }
+
+    /**
+     * Creates a processor uncompressing the format of
+     * {@link SnappyOutputStream}.
+     *
+     * @param bufferPool Used to obtain buffer instances. Must not be {@code null}.
+     */
+    public static SnappyProcessor blockDecompressor(BufferPool bufferPool)
+    {
+        checkArguments(ForkJoinPool.commonPool(), 1, bufferPool);
+        final SnappyBlockStreamDecoder decoder = new SnappyBlockStreamDecoder();
+        return new SnappyProcessor(bufferPool, 1, new Decompressor(bufferPool)
+        {
+            @Override
+            SnappyCoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput)
+                    throws IOException
+            {
+                return decoder.decode(in, out, endOfInput);
+            }
+
+            @Override
+            void release()
+            {
+                super.release();
+                decoder.close();
+            }
+        });
+    }
+
+    private static void checkArguments(Executor executor, int parallelism, BufferPool bufferPool)
+    {
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        if (bufferPool == null) {
+            throw new NullPointerException("buffer pool is null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism " + parallelism + " must be > 0");
+        }
+    }
+
+    /**
+     * Returns an output buffer to the {@link BufferPool}. The buffer must not
+     * be used afterwards.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer.isDirect()) {
+            bufferPool.releaseDirect(buffer);
+        }
+    }
+
+    @Override
+    public void subscribe(SnappyFlow.Subscriber<? super ByteBuffer> subscriber)
+    {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber is null");
+        }
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new SnappyFlow.Subscription()
+                {
+                    @Override
+                    public void request(long n)
+                    {
+                    }
+
+                    @Override
+                    public void cancel()
+                    {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("only one subscriber is supported"));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new SnappyFlow.Subscription()
+        {
+            @Override
+            public void request(long n)
+            {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("non-positive request: " + n);
+                    cancelUpstream();
+                }
+                else {
+                    addRequested(n);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel()
+            {
+                cancelled = true;
+                cancelUpstream();
+                drain();
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(SnappyFlow.Subscription subscription)
+    {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer item)
+    {
+        upstreamRequested.set(false);
+        if (error == null && !cancelled) {
+            try {
+                codec.accept(this, item);
+            }
+            catch (IOException | RuntimeException e) {
+                error = e;
+                cancelUpstream();
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+        if (error == null) {
+            error = throwable;
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete()
+    {
+        if (error == null && !cancelled) {
+            try {
+                codec.finish(this);
+            }
+            catch (IOException | RuntimeException e) {
+                error = e;
+            }
+        }
+        upstreamDone = true;
+        drain();
+    }
+
+    private void cancelUpstream()
+    {
+        final SnappyFlow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    private void addRequested(long n)
+    {
+        long current;
+        long next;
+        do {
+            current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                return;
+            }
+            next = current + n;
+            if (next < 0) {
+                next = Long.MAX_VALUE;
+            }
+        }
+        while (!requested.compareAndSet(current, next));
+    }
+
+    /**
+     * Adds an output buffer, which is sent once all earlier ones have been
+     * sent.
+     */
+    void emit(CompletableFuture<ByteBuffer> output)
+    {
+        pending.add(output);
+        if (!output.isDone()) {
+            output.whenComplete((b, e) -> drain());
+        }
+    }
+
+    /**
+     * Sends ready output buffers as demanded, signals termination and
+     * requests more input while few enough outputs are pending. Only one
+     * thread runs the loop at a time; calls made meanwhile make it run again.
+     */
+    private void drain()
+    {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            emitReady();
+            requestUpstream();
+            missed = wip.addAndGet(-missed);
+        }
+        while (missed != 0);
+    }
+
+    private void emitReady()
+    {
+        final SnappyFlow.Subscriber<? super ByteBuffer> subscriber = downstream;
+        if (terminated || subscriber == null) {
+            return;
+        }
+        while (true) {
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            final Throwable failure = error;
+            if (failure != null) {
+                terminate();
+                subscriber.onError(failure);
+                return;
+            }
+            if (pending.size() < maxPending) {
+                try {
+                    if (codec.produce(this)) {
+                        continue;
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    error = e;
+                    cancelUpstream();
+                    continue;
+                }
+            }
+            final CompletableFuture<ByteBuffer> head = pending.peek();
+            if (head == null) {
+                if (upstreamDone && codec.isFinished()) {
+                    terminate();
+                    subscriber.onComplete();
+                }
+                return;
+            }
+            if (!head.isDone() || requested.get() == 0) {
+                return;
+            }
+            final ByteBuffer buffer;
+            try {
+                buffer = head.join();
+            }
+            catch (CompletionException e) {
+                error = e.getCause() != null ? e.getCause() : e;
+                cancelUpstream();
+                continue;
+            }
+            pending.poll();
+            if (requested.get() != Long.MAX_VALUE) {
+                requested.decrementAndGet();
+            }
+            subscriber.onNext(buffer);
+        }
+    }
+
+    private void terminate()
+    {
+        terminated = true;
+        for (CompletableFuture<ByteBuffer> output; (output = pending.poll()) != null; ) {
+            output.thenAccept(this::release);
+        }
+        codec.release();
+        if (upstreamDone) {
+            // onNext may still be running otherwise
+            codec.releaseInput();
+        }
+    }
+
+    /**
+     * @return The number of output buffers a codec may add while none are
+     * pending: the outstanding demand, or one to find out whether there is
+     * any output left.
+     */
+    int outputDemand()
+    {
+        return (int) Math.max(1, Math.min(requested.get(), maxPending));
+    }
+
+    private void requestUpstream()
+    {
+        final SnappyFlow.Subscription subscription = upstream;
+        if (subscription != null && downstream != null && !terminated && !upstreamDone
+                && error == null && pending.size() < maxPending && codec.needsInput()
+                && upstreamRequested.compareAndSet(false, true)) {
+            subscription.request(1);
+        }
+    }
+
+    /**
+     * Turns input buffers into output buffers passed to
+     * {@link SnappyProcessor#emit(CompletableFuture)}.
+     */
+    private abstract static class Codec
+    {
+        /**
+         * Called by {@link SnappyProcessor#onNext(ByteBuffer)}.
+         */
+        abstract void accept(SnappyProcessor processor, ByteBuffer input)
+                throws IOException;
+
+        /**
+         * Called by {@link SnappyProcessor#onComplete()}.
+         */
+        abstract void finish(SnappyProcessor processor)
+                throws IOException;
+
+        /**
+         * Called by {@link SnappyProcessor#drain()} while fewer than
+         * <i>parallelism</i> outputs are pending, to emit output from input
+         * kept by {@link #accept}.
+         *
+         * @return Whether any output was emitted.
+         */
+        boolean produce(SnappyProcessor processor)
+                throws IOException
+        {
+            return false;
+        }
+
+        /**
+         * @return Whether all input kept by {@link #accept} has been turned
+         * into output.
+         */
+        boolean isFinished()
+        {
+            return true;
+        }
+
+        /**
+         * @return Whether more input should be requested.
+         */
+        boolean needsInput()
+        {
+            return true;
+        }
+
+        /**
+         * Releases the state used by {@link #produce}, once the processor
+         * has terminated.
+         */
+        void release()
+        {
+        }
+
+        /**
+         * Releases the state used by {@link #accept}, once the processor has
+         * terminated and no more input can arrive.
+         */
+        void releaseInput()
+        {
+        }
+    }
+
+    /**
+     * Collects the input into blocks, each of which is compressed on the
+     * executor into an output buffer of its own once fewer than
+     * <i>parallelism</i> outputs are pending.
+     */
+    private abstract static class Compressor
+            extends Codec
+    {
+        final Executor executor;
+        final BufferPool bufferPool;
+        final int blockSize;
+
+        /**
+         * Collected blocks not yet compressed, added by {@link #accept} and
+         * {@link #finish} and consumed by {@link #produce}.
+         */
+        private final Queue<Block> blocks = new ConcurrentLinkedQueue<>();
+        private byte[] block;
+        private int buffered;
+        private boolean started;
+
+        Compressor(Executor executor, BufferPool bufferPool, int blockSize)
+        {
+            this.executor = executor;
+            this.bufferPool = bufferPool;
+            this.blockSize = blockSize;
+        }
+
+        /**
+         * @return The header starting the stream.
+         */
+        abstract ByteBuffer header();
+
+        /**
+         * Compresses <i>length</i> bytes of <i>data</i> into a direct buffer
+         * from the pool, in read mode.
+         */
+        abstract ByteBuffer compress(byte[] data, int length)
+                throws IOException;
+
+        @Override
+        void accept(SnappyProcessor processor, ByteBuffer input)
+        {
+            start(processor);
+            while (input.hasRemaining()) {
+                if (block == null) {
+                    block = bufferPool.allocateArray(blockSize);
+                }
+                final int toCopy = Math.min(input.remaining(), blockSize - buffered);
+                input.get(block, buffered, toCopy);
+                buffered += toCopy;
+                if (buffered == blockSize) {
+                    collect();
+                }
+            }
+        }
+
+        @Override
+        void finish(SnappyProcessor processor)
+        {
+            start(processor);
+            if (buffered > 0) {
+                collect();
+            }
+        }
+
+        @Override
+        boolean produce(SnappyProcessor processor)
+        {
+            final Block collected = blocks.poll();
+            if (collected == null) {
+                return false;
+            }
+            seal(processor, collected);
+            return true;
+        }
+
+        @Override
+        boolean isFinished()
+        {
+            return blocks.isEmpty();
+        }
+
+        @Override
+        boolean needsInput()
+        {
+            return blocks.isEmpty();
+        }
+
+        @Override
+        void release()
+        {
+            releaseBlocks();
+        }
+
+        @Override
+        void releaseInput()
+        {
+            releaseBlocks();
+            if (block != null) {
+                bufferPool.releaseArray(block);
+                block = null;
+            }
+        }
+
+        private void releaseBlocks()
+        {
+            for (Block collected; (collected = blocks.poll()) != null; ) {
+                bufferPool.releaseArray(collected.data);
+            }
+        }
+
+        private void start(SnappyProcessor processor)
+        {
+            if (!started) {
+                started = true;
+                processor.emit(CompletableFuture.completedFuture(header()));
+            }
+        }
+
+        private void collect()
+        {
+            blocks.add(new Block(block, buffered));
+            block = null;
+            buffered = 0;
+        }
+
+        private void seal(SnappyProcessor processor, Block collected)
+        {
+            final byte[] data = collected.data;
+            final int length = collected.length;
+            processor.emit(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return compress(data, length);
+                }
+                catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                finally {
+                    bufferPool.releaseArray(data);
+                }
+            }, executor));
+        }
+    }
+
+    private static final class Block
+    {
+        final byte[] data;
+        final int length;
+
+        Block(byte[] data, int length)
+        {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class FramedCompressor
+            extends Compressor
+    {
+        FramedCompressor(Executor executor, BufferPool bufferPool)
+        {
+            super(executor, bufferPool, SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE);
+        }
+
+        @Override
+        ByteBuffer header()
+        {
+            return ByteBuffer.wrap(SnappyFramed.HEADER_BYTES.clone());
+        }
+
+        @Override
+        ByteBuffer compress(byte[] data, int length)
+                throws IOException
+        {
+            final ByteBuffer directInputBuffer = bufferPool.allocateDirect(blockSize);
+            final ByteBuffer frame = bufferPool.allocateDirect(FRAME_HEADER_SIZE + Snappy.maxCompressedLength(blockSize));
+            try {
+                SnappyFramed.encodeFrame(SnappyFramed.getCRC32C(), data, 0, length, directInputBuffer, frame,
+                        SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO);
+                return frame;
+            }
+            catch (IOException e) {
+                bufferPool.releaseDirect(frame);
+                throw e;
+            }
+            finally {
+                bufferPool.releaseDirect(directInputBuffer);
+            }
+        }
+    }
+
+    private static final class BlockCompressor
+            extends Compressor
+    {
+        BlockCompressor(Executor executor, BufferPool bufferPool)
+        {
+            super(executor, bufferPool, SnappyOutputStream.DEFAULT_BLOCK_SIZE);
+        }
+
+        @Override
+        ByteBuffer header()
+        {
+            final byte[] header = new byte[SnappyCodec.HEADER_SIZE];
+            SnappyCodec.currentHeader.writeHeader(header, 0);
+            return ByteBuffer.wrap(header);
+        }
+
+        @Override
+        ByteBuffer compress(byte[] data, int length)
+                throws IOException
+        {
+            final ByteBuffer directInputBuffer = bufferPool.allocateDirect(blockSize);
+            final ByteBuffer output = bufferPool.allocateDirect(4 + Snappy.maxCompressedLength(blockSize));
+            try {
+                directInputBuffer.put(data, 0, length);
+                directInputBuffer.flip();
+                output.order(ByteOrder.BIG_ENDIAN);
+                output.position(4);
+                final int compressedSize = Snappy.compress(directInputBuffer, output);
+                output.putInt(0, compressedSize);
+                output.position(0);
+                return output;
+            }
+            catch (IOException e) {
+                bufferPool.releaseDirect(output);
+                throw e;
+            }
+            finally {
+                bufferPool.releaseDirect(directInputBuffer);
+            }
+        }
+    }
+
+    /**
+     * Keeps the input and feeds it through a push decoder as output is
+     * demanded, in {@link SnappyProcessor#drain()}.
+     */
+    private abstract static class Decompressor
+            extends Codec
+    {
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+        private final BufferPool bufferPool;
+
+        /**
+         * Copies of the input buffers not yet completely decoded, wrapping
+         * arrays from the pool, added by {@link #accept} and consumed by
+         * {@link #produce}.
+         */
+        private final Queue<ByteBuffer> inputs = new ConcurrentLinkedQueue<>();
+        private volatile boolean endOfInput;
+        private boolean finished;
+
+        Decompressor(BufferPool bufferPool)
+        {
+            this.bufferPool = bufferPool;
+        }
+
+        abstract SnappyCoderResult decode(ByteBuffer in, ByteBuffer out, boolean endOfInput)
+                throws IOException;
+
+        @Override
+        void accept(SnappyProcessor processor, ByteBuffer input)
+        {
+            final int length = input.remaining();
+            if (length > 0) {
+                final byte[] copy = bufferPool.allocateArray(length);
+                input.get(copy, 0, length);
+                inputs.add(ByteBuffer.wrap(copy, 0, length));
+            }
+        }
+
+        @Override
+        void finish(SnappyProcessor processor)
+        {
+            endOfInput = true;
+        }
+
+        @Override
+        boolean produce(SnappyProcessor processor)
+                throws IOException
+        {
+            int produced = 0;
+            final int demand = processor.outputDemand();
+            while (!finished && produced < demand) {
+                ByteBuffer input = inputs.peek();
+                final boolean last = input == null;
+                if (last) {
+                    // endOfInput is set after the last input has been added
+                    if (!endOfInput) {
+                        break;
+                    }
+                    input = EMPTY;
+                }
+                final ByteBuffer output = bufferPool.allocateDirect(OUTPUT_BUFFER_SIZE);
+                output.limit(OUTPUT_BUFFER_SIZE);
+                final SnappyCoderResult result;
+                try {
+                    result = decode(input, output, last);
+                }
+                catch (IOException | RuntimeException e) {
+                    bufferPool.releaseDirect(output);
+                    throw e;
+                }
+                if (result.isUnderflow()) {
+                    if (last) {
+                        finished = true;
+                    }
+                    else {
+                        bufferPool.releaseArray(inputs.poll().array());
+                    }
+                }
+                output.flip();
+                if (output.hasRemaining()) {
+                    processor.emit(CompletableFuture.completedFuture(output));
+                    produced++;
+                }
+                else {
+                    bufferPool.releaseDirect(output);
+                }
+            }
+            return produced > 0;
+        }
+
+        @Override
+        boolean isFinished()
+        {
+            return finished;
+        }
+
+        @Override
+        boolean needsInput()
+        {
+            return inputs.isEmpty();
+        }
+
+        @Override
+        void release()
+        {
+            releaseInputs();
+        }
+
+        @Override
+        void releaseInput()
+        {
+            releaseInputs();
+        }
+
+        private void releaseInputs()
+        {
+            for (ByteBuffer input; (input = inputs.poll()) != null; ) {
+                bufferPool.releaseArray(input.array());
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.xerial.snappy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xerial.snappy.buffer.BufferAllocator;
+import org.xerial.snappy.buffer.BufferAllocatorFactory;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+/**
+ * Incrementally decodes raw Snappy data (the output of
+ * {@link Snappy#compress(byte[])}, without any stream header) read from an
+ * {@link InputStream}.
+ * <p>
+ * The uncompressed length stored at the start of the data is used to allocate
+ * the output array once, large enough for all of the data. The compressed
+ * input is never buffered as a whole: it is read through a small fixed-size
+ * buffer and decoded as it arrives, so the decoded output can be consumed
+ * while the rest of the input is still being read.
+ * </p>
+ * <p>
+ * Both arrays are obtained from
+ * {@link CachedBufferAllocator#getBufferAllocatorFactory()}, and returned by
+ * {@link #close()}.
+ * </p>
+ * <p>
+ * Used by {@link SnappyInputStream} for input without a {@link SnappyCodec}
+ * header.
+ * </p>
+ */
+final class SnappyRawStreamDecoder
+        implements Closeable
+{
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The maximum size of a tag: 1 tag byte followed by up to 4 bytes of
+     * literal length or copy offset.
+     */
+    private static final int MAX_TAG_SIZE = 5;
+
+    private final InputStream in;
+    private final BufferAllocator inputAllocator;
+    private byte[] input;
+    private int inputPos;
+    private int inputLimit;
+    private boolean eof;
+
+    private BufferAllocator outputAllocator;
+    private byte[] output;
+    private int outputLength;
+    private int outputPos;
+
+    /**
+     * The number of literal bytes still to be copied from the input.
+     */
+    private int pendingLiteral;
+
+    /**
+     * @param in the remaining input
+     * @param fragment the first bytes of the input, already read from <i>in</i>
+     * @param fragmentLength the number of bytes in <i>fragment</i>
+     * @throws IOException if the uncompressed length cannot be read
+     */
+    SnappyRawStreamDecoder(InputStream in, byte[] fragment, int fragmentLength)
+            throws IOException
+    {
+        this.in = in;
+        final BufferAllocatorFactory factory = CachedBufferAllocator.getBufferAllocatorFactory();
+        final int inputSize = SnappyBlockStreamDecoder.bufferSize(Math.max(INPUT_BUFFER_SIZE, fragmentLength));
+        this.inputAllocator = factory.getBufferAllocator(inputSize);
+        this.input = inputAllocator.allocate(inputSize);
+        try {
+            System.arraycopy(fragment, 0, input, 0, fragmentLength);
+            this.inputLimit = fragmentLength;
+            this.outputLength = readUncompressedLength();
+            final int outputSize = SnappyBlockStreamDecoder.bufferSize(outputLength);
+            this.outputAllocator = factory.getBufferAllocator(outputSize);
+            this.output = outputAllocator.allocate(outputSize);
+        }
+        catch (IOException | RuntimeException | Error e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the array the data is decoded into. Its length may exceed the
+     * uncompressed length.
+     */
+    byte[] getOutput()
+    {
+        return output;
+    }
+
+    /**
+     * @return {@code true} once all the data has been decoded.
+     */
+    boolean isFinished()
+    {
+        return outputPos == outputLength;
+    }
+
+    /**
+     * Returns the arrays to the allocators. {@link #getOutput()} must not be
+     * used afterwards.
+     */
+    @Override
+    public void close()
+    {
+        if (input != null) {
+            inputAllocator.release(input);
+            input = null;
+        }
+        if (output != null) {
+            outputAllocator.release(output);
+            output = null;
+        }
+    }
+
+    /**
+     * Decodes the currently buffered input, reading more if required to
+     * make progress.
+     *
+     * @return the number of bytes of {@link #getOutput()} decoded so far.
+     * Greater than on the previous call unless {@link #isFinished()}.
+     * @throws IOException if the input is corrupt or cannot be read
+     */
+    int decode()
+            throws IOException
+    {
+        final int start = outputPos;
+        while (outputPos < outputLength) {
+            if (pendingLiteral > 0) {
+                if (inputPos == inputLimit) {
+                    if (outputPos > start) {
+                        return outputPos;
+                    }
+                    fill(1);
+                }
+                final int toCopy = Math.min(pendingLiteral, inputLimit - inputPos);
+                System.arraycopy(input, inputPos, output, outputPos, toCopy);
+                inputPos += toCopy;
+                outputPos += toCopy;
+                pendingLiteral -= toCopy;
+                continue;
+            }
+
+            if (inputLimit - inputPos < MAX_TAG_SIZE && !eof) {
+                if (outputPos > start && inputPos < inputLimit) {
+                    // decode what is available before blocking on more input
+                    if (!decodeTag()) {
+                        return outputPos;
+                    }
+                    continue;
+                }
+                fill(MAX_TAG_SIZE);
+            }
+            if (!decodeTag()) {
+                throw corrupt("truncated input");
+            }
+        }
+
+        checkEndOfInput();
+        return outputPos;
+    }
+
+    /**
+     * Decodes one tag at {@link #inputPos}.
+     *
+     * @return {@code false} if the tag is not complete in the buffered input
+     */
+    private boolean decodeTag()
+            throws IOException
+    {
+        final int available = inputLimit - inputPos;
+        if (available == 0) {
+            return false;
+        }
+        final int tag = input[inputPos] & 0xFF;
+        switch (tag & 0x3) {
+            case 0: {
+                // literal
+                int length = tag >>> 2;
+                int extra = 0;
+                if (length >= 60) {
+                    extra = length - 59;
+                    if (available < 1 + extra) {
+                        return false;
+                    }
+                    length = readLittleEndian(inputPos + 1, extra);
+                }
+                length += 1;
+                if (length <= 0 || length > outputLength - outputPos) {
+                    throw corrupt("literal exceeds the uncompressed length");
+                }
+                inputPos += 1 + extra;
+                pendingLiteral = length;
+                return true;
+            }
+            case 1: {
+                // copy with 1-byte offset
+                if (available < 2) {
+                    return false;
+                }
+                final int length = ((tag >>> 2) & 0x7) + 4;
+                final int offset = ((tag & 0xE0) << 3) | (input[inputPos + 1] & 0xFF);
+                inputPos += 2;
+                copy(offset, length);
+                return true;
+            }
+            case 2: {
+                // copy with 2-byte offset
+                if (available < 3) {
+                    return false;
+                }
+                final int offset = readLittleEndian(inputPos + 1, 2);
+                inputPos += 3;
+                copy(offset, (tag >>> 2) + 1);
+                return true;
+            }
+            default: {
+                // copy with 4-byte offset
+                if (available < 5) {
+                    return false;
+                }
+                final int offset = readLittleEndian(inputPos + 1, 4);
+                inputPos += 5;
+                copy(offset, (tag >>> 2) + 1);
+                return true;
+            }
+        }
+    }
+
+    private void copy(int offset, int length)
+            throws IOException
+    {
+        if (offset <= 0 || offset > outputPos) {
+            throw corrupt("invalid copy offset: " + offset);
+        }
+        if (length > outputLength - outputPos) {
+            throw corrupt("copy exceeds the uncompressed length");
+        }
+        int src = outputPos - offset;
+        if (offset >= length) {
+            System.arraycopy(output, src, output, outputPos, length);
+            outputPos += length;
+        }
+        else {
+            // overlapping copy repeats the last offset bytes
+            final int end = outputPos + length;
+            while (outputPos < end) {
+                output[outputPos++] = output[src++];
+            }
+        }
+    }
+
+    private int readLittleEndian(int pos, int bytes)
+    {
+        int value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (input[pos + i] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the varint encoded uncompressed length at the start of the input.
+     */
+    private int readUncompressedLength()
+            throws IOException
+    {
+        long result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (inputPos == inputLimit) {
+                fill(1);
+            }
+            final int b = input[inputPos++] & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (result > Integer.MAX_VALUE) {
+                    throw new SnappyIOException(SnappyErrorCode.TOO_LARGE_INPUT, "uncompressed length is too large: " + result);
+                }
+                return (int) result;
+            }
+        }
+        throw corrupt("invalid uncompressed length");
+    }
+
+    /**
+     * Moves unconsumed input to the start of the buffer and reads until at
+     * least <i>required</i> bytes are buffered or the input ends.
+     *
+     * @throws IOException if no byte is buffered after reaching the end of the
+     * input
+     */
+    private void fill(int required)
+            throws IOException
+    {
+        final int remaining = inputLimit - inputPos;
+        System.arraycopy(input, inputPos, input, 0, remaining);
+        inputPos = 0;
+        inputLimit = remaining;
+        while (!eof && inputLimit < required) {
+            final int read = in.read(input, inputLimit, input.length - inputLimit);
+            if (read == -1) {
+                eof = true;
+            }
+            else {
+                inputLimit += read;
+            }
+        }
+        if (inputLimit == 0) {
+            throw corrupt("truncated input");
+        }
+    }
+
+    /**
+     * All of the input must be consumed once the output is complete.
+     */
+    private void checkEndOfInput()
+            throws IOException
+    {
+        if (inputPos < inputLimit || (!eof && in.read() != -1)) {
+            throw corrupt("unexpected data after the end of the compressed input");
+        }
+        eof = true;
+    }
+
+    private static SnappyIOException corrupt(String message)
+    {
+        return new SnappyIOException(SnappyErrorCode.FAILED_TO_UNCOMPRESS, message);
+    }
+}
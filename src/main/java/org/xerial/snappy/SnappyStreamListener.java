@@ -0,0 +1,42 @@
+package org.xerial.snappy;
+
+import java.io.Closeable;
+
+/**
+ * Receives a callback for each block processed by {@link SnappyOutputStream},
+ * {@link SnappyInputStream}, {@link SnappyFramedOutputStream} and
+ * {@link SnappyFramedInputStream}, for example to account compression work per
+ * tenant.
+ * <p>
+ * A listener can be set on a stream with {@code setStreamListener}, or for all
+ * streams created afterwards with {@link Snappy#setStreamListener(SnappyStreamListener)}.
+ * Streams without a listener do not measure anything. Callbacks run on the
+ * thread using the stream, between blocks, so they should return quickly.
+ * </p>
+ */
+public interface SnappyStreamListener
+{
+    /**
+     * Called after an output stream compressed a block, before the block is
+     * written to the underlying stream.
+     *
+     * @param stream the stream which compressed the block
+     * @param uncompressedSize the number of bytes given to the stream
+     * @param storedSize the number of bytes of block data written, excluding headers
+     * @param raw true if the block was stored uncompressed because it did not compress well enough
+     * @param nanos the time spent compressing the block
+     */
+    void blockWritten(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos);
+
+    /**
+     * Called after an input stream decoded a block read from the underlying
+     * stream.
+     *
+     * @param stream the stream which read the block
+     * @param uncompressedSize the number of bytes the block decoded to
+     * @param storedSize the number of bytes of block data read, excluding headers
+     * @param raw true if the block was stored uncompressed
+     * @param nanos the time spent decoding the block, excluding reading it
+     */
+    void blockRead(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos);
+}
@@ -1,14 +1,44 @@
 package org.xerial.snappy.buffer;
 
 import java.lang.ref.SoftReference;
-import java.util.*;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xerial.snappy.pool.BufferPoolStats;
+import org.xerial.snappy.pool.LeakDetector;
+import org.xerial.snappy.pool.MemoryPressureMonitor;
 
 /**
  * Cached buffer
+ * <p>
+ * Released buffers are kept in a lock-free stack shared by all threads, so
+ * that a buffer released by one thread is reused by the next allocation on
+ * any thread, including short-lived and virtual threads. The most recently
+ * released buffer is handed out first. At most
+ * {@link #getMaxRetainedBuffers()} buffers are retained; further released
+ * buffers are left to the garbage collector. {@link MemoryPressureMonitor}
+ * shrinks the retained buffers with {@link #trimAll(int)} when memory runs
+ * low, and {@link LeakDetector} can report buffers which are never released.
+ * </p>
  */
 public class CachedBufferAllocator
         implements BufferAllocator
 {
+    /**
+     * The default number of buffers retained by each allocator.
+     */
+    public static final int DEFAULT_MAX_RETAINED_BUFFERS = 16;
+
+    private static final BufferPoolStats stats = new BufferPoolStats("CachedBufferAllocator");
+
+    static {
+        stats.register();
+        MemoryPressureMonitor.install();
+    }
+
     private static BufferAllocatorFactory factory = new BufferAllocatorFactory()
     {
         @Override
@@ -32,49 +62,134 @@ public class CachedBufferAllocator
     /**
      * Use SoftReference so that having this queueTable does not prevent the GC of CachedBufferAllocator instances
      */
-    private static final Map<Integer, SoftReference<CachedBufferAllocator>> queueTable = new HashMap<Integer, SoftReference<CachedBufferAllocator>>();
+    private static final ConcurrentMap<Integer, SoftReference<CachedBufferAllocator>> queueTable = new ConcurrentHashMap<Integer, SoftReference<CachedBufferAllocator>>();
 
     private final int bufferSize;
+    private final int maxRetainedBuffers;
     private final Deque<byte[]> bufferQueue;
+    private final AtomicInteger queueSize = new AtomicInteger();
 
     public CachedBufferAllocator(int bufferSize)
     {
+        this(bufferSize, DEFAULT_MAX_RETAINED_BUFFERS);
+    }
+
+    /**
+     * @param bufferSize the size of the buffers
+     * @param maxRetainedBuffers the maximum number of released buffers kept
+     * for reuse. Must be {@code >= 0}.
+     */
+    public CachedBufferAllocator(int bufferSize, int maxRetainedBuffers)
+    {
+        if (maxRetainedBuffers < 0) {
+            throw new IllegalArgumentException("maxRetainedBuffers " + maxRetainedBuffers + " must be >= 0");
+        }
         this.bufferSize = bufferSize;
-        this.bufferQueue = new ArrayDeque<byte[]>();
+        this.maxRetainedBuffers = maxRetainedBuffers;
+        this.bufferQueue = new ConcurrentLinkedDeque<byte[]>();
+    }
+
+    public static CachedBufferAllocator getAllocator(int bufferSize)
+    {
+        final Integer key = bufferSize;
+        SoftReference<CachedBufferAllocator> ref = queueTable.get(key);
+        for (;;) {
+            CachedBufferAllocator result = ref == null ? null : ref.get();
+            if (result != null) {
+                return result;
+            }
+            final CachedBufferAllocator created = new CachedBufferAllocator(bufferSize);
+            final SoftReference<CachedBufferAllocator> newRef = new SoftReference<CachedBufferAllocator>(created);
+            if (ref == null ? queueTable.putIfAbsent(key, newRef) == null : queueTable.replace(key, ref, newRef)) {
+                return created;
+            }
+            // another thread registered an allocator first
+            ref = queueTable.get(key);
+        }
+    }
+
+    /**
+     * @return the usage counters of all instances, also registered as an MXBean
+     */
+    public static BufferPoolStats getStats()
+    {
+        return stats;
     }
 
-    public static synchronized CachedBufferAllocator getAllocator(int bufferSize)
+    /**
+     * @return the maximum number of released buffers kept for reuse
+     */
+    public int getMaxRetainedBuffers()
     {
-        CachedBufferAllocator result = null;
+        return maxRetainedBuffers;
+    }
 
-        if (queueTable.containsKey(bufferSize)) {
-            result = queueTable.get(bufferSize).get();
+    /**
+     * Drops the least recently released buffers until at most <i>floor</i>
+     * remain.
+     *
+     * @param floor the number of buffers to keep
+     * @return the number of bytes dropped
+     */
+    public long trim(int floor)
+    {
+        long trimmed = 0;
+        while (queueSize.get() > floor && bufferQueue.pollLast() != null) {
+            queueSize.decrementAndGet();
+            stats.recordDiscarded(bufferSize);
+            trimmed += bufferSize;
         }
-        if (result == null) {
-            result = new CachedBufferAllocator(bufferSize);
-            queueTable.put(bufferSize, new SoftReference<CachedBufferAllocator>(result));
+        return trimmed;
+    }
+
+    /**
+     * Calls {@link #trim(int)} on all allocators returned by
+     * {@link #getAllocator(int)}.
+     *
+     * @param floor the number of buffers to keep per allocator
+     * @return the number of bytes dropped
+     */
+    public static long trimAll(int floor)
+    {
+        long trimmed = 0;
+        for (SoftReference<CachedBufferAllocator> ref : queueTable.values()) {
+            final CachedBufferAllocator allocator = ref.get();
+            if (allocator != null) {
+                trimmed += allocator.trim(floor);
+            }
         }
-        return result;
+        return trimmed;
     }
 
     @Override
     public byte[] allocate(int size)
     {
-        synchronized (this) {
-            if (bufferQueue.isEmpty()) {
-                return new byte[size];
-            }
-            else {
-                return bufferQueue.pollFirst();
-            }
+        // most recently released first
+        final byte[] buffer = bufferQueue.pollFirst();
+        if (buffer == null) {
+            stats.recordMiss(size);
+            return LeakDetector.track(new byte[size], "CachedBufferAllocator");
         }
+        queueSize.decrementAndGet();
+        stats.recordHit(bufferSize);
+        return LeakDetector.track(buffer, "CachedBufferAllocator");
     }
 
     @Override
     public void release(byte[] buffer)
     {
-        synchronized (this) {
-            bufferQueue.addLast(buffer);
+        LeakDetector.untrack(buffer);
+
+        // reserve a place in the queue, or drop the buffer if it is full
+        int size;
+        do {
+            size = queueSize.get();
+            if (size >= maxRetainedBuffers) {
+                return;
+            }
         }
+        while (!queueSize.compareAndSet(size, size + 1));
+        bufferQueue.offerFirst(buffer);
+        stats.recordRetained(bufferSize);
     }
 }
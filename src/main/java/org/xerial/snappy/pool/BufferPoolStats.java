@@ -0,0 +1,207 @@
+package org.xerial.snappy.pool;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xerial.snappy.SnappyEvents;
+import org.xerial.snappy.SnappyMBeans;
+
+/**
+ * Usage counters of a buffer pool, exposed as an MXBean named
+ * {@code org.xerial.snappy:type=BufferPool,name=<name>} once
+ * {@link #register() registered}.
+ * <p>
+ * The counters are {@link LongAdder}s, so that recording from many threads
+ * does not contend. Reads are not atomic across counters. Buffers which the
+ * garbage collector reclaims are only accounted for once the pool comes
+ * across them, so {@link #getBytesRetained()} can be higher than the memory
+ * actually held.
+ * </p>
+ * <p>
+ * {@link CachingBufferPool}, {@link QuiescentBufferPool} and
+ * {@link org.xerial.snappy.buffer.CachedBufferAllocator} record into instances
+ * of this class. The {@code record} methods are public for the use of other
+ * pool implementations. Misses are also recorded as
+ * {@link SnappyEvents JFR events}. The MXBeans are registered and
+ * unregistered through {@link SnappyMBeans}.
+ * </p>
+ */
+public final class BufferPoolStats implements BufferPoolStatsMXBean {
+
+    /**
+     * The JMX domain of the registered MXBeans.
+     */
+    public static final String DOMAIN = "org.xerial.snappy";
+
+    private final String name;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> allocations = new ConcurrentHashMap<>();
+    private final LongAdder bytesRetained = new LongAdder();
+    private final LongAdder bytesReleasedByGc = new LongAdder();
+    private final LongAdder directBytesOutstanding = new LongAdder();
+
+    /**
+     * @param name The name of the pool. Must not be {@code null}.
+     */
+    public BufferPoolStats(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        this.name = name;
+    }
+
+    /**
+     * Hands this instance to {@link SnappyMBeans#register(Object, String)},
+     * which registers it with the platform MBean server if MBeans are enabled.
+     */
+    public void register() {
+        SnappyMBeans.register(this, getObjectName());
+    }
+
+    /**
+     * @return The object name under which {@link #register()} registers this
+     * instance.
+     */
+    public String getObjectName() {
+        return DOMAIN + ":type=BufferPool,name=" + name;
+    }
+
+    /**
+     * Records an allocation served with a cached buffer of <i>size</i> bytes,
+     * which is no longer retained.
+     */
+    public void recordHit(int size) {
+        hits.increment();
+        allocation(size).increment();
+        bytesRetained.add(-size);
+    }
+
+    /**
+     * Records an allocation which created a new buffer of <i>size</i> bytes.
+     */
+    public void recordMiss(int size) {
+        misses.increment();
+        allocation(size).increment();
+        SnappyEvents.bufferPoolMiss(name, size);
+    }
+
+    /**
+     * Records a released buffer of <i>size</i> bytes being retained for reuse.
+     */
+    public void recordRetained(int size) {
+        bytesRetained.add(size);
+    }
+
+    /**
+     * Records a retained buffer of <i>size</i> bytes being discarded by the pool.
+     */
+    public void recordDiscarded(int size) {
+        bytesRetained.add(-size);
+    }
+
+    /**
+     * Records a retained buffer of <i>size</i> bytes found reclaimed by the garbage collector.
+     */
+    public void recordReleasedByGc(int size) {
+        bytesRetained.add(-size);
+        bytesReleasedByGc.add(size);
+    }
+
+    /**
+     * Records a direct buffer of <i>size</i> bytes handed out.
+     */
+    public void recordDirectAllocated(int size) {
+        directBytesOutstanding.add(size);
+    }
+
+    /**
+     * Records a direct buffer of <i>size</i> bytes given back.
+     */
+    public void recordDirectReleased(int size) {
+        directBytesOutstanding.add(-size);
+    }
+
+    private LongAdder allocation(int size) {
+        final Integer key = size;
+        LongAdder adder = allocations.get(key);
+        if (adder == null) {
+            allocations.putIfAbsent(key, new LongAdder());
+            adder = allocations.get(key);
+        }
+        return adder;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Integer, Long> getAllocationsBySizeClass() {
+        final Map<Integer, Long> result = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : allocations.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesRetained() {
+        return bytesRetained.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getBytesReleasedByGc() {
+        return bytesReleasedByGc.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDirectBytesOutstanding() {
+        return directBytesOutstanding.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BufferPoolStats [name=" + name + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", bytesRetained=" + getBytesRetained() + ", bytesReleasedByGc=" + getBytesReleasedByGc()
+                + ", directBytesOutstanding=" + getDirectBytesOutstanding() + "]";
+    }
+}
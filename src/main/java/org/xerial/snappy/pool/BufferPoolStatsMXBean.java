@@ -0,0 +1,44 @@
+package org.xerial.snappy.pool;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BufferPoolStats}.
+ */
+public interface BufferPoolStatsMXBean {
+
+    /**
+     * @return The name of the pool.
+     */
+    String getName();
+
+    /**
+     * @return The number of allocations served with a cached buffer.
+     */
+    long getHits();
+
+    /**
+     * @return The number of allocations which created a new buffer.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of allocations, hits and misses, by the size of the buffers returned.
+     */
+    Map<Integer, Long> getAllocationsBySizeClass();
+
+    /**
+     * @return The number of bytes in released buffers which the pool holds for reuse.
+     */
+    long getBytesRetained();
+
+    /**
+     * @return The number of bytes in cached buffers which the pool found reclaimed by the garbage collector.
+     */
+    long getBytesReleasedByGc();
+
+    /**
+     * @return The number of bytes in direct buffers which were allocated and not released yet.
+     */
+    long getDirectBytesOutstanding();
+}
@@ -2,6 +2,7 @@ package org.xerial.snappy.pool;
 
 import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
@@ -25,6 +26,11 @@ import java.util.concurrent.ConcurrentMap;
  * <li>Values > 1.5GB return {@link Integer#MAX_VALUE}</li>
  * </ul>
  * </p>
+ * <p>
+ * In addition, {@link MemoryPressureMonitor} trims the pooled instances when
+ * heap or direct memory runs low, and {@link LeakDetector} can report buffers
+ * which are never released.
+ * </p>
  * @author Brett Okken
  */
 public final class CachingBufferPool implements BufferPool {
@@ -51,6 +57,12 @@ public final class CachingBufferPool implements BufferPool {
 
     private final ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<byte[]>>> bytes = new ConcurrentHashMap<>();
     private final ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<ByteBuffer>>> buffers = new ConcurrentHashMap<>();
+    private final BufferPoolStats stats = new BufferPoolStats("CachingBufferPool");
+
+    static {
+        INSTANCE.stats.register();
+        MemoryPressureMonitor.install();
+    }
 
     private CachingBufferPool() {
     }
@@ -62,6 +74,13 @@ public final class CachingBufferPool implements BufferPool {
     public static BufferPool getInstance() {
         return INSTANCE;
     }
+
+    /**
+     * @return The usage counters of this pool, also registered as an MXBean.
+     */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
     
     /**
      * {@inheritDoc}
@@ -72,7 +91,7 @@ public final class CachingBufferPool implements BufferPool {
             throw new IllegalArgumentException("size is invalid: " + size);
         }
 
-        return getOrCreate(size, bytes, ARRAY_FUNCTION);
+        return LeakDetector.track(getOrCreate(size, bytes, ARRAY_FUNCTION, stats), "CachingBufferPool");
     }
 
     /**
@@ -83,7 +102,8 @@ public final class CachingBufferPool implements BufferPool {
         if (buffer == null) {
             throw new IllegalArgumentException("buffer is null");
         }
-        returnValue(buffer, buffer.length, bytes);
+        LeakDetector.untrack(buffer);
+        returnValue(buffer, buffer.length, bytes, stats);
     }
 
     /**
@@ -95,7 +115,9 @@ public final class CachingBufferPool implements BufferPool {
             throw new IllegalArgumentException("size is invalid: " + size);
         }
 
-        return getOrCreate(size, buffers, DBB_FUNCTION);
+        final ByteBuffer buffer = getOrCreate(size, buffers, DBB_FUNCTION, stats);
+        stats.recordDirectAllocated(buffer.capacity());
+        return LeakDetector.track(buffer, "CachingBufferPool");
     }
 
     /**
@@ -106,11 +128,46 @@ public final class CachingBufferPool implements BufferPool {
         if (buffer == null) {
             throw new IllegalArgumentException("buffer is null");
         }
+        LeakDetector.untrack(buffer);
         buffer.clear();
-        returnValue(buffer, buffer.capacity(), buffers);
+        if (returnValue(buffer, buffer.capacity(), buffers, stats)) {
+            stats.recordDirectReleased(buffer.capacity());
+        }
+    }
+
+    /**
+     * Discards pooled instances, least recently released first, until at most
+     * <i>floor</i> remain for each size. Direct buffers are released immediately.
+     * @param floor The number of instances to keep per size.
+     * @return The number of bytes discarded.
+     */
+    long trim(int floor) {
+        return trim(bytes, floor, stats) + trim(buffers, floor, stats);
     }
 
-    private static <E> E getOrCreate(final int size, final ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<E>>> map, final IntFunction<E> creator) {
+    private static <E> long trim(ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<E>>> map, int floor, BufferPoolStats stats) {
+        long trimmed = 0;
+        for (Map.Entry<Integer, ConcurrentLinkedDeque<SoftReference<E>>> entry : map.entrySet()) {
+            final ConcurrentLinkedDeque<SoftReference<E>> queue = entry.getValue();
+            int excess = queue.size() - floor;
+            SoftReference<E> ref;
+            while (excess-- > 0 && (ref = queue.pollLast()) != null) {
+                final E value = ref.get();
+                if (value != null) {
+                    trimmed += entry.getKey();
+                    stats.recordDiscarded(entry.getKey());
+                    if (value instanceof ByteBuffer) {
+                        DirectByteBuffers.releaseDirectByteBuffer((ByteBuffer) value);
+                    }
+                } else {
+                    stats.recordReleasedByGc(entry.getKey());
+                }
+            }
+        }
+        return trimmed;
+    }
+
+    private static <E> E getOrCreate(final int size, final ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<E>>> map, final IntFunction<E> creator, final BufferPoolStats stats) {
         assert size > 0;
         final int adjustedSize = adjustSize(size);
         final ConcurrentLinkedDeque<SoftReference<E>> queue = optimisticGetEntry(adjustedSize, map);
@@ -118,10 +175,13 @@ public final class CachingBufferPool implements BufferPool {
         while ((entry = queue.pollFirst()) != null) {
             final E val = entry.get();
             if (val != null) {
+                stats.recordHit(adjustedSize);
                 return val;
             }
+            stats.recordReleasedByGc(adjustedSize);
         }
 
+        stats.recordMiss(adjustedSize);
         return creator.create(adjustedSize);
     }
 
@@ -185,24 +245,32 @@ public final class CachingBufferPool implements BufferPool {
         return val;
     }
 
-    private static <E> void returnValue(E value, Integer size, ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<E>>> map) {
+    /**
+     * @return {@code true} if <i>value</i> was pooled.
+     */
+    private static <E> boolean returnValue(E value, Integer size, ConcurrentMap<Integer, ConcurrentLinkedDeque<SoftReference<E>>> map, BufferPoolStats stats) {
         final ConcurrentLinkedDeque<SoftReference<E>> queue = map.get(size);
         //no queue will exist if buffer was not originally obtained from this class
         if (queue != null) {
             //push this value onto deque first so that concurrent request can use it
             queue.addFirst(new SoftReference<E>(value));
+            stats.recordRetained(size);
 
             //purge oldest entries have lost references
             SoftReference<E> entry;
             boolean lastEmpty = true;
             while(lastEmpty && (entry = queue.peekLast()) != null) {
                 if (entry.get() == null) {
-                    queue.removeLastOccurrence(entry);
+                    if (queue.removeLastOccurrence(entry)) {
+                        stats.recordReleasedByGc(size);
+                    }
                 } else {
                     lastEmpty = false;
                 }
             }
-        }   
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -0,0 +1,237 @@
+package org.xerial.snappy.pool;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xerial.snappy.SnappyMBeans;
+
+/**
+ * Diagnostic mode which reports pooled buffers that are garbage collected
+ * without being released, typically because a stream was not closed.
+ * <p>
+ * When enabled through the system property {@link #SAMPLE_INTERVAL_PROPERTY}
+ * or {@link #setSampleInterval(int)}, one in <i>interval</i> buffers allocated
+ * from {@link CachingBufferPool} and
+ * {@link org.xerial.snappy.buffer.CachedBufferAllocator} is tracked together
+ * with the stack trace of its allocation. A tracked buffer found unreachable
+ * before being released is logged as a warning with that stack trace, and
+ * counted in {@link #getLeaks()}. Once sampling is enabled, the counters are
+ * also exposed as the MXBean {@code org.xerial.snappy:type=LeakDetector},
+ * which is registered and unregistered through {@link SnappyMBeans}.
+ * </p>
+ * <p>
+ * Unreachable buffers are detected through a {@link ReferenceQueue}, which is
+ * polled whenever a buffer is tracked and by {@link #getLeaks()}. Capturing
+ * stack traces is expensive, so small intervals are meant for debugging only.
+ * When disabled, each allocation and release costs one volatile read.
+ * </p>
+ */
+public final class LeakDetector implements LeakDetectorMXBean {
+
+    /**
+     * Name of system property setting the initial {@link #getSampleInterval()}.
+     */
+    public static final String SAMPLE_INTERVAL_PROPERTY = "org.xerial.snappy.pool.leak.sample.interval";
+
+    private static final Logger LOGGER = Logger.getLogger(LeakDetector.class.getName());
+
+    private static final LeakDetector INSTANCE = new LeakDetector();
+
+    private static final AtomicBoolean REGISTERED = new AtomicBoolean();
+
+    private static volatile int sampleInterval = readSampleInterval();
+
+    static {
+        if (sampleInterval > 0) {
+            register();
+        }
+    }
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    /**
+     * Tracked buffers, looked up by identity through {@link Probe}.
+     */
+    private final ConcurrentMap<Object, Record> tracked = new ConcurrentHashMap<>();
+    private final AtomicLong leaks = new AtomicLong();
+
+    private LeakDetector() {
+    }
+
+    /**
+     * @return The instance which is registered as an MXBean once sampling is
+     * enabled.
+     */
+    public static LeakDetector getInstance() {
+        return INSTANCE;
+    }
+
+    private static void register() {
+        if (REGISTERED.compareAndSet(false, true)) {
+            SnappyMBeans.register(INSTANCE, "org.xerial.snappy:type=LeakDetector");
+        }
+    }
+
+    private static int readSampleInterval() {
+        final String value = System.getProperty(SAMPLE_INTERVAL_PROPERTY);
+        if (value != null) {
+            try {
+                final int interval = Integer.parseInt(value.trim());
+                if (interval >= 0) {
+                    return interval;
+                }
+            } catch (NumberFormatException e) {
+                //fall through
+            }
+            LOGGER.log(Level.WARNING, "Ignoring invalid " + SAMPLE_INTERVAL_PROPERTY + " value: " + value);
+        }
+        return 0;
+    }
+
+    /**
+     * Tracks <i>buffer</i>, just allocated from <i>pool</i>, if it is sampled.
+     * @return <i>buffer</i>
+     */
+    public static <T> T track(T buffer, String pool) {
+        final int interval = sampleInterval;
+        if (interval > 0) {
+            INSTANCE.poll();
+            if (interval == 1 || ThreadLocalRandom.current().nextInt(interval) == 0) {
+                final Record record = new Record(buffer, pool, INSTANCE.queue);
+                INSTANCE.tracked.put(record, record);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Stops tracking <i>buffer</i>, which is being released.
+     */
+    public static void untrack(Object buffer) {
+        if (sampleInterval > 0 || !INSTANCE.tracked.isEmpty()) {
+            final Record record = INSTANCE.tracked.remove(new Probe(buffer));
+            if (record != null) {
+                record.clear();
+            }
+        }
+    }
+
+    /**
+     * Reports tracked buffers which became unreachable.
+     */
+    private void poll() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            final Record record = (Record) ref;
+            if (tracked.remove(record) != null) {
+                leaks.incrementAndGet();
+                LOGGER.log(Level.WARNING, "A buffer of " + record.size + " bytes from " + record.pool
+                        + " was garbage collected without being released. Is a stream not closed?", record.site);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Buffers tracked so far stay tracked when tracking is disabled.
+     */
+    @Override
+    public void setSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval is invalid: " + interval);
+        }
+        sampleInterval = interval;
+        if (interval > 0) {
+            register();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTrackedBuffers() {
+        return tracked.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLeaks() {
+        poll();
+        return leaks.get();
+    }
+
+    /**
+     * The stack trace of an allocation.
+     */
+    private static final class AllocationSite extends Throwable {
+        private static final long serialVersionUID = 1L;
+
+        AllocationSite() {
+            super("Allocated here");
+        }
+    }
+
+    private static final class Record extends WeakReference<Object> {
+        final String pool;
+        final int size;
+        final AllocationSite site = new AllocationSite();
+        private final int hash;
+
+        Record(Object buffer, String pool, ReferenceQueue<Object> queue) {
+            super(buffer, queue);
+            this.pool = pool;
+            this.size = buffer instanceof ByteBuffer ? ((ByteBuffer) buffer).capacity() : ((byte[]) buffer).length;
+            this.hash = System.identityHashCode(buffer);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || (obj instanceof Probe && ((Probe) obj).buffer == get());
+        }
+    }
+
+    /**
+     * Looks up the {@link Record} of a buffer.
+     */
+    private static final class Probe {
+        final Object buffer;
+
+        Probe(Object buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(buffer);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Record && ((Record) obj).get() == buffer;
+        }
+    }
+}
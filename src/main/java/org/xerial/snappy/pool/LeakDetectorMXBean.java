@@ -0,0 +1,27 @@
+package org.xerial.snappy.pool;
+
+/**
+ * Management interface of {@link LeakDetector}.
+ */
+public interface LeakDetectorMXBean {
+
+    /**
+     * @return One in how many allocations is tracked, or {@code 0} if tracking is disabled.
+     */
+    int getSampleInterval();
+
+    /**
+     * @param interval One in how many allocations to track, or {@code 0} to disable tracking.
+     */
+    void setSampleInterval(int interval);
+
+    /**
+     * @return The number of tracked buffers which have not been released yet.
+     */
+    int getTrackedBuffers();
+
+    /**
+     * @return The number of tracked buffers which were garbage collected without being released.
+     */
+    long getLeaks();
+}
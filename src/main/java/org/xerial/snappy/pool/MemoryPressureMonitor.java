@@ -0,0 +1,324 @@
+package org.xerial.snappy.pool;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+/**
+ * Trims the buffers cached by this library when the JVM runs low on heap or
+ * direct memory, so that the caches can stay large in steady state without
+ * adding to the risk of an {@link OutOfMemoryError} during spikes.
+ * <p>
+ * Once {@link #install() installed}, which {@link CachingBufferPool} and
+ * {@link CachedBufferAllocator} do when they are first used, the monitor
+ * listens to:
+ * </p>
+ * <ul>
+ * <li>garbage collection notifications, after which the tenured heap pools and
+ * the direct buffer pool are compared against {@link #THRESHOLD_PROPERTY} of
+ * their maximum. The limit for direct memory is
+ * {@code -XX:MaxDirectMemorySize}, or the maximum heap size if that is not
+ * set.</li>
+ * <li>if {@link #USAGE_THRESHOLD_PROPERTY} is {@code true}, collection usage
+ * threshold notifications of the tenured heap pools, whose threshold is set to
+ * the same fraction unless the application has already set one. This is off
+ * by default because the thresholds are global to the JVM: every other
+ * listener of the {@link java.lang.management.MemoryMXBean} receives the
+ * notifications as well.</li>
+ * </ul>
+ * <p>
+ * Under pressure, {@link #trimPools()} discards cached buffers down to
+ * {@link #FLOOR_PROPERTY} per size. Setting the system property
+ * {@link #DISABLE_PROPERTY} to {@code true} disables the monitor.
+ * {@link #uninstall()} stops it.
+ * </p>
+ */
+public final class MemoryPressureMonitor {
+
+    /**
+     * Name of system property to disable the monitor.
+     */
+    public static final String DISABLE_PROPERTY = "org.xerial.snappy.pool.pressure.disable";
+
+    /**
+     * Name of system property for the fraction of the maximum size of a memory
+     * pool above which it is considered under pressure. Defaults to
+     * {@code 0.85}.
+     */
+    public static final String THRESHOLD_PROPERTY = "org.xerial.snappy.pool.pressure.threshold";
+
+    /**
+     * Name of system property to also set and listen to the collection usage
+     * thresholds of the tenured heap pools.
+     */
+    public static final String USAGE_THRESHOLD_PROPERTY = "org.xerial.snappy.pool.pressure.usage.threshold";
+
+    /**
+     * Name of system property for the number of cached buffers per size kept
+     * when trimming. Defaults to {@code 1}.
+     */
+    public static final String FLOOR_PROPERTY = "org.xerial.snappy.pool.pressure.floor";
+
+    static final double DEFAULT_THRESHOLD = 0.85;
+
+    static final int DEFAULT_FLOOR = 1;
+
+    /**
+     * Type of the notifications sent by {@link GarbageCollectorMXBean}s of HotSpot
+     * and OpenJ9 after each collection.
+     */
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private static final Logger LOGGER = Logger.getLogger(MemoryPressureMonitor.class.getName());
+
+    private static boolean installed;
+
+    private static NotificationListener listener;
+
+    /**
+     * The MXBeans {@link #listener} was added to.
+     */
+    private static final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    /**
+     * The memory pools whose collection usage threshold {@link #install()} set.
+     */
+    private static final List<MemoryPoolMXBean> thresholdPools = new ArrayList<>();
+
+    private static final double THRESHOLD = readThreshold();
+
+    private static final int FLOOR = readFloor();
+
+    private static volatile List<MemoryPoolMXBean> tenuredPools = new ArrayList<>();
+
+    private static volatile long maxDirectMemory;
+
+    private MemoryPressureMonitor() {
+    }
+
+    /**
+     * Starts listening to memory notifications, unless already done or disabled
+     * through {@link #DISABLE_PROPERTY}.
+     */
+    public static synchronized void install() {
+        if (installed || Boolean.getBoolean(DISABLE_PROPERTY)) {
+            return;
+        }
+        installed = true;
+        try {
+            final boolean usageThreshold = Boolean.getBoolean(USAGE_THRESHOLD_PROPERTY);
+            final List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                //eden and survivor spaces do not support usage thresholds, and are
+                //routinely full after a collection
+                if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                        && pool.isCollectionUsageThresholdSupported()) {
+                    pools.add(pool);
+                    final long max = pool.getUsage().getMax();
+                    if (usageThreshold && max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                        pool.setCollectionUsageThreshold((long) (max * THRESHOLD));
+                        thresholdPools.add(pool);
+                    }
+                }
+            }
+            tenuredPools = pools;
+            maxDirectMemory = readMaxDirectMemory();
+
+            listener = new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    final String type = notification.getType();
+                    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+                            || (GC_NOTIFICATION.equals(type) && isUnderPressure())) {
+                        trimPools();
+                    }
+                }
+            };
+            if (usageThreshold) {
+                addListener((NotificationEmitter) ManagementFactory.getMemoryMXBean());
+            }
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    addListener((NotificationEmitter) collector);
+                }
+            }
+        } catch (Throwable t) {
+            //java.lang.management is not available on all platforms
+            LOGGER.log(Level.FINE, "Unable to monitor memory usage", t);
+        }
+    }
+
+    private static void addListener(NotificationEmitter emitter) {
+        emitter.addNotificationListener(listener, null, null);
+        emitters.add(emitter);
+    }
+
+    /**
+     * Stops listening to memory notifications and clears the collection usage
+     * thresholds set by {@link #install()}. The platform MXBeans otherwise
+     * keep the listener, and with it the class loader of this library and the
+     * cached buffers, reachable. Call this when the library is unloaded, as
+     * {@link org.xerial.snappy.SnappyBundleActivator} does when the bundle is
+     * stopped. {@link #install()} starts listening again.
+     */
+    public static synchronized void uninstall() {
+        if (!installed) {
+            return;
+        }
+        installed = false;
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Unable to remove memory listener", t);
+            }
+        }
+        emitters.clear();
+        for (MemoryPoolMXBean pool : thresholdPools) {
+            try {
+                pool.setCollectionUsageThreshold(0);
+            } catch (Throwable t) {
+                LOGGER.log(Level.FINE, "Unable to clear collection usage threshold", t);
+            }
+        }
+        thresholdPools.clear();
+        listener = null;
+    }
+
+    /**
+     * @return The number of MXBeans currently listened to.
+     */
+    static synchronized int getListenedEmitters() {
+        return emitters.size();
+    }
+
+    /**
+     * Discards cached buffers of {@link CachingBufferPool},
+     * {@link CachedBufferAllocator} and, if it is the
+     * {@link DefaultPoolFactory#getDefaultPool() default pool}, of
+     * {@link SlabBufferPool}, keeping {@link #FLOOR_PROPERTY} per size.
+     * @return The number of bytes discarded.
+     */
+    public static long trimPools() {
+        long trimmed = ((CachingBufferPool) CachingBufferPool.getInstance()).trim(FLOOR);
+        trimmed += CachedBufferAllocator.trimAll(FLOOR);
+        final BufferPool defaultPool = DefaultPoolFactory.getDefaultPool();
+        if (defaultPool instanceof SlabBufferPool) {
+            trimmed += ((SlabBufferPool) defaultPool).trim(FLOOR);
+        }
+        if (trimmed > 0) {
+            LOGGER.log(Level.FINE, "Trimmed {0} bytes of cached buffers", trimmed);
+        }
+        return trimmed;
+    }
+
+    static boolean isUnderPressure() {
+        for (MemoryPoolMXBean pool : tenuredPools) {
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null && exceedsThreshold(usage.getUsed(), usage.getMax())) {
+                return true;
+            }
+        }
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName()) && exceedsThreshold(pool.getMemoryUsed(), maxDirectMemory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean exceedsThreshold(long used, long max) {
+        return max > 0 && used > max * THRESHOLD;
+    }
+
+    private static long readMaxDirectMemory() {
+        long max = Runtime.getRuntime().maxMemory();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-XX:MaxDirectMemorySize=")) {
+                final long size = parseSize(argument.substring("-XX:MaxDirectMemorySize=".length()));
+                if (size > 0) {
+                    max = size;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Parses a JVM option size such as {@code 512m}.
+     * @return The number of bytes, or {@code -1} if <i>value</i> is invalid.
+     */
+    static long parseSize(String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        int shift;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k':
+                shift = 10;
+                break;
+            case 'm':
+                shift = 20;
+                break;
+            case 'g':
+                shift = 30;
+                break;
+            case 't':
+                shift = 40;
+                break;
+            default:
+                shift = 0;
+        }
+        try {
+            return Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1)) << shift;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double readThreshold() {
+        final String value = System.getProperty(THRESHOLD_PROPERTY);
+        if (value != null) {
+            try {
+                final double threshold = Double.parseDouble(value);
+                if (threshold > 0 && threshold <= 1) {
+                    return threshold;
+                }
+            } catch (NumberFormatException e) {
+                //fall through
+            }
+            LOGGER.log(Level.WARNING, "Ignoring invalid " + THRESHOLD_PROPERTY + " value: " + value);
+        }
+        return DEFAULT_THRESHOLD;
+    }
+
+    private static int readFloor() {
+        final String value = System.getProperty(FLOOR_PROPERTY);
+        if (value != null) {
+            try {
+                final int floor = Integer.parseInt(value);
+                if (floor >= 0) {
+                    return floor;
+                }
+            } catch (NumberFormatException e) {
+                //fall through
+            }
+            LOGGER.log(Level.WARNING, "Ignoring invalid " + FLOOR_PROPERTY + " value: " + value);
+        }
+        return DEFAULT_FLOOR;
+    }
+}
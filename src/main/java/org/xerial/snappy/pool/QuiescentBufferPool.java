@@ -10,6 +10,12 @@ public final class QuiescentBufferPool implements BufferPool {
 
     private static final QuiescentBufferPool INSTANCE = new QuiescentBufferPool();
 
+    static {
+        INSTANCE.stats.register();
+    }
+
+    private final BufferPoolStats stats = new BufferPoolStats("QuiescentBufferPool");
+
     private QuiescentBufferPool() {
     }
 
@@ -19,12 +25,20 @@ public final class QuiescentBufferPool implements BufferPool {
     public static BufferPool getInstance() {
         return INSTANCE;
     }
+
+    /**
+     * @return The usage counters of this pool, also registered as an MXBean.
+     */
+    public BufferPoolStats getStats() {
+        return stats;
+    }
     
     /**
      * Creates a new {@code byte[]} of <i>size</i>.
      */
     @Override
     public byte[] allocateArray(int size) {
+        stats.recordMiss(size);
         return new byte[size];
     }
 
@@ -40,6 +54,8 @@ public final class QuiescentBufferPool implements BufferPool {
      */
     @Override
     public ByteBuffer allocateDirect(int size) {
+        stats.recordMiss(size);
+        stats.recordDirectAllocated(size);
         return ByteBuffer.allocateDirect(size);
     }
 
@@ -49,6 +65,7 @@ public final class QuiescentBufferPool implements BufferPool {
     @Override
     public void releaseDirect(ByteBuffer buffer) {
         assert buffer != null && buffer.isDirect();
+        stats.recordDirectReleased(buffer.capacity());
         DirectByteBuffers.releaseDirectByteBuffer(buffer);
     }
 
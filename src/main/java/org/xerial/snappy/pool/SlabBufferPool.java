@@ -0,0 +1,397 @@
+package org.xerial.snappy.pool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link BufferPool} implementation which carves direct buffers from large
+ * direct "slabs", and never holds more than a fixed number of bytes of direct
+ * memory in them.
+ * <p>
+ * Each slab serves a single size class, using the same classes as
+ * {@link CachingBufferPool}, and is divided into as many buffers of that class
+ * as fit. Requests larger than the slab size get a slab of their own.
+ * Released buffers stay in their slab for reuse. When a new slab would exceed
+ * the capacity, slabs whose buffers are all released are freed, least
+ * recently used first. If that does not make enough room, the
+ * {@link ExhaustedAction} given at construction decides what happens.
+ * </p>
+ * <p>
+ * Unlike {@link CachingBufferPool}, retained direct memory does not depend on
+ * the garbage collector's handling of soft references, so the pool can be
+ * sized to stay below {@code -XX:MaxDirectMemorySize}. {@link #trim()} frees
+ * all slabs which are not in use. When the pool is the
+ * {@link DefaultPoolFactory#getDefaultPool() default pool},
+ * {@link MemoryPressureMonitor} trims it when memory runs low.
+ * </p>
+ * <p>
+ * {@code byte[]} requests are delegated to {@link CachingBufferPool}.
+ * </p>
+ */
+public final class SlabBufferPool implements BufferPool {
+
+    /**
+     * What {@link SlabBufferPool#allocateDirect(int)} does when a buffer cannot
+     * be provided without exceeding the capacity.
+     */
+    public static enum ExhaustedAction {
+        /**
+         * Wait until enough buffers are released.
+         */
+        BLOCK,
+        /**
+         * Return a new direct buffer which is not part of the pool. It is freed
+         * when released.
+         */
+        ALLOCATE_UNPOOLED,
+        /**
+         * Throw an {@link IllegalStateException}.
+         */
+        FAIL
+    }
+
+    /**
+     * The default size of slabs, 1MB.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private final long capacity;
+    private final int slabSize;
+    private final ExhaustedAction exhaustedAction;
+    private final BufferPool arrayPool = CachingBufferPool.getInstance();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    /**
+     * Slabs by the size of their buffers.
+     */
+    private final Map<Integer, List<Slab>> slabs = new HashMap<>();
+    /**
+     * The slab of each buffer which is currently allocated.
+     */
+    private final Map<ByteBuffer, Slab> allocated = new IdentityHashMap<>();
+    private final Map<ByteBuffer, Boolean> unpooled = new IdentityHashMap<>();
+    private long reservedBytes;
+    private long clock;
+
+    /**
+     * Creates a pool using {@link #DEFAULT_SLAB_SIZE} which allocates unpooled
+     * buffers once the capacity is exhausted.
+     * @param capacity The maximum number of bytes held in slabs. Must be {@code > 0}.
+     */
+    public SlabBufferPool(long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE, ExhaustedAction.ALLOCATE_UNPOOLED);
+    }
+
+    /**
+     * @param capacity The maximum number of bytes held in slabs. Must be {@code > 0}.
+     * @param slabSize The size of slabs shared by buffers of the same size class. Must be {@code > 0}.
+     * @param exhaustedAction What to do when the capacity is exhausted. Must not be {@code null}.
+     */
+    public SlabBufferPool(long capacity, int slabSize, ExhaustedAction exhaustedAction) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity is invalid: " + capacity);
+        }
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("slabSize is invalid: " + slabSize);
+        }
+        if (exhaustedAction == null) {
+            throw new IllegalArgumentException("exhaustedAction is null");
+        }
+        this.capacity = capacity;
+        this.slabSize = slabSize;
+        this.exhaustedAction = exhaustedAction;
+    }
+
+    /**
+     * @return The maximum number of bytes held in slabs.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of bytes currently held in slabs, whether their buffers are in use or not.
+     */
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees all slabs none of whose buffers are in use.
+     * @return The number of bytes freed.
+     */
+    public long trim() {
+        return trim(0);
+    }
+
+    /**
+     * Frees slabs none of whose buffers are in use, least recently used first,
+     * until at most <i>floor</i> such slabs remain for each size.
+     * @param floor The number of unused slabs to keep per size. Must be {@code >= 0}.
+     * @return The number of bytes freed.
+     */
+    public long trim(int floor) {
+        if (floor < 0) {
+            throw new IllegalArgumentException("floor is invalid: " + floor);
+        }
+        final List<Slab> freed = new ArrayList<>();
+        lock.lock();
+        try {
+            for (List<Slab> list : slabs.values()) {
+                final List<Slab> unused = new ArrayList<>();
+                for (Slab slab : list) {
+                    if (slab.isUnused()) {
+                        unused.add(slab);
+                    }
+                }
+                // most recently used first
+                Collections.sort(unused, new Comparator<Slab>() {
+                    @Override
+                    public int compare(Slab o1, Slab o2) {
+                        return Long.compare(o2.lastUsed, o1.lastUsed);
+                    }
+                });
+                for (int i = floor; i < unused.size(); i++) {
+                    final Slab slab = unused.get(i);
+                    list.remove(slab);
+                    reservedBytes -= slab.memory.capacity();
+                    freed.add(slab);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return free(freed);
+    }
+
+    /**
+     * Delegates to {@link CachingBufferPool}.
+     */
+    @Override
+    public byte[] allocateArray(int size) {
+        return arrayPool.allocateArray(size);
+    }
+
+    /**
+     * Delegates to {@link CachingBufferPool}.
+     */
+    @Override
+    public void releaseArray(byte[] buffer) {
+        arrayPool.releaseArray(buffer);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalStateException If the capacity is exhausted and the
+     * {@link ExhaustedAction} is {@link ExhaustedAction#FAIL FAIL}, or it is
+     * {@link ExhaustedAction#BLOCK BLOCK} and the thread is interrupted while
+     * waiting or <i>size</i> can never fit.
+     */
+    @Override
+    public ByteBuffer allocateDirect(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size is invalid: " + size);
+        }
+        final int bufferSize = CachingBufferPool.adjustSize(size);
+        final int slabBytes = bufferSize >= slabSize ? bufferSize : slabSize / bufferSize * bufferSize;
+
+        final List<Slab> evicted = new ArrayList<>();
+        ByteBuffer buffer = null;
+        lock.lock();
+        try {
+            for (;;) {
+                buffer = takeFree(bufferSize);
+                if (buffer != null) {
+                    break;
+                }
+                if (makeRoom(slabBytes, evicted)) {
+                    buffer = addSlab(bufferSize, slabBytes);
+                    break;
+                }
+                if (exhaustedAction != ExhaustedAction.BLOCK) {
+                    break;
+                }
+                if (slabBytes > capacity) {
+                    throw new IllegalStateException("buffer of " + size + " bytes exceeds capacity " + capacity);
+                }
+                try {
+                    released.await(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for a buffer", e);
+                }
+            }
+            if (buffer == null && exhaustedAction == ExhaustedAction.ALLOCATE_UNPOOLED) {
+                buffer = ByteBuffer.allocateDirect(size);
+                unpooled.put(buffer, Boolean.TRUE);
+            }
+        } finally {
+            lock.unlock();
+            free(evicted);
+        }
+        if (buffer == null) {
+            throw new IllegalStateException("buffer pool capacity " + capacity + " exhausted");
+        }
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseDirect(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer is null");
+        }
+        lock.lock();
+        try {
+            final Slab slab = allocated.remove(buffer);
+            if (slab != null) {
+                slab.free.addFirst(buffer);
+                slab.lastUsed = ++clock;
+                released.signalAll();
+                return;
+            }
+            if (unpooled.remove(buffer) == null) {
+                //not obtained from this pool
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        DirectByteBuffers.releaseDirectByteBuffer(buffer);
+    }
+
+    /**
+     * Takes a free buffer from the most recently used slab of its size which has one.
+     */
+    private ByteBuffer takeFree(int bufferSize) {
+        final List<Slab> list = slabs.get(bufferSize);
+        if (list == null) {
+            return null;
+        }
+        Slab best = null;
+        for (Slab slab : list) {
+            if (!slab.free.isEmpty() && (best == null || slab.lastUsed > best.lastUsed)) {
+                best = slab;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        final ByteBuffer buffer = best.free.pollFirst();
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        best.lastUsed = ++clock;
+        allocated.put(buffer, best);
+        return buffer;
+    }
+
+    /**
+     * Removes unused slabs, least recently used first, until <i>bytes</i> more
+     * fit in the capacity. The removed slabs are added to <i>evicted</i> so that
+     * they can be freed outside the lock.
+     * @return {@code false} if not enough room could be made. Nothing is removed in that case.
+     */
+    private boolean makeRoom(long bytes, List<Slab> evicted) {
+        if (reservedBytes + bytes <= capacity) {
+            return true;
+        }
+        final List<Slab> unused = new ArrayList<>();
+        long unusedBytes = 0;
+        for (List<Slab> list : slabs.values()) {
+            for (Slab slab : list) {
+                if (slab.isUnused()) {
+                    unused.add(slab);
+                    unusedBytes += slab.memory.capacity();
+                }
+            }
+        }
+        if (reservedBytes - unusedBytes + bytes > capacity) {
+            return false;
+        }
+        while (reservedBytes + bytes > capacity) {
+            Slab lru = null;
+            for (Slab slab : unused) {
+                if (lru == null || slab.lastUsed < lru.lastUsed) {
+                    lru = slab;
+                }
+            }
+            unused.remove(lru);
+            slabs.get(lru.bufferSize).remove(lru);
+            reservedBytes -= lru.memory.capacity();
+            evicted.add(lru);
+        }
+        return true;
+    }
+
+    private ByteBuffer addSlab(int bufferSize, int slabBytes) {
+        final Slab slab = new Slab(ByteBuffer.allocateDirect(slabBytes), bufferSize);
+        List<Slab> list = slabs.get(bufferSize);
+        if (list == null) {
+            list = new ArrayList<>();
+            slabs.put(bufferSize, list);
+        }
+        list.add(slab);
+        reservedBytes += slabBytes;
+        return takeFree(bufferSize);
+    }
+
+    private static long free(List<Slab> slabs) {
+        long bytes = 0;
+        for (Slab slab : slabs) {
+            bytes += slab.memory.capacity();
+            DirectByteBuffers.releaseDirectByteBuffer(slab.memory);
+        }
+        return bytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "SlabBufferPool [capacity=" + capacity + ", slabSize=" + slabSize + ", exhaustedAction="
+                + exhaustedAction + ", reservedBytes=" + getReservedBytes() + "]";
+    }
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        final int bufferSize;
+        final int bufferCount;
+        final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+        long lastUsed;
+
+        Slab(ByteBuffer memory, int bufferSize) {
+            this.memory = memory;
+            this.bufferSize = bufferSize;
+            this.bufferCount = memory.capacity() / bufferSize;
+            for (int i = 0; i < bufferCount; i++) {
+                memory.limit((i + 1) * bufferSize).position(i * bufferSize);
+                free.add(memory.slice());
+            }
+            memory.clear();
+        }
+
+        boolean isUnused() {
+            return free.size() == bufferCount;
+        }
+    }
+}
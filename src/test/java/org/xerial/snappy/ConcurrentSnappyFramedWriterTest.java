@@ -0,0 +1,300 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Tests {@link ConcurrentSnappyFramedWriter}.
+ */
+public class ConcurrentSnappyFramedWriterTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Encodes a record as its length, the producer, its sequence number and a
+     * payload derived from both.
+     */
+    private static byte[] record(int producer, int sequence)
+    {
+        final int length = 12 + (producer * 31 + sequence * 17) % 3000;
+        final ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putInt(producer).putInt(sequence);
+        while (record.hasRemaining()) {
+            record.put((byte) (producer + sequence + record.position()));
+        }
+        return record.array();
+    }
+
+    /**
+     * Checks that the uncompressed stream consists of whole records, in
+     * order for each producer.
+     */
+    private static void verifyRecords(byte[] compressed, int producers, int records)
+            throws IOException
+    {
+        final InputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed));
+        final DataInputStream data = new DataInputStream(in);
+        final int[] next = new int[producers];
+        int count = 0;
+        while (true) {
+            final int length;
+            try {
+                length = data.readInt();
+            }
+            catch (EOFException e) {
+                break;
+            }
+            final byte[] record = new byte[length];
+            ByteBuffer.wrap(record).putInt(length);
+            data.readFully(record, 4, length - 4);
+            final ByteBuffer fields = ByteBuffer.wrap(record, 4, 8);
+            final int producer = fields.getInt();
+            final int sequence = fields.getInt();
+            assertEquals(next[producer]++, sequence);
+            assertArrayEquals(record(producer, sequence), record);
+            count++;
+        }
+        assertEquals(producers * records, count);
+    }
+
+    private static void appendConcurrently(final ConcurrentSnappyFramedWriter writer, int producers, final int records)
+            throws Exception
+    {
+        final ExecutorService threads = Executors.newFixedThreadPool(producers);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                futures.add(threads.submit(() -> {
+                    for (int i = 0; i < records; i++) {
+                        writer.append(record(producer, i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentProducers()
+            throws Exception
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(baos);
+        appendConcurrently(writer, 8, 2000);
+        writer.close();
+        verifyRecords(baos.toByteArray(), 8, 2000);
+    }
+
+    @Test
+    public void compressOnExecutorWithSmallRing()
+            throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(Channels.newChannel(baos),
+                    8 * 1024, 2, executor, false, DefaultPoolFactory.getDefaultPool());
+            appendConcurrently(writer, 4, 1000);
+            writer.close();
+            verifyRecords(baos.toByteArray(), 4, 1000);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void largeRecordsSpanBlocks()
+            throws Exception
+    {
+        final byte[] large = new byte[100 * 1000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(baos);
+        assertEquals(large.length, writer.append(large));
+        assertEquals(2 * large.length, writer.append(large));
+        writer.close();
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(large);
+        expected.write(large);
+        assertArrayEquals(expected.toByteArray(),
+                SnappyInputStreamTest.readFully(new SnappyFramedInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+    }
+
+    @Test
+    public void whenWrittenCompletesOnFlush()
+            throws Exception
+    {
+        final File file = tempFolder.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(channel,
+                    8 * 1024, 4, null, true, DefaultPoolFactory.getDefaultPool());
+            final long first = writer.append(record(0, 0));
+            final CompletableFuture<Void> written = writer.whenWritten(first);
+            assertTrue(!written.isDone());
+
+            writer.flush();
+            assertTrue(written.isDone());
+            assertTrue(writer.whenWritten(first).isDone());
+
+            // filling blocks writes them without a flush
+            for (int i = 1; i < 200; i++) {
+                writer.append(record(0, i));
+            }
+            writer.whenWritten(first + 8 * 1024).get(10, TimeUnit.SECONDS);
+            writer.close();
+        }
+        verifyRecords(Files.readAllBytes(file.toPath()), 1, 200);
+    }
+
+    @Test
+    public void writeFailureIsReported()
+            throws Exception
+    {
+        final OutputStream failing = new OutputStream()
+        {
+            private int writes;
+
+            @Override
+            public void write(int b)
+                    throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException
+            {
+                // accept the stream header only
+                if (writes++ > 0) {
+                    throw new IOException("disk full");
+                }
+            }
+        };
+        final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(failing);
+        final long position = writer.append(new byte[100]);
+        final CompletableFuture<Void> written = writer.whenWritten(position);
+        try {
+            writer.flush();
+            fail("the write failure must be reported");
+        }
+        catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertTrue(written.isCompletedExceptionally());
+        try {
+            writer.append(new byte[1]);
+            fail("appending after a failure must fail");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        writer.close();
+    }
+
+    @Test
+    public void writeFailureReleasesAllProducers()
+            throws Exception
+    {
+        final WritableByteChannel failing = new WritableByteChannel()
+        {
+            private int writes;
+
+            @Override
+            public int write(ByteBuffer src)
+                    throws IOException
+            {
+                // accept the stream header and the first frame only
+                if (++writes >= 3) {
+                    throw new IOException("disk full");
+                }
+                final int written = src.remaining();
+                src.position(src.limit());
+                return written;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return true;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            final ConcurrentSnappyFramedWriter writer = new ConcurrentSnappyFramedWriter(failing,
+                    1024, 2, executor, false, DefaultPoolFactory.getDefaultPool());
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                final int producer = p;
+                futures.add(threads.submit(() -> {
+                    for (int i = 0; i < 100000; i++) {
+                        writer.append(record(producer, i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    fail("the write failure must be reported to every producer");
+                }
+                catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+            writer.close();
+        }
+        finally {
+            threads.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+}
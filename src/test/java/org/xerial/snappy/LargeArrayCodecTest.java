@@ -0,0 +1,88 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LargeArrayCodecTest
+{
+    @After
+    public void removeLimit()
+    {
+        Snappy.setCriticalRegionLimit(0);
+    }
+
+    private static byte[] createData(int size)
+    {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            // repeat earlier data now and then, so that the data has copies as well as literals
+            data[i] = i > 1000 && random.nextInt(4) == 0 ? data[i - 1000] : (byte) random.nextInt(64);
+        }
+        return data;
+    }
+
+    @Test
+    public void compressedDataIsUnchanged()
+            throws Exception
+    {
+        for (int size : new int[] {100, 64 * 1024, 1000 * 1000, 3 * 1024 * 1024 + 17}) {
+            byte[] data = createData(size);
+            byte[] expected = Snappy.compress(data);
+
+            for (int limit : new int[] {1, 64 * 1024, 200 * 1000, 1024 * 1024}) {
+                Snappy.setCriticalRegionLimit(limit);
+                byte[] compressed = Snappy.compress(data);
+                assertArrayEquals(expected, compressed);
+                assertArrayEquals(data, Snappy.uncompress(compressed));
+                Snappy.setCriticalRegionLimit(0);
+            }
+        }
+    }
+
+    @Test
+    public void primitiveArrays()
+            throws Exception
+    {
+        Random random = new Random(0);
+        long[] longs = new long[300 * 1000];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = random.nextInt(1000);
+        }
+        byte[] expected = Snappy.compress(longs);
+
+        Snappy.setCriticalRegionLimit(128 * 1024);
+        byte[] compressed = Snappy.compress(longs);
+        assertArrayEquals(expected, compressed);
+        assertArrayEquals(longs, Snappy.uncompressLongArray(compressed));
+    }
+
+    @Test
+    public void offsets()
+            throws Exception
+    {
+        byte[] data = createData(500 * 1000);
+        Snappy.setCriticalRegionLimit(64 * 1024);
+
+        byte[] compressed = new byte[Snappy.maxCompressedLength(data.length - 10) + 5];
+        int compressedLength = Snappy.compress(data, 10, data.length - 10, compressed, 5);
+        byte[] uncompressed = new byte[data.length + 3];
+        int uncompressedLength = Snappy.uncompress(compressed, 5, compressedLength, uncompressed, 3);
+
+        assertEquals(data.length - 10, uncompressedLength);
+        for (int i = 0; i < uncompressedLength; i++) {
+            assertEquals(data[10 + i], uncompressed[3 + i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimit()
+    {
+        Snappy.setCriticalRegionLimit(-1);
+    }
+}
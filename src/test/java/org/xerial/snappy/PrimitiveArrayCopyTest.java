@@ -0,0 +1,88 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PrimitiveArrayCopyTest
+{
+    private static final int[] ELEMENT_COUNTS = {16, 256, 64 * 1024};
+
+    @Test
+    public void sameAsNativeCopy()
+            throws Exception
+    {
+        assertTrue(PrimitiveArrayCopy.isAvailable());
+        SnappyApi api = SnappyLoader.loadSnappyApi();
+        Random random = new Random(0);
+        for (int n : ELEMENT_COUNTS) {
+            long[] longs = new long[n];
+            double[] doubles = new double[n];
+            for (int i = 0; i < n; i++) {
+                longs[i] = random.nextLong();
+                doubles[i] = random.nextDouble();
+            }
+
+            // copies at unaligned offsets, as when a block boundary splits an element
+            byte[] expected = new byte[n * 8 + 3];
+            byte[] actual = new byte[n * 8 + 3];
+            api.arrayCopy(longs, 0, n * 8, expected, 3);
+            assertTrue(PrimitiveArrayCopy.copy(longs, 0, n * 8, actual, 3));
+            assertArrayEquals(expected, actual);
+
+            long[] longsBack = new long[n];
+            assertTrue(PrimitiveArrayCopy.copy(actual, 3, 5, longsBack, 0));
+            assertTrue(PrimitiveArrayCopy.copy(actual, 8, n * 8 - 5, longsBack, 5));
+            assertArrayEquals(longs, longsBack);
+
+            api.arrayCopy(doubles, 4, n * 8 - 4, expected, 0);
+            assertTrue(PrimitiveArrayCopy.copy(doubles, 4, n * 8 - 4, actual, 0));
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void outOfBounds()
+    {
+        try {
+            PrimitiveArrayCopy.copy(new int[4], 1, 16, new byte[32], 0);
+            fail("expected ArrayIndexOutOfBoundsException");
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            PrimitiveArrayCopy.copy(new long[4], 0, 32, new byte[32], 1);
+            fail("expected ArrayIndexOutOfBoundsException");
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void nonPrimitiveArraysAreLeftToTheNativeCopy()
+    {
+        assertFalse(PrimitiveArrayCopy.copy(new Object[4], 0, 4, new byte[32], 0));
+        assertFalse(PrimitiveArrayCopy.copy(new byte[32], 0, 4, "text", 0));
+    }
+
+    @Test
+    public void streamRoundTrip()
+            throws Exception
+    {
+        for (int n : ELEMENT_COUNTS) {
+            int[] ints = new int[n];
+            for (int i = 0; i < n; i++) {
+                ints[i] = i * 31;
+            }
+            byte[] compressed = Snappy.compress(ints);
+            assertArrayEquals(ints, Snappy.uncompressIntArray(compressed));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.WritePendingException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Tests {@link SnappyAsync} and {@link AsyncSnappyFramedWriter}.
+ */
+public class SnappyAsyncTest
+{
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    private static AsynchronousFileChannel openRead(File file)
+            throws IOException
+    {
+        return AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    private static AsynchronousFileChannel openWrite(File file)
+            throws IOException
+    {
+        return AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+
+    private static byte[] uncompressFramed(byte[] compressed)
+            throws IOException
+    {
+        return SnappyInputStreamTest.readFully(new SnappyFramedInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    @Test
+    public void compressAndUncompressFiles()
+            throws Exception
+    {
+        for (int length : new int[] {0, 1000, 64 * 1024, 1000 * 1000 + 17}) {
+            final byte[] data = getRandom(0.5, length);
+            final File original = tempFolder.newFile();
+            final File compressed = tempFolder.newFile();
+            final File uncompressed = tempFolder.newFile();
+            Files.write(original.toPath(), data);
+
+            try (AsynchronousFileChannel src = openRead(original);
+                    AsynchronousFileChannel dst = openWrite(compressed)) {
+                assertEquals(length, SnappyAsync.compress(src, dst, executor, 2).get().longValue());
+            }
+            assertArrayEquals(data, uncompressFramed(Files.readAllBytes(compressed.toPath())));
+
+            try (AsynchronousFileChannel src = openRead(compressed);
+                    AsynchronousFileChannel dst = openWrite(uncompressed)) {
+                assertEquals(length, SnappyAsync.uncompress(src, dst, executor).get().longValue());
+            }
+            assertArrayEquals(data, Files.readAllBytes(uncompressed.toPath()));
+        }
+    }
+
+    @Test
+    public void uncompressCorruptFile()
+            throws Exception
+    {
+        final File compressed = tempFolder.newFile();
+        Files.write(compressed.toPath(), new byte[] {(byte) 0xff, 0x06, 0x00, 0x00, 's', 'N', 'a', 'P', 'p', 'X'});
+        try (AsynchronousFileChannel src = openRead(compressed);
+                AsynchronousFileChannel dst = openWrite(tempFolder.newFile())) {
+            SnappyAsync.uncompress(src, dst, executor).get();
+            fail("invalid stream identifier must be rejected");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void writerBoundsBlocksInFlight()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 500 * 1000);
+        final File compressed = tempFolder.newFile();
+
+        // compression only runs when released, so the writer must stop taking data
+        final CompletableFuture<Void> release = new CompletableFuture<>();
+        final Executor gated = command -> release.thenRunAsync(command, executor);
+
+        try (AsynchronousFileChannel dst = openWrite(compressed)) {
+            final AsyncSnappyFramedWriter writer = new AsyncSnappyFramedWriter(dst, 0, gated, 2,
+                    10 * 1000, SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO,
+                    DefaultPoolFactory.getDefaultPool());
+            final ByteBuffer src = ByteBuffer.wrap(data);
+            final CompletableFuture<Void> written = writer.write(src);
+            assertTrue(!written.isDone());
+            // 2 blocks in flight and a full block waiting
+            assertEquals(data.length - 30 * 1000, src.remaining());
+            try {
+                writer.write(ByteBuffer.allocate(1));
+                fail("a second write must not be accepted while one is pending");
+            }
+            catch (WritePendingException e) {
+                // expected
+            }
+
+            release.complete(null);
+            written.get();
+            writer.close().get();
+        }
+        assertArrayEquals(data, uncompressFramed(Files.readAllBytes(compressed.toPath())));
+    }
+
+    @Test
+    public void writerAtPosition()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.8, 100 * 1000);
+        final File compressed = tempFolder.newFile();
+        try (AsynchronousFileChannel dst = openWrite(compressed)) {
+            final AsyncSnappyFramedWriter writer = new AsyncSnappyFramedWriter(dst, 10, executor, 3);
+            for (int offset = 0; offset < data.length; offset += 7000) {
+                writer.write(ByteBuffer.wrap(data, offset, Math.min(7000, data.length - offset))).get();
+            }
+            writer.flush().get();
+            writer.close().get();
+            assertTrue(writer.close().isDone());
+            try {
+                writer.write(ByteBuffer.allocate(1)).get();
+                fail("closed writer must reject writes");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        final byte[] bytes = Files.readAllBytes(compressed.toPath());
+        assertArrayEquals(new byte[10], Arrays.copyOf(bytes, 10));
+        assertArrayEquals(data, uncompressFramed(Arrays.copyOfRange(bytes, 10, bytes.length)));
+    }
+}
@@ -0,0 +1,221 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xerial.snappy.buffer.BufferAllocator;
+import org.xerial.snappy.buffer.BufferAllocatorFactory;
+
+/**
+ * Tests {@link SnappyBlockStreamEncoder} and {@link SnappyBlockStreamDecoder}.
+ */
+public class SnappyBlockStreamCoderTest
+{
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    private static byte[] encode(byte[] data, int blockSize, int fragmentSize, int outSize)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteBuffer out = ByteBuffer.allocate(outSize);
+        final SnappyBlockStreamEncoder encoder = new SnappyBlockStreamEncoder(blockSize);
+        for (int offset = 0; offset < data.length; offset += fragmentSize) {
+            final ByteBuffer in = ByteBuffer.wrap(data, offset, Math.min(fragmentSize, data.length - offset));
+            while (encoder.encode(in, out) == SnappyCoderResult.OVERFLOW) {
+                drain(out, baos);
+            }
+            assertEquals(0, in.remaining());
+        }
+        while (encoder.flush(out) == SnappyCoderResult.OVERFLOW) {
+            drain(out, baos);
+        }
+        drain(out, baos);
+        encoder.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] decode(byte[] data, int fragmentSize, int outSize, boolean direct)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteBuffer out = direct ? ByteBuffer.allocateDirect(outSize) : ByteBuffer.allocate(outSize);
+        final SnappyBlockStreamDecoder decoder = new SnappyBlockStreamDecoder();
+        try {
+            for (int offset = 0; offset < data.length || offset == 0; offset += fragmentSize) {
+                final int length = Math.min(fragmentSize, data.length - offset);
+                final ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+                final boolean endOfInput = offset + length == data.length;
+                while (decoder.decode(in, out, endOfInput) == SnappyCoderResult.OVERFLOW) {
+                    drain(out, baos);
+                }
+                assertEquals(0, in.remaining());
+            }
+            drain(out, baos);
+        }
+        finally {
+            decoder.close();
+        }
+        return baos.toByteArray();
+    }
+
+    private static void drain(ByteBuffer out, ByteArrayOutputStream baos)
+    {
+        out.flip();
+        final byte[] b = new byte[out.remaining()];
+        out.get(b);
+        baos.write(b, 0, b.length);
+        out.clear();
+    }
+
+    private static byte[] compressWithStream(byte[] data, int blockSize)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final SnappyOutputStream out = new SnappyOutputStream(baos, blockSize);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void encoderMatchesOutputStream()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.5, 300000);
+        final byte[] expected = compressWithStream(data, 32 * 1024);
+        assertArrayEquals(expected, encode(data, 32 * 1024, data.length, 1 << 20));
+        assertArrayEquals(expected, encode(data, 32 * 1024, 1, 7));
+        assertArrayEquals(expected, encode(data, 32 * 1024, 40000, 1000));
+
+        final byte[] empty = compressWithStream(new byte[0], 32 * 1024);
+        assertArrayEquals(empty, encode(new byte[0], 32 * 1024, 1, 3));
+    }
+
+    @Test
+    public void encoderOutputReadableByInputStream()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.7, 100000);
+        final SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(encode(data, 4096, 333, 10000)));
+        final byte[] result = new byte[data.length];
+        int read = 0;
+        int n;
+        while ((n = in.read(result, read, result.length - read)) > 0) {
+            read += n;
+        }
+        assertArrayEquals(data, result);
+    }
+
+    @Test
+    public void decodeFragments()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.5, 300000);
+        final byte[] compressed = compressWithStream(data, 32 * 1024);
+        assertArrayEquals(data, decode(compressed, compressed.length, 1 << 20, false));
+        assertArrayEquals(data, decode(compressed, compressed.length, 1 << 20, true));
+        assertArrayEquals(data, decode(compressed, 1, 13, false));
+        assertArrayEquals(data, decode(compressed, 5000, 1, true));
+    }
+
+    @Test
+    public void decodeConcatenatedStreams()
+            throws IOException
+    {
+        final byte[] a = getRandom(0.5, 50000);
+        final byte[] b = getRandom(0.8, 70000);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(compressWithStream(a, 8192));
+        compressed.write(compressWithStream(b, 16384));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(a);
+        expected.write(b);
+        assertArrayEquals(expected.toByteArray(), decode(compressed.toByteArray(), 3, 1000, false));
+        assertArrayEquals(expected.toByteArray(), decode(compressed.toByteArray(), 100000, 1 << 20, false));
+    }
+
+    @Test(expected = SnappyIOException.class)
+    public void decodeEmptyInput()
+            throws IOException
+    {
+        decode(new byte[0], 1, 10, false);
+    }
+
+    @Test(expected = SnappyIOException.class)
+    public void decodeMissingHeader()
+            throws IOException
+    {
+        decode(Snappy.compress(getRandom(0.5, 1000)), 1000, 1000, false);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeTruncatedChunk()
+            throws IOException
+    {
+        final byte[] compressed = compressWithStream(getRandom(0.5, 1000), 32 * 1024);
+        decode(Arrays.copyOf(compressed, compressed.length - 1), 10, 100, false);
+    }
+
+    @Test
+    public void decoderBuffersAreReleasedOnClose()
+            throws IOException
+    {
+        final byte[] compressed = compressWithStream(getRandom(0.5, 100000), 32 * 1024);
+        final AtomicInteger outstanding = new AtomicInteger();
+        final SnappyBlockStreamDecoder decoder = new SnappyBlockStreamDecoder(SnappyInputStream.MAX_CHUNK_SIZE,
+                new BufferAllocatorFactory()
+                {
+                    @Override
+                    public BufferAllocator getBufferAllocator(int bufferSize)
+                    {
+                        return new BufferAllocator()
+                        {
+                            @Override
+                            public byte[] allocate(int size)
+                            {
+                                outstanding.incrementAndGet();
+                                return new byte[size];
+                            }
+
+                            @Override
+                            public void release(byte[] buffer)
+                            {
+                                outstanding.decrementAndGet();
+                            }
+                        };
+                    }
+                });
+        // fragments smaller than a block make the decoder collect it
+        final ByteBuffer out = ByteBuffer.allocate(100);
+        final ByteBuffer in = ByteBuffer.wrap(compressed, 0, 1000);
+        while (decoder.decode(in, out) == SnappyCoderResult.OVERFLOW) {
+            out.clear();
+        }
+        assertTrue(outstanding.get() > 0);
+        decoder.close();
+        assertEquals(0, outstanding.get());
+
+        try {
+            decoder.decode(in, out);
+            fail("decoding after close must fail");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SnappyOutputChannel} and {@link SnappyInputChannel}.
+ */
+public class SnappyChannelTest
+{
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    private static byte[] write(byte[] data, int blockSize, int fragmentSize, boolean direct)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final SnappyOutputChannel out = new SnappyOutputChannel(Channels.newChannel(baos), blockSize);
+        for (int offset = 0; offset < data.length; offset += fragmentSize) {
+            final int length = Math.min(fragmentSize, data.length - offset);
+            ByteBuffer src = ByteBuffer.wrap(data, offset, length);
+            if (direct) {
+                ByteBuffer copy = ByteBuffer.allocateDirect(length);
+                copy.put(src);
+                copy.flip();
+                src = copy;
+            }
+            assertEquals(length, out.write(src));
+            assertEquals(0, src.remaining());
+        }
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] read(ReadableByteChannel in, int dstSize, boolean direct)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteBuffer dst = direct ? ByteBuffer.allocateDirect(dstSize) : ByteBuffer.allocate(dstSize);
+        final byte[] bytes = new byte[dstSize];
+        while (in.read(dst) != -1) {
+            dst.flip();
+            final int length = dst.remaining();
+            dst.get(bytes, 0, length);
+            baos.write(bytes, 0, length);
+            dst.clear();
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+
+    private static SnappyInputChannel newInputChannel(byte[] compressed)
+            throws IOException
+    {
+        return new SnappyInputChannel(Channels.newChannel(new ByteArrayInputStream(compressed)));
+    }
+
+    @Test
+    public void compatibleWithStreams()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 300 * 1024);
+
+        // channel output read by SnappyInputStream
+        for (boolean direct : new boolean[] {false, true}) {
+            final byte[] compressed = write(data, 64 * 1024, 10000, direct);
+            assertArrayEquals(data, SnappyInputStreamTest.readFully(new SnappyInputStream(new ByteArrayInputStream(compressed))));
+        }
+
+        // SnappyOutputStream output read by the channel
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final SnappyOutputStream os = new SnappyOutputStream(baos, 64 * 1024);
+        os.write(data);
+        os.close();
+        assertArrayEquals(data, read(newInputChannel(baos.toByteArray()), 4096, false));
+    }
+
+    @Test
+    public void roundTrip()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 200 * 1024);
+        for (int fragmentSize : new int[] {1000, 32 * 1024, data.length}) {
+            for (boolean directSource : new boolean[] {false, true}) {
+                final byte[] compressed = write(data, 32 * 1024, fragmentSize, directSource);
+                for (int dstSize : new int[] {100, 32 * 1024, 256 * 1024}) {
+                    assertArrayEquals(data, read(newInputChannel(compressed), dstSize, false));
+                    assertArrayEquals(data, read(newInputChannel(compressed), dstSize, true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transferFrom()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 100 * 1024);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final SnappyOutputChannel out = new SnappyOutputChannel(Channels.newChannel(baos), 8 * 1024);
+        assertEquals(data.length, out.transferFrom(Channels.newChannel(new ByteArrayInputStream(data))));
+        out.close();
+        assertArrayEquals(data, read(newInputChannel(baos.toByteArray()), 8192, true));
+    }
+
+    @Test
+    public void concatenated()
+            throws Exception
+    {
+        final byte[] a = getRandom(0.5, 50000);
+        final byte[] b = getRandom(0.8, 70000);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(write(a, 16 * 1024, a.length, false));
+        baos.write(write(b, 16 * 1024, b.length, false));
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(a);
+        expected.write(b);
+        assertArrayEquals(expected.toByteArray(), read(newInputChannel(baos.toByteArray()), 5000, false));
+    }
+
+    @Test
+    public void emptyStream()
+            throws Exception
+    {
+        final byte[] compressed = write(new byte[0], 1024, 1, false);
+        assertEquals(SnappyCodec.HEADER_SIZE, compressed.length);
+        assertEquals(0, read(newInputChannel(compressed), 100, false).length);
+
+        try {
+            newInputChannel(new byte[0]);
+            fail("empty input must be rejected");
+        }
+        catch (SnappyIOException e) {
+            assertEquals(SnappyErrorCode.EMPTY_INPUT, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void rawInputIsRejected()
+            throws Exception
+    {
+        try {
+            newInputChannel(Snappy.compress(getRandom(0.5, 1000)));
+            fail("input without a header must be rejected");
+        }
+        catch (SnappyIOException e) {
+            assertEquals(SnappyErrorCode.PARSING_ERROR, e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * The library is compiled for Java 8, so JFR is driven through reflection.
+ */
+public class SnappyEventsTest
+{
+    @Test
+    public void recordEvents()
+            throws Exception
+    {
+        Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        }
+        catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        assertFalse(SnappyEvents.isEnabled());
+
+        Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("start").invoke(recording);
+        File file = File.createTempFile("snappy-events", ".jfr");
+        try {
+            assertTrue(SnappyEvents.isEnabled());
+
+            // incompressible, so that the uncompressed input reaches the threshold as well
+            byte[] data = new byte[100 * 1024];
+            new Random(0).nextBytes(data);
+            Snappy.uncompress(Snappy.compress(data));
+            // below the threshold
+            Snappy.compress(new byte[100]);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            SnappyFramedOutputStream framed = new SnappyFramedOutputStream(out);
+            framed.write(data);
+            framed.close();
+
+            recordingClass.getMethod("stop").invoke(recording);
+            assertFalse(SnappyEvents.isEnabled());
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            for (Object event : (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, file.toPath())) {
+                Object type = event.getClass().getMethod("getEventType").invoke(event);
+                String name = (String) type.getClass().getMethod("getName").invoke(type);
+                if (name.startsWith("org.xerial.snappy.")) {
+                    Integer count = counts.get(name);
+                    counts.put(name, count == null ? 1 : count + 1);
+                }
+            }
+            // the first 64KB frame of the stream reaches the threshold too
+            assertEquals(Integer.valueOf(2), counts.get("org.xerial.snappy.Compress"));
+            assertEquals(Integer.valueOf(1), counts.get("org.xerial.snappy.Uncompress"));
+            // 100KB in 64KB frames
+            assertEquals(Integer.valueOf(2), counts.get("org.xerial.snappy.StreamBlock"));
+        }
+        finally {
+            recordingClass.getMethod("close").invoke(recording);
+            file.delete();
+        }
+    }
+}
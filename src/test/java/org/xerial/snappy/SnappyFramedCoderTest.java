@@ -0,0 +1,193 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SnappyFramedEncoder} and {@link SnappyFramedDecoder}.
+ */
+public class SnappyFramedCoderTest
+{
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    private static byte[] encode(byte[] data, int fragmentSize, int outSize, boolean direct)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteBuffer out = direct ? ByteBuffer.allocateDirect(outSize) : ByteBuffer.allocate(outSize);
+        final SnappyFramedEncoder encoder = new SnappyFramedEncoder();
+        for (int offset = 0; offset < data.length; offset += fragmentSize) {
+            final ByteBuffer in = ByteBuffer.wrap(data, offset, Math.min(fragmentSize, data.length - offset));
+            while (encoder.encode(in, out) == SnappyCoderResult.OVERFLOW) {
+                drain(out, baos);
+            }
+            assertEquals(0, in.remaining());
+        }
+        while (encoder.flush(out) == SnappyCoderResult.OVERFLOW) {
+            drain(out, baos);
+        }
+        drain(out, baos);
+        encoder.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] decode(byte[] data, int fragmentSize, int outSize)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final ByteBuffer out = ByteBuffer.allocate(outSize);
+        final SnappyFramedDecoder decoder = new SnappyFramedDecoder();
+        try {
+            for (int offset = 0; offset < data.length || offset == 0; offset += fragmentSize) {
+                final int length = Math.min(fragmentSize, data.length - offset);
+                final ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+                final boolean endOfInput = offset + length == data.length;
+                while (decoder.decode(in, out, endOfInput) == SnappyCoderResult.OVERFLOW) {
+                    drain(out, baos);
+                }
+                assertEquals(0, in.remaining());
+            }
+            drain(out, baos);
+        }
+        finally {
+            decoder.close();
+        }
+        return baos.toByteArray();
+    }
+
+    private static void drain(ByteBuffer out, ByteArrayOutputStream baos)
+    {
+        out.flip();
+        final byte[] b = new byte[out.remaining()];
+        out.get(b);
+        baos.write(b, 0, b.length);
+        out.clear();
+    }
+
+    private static byte[] compressWithStream(byte[] data)
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final SnappyFramedOutputStream out = new SnappyFramedOutputStream(baos);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void encoderMatchesOutputStream()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.5, 300000);
+        final byte[] expected = compressWithStream(data);
+        assertArrayEquals(expected, encode(data, 300000, 1 << 20, true));
+        assertArrayEquals(expected, encode(data, 1, 13, false));
+        assertArrayEquals(expected, encode(data, 4099, 100, true));
+    }
+
+    @Test
+    public void decodeFragments()
+            throws IOException
+    {
+        final Random r = new Random(0);
+        final byte[] data = getRandom(0.5, 300000);
+        // include an incompressible block
+        for (int i = 100000; i < 170000; i++) {
+            data[i] = (byte) r.nextInt();
+        }
+        final byte[] compressed = compressWithStream(data);
+        assertArrayEquals(data, decode(compressed, compressed.length, 1 << 20));
+        assertArrayEquals(data, decode(compressed, 1, 17));
+        assertArrayEquals(data, decode(compressed, 3, 65536));
+        assertArrayEquals(data, decode(compressed, 8191, 1));
+    }
+
+    @Test
+    public void decodeEmptyStream()
+            throws IOException
+    {
+        assertEquals(0, decode(SnappyFramed.HEADER_BYTES, 1, 10).length);
+        assertEquals(0, decode(encode(new byte[0], 1, 10, false), 100, 10).length);
+    }
+
+    @Test
+    public void decodeSkippableChunks()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.5, 1000);
+        final byte[] compressed = compressWithStream(data);
+        // insert a skippable chunk and a second stream identifier after the stream header
+        final byte[] skippable = {(byte) 0x80, 3, 0, 0, 1, 2, 3};
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(SnappyFramed.HEADER_BYTES);
+        baos.write(skippable);
+        baos.write(compressed);
+        assertArrayEquals(data, decode(baos.toByteArray(), 2, 100));
+    }
+
+    @Test(expected = EOFException.class)
+    public void decodeTruncated()
+            throws IOException
+    {
+        final byte[] compressed = compressWithStream(getRandom(0.5, 1000));
+        decode(Arrays.copyOf(compressed, compressed.length - 1), 10, 100);
+    }
+
+    @Test(expected = EOFException.class)
+    public void decodeMissingStreamHeader()
+            throws IOException
+    {
+        decode(new byte[0], 1, 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeInvalidStreamHeader()
+            throws IOException
+    {
+        decode(new byte[] {1, 5, 0, 0, 0, 0, 0, 0, 'a'}, 100, 100);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeInvalidChecksum()
+            throws IOException
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(SnappyFramed.HEADER_BYTES);
+        baos.write(new byte[] {1, 5, 0, 0, 0, 0, 0, 0, 'a'});
+        decode(baos.toByteArray(), 100, 100);
+    }
+
+    @Test
+    public void decoderReset()
+            throws IOException
+    {
+        final byte[] data = getRandom(0.5, 1000);
+        final byte[] compressed = compressWithStream(data);
+        final SnappyFramedDecoder decoder = new SnappyFramedDecoder();
+        final ByteBuffer out = ByteBuffer.allocate(2000);
+        // leave a partial chunk behind
+        decoder.decode(ByteBuffer.wrap(compressed, 0, 15), out);
+        decoder.reset();
+        out.clear();
+        decoder.decode(ByteBuffer.wrap(compressed), out, true);
+        decoder.close();
+        out.flip();
+        final byte[] result = new byte[out.remaining()];
+        out.get(result);
+        assertArrayEquals(data, result);
+    }
+}
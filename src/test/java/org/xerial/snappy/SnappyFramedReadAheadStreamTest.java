@@ -0,0 +1,102 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Runs the {@link SnappyFramedStreamTest} tests against a
+ * {@link SnappyFramedInputStream} using a read-ahead buffer.
+ */
+public class SnappyFramedReadAheadStreamTest
+        extends SnappyFramedStreamTest
+{
+    // large enough for one full frame, but not for two
+    private static final int READ_AHEAD_SIZE = 96 * 1024;
+
+    @Override
+    protected InputStream createInputStream(InputStream source,
+            boolean verifyCheckSums)
+            throws IOException
+    {
+        return new SnappyFramedInputStream(source, verifyCheckSums,
+                DefaultPoolFactory.getDefaultPool(), READ_AHEAD_SIZE);
+    }
+
+    @Test
+    public void testFramesStraddlingReadAheadBoundary()
+            throws IOException
+    {
+        final byte[] original = new byte[1024 * 1024];
+        final Random random = new Random(0);
+        // alternate sparse runs, whose frames are compressed, with fully
+        // random runs of a few frames, which are stored raw
+        boolean sparse = true;
+        for (int i = 0; i < original.length; ) {
+            final int end = Math.min(original.length, i + 2000 + random.nextInt(4000));
+            for (; i < end; i++) {
+                if (!sparse || random.nextInt(16) == 0) {
+                    original[i] = (byte) random.nextInt();
+                }
+            }
+            sparse = !sparse;
+        }
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        // 1000 byte frames do not align with the read-ahead buffer size
+        final SnappyFramedOutputStream out = new SnappyFramedOutputStream(
+                compressed, 1000, SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO);
+        out.write(original);
+        out.close();
+
+        // deliver the input in odd sized fragments
+        final InputStream trickle = new FilterInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()))
+        {
+            @Override
+            public int read(byte[] b, int off, int len)
+                    throws IOException
+            {
+                return super.read(b, off, Math.min(len, 7777));
+            }
+        };
+
+        final SnappyFramedInputStream in = new SnappyFramedInputStream(trickle,
+                true, DefaultPoolFactory.getDefaultPool(), READ_AHEAD_SIZE);
+        final AtomicInteger rawFrames = new AtomicInteger();
+        in.setStreamListener(new SnappyStreamListener()
+        {
+            @Override
+            public void blockWritten(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos)
+            {
+            }
+
+            @Override
+            public void blockRead(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos)
+            {
+                if (raw) {
+                    rawFrames.incrementAndGet();
+                }
+            }
+        });
+        final ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        in.transferTo(uncompressed);
+        in.close();
+
+        assertArrayEquals(original, uncompressed.toByteArray());
+        // over 400 of the 1049 frames, so that raw frames straddle the
+        // read-ahead boundary as well
+        assertTrue(rawFrames.get() > 400);
+    }
+}
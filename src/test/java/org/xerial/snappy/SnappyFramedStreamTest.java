@@ -16,11 +16,13 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.junit.Test;
+import org.xerial.snappy.pool.DefaultPoolFactory;
 
 /**
  * Tests the functionality of {@link org.xerial.snappy.SnappyFramedInputStream}
@@ -191,6 +193,41 @@ public class SnappyFramedStreamTest
                 new byte[] {'a'});
     }
 
+    @Test
+    public void testReset()
+            throws IOException
+    {
+        final byte[] random = getRandom(0.5, 100000);
+
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final SnappyFramedOutputStream sfos = new SnappyFramedOutputStream(first);
+        sfos.write(random, 0, 100);
+        // discarded by reset
+        sfos.reset(first);
+        sfos.write(random);
+        sfos.flush();
+
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        sfos.reset(second);
+        sfos.write(random, 0, 1000);
+        sfos.close();
+
+        final ByteArrayOutputStream third = new ByteArrayOutputStream();
+        sfos.reset(Channels.newChannel(third));
+        sfos.write(random, 1000, 2000);
+        sfos.close();
+
+        final SnappyFramedInputStream sfis = new SnappyFramedInputStream(
+                new ByteArrayInputStream(first.toByteArray()));
+        assertArrayEquals(random, toByteArray(sfis));
+        sfis.reset(new ByteArrayInputStream(second.toByteArray()));
+        assertEquals(random[0], (byte) sfis.read());
+        sfis.close();
+        sfis.reset(Channels.newChannel(new ByteArrayInputStream(third.toByteArray())));
+        assertArrayEquals(Arrays.copyOfRange(random, 1000, 3000), toByteArray(sfis));
+        sfis.close();
+    }
+
     @Test
     public void testTransferFrom_InputStream()
             throws IOException
@@ -265,6 +302,66 @@ public class SnappyFramedStreamTest
         assertArrayEquals(random, baos.toByteArray());
     }
 
+    @Test
+    public void testBatchedFrameWrites()
+            throws IOException
+    {
+        final byte[] random = getRandom(0.5, 500000);
+
+        final CountingChannel unbatched = new CountingChannel();
+        final SnappyFramedOutputStream sfos = new SnappyFramedOutputStream(
+                unbatched, SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE,
+                SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO,
+                DefaultPoolFactory.getDefaultPool());
+        sfos.write(random);
+        sfos.close();
+
+        final CountingChannel batched = new CountingChannel();
+        final SnappyFramedOutputStream batchingSfos = new SnappyFramedOutputStream(
+                batched, SnappyFramedOutputStream.DEFAULT_BLOCK_SIZE,
+                SnappyFramedOutputStream.DEFAULT_MIN_COMPRESSION_RATIO,
+                DefaultPoolFactory.getDefaultPool(), 1024 * 1024);
+        batchingSfos.write(random);
+        batchingSfos.close();
+
+        final byte[] compressed = unbatched.baos.toByteArray();
+        assertArrayEquals(compressed, batched.baos.toByteArray());
+        assertArrayEquals(random, uncompress(compressed));
+
+        // stream header plus one write per frame
+        assertEquals(1 + (random.length + 65535) / 65536, unbatched.writes);
+        assertEquals(1, batched.writes);
+    }
+
+    private static final class CountingChannel
+            implements WritableByteChannel
+    {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int writes;
+
+        @Override
+        public int write(ByteBuffer src)
+        {
+            writes++;
+            final int length = src.remaining();
+            final byte[] data = new byte[length];
+            src.get(data);
+            baos.write(data, 0, length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
     @Test
     public void testLargerFrames_raw_()
             throws IOException
@@ -0,0 +1,143 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link SnappyHadoopCompatibleInputStream} without requiring Hadoop.
+ */
+public class SnappyHadoopCompatibleInputStreamTest
+{
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    private static byte[] compress(byte[] data, int blockSize)
+            throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SnappyHadoopCompatibleOutputStream out = new SnappyHadoopCompatibleOutputStream(baos, blockSize);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in, int bufferSize)
+            throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            baos.write(buf, 0, n);
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void readOutputStreamData()
+            throws IOException
+    {
+        byte[] data = getRandom(0.6, 200000);
+        byte[] compressed = compress(data, 32 * 1024);
+        assertArrayEquals(data, readAll(new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed)), 100));
+        assertArrayEquals(data, readAll(new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed)), 64 * 1024));
+
+        SnappyHadoopCompatibleInputStream in = new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed));
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i] & 0xFF, in.read());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void readMultipleSubblocksPerBlock()
+            throws IOException
+    {
+        byte[] a = getRandom(0.5, 3000);
+        byte[] b = getRandom(0.8, 5000);
+        byte[] c = getRandom(0.3, 100);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(a.length + b.length);
+        for (byte[] sub : new byte[][] {a, b}) {
+            byte[] compressed = Snappy.compress(sub);
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        }
+        out.writeInt(c.length);
+        byte[] compressed = Snappy.compress(c);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        out.close();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(a);
+        expected.write(b);
+        expected.write(c);
+        assertArrayEquals(expected.toByteArray(), readAll(new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(baos.toByteArray())), 777));
+    }
+
+    @Test
+    public void skip()
+            throws IOException
+    {
+        byte[] data = getRandom(0.6, 200000);
+        byte[] compressed = compress(data, 8 * 1024);
+        SnappyHadoopCompatibleInputStream in = new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed));
+        assertEquals(10, in.skip(10));
+        assertEquals(data[10] & 0xFF, in.read());
+        // skips several whole subblocks and part of another
+        assertEquals(50000, in.skip(50000));
+        assertEquals(data[50011] & 0xFF, in.read());
+        byte[] rest = readAll(in, 1000);
+        assertArrayEquals(Arrays.copyOfRange(data, 50012, data.length), rest);
+
+        in = new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed));
+        assertEquals(data.length, in.skip(data.length + 100));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void readByteBuffer()
+            throws IOException
+    {
+        byte[] data = getRandom(0.6, 100000);
+        byte[] compressed = compress(data, 32 * 1024);
+        for (ByteBuffer buf : new ByteBuffer[] {ByteBuffer.allocate(data.length + 10), ByteBuffer.allocateDirect(data.length + 10)}) {
+            SnappyHadoopCompatibleInputStream in = new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(compressed));
+            while (in.read(buf) >= 0) {
+            }
+            in.close();
+            buf.flip();
+            byte[] result = new byte[buf.remaining()];
+            buf.get(result);
+            assertArrayEquals(data, result);
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncated()
+            throws IOException
+    {
+        byte[] compressed = compress(getRandom(0.6, 10000), 32 * 1024);
+        readAll(new SnappyHadoopCompatibleInputStream(new ByteArrayInputStream(Arrays.copyOf(compressed, compressed.length - 1))), 100);
+    }
+}
@@ -31,8 +31,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
+import org.xerial.snappy.buffer.BufferAllocator;
+import org.xerial.snappy.buffer.BufferAllocatorFactory;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
 import org.xerial.util.FileResource;
 import org.xerial.util.log.Logger;
 
@@ -237,4 +241,119 @@ public class SnappyInputStreamTest
 
         assertArrayEquals(dataMoreThan8Len, uncompressed);
     }
+
+    @Test
+    public void readSnappyCompressResultIncrementally()
+            throws Exception
+    {
+        byte[] orig = new byte[300 * 1024];
+        for (int i = 0; i < orig.length; i++) {
+            orig[i] = (byte) ((i % 97) * (i / 1000));
+        }
+        final byte[] compressed = Snappy.compress(orig);
+
+        // hand out the input a few bytes at a time
+        InputStream trickle = new ByteArrayInputStream(compressed)
+        {
+            @Override
+            public synchronized int read(byte[] b, int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        assertArrayEquals(orig, readFully(new SnappyInputStream(trickle)));
+
+        // decoded bytes are available before the whole input is read
+        InputStream head = new ByteArrayInputStream(compressed, 0, compressed.length / 2)
+        {
+            @Override
+            public synchronized int read(byte[] b, int off, int len)
+            {
+                int n = super.read(b, off, len);
+                if (n == -1) {
+                    throw new IllegalStateException("read past the available input");
+                }
+                return n;
+            }
+        };
+        SnappyInputStream in = new SnappyInputStream(head);
+        assertEquals(orig[0] & 0xFF, in.read());
+    }
+
+    @Test
+    public void readCorruptSnappyCompressResult()
+            throws Exception
+    {
+        byte[] orig = readResourceFile("alice29.txt");
+        byte[] compressed = Snappy.compress(orig);
+
+        byte[] truncated = new byte[compressed.length - 10];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try {
+            readFully(new SnappyInputStream(new ByteArrayInputStream(truncated)));
+            fail("truncated input must be rejected");
+        }
+        catch (SnappyIOException e) {
+            assertEquals(SnappyErrorCode.FAILED_TO_UNCOMPRESS, e.getErrorCode());
+        }
+
+        byte[] trailing = new byte[compressed.length + 1];
+        System.arraycopy(compressed, 0, trailing, 0, compressed.length);
+        try {
+            readFully(new SnappyInputStream(new ByteArrayInputStream(trailing)));
+            fail("trailing data must be rejected");
+        }
+        catch (SnappyIOException e) {
+            assertEquals(SnappyErrorCode.FAILED_TO_UNCOMPRESS, e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void rawDecoderBuffersAreReleased()
+            throws Exception
+    {
+        final byte[] orig = readResourceFile("alice29.txt");
+        final byte[] compressed = Snappy.compress(orig);
+        final AtomicInteger outstanding = new AtomicInteger();
+        final BufferAllocatorFactory previous = CachedBufferAllocator.getBufferAllocatorFactory();
+        CachedBufferAllocator.setBufferAllocatorFactory(new BufferAllocatorFactory()
+        {
+            @Override
+            public BufferAllocator getBufferAllocator(int bufferSize)
+            {
+                return new BufferAllocator()
+                {
+                    @Override
+                    public byte[] allocate(int size)
+                    {
+                        outstanding.incrementAndGet();
+                        return new byte[size];
+                    }
+
+                    @Override
+                    public void release(byte[] buffer)
+                    {
+                        outstanding.decrementAndGet();
+                    }
+                };
+            }
+        });
+        try {
+            SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed));
+            assertEquals(orig[0] & 0xFF, in.read());
+            assertEquals(2, outstanding.get());
+            in.reset(new ByteArrayInputStream(compressed));
+            assertEquals(2, outstanding.get());
+            assertArrayEquals(orig, readFully(in));
+            assertEquals(0, outstanding.get());
+
+            in.reset(new ByteArrayInputStream(compressed));
+            assertEquals(orig[0] & 0xFF, in.read());
+            in.close();
+            assertEquals(0, outstanding.get());
+        }
+        finally {
+            CachedBufferAllocator.setBufferAllocatorFactory(previous);
+        }
+    }
 }
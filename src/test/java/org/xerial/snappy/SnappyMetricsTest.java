@@ -0,0 +1,126 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+import org.xerial.snappy.SnappyMetrics.Operation;
+import org.xerial.snappy.SnappyMetrics.Snapshot;
+
+public class SnappyMetricsTest
+{
+    private static SnappyApi instrument(SnappyMetrics metrics)
+    {
+        // load the native library
+        Snappy.maxCompressedLength(1);
+        return new InstrumentedSnappyApi(new SnappyNative(), metrics);
+    }
+
+    private static long sum(long[] histogram)
+    {
+        long sum = 0;
+        for (long count : histogram) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    @Test
+    public void recordCalls()
+            throws Exception
+    {
+        SnappyMetrics metrics = new SnappyMetrics(1);
+        SnappyApi api = instrument(metrics);
+        assertTrue(metrics.isEnabled());
+
+        byte[] input = new byte[10000];
+        byte[] compressed = new byte[api.maxCompressedLength(input.length)];
+        int compressedLength = api.rawCompress(input, 0, input.length, compressed, 0);
+        byte[] uncompressed = new byte[input.length];
+        api.rawUncompress(compressed, 0, compressedLength, uncompressed, 0);
+        assertTrue(api.isValidCompressedBuffer(compressed, 0, compressedLength));
+
+        ByteBuffer directInput = ByteBuffer.allocateDirect(input.length);
+        ByteBuffer directCompressed = ByteBuffer.allocateDirect(compressed.length);
+        api.rawCompress(directInput, 0, input.length, directCompressed, 0);
+
+        Snapshot compress = metrics.getSnapshot(Operation.COMPRESS);
+        assertEquals(2, compress.getCalls());
+        assertEquals(2 * input.length, compress.getInputBytes());
+        assertEquals(2 * compressedLength, compress.getOutputBytes());
+        // zeros compress to less than 10%
+        assertEquals(2, compress.getRatioHistogram()[0]);
+        assertEquals(2, compress.getSampledCalls());
+        assertEquals(2, sum(compress.getLatencyHistogram()));
+
+        Snapshot uncompress = metrics.getSnapshot(Operation.UNCOMPRESS);
+        assertEquals(1, uncompress.getCalls());
+        assertEquals(compressedLength, uncompress.getInputBytes());
+        assertEquals(input.length, uncompress.getOutputBytes());
+        assertEquals(1, uncompress.getRatioHistogram()[0]);
+
+        Snapshot validate = metrics.getSnapshot(Operation.VALIDATE);
+        assertEquals(1, validate.getCalls());
+        assertEquals(0, sum(validate.getRatioHistogram()));
+    }
+
+    @Test
+    public void incompressibleData()
+            throws Exception
+    {
+        SnappyMetrics metrics = new SnappyMetrics(1);
+        SnappyApi api = instrument(metrics);
+        byte[] input = new byte[100];
+        new java.util.Random(0).nextBytes(input);
+        api.rawCompress(input, 0, input.length, new byte[api.maxCompressedLength(input.length)], 0);
+        assertEquals(1, metrics.getCompress().getRatioHistogram()[SnappyMetrics.RATIO_BUCKETS - 1]);
+    }
+
+    @Test
+    public void sampling()
+            throws Exception
+    {
+        SnappyMetrics metrics = new SnappyMetrics(100);
+        SnappyApi api = instrument(metrics);
+        byte[] input = new byte[100];
+        byte[] compressed = new byte[api.maxCompressedLength(input.length)];
+        for (int i = 0; i < 10000; i++) {
+            api.rawCompress(input, 0, input.length, compressed, 0);
+        }
+        Snapshot compress = metrics.getCompress();
+        assertEquals(10000, compress.getCalls());
+        assertTrue(compress.getSampledCalls() > 0 && compress.getSampledCalls() < 1000);
+        assertEquals(compress.getSampledCalls(), sum(compress.getLatencyHistogram()));
+    }
+
+    @Test
+    public void mxBean()
+            throws Exception
+    {
+        SnappyMetrics.getInstance().enable();
+        SnappyMBeans.registerAll();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.xerial.snappy:type=SnappyMetrics");
+        assertTrue(server.isRegistered(name));
+        CompositeData compress = (CompositeData) server.getAttribute(name, "Compress");
+        assertEquals(SnappyMetrics.getInstance().getCompress().getCalls(), compress.get("calls"));
+        assertEquals(SnappyMetrics.LATENCY_BUCKETS, ((long[]) compress.get("latencyHistogram")).length);
+
+        try {
+            SnappyMBeans.unregisterAll();
+            assertFalse(server.isRegistered(name));
+        }
+        finally {
+            SnappyMBeans.registerAll();
+        }
+        assertTrue(server.isRegistered(name));
+    }
+}
@@ -29,9 +29,12 @@ import static org.junit.Assert.*;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import org.junit.Test;
 import org.junit.Assert;
@@ -143,6 +146,116 @@ public class SnappyOutputStreamTest
         assertArrayEquals(orig, decompressed);
     }
 
+    @Test
+    public void resetStreams()
+            throws Exception
+    {
+        byte[] orig = CalgaryTest.readFile("alice29.txt");
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        SnappyOutputStream out = new SnappyOutputStream(first);
+        out.write(orig, 0, 100);
+        // discarded by reset
+        out.reset(first);
+        out.write(orig);
+        out.flush();
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        out.reset(second);
+        out.write(orig, 0, 1000);
+        out.close();
+
+        ByteArrayOutputStream third = new ByteArrayOutputStream();
+        out.reset(third);
+        out.write(orig, 1000, 2000);
+        out.close();
+
+        SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(first.toByteArray()));
+        assertArrayEquals(orig, readAll(in));
+        in.reset(new ByteArrayInputStream(second.toByteArray()));
+        assertEquals(orig[0], in.read());
+        in.reset(new ByteArrayInputStream(third.toByteArray()));
+        assertArrayEquals(Arrays.copyOfRange(orig, 1000, 3000), readAll(in));
+        in.reset(new ByteArrayInputStream(Snappy.compress(orig)));
+        assertArrayEquals(orig, readAll(in));
+        in.close();
+    }
+
+    @Test
+    public void dataOutputAndInput()
+            throws Exception
+    {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(expected);
+        // the minimum block size makes values span block boundaries
+        SnappyOutputStream out = new SnappyOutputStream(compressed, SnappyOutputStream.MIN_BLOCK_SIZE);
+        String text = "snappy \u00e9\u4e2d\u0000";
+        int[] recordEnds = new int[500];
+        for (int i = 0; i < 500; i++) {
+            for (DataOutput o : new DataOutput[] {dos, out}) {
+                o.writeBoolean(i % 2 == 0);
+                o.writeByte(i);
+                o.writeShort(i * 31);
+                o.writeChar('a' + i % 26);
+                o.writeInt(i * 1000003);
+                o.writeLong(i * 0x123456789L);
+                o.writeFloat(i / 3f);
+                o.writeDouble(i / 7d);
+                o.writeUTF(text + i);
+                o.writeBytes("line" + i + "\r\n");
+                o.writeChars("ab");
+            }
+            out.writeVarInt(i * 977);
+            out.writeVarLong(-i);
+            recordEnds[i] = dos.size();
+        }
+        out.close();
+
+        SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i % 2 == 0, in.readBoolean());
+            assertEquals((byte) i, in.readByte());
+            assertEquals((short) (i * 31), in.readShort());
+            assertEquals('a' + i % 26, in.readChar());
+            assertEquals(i * 1000003, in.readInt());
+            assertEquals(i * 0x123456789L, in.readLong());
+            assertEquals(i / 3f, in.readFloat(), 0f);
+            assertEquals(i / 7d, in.readDouble(), 0d);
+            assertEquals(text + i, in.readUTF());
+            assertEquals("line" + i, in.readLine());
+            assertEquals('a', in.readChar());
+            assertEquals('b', in.readChar());
+            assertEquals(i * 977, in.readVarInt());
+            assertEquals(-i, in.readVarLong());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+
+        // Without the varints the data matches DataOutputStream
+        byte[] dataOnly = expected.toByteArray();
+        in = new SnappyInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        for (int i = 0; i < 500; i++) {
+            byte[] record = Arrays.copyOfRange(dataOnly, i == 0 ? 0 : recordEnds[i - 1], recordEnds[i]);
+            byte[] actual = new byte[record.length];
+            in.readFully(actual);
+            assertArrayEquals(record, actual);
+            in.readVarInt();
+            in.readVarLong();
+        }
+        in.close();
+    }
+
+    private static byte[] readAll(SnappyInputStream in)
+            throws IOException
+    {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int readBytes = 0; (readBytes = in.read(buf)) != -1; ) {
+            b.write(buf, 0, readBytes);
+        }
+        return b.toByteArray();
+    }
+
     /**
      * Compress the input array by passing it chunk-by-chunk to a SnappyOutputStream.
      *
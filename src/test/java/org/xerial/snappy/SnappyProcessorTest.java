@@ -0,0 +1,371 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.xerial.snappy.pool.BufferPool;
+import org.xerial.snappy.pool.DefaultPoolFactory;
+
+/**
+ * Tests {@link SnappyProcessor}.
+ */
+public class SnappyProcessorTest
+{
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    private static byte[] getRandom(double compressionRatio, int length)
+    {
+        RandomGenerator gen = new RandomGenerator(compressionRatio);
+        gen.getNextPosition(length);
+        return Arrays.copyOf(gen.data, length);
+    }
+
+    /**
+     * Publishes a byte array in pieces of a fixed size, honoring demand.
+     */
+    private static final class ArrayPublisher
+            implements SnappyFlow.Publisher<ByteBuffer>
+    {
+        private final byte[] data;
+        private final int pieceSize;
+        private int offset;
+        private long demand;
+        private long maxDemand;
+        private boolean emitting;
+
+        ArrayPublisher(byte[] data, int pieceSize)
+        {
+            this.data = data;
+            this.pieceSize = pieceSize;
+        }
+
+        @Override
+        public void subscribe(final SnappyFlow.Subscriber<? super ByteBuffer> subscriber)
+        {
+            subscriber.onSubscribe(new SnappyFlow.Subscription()
+            {
+                private boolean done;
+
+                @Override
+                public synchronized void request(long n)
+                {
+                    demand += n;
+                    maxDemand = Math.max(maxDemand, demand);
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    // the same buffer is reused for every piece
+                    final ByteBuffer piece = ByteBuffer.allocate(pieceSize);
+                    while (demand > 0 && !done) {
+                        if (offset == data.length) {
+                            done = true;
+                            subscriber.onComplete();
+                            break;
+                        }
+                        demand--;
+                        final int length = Math.min(pieceSize, data.length - offset);
+                        piece.clear();
+                        piece.put(data, offset, length);
+                        piece.flip();
+                        offset += length;
+                        subscriber.onNext(piece);
+                        Arrays.fill(piece.array(), (byte) 0);
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel()
+                {
+                    done = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts the direct buffers which have not been released.
+     */
+    private static final class CountingPool
+            implements BufferPool
+    {
+        private final BufferPool pool = DefaultPoolFactory.getDefaultPool();
+        private final AtomicInteger outstandingDirect = new AtomicInteger();
+
+        @Override
+        public byte[] allocateArray(int size)
+        {
+            return pool.allocateArray(size);
+        }
+
+        @Override
+        public void releaseArray(byte[] buffer)
+        {
+            pool.releaseArray(buffer);
+        }
+
+        @Override
+        public ByteBuffer allocateDirect(int size)
+        {
+            outstandingDirect.incrementAndGet();
+            return pool.allocateDirect(size);
+        }
+
+        @Override
+        public void releaseDirect(ByteBuffer buffer)
+        {
+            outstandingDirect.decrementAndGet();
+            pool.releaseDirect(buffer);
+        }
+    }
+
+    /**
+     * Collects all items, requesting them one at a time.
+     */
+    private static final class Collector
+            implements SnappyFlow.Subscriber<ByteBuffer>
+    {
+        private final SnappyProcessor processor;
+        private final ByteArrayOutputStream collected = new ByteArrayOutputStream();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long initialRequest;
+        private SnappyFlow.Subscription subscription;
+        private volatile boolean requestOnNext = true;
+        private volatile Throwable error;
+
+        Collector(SnappyProcessor processor, long initialRequest)
+        {
+            this.processor = processor;
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(SnappyFlow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(ByteBuffer item)
+        {
+            synchronized (collected) {
+                while (item.hasRemaining()) {
+                    collected.write(item.get());
+                }
+            }
+            processor.release(item);
+            if (initialRequest != Long.MAX_VALUE && requestOnNext) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            done.countDown();
+        }
+
+        byte[] await()
+                throws Exception
+        {
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertNull(error);
+            synchronized (collected) {
+                return collected.toByteArray();
+            }
+        }
+    }
+
+    private static byte[] process(SnappyProcessor processor, byte[] data, int pieceSize, long initialRequest)
+            throws Exception
+    {
+        final Collector collector = new Collector(processor, initialRequest);
+        processor.subscribe(collector);
+        new ArrayPublisher(data, pieceSize).subscribe(processor);
+        return collector.await();
+    }
+
+    @Test
+    public void framedRoundTrip()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 1000 * 1000);
+        for (int pieceSize : new int[] {1000, 100 * 1000}) {
+            final SnappyProcessor compressor = SnappyProcessor.framedCompressor(executor, 3, DefaultPoolFactory.getDefaultPool());
+            final byte[] compressed = process(compressor, data, pieceSize, 1);
+            assertArrayEquals(data, SnappyInputStreamTest.readFully(new SnappyFramedInputStream(new ByteArrayInputStream(compressed))));
+
+            assertArrayEquals(data, process(SnappyProcessor.framedDecompressor(), compressed, pieceSize, Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void blockRoundTrip()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 1000 * 1000);
+        for (int pieceSize : new int[] {1000, 100 * 1000}) {
+            final SnappyProcessor compressor = SnappyProcessor.blockCompressor(executor, 3, DefaultPoolFactory.getDefaultPool());
+            final byte[] compressed = process(compressor, data, pieceSize, 2);
+            assertArrayEquals(data, SnappyInputStreamTest.readFully(new SnappyInputStream(new ByteArrayInputStream(compressed))));
+
+            assertArrayEquals(data, process(SnappyProcessor.blockDecompressor(), compressed, pieceSize, 1));
+        }
+    }
+
+    @Test
+    public void emptyStream()
+            throws Exception
+    {
+        final byte[] compressed = process(SnappyProcessor.framedCompressor(), new byte[0], 10, 1);
+        assertArrayEquals(SnappyFramed.HEADER_BYTES, compressed);
+        assertEquals(0, process(SnappyProcessor.framedDecompressor(), compressed, 10, 1).length);
+    }
+
+    @Test
+    public void inputIsRequestedOnDemand()
+            throws Exception
+    {
+        final byte[] data = getRandom(0.5, 1000 * 1000);
+        final SnappyProcessor compressor = SnappyProcessor.framedCompressor(executor, 2, DefaultPoolFactory.getDefaultPool());
+        final ArrayPublisher publisher = new ArrayPublisher(data, 64 * 1024);
+        final Collector collector = new Collector(compressor, 0);
+        compressor.subscribe(collector);
+        publisher.subscribe(compressor);
+
+        // without demand, only enough input for 2 pending outputs is taken
+        Thread.sleep(200);
+        synchronized (collector.collected) {
+            assertEquals(0, collector.collected.size());
+        }
+        assertTrue(publisher.offset <= 2 * 64 * 1024);
+        assertEquals(1, publisher.maxDemand);
+
+        collector.subscription.request(1);
+        assertArrayEquals(data, SnappyInputStreamTest.readFully(new SnappyFramedInputStream(new ByteArrayInputStream(collector.await()))));
+    }
+
+    @Test
+    public void corruptInputIsReported()
+            throws Exception
+    {
+        final SnappyProcessor decompressor = SnappyProcessor.framedDecompressor();
+        final Collector collector = new Collector(decompressor, 1);
+        decompressor.subscribe(collector);
+        new ArrayPublisher(new byte[] {(byte) 0xff, 0x06, 0x00, 0x00, 's', 'N', 'a', 'P', 'p', 'X'}, 4).subscribe(decompressor);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertTrue(collector.error instanceof IOException);
+    }
+
+    @Test
+    public void outputIsDecodedOnDemand()
+            throws Exception
+    {
+        // compresses to a few KB, and uncompresses to 64 output buffers
+        final byte[] data = new byte[4 * 1024 * 1024];
+        final byte[] compressed = process(SnappyProcessor.framedCompressor(), data, 1024 * 1024, 1);
+
+        final CountingPool pool = new CountingPool();
+        final SnappyProcessor decompressor = SnappyProcessor.framedDecompressor(pool);
+        final Collector collector = new Collector(decompressor, 0);
+        collector.requestOnNext = false;
+        decompressor.subscribe(collector);
+        new ArrayPublisher(compressed, compressed.length).subscribe(decompressor);
+        final int idle = pool.outstandingDirect.get();
+
+        // one output buffer is decoded ahead of demand, and one more per request
+        collector.subscription.request(2);
+        synchronized (collector.collected) {
+            assertEquals(2 * 64 * 1024, collector.collected.size());
+        }
+        assertEquals(idle, pool.outstandingDirect.get());
+
+        collector.requestOnNext = true;
+        collector.subscription.request(1);
+        assertArrayEquals(data, collector.await());
+        assertEquals(0, pool.outstandingDirect.get());
+    }
+
+    @Test
+    public void cancelReleasesBuffers()
+            throws Exception
+    {
+        final byte[] data = new byte[4 * 1024 * 1024];
+        final byte[] compressed = process(SnappyProcessor.framedCompressor(), data, 1024 * 1024, 1);
+
+        final CountingPool pool = new CountingPool();
+        final SnappyProcessor decompressor = SnappyProcessor.framedDecompressor(pool);
+        final Collector collector = new Collector(decompressor, 0);
+        decompressor.subscribe(collector);
+        new ArrayPublisher(compressed, 1024).subscribe(decompressor);
+        assertTrue(pool.outstandingDirect.get() > 0);
+
+        collector.subscription.cancel();
+        assertEquals(0, pool.outstandingDirect.get());
+    }
+
+    @Test
+    public void compressionIsBoundedByParallelism()
+            throws Exception
+    {
+        final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+        final Executor queue = tasks::add;
+        final byte[] data = getRandom(0.5, 1024 * 1024);
+
+        final SnappyProcessor compressor = SnappyProcessor.framedCompressor(queue, 2, DefaultPoolFactory.getDefaultPool());
+        final Collector collector = new Collector(compressor, 0);
+        collector.requestOnNext = false;
+        compressor.subscribe(collector);
+        // a single item of 16 blocks
+        new ArrayPublisher(data, data.length).subscribe(compressor);
+        // the header is pending as well
+        assertEquals(1, tasks.size());
+
+        collector.requestOnNext = true;
+        collector.subscription.request(1);
+        while (collector.done.getCount() > 0) {
+            assertFalse(tasks.isEmpty());
+            assertTrue(tasks.size() <= 2);
+            tasks.remove(0).run();
+        }
+        final byte[] compressed = collector.await();
+        assertArrayEquals(data, process(SnappyProcessor.framedDecompressor(), compressed, 4096, 1));
+    }
+}
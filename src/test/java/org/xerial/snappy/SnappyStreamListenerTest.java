@@ -0,0 +1,189 @@
+package org.xerial.snappy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SnappyStreamListenerTest
+{
+    private static class Block
+    {
+        final Closeable stream;
+        final boolean written;
+        final int uncompressedSize;
+        final int storedSize;
+        final boolean raw;
+        final long nanos;
+
+        Block(Closeable stream, boolean written, int uncompressedSize, int storedSize, boolean raw, long nanos)
+        {
+            this.stream = stream;
+            this.written = written;
+            this.uncompressedSize = uncompressedSize;
+            this.storedSize = storedSize;
+            this.raw = raw;
+            this.nanos = nanos;
+        }
+    }
+
+    private static class RecordingListener
+            implements SnappyStreamListener
+    {
+        final List<Block> blocks = new ArrayList<Block>();
+
+        @Override
+        public void blockWritten(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos)
+        {
+            blocks.add(new Block(stream, true, uncompressedSize, storedSize, raw, nanos));
+        }
+
+        @Override
+        public void blockRead(Closeable stream, int uncompressedSize, int storedSize, boolean raw, long nanos)
+        {
+            blocks.add(new Block(stream, false, uncompressedSize, storedSize, raw, nanos));
+        }
+    }
+
+    @After
+    public void removeGlobalListener()
+    {
+        Snappy.setStreamListener(null);
+    }
+
+    private static byte[] data(int size, boolean compressible)
+    {
+        byte[] data = new byte[size];
+        if (!compressible) {
+            new Random(0).nextBytes(data);
+        }
+        return data;
+    }
+
+    @Test
+    public void blockStreams()
+            throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        SnappyOutputStream out = new SnappyOutputStream(compressed, 32 * 1024);
+        out.setStreamListener(listener);
+        out.write(data(80 * 1024, true));
+        out.close();
+
+        SnappyInputStream in = new SnappyInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        in.setStreamListener(listener);
+        byte[] buffer = new byte[100 * 1024];
+        while (in.read(buffer) != -1) {
+        }
+        in.close();
+
+        // 32KB + 32KB + 16KB written, then read
+        assertEquals(6, listener.blocks.size());
+        int storedSize = 0;
+        for (int i = 0; i < 6; i++) {
+            Block block = listener.blocks.get(i);
+            assertSame(i < 3 ? out : in, block.stream);
+            assertEquals(i < 3, block.written);
+            assertEquals(i % 3 == 2 ? 16 * 1024 : 32 * 1024, block.uncompressedSize);
+            assertFalse(block.raw);
+            assertTrue(block.nanos >= 0);
+            if (block.written) {
+                storedSize += block.storedSize;
+            }
+            else {
+                assertEquals(listener.blocks.get(i - 3).storedSize, block.storedSize);
+            }
+        }
+        assertTrue(storedSize < compressed.size());
+    }
+
+    @Test
+    public void framedStreams()
+            throws Exception
+    {
+        RecordingListener listener = new RecordingListener();
+        Snappy.setStreamListener(listener);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        SnappyFramedOutputStream out = new SnappyFramedOutputStream(compressed);
+        out.write(data(64 * 1024, true));
+        out.write(data(10 * 1024, false));
+        out.close();
+
+        SnappyFramedInputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        byte[] buffer = new byte[100 * 1024];
+        while (in.read(buffer) != -1) {
+        }
+        in.close();
+
+        assertEquals(4, listener.blocks.size());
+        for (int i = 0; i < 4; i++) {
+            Block block = listener.blocks.get(i);
+            assertSame(i < 2 ? out : in, block.stream);
+            assertEquals(i % 2 == 0 ? 64 * 1024 : 10 * 1024, block.uncompressedSize);
+            // random data is stored raw
+            assertEquals(i % 2 == 1, block.raw);
+        }
+        assertTrue(listener.blocks.get(0).storedSize < 64 * 1024);
+        assertEquals(10 * 1024, listener.blocks.get(1).storedSize);
+        assertEquals(10 * 1024, listener.blocks.get(3).storedSize);
+    }
+
+    @Test
+    public void globalListenerOnlyAffectsNewStreams()
+            throws Exception
+    {
+        SnappyFramedOutputStream before = new SnappyFramedOutputStream(new ByteArrayOutputStream());
+        RecordingListener listener = new RecordingListener();
+        Snappy.setStreamListener(listener);
+        before.write(data(100, true));
+        before.close();
+        assertTrue(listener.blocks.isEmpty());
+
+        SnappyFramedOutputStream after = new SnappyFramedOutputStream(new ByteArrayOutputStream());
+        after.setStreamListener(null);
+        after.write(data(100, true));
+        after.close();
+        assertTrue(listener.blocks.isEmpty());
+    }
+
+    @Test
+    public void corruptFramesAreNotReported()
+            throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        SnappyFramedOutputStream out = new SnappyFramedOutputStream(compressed);
+        out.setStreamListener(null);
+        out.write(data(1024, true));
+        out.close();
+        byte[] corrupt = compressed.toByteArray();
+        // the checksum follows the stream header and the type and length of the frame
+        corrupt[SnappyFramed.HEADER_BYTES.length + 4] ^= 1;
+
+        RecordingListener listener = new RecordingListener();
+        SnappyFramedInputStream in = new SnappyFramedInputStream(new ByteArrayInputStream(corrupt));
+        in.setStreamListener(listener);
+        try {
+            in.read();
+            fail("the checksum must be verified");
+        }
+        catch (IOException e) {
+            assertEquals("Corrupt input: invalid checksum", e.getMessage());
+        }
+        in.close();
+        assertTrue(listener.blocks.isEmpty());
+    }
+}
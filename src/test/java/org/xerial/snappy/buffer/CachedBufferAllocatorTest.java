@@ -0,0 +1,212 @@
+package org.xerial.snappy.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CachedBufferAllocatorTest {
+
+    @Test
+    public void testSameAllocatorForSize() {
+        assertSame(CachedBufferAllocator.getAllocator(1000), CachedBufferAllocator.getAllocator(1000));
+        assertNotSame(CachedBufferAllocator.getAllocator(1000), CachedBufferAllocator.getAllocator(1001));
+    }
+
+    @Test
+    public void testReuseInSameThread() {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100);
+        final byte[] first = allocator.allocate(100);
+        final byte[] second = allocator.allocate(100);
+        assertNotSame(first, second);
+        allocator.release(first);
+        allocator.release(second);
+
+        final byte[] third = allocator.allocate(100);
+        final byte[] fourth = allocator.allocate(100);
+        assertSame(second, third);
+        assertSame(first, fourth);
+    }
+
+    @Test
+    public void testReuseAcrossThreads() throws Exception {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100);
+        final List<byte[]> released = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            released.add(allocator.allocate(100));
+        }
+        for (byte[] buffer : released) {
+            allocator.release(buffer);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<byte[]> allocated = executor.submit(new Callable<List<byte[]>>() {
+                @Override
+                public List<byte[]> call() {
+                    final List<byte[]> list = new ArrayList<>();
+                    for (int i = 0; i < 6; i++) {
+                        list.add(allocator.allocate(100));
+                    }
+                    return list;
+                }
+            }).get();
+            int reused = 0;
+            for (byte[] buffer : allocated) {
+                for (byte[] r : released) {
+                    if (r == buffer) {
+                        reused++;
+                    }
+                }
+            }
+            assertEquals(6, reused);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRetentionIsBounded() throws Exception {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100, 3);
+        final List<byte[]> released = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            released.add(allocator.allocate(100));
+        }
+        for (byte[] buffer : released) {
+            allocator.release(buffer);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final List<byte[]> allocated = executor.submit(new Callable<List<byte[]>>() {
+                @Override
+                public List<byte[]> call() {
+                    final List<byte[]> list = new ArrayList<>();
+                    for (int i = 0; i < 10; i++) {
+                        list.add(allocator.allocate(100));
+                    }
+                    return list;
+                }
+            }).get();
+            int reused = 0;
+            for (byte[] buffer : allocated) {
+                if (released.contains(buffer)) {
+                    reused++;
+                }
+            }
+            assertEquals(3, reused);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100, 8);
+        final List<byte[]> released = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            released.add(allocator.allocate(100));
+        }
+        for (byte[] buffer : released) {
+            allocator.release(buffer);
+        }
+        assertEquals(7 * 100, allocator.trim(1));
+        assertEquals(0, allocator.trim(1));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final byte[][] allocated = executor.submit(new Callable<byte[][]>() {
+                @Override
+                public byte[][] call() {
+                    return new byte[][] {allocator.allocate(100), allocator.allocate(100)};
+                }
+            }).get();
+            assertTrue(released.contains(allocated[0]));
+            assertFalse(released.contains(allocated[1]));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReuseOnFreshThreads() throws Exception {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100);
+        final List<byte[]> allocated = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // one thread per task, as with virtual threads
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] a = allocator.allocate(100);
+                    final byte[] b = allocator.allocate(100);
+                    synchronized (allocated) {
+                        allocated.add(a);
+                        allocated.add(b);
+                    }
+                    allocator.release(a);
+                    allocator.release(b);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(200, allocated.size());
+        for (byte[] buffer : allocated) {
+            assertTrue(buffer == allocated.get(0) || buffer == allocated.get(1));
+        }
+    }
+
+    @Test
+    public void testConcurrentUseNeverSharesBuffers() throws Exception {
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(16, 4);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final byte mark = (byte) t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 10000; i++) {
+                            final byte[] a = allocator.allocate(16);
+                            final byte[] b = allocator.allocate(16);
+                            assertNotSame(a, b);
+                            Arrays.fill(a, mark);
+                            Arrays.fill(b, mark);
+                            Thread.yield();
+                            for (int j = 0; j < 16; j++) {
+                                assertEquals(mark, a[j]);
+                                assertEquals(mark, b[j]);
+                            }
+                            allocator.release(a);
+                            allocator.release(b);
+                            // more buffers than are retained, so some are dropped
+                            allocator.release(new byte[16]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.xerial.snappy.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.xerial.snappy.SnappyMBeans;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+public class BufferPoolStatsTest {
+
+    @Test
+    public void testCounters() {
+        final BufferPoolStats stats = new BufferPoolStats("test");
+        stats.recordMiss(4096);
+        stats.recordMiss(4096);
+        stats.recordRetained(4096);
+        stats.recordRetained(4096);
+        stats.recordHit(4096);
+        stats.recordMiss(8192);
+        stats.recordReleasedByGc(4096);
+        stats.recordDirectAllocated(8192);
+
+        assertEquals(1, stats.getHits());
+        assertEquals(3, stats.getMisses());
+        assertEquals(Long.valueOf(3), stats.getAllocationsBySizeClass().get(4096));
+        assertEquals(Long.valueOf(1), stats.getAllocationsBySizeClass().get(8192));
+        assertEquals(0, stats.getBytesRetained());
+        assertEquals(4096, stats.getBytesReleasedByGc());
+        assertEquals(8192, stats.getDirectBytesOutstanding());
+    }
+
+    @Test
+    public void testCachingBufferPool() {
+        final CachingBufferPool pool = (CachingBufferPool) CachingBufferPool.getInstance();
+        final BufferPoolStats stats = pool.getStats();
+        final int size = 768 * 1024;
+
+        final long hits = stats.getHits();
+        final long misses = stats.getMisses();
+        final long retained = stats.getBytesRetained();
+        final long outstanding = stats.getDirectBytesOutstanding();
+
+        final ByteBuffer buffer = pool.allocateDirect(size);
+        assertEquals(misses + 1, stats.getMisses());
+        assertEquals(outstanding + size, stats.getDirectBytesOutstanding());
+        pool.releaseDirect(buffer);
+        assertEquals(retained + size, stats.getBytesRetained());
+        assertEquals(outstanding, stats.getDirectBytesOutstanding());
+        pool.releaseDirect(pool.allocateDirect(size));
+        assertEquals(hits + 1, stats.getHits());
+        assertEquals(retained + size, stats.getBytesRetained());
+    }
+
+    @Test
+    public void testCachedBufferAllocator() {
+        final BufferPoolStats stats = CachedBufferAllocator.getStats();
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100);
+        final long hits = stats.getHits();
+        final long misses = stats.getMisses();
+
+        allocator.release(allocator.allocate(100));
+        allocator.allocate(100);
+        assertEquals(misses + 1, stats.getMisses());
+        assertEquals(hits + 1, stats.getHits());
+    }
+
+    @Test
+    public void testCachedBufferAllocatorRetainedOnFreshThreads() throws Exception {
+        final BufferPoolStats stats = CachedBufferAllocator.getStats();
+        final CachedBufferAllocator allocator = new CachedBufferAllocator(100, 4);
+        final long retained = stats.getBytesRetained();
+
+        for (int i = 0; i < 50; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] a = allocator.allocate(100);
+                    final byte[] b = allocator.allocate(100);
+                    allocator.release(a);
+                    allocator.release(b);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(retained + 2 * 100, stats.getBytesRetained());
+        allocator.trim(0);
+        assertEquals(retained, stats.getBytesRetained());
+    }
+
+    @Test
+    public void testRegistered() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.xerial.snappy:type=BufferPool,name=CachingBufferPool");
+        CachingBufferPool.getInstance();
+        SnappyMBeans.registerAll();
+        assertTrue(server.isRegistered(name));
+        assertEquals("CachingBufferPool", server.getAttribute(name, "Name"));
+        assertTrue(server.getAttribute(name, "Misses") instanceof Long);
+
+        CachedBufferAllocator.getStats();
+        assertTrue(server.isRegistered(new ObjectName("org.xerial.snappy:type=BufferPool,name=CachedBufferAllocator")));
+    }
+
+    @Test
+    public void testUnregisterAll() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("org.xerial.snappy:type=BufferPool,name=CachingBufferPool");
+        CachingBufferPool.getInstance();
+        SnappyMBeans.registerAll();
+        assertTrue(server.isRegistered(name));
+        try {
+            SnappyMBeans.unregisterAll();
+            assertFalse(server.isRegistered(name));
+        } finally {
+            SnappyMBeans.registerAll();
+        }
+        assertTrue(server.isRegistered(name));
+    }
+
+    @Test
+    public void testRegisteredOnlyWhenEnabled() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final BufferPoolStats stats = new BufferPoolStats("testRegisteredOnlyWhenEnabled");
+        final ObjectName name = new ObjectName(stats.getObjectName());
+        SnappyMBeans.unregisterAll();
+        try {
+            stats.register();
+            assertFalse(server.isRegistered(name));
+            SnappyMBeans.registerAll();
+            assertTrue(server.isRegistered(name));
+        } finally {
+            SnappyMBeans.unregisterAll();
+            SnappyMBeans.registerAll();
+        }
+    }
+}
@@ -128,6 +128,32 @@ public class CachingBufferPoolTest {
         assertSame(bb1, bb4);
     }
 
+    @Test
+    public void testTrim() throws Exception {
+
+        final CachingBufferPool pool = (CachingBufferPool) CachingBufferPool.getInstance();
+        final int size = 464 * 1024;
+
+        final ByteBuffer bb1 = pool.allocateDirect(size);
+        final ByteBuffer bb2 = pool.allocateDirect(size);
+        final ByteBuffer bb3 = pool.allocateDirect(size);
+        pool.releaseDirect(bb1);
+        pool.releaseDirect(bb2);
+        pool.releaseDirect(bb3);
+        final byte[] array1 = pool.allocateArray(size);
+        final byte[] array2 = pool.allocateArray(size);
+        pool.releaseArray(array1);
+        pool.releaseArray(array2);
+
+        assertTrue(pool.trim(1) >= 3L * size);
+
+        //the most recently released instances are kept
+        assertSame(bb3, pool.allocateDirect(size));
+        assertNotSame(bb2, pool.allocateDirect(size));
+        assertSame(array2, pool.allocateArray(size));
+        assertNotSame(array1, pool.allocateArray(size));
+    }
+
     @Test
     public void testSoftReferences() {
 
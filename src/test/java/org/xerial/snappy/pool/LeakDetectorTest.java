@@ -0,0 +1,86 @@
+package org.xerial.snappy.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xerial.snappy.SnappyMBeans;
+import org.xerial.snappy.buffer.CachedBufferAllocator;
+
+public class LeakDetectorTest {
+
+    private final LeakDetector detector = LeakDetector.getInstance();
+
+    private int interval;
+
+    @Before
+    public void setUp() {
+        interval = detector.getSampleInterval();
+        detector.setSampleInterval(1);
+    }
+
+    @After
+    public void tearDown() {
+        detector.setSampleInterval(interval);
+    }
+
+    @Test
+    public void testReleasedBuffersAreNotTracked() {
+        final int tracked = detector.getTrackedBuffers();
+        final BufferPool pool = CachingBufferPool.getInstance();
+        final byte[] array = pool.allocateArray(100);
+        final ByteBuffer direct = pool.allocateDirect(100);
+        final byte[] allocated = CachedBufferAllocator.getAllocator(100).allocate(100);
+        assertEquals(tracked + 3, detector.getTrackedBuffers());
+
+        pool.releaseArray(array);
+        pool.releaseDirect(direct);
+        CachedBufferAllocator.getAllocator(100).release(allocated);
+        assertEquals(tracked, detector.getTrackedBuffers());
+    }
+
+    @Test
+    public void testUnreleasedBuffersAreReported() throws InterruptedException {
+        final long leaks = detector.getLeaks();
+        allocateAndDrop();
+        for (int i = 0; i < 50 && detector.getLeaks() < leaks + 2; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(leaks + 2, detector.getLeaks());
+    }
+
+    private static void allocateAndDrop() {
+        CachingBufferPool.getInstance().allocateArray(5000);
+        CachedBufferAllocator.getAllocator(5000).allocate(5000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSampleInterval() {
+        detector.setSampleInterval(-1);
+    }
+
+    @Test
+    public void testDisabled() {
+        detector.setSampleInterval(0);
+        final int tracked = detector.getTrackedBuffers();
+        final byte[] array = CachingBufferPool.getInstance().allocateArray(100);
+        assertEquals(tracked, detector.getTrackedBuffers());
+        CachingBufferPool.getInstance().releaseArray(array);
+        assertTrue(detector.getLeaks() >= 0);
+    }
+
+    @Test
+    public void testRegisteredWhenSampling() throws Exception {
+        SnappyMBeans.registerAll();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("org.xerial.snappy:type=LeakDetector")));
+    }
+}
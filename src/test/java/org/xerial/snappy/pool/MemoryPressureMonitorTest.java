@@ -0,0 +1,71 @@
+package org.xerial.snappy.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class MemoryPressureMonitorTest {
+
+    @Test
+    public void testParseSize() {
+        assertEquals(1000, MemoryPressureMonitor.parseSize("1000"));
+        assertEquals(64 * 1024, MemoryPressureMonitor.parseSize("64k"));
+        assertEquals(512L * 1024 * 1024, MemoryPressureMonitor.parseSize("512M"));
+        assertEquals(3L * 1024 * 1024 * 1024, MemoryPressureMonitor.parseSize("3g"));
+        assertEquals(-1, MemoryPressureMonitor.parseSize("lots"));
+        assertEquals(-1, MemoryPressureMonitor.parseSize(""));
+    }
+
+    @Test
+    public void testTrimPools() {
+        final BufferPool pool = CachingBufferPool.getInstance();
+        final int size = 976 * 1024;
+        final ByteBuffer bb1 = pool.allocateDirect(size);
+        final ByteBuffer bb2 = pool.allocateDirect(size);
+        pool.releaseDirect(bb1);
+        pool.releaseDirect(bb2);
+
+        MemoryPressureMonitor.trimPools();
+
+        assertSame(bb2, pool.allocateDirect(size));
+        assertNotSame(bb1, pool.allocateDirect(size));
+    }
+
+    @Test
+    public void testTrimDefaultSlabPool() {
+        final BufferPool previous = DefaultPoolFactory.getDefaultPool();
+        final SlabBufferPool pool = new SlabBufferPool(4 * 64 * 1024, 64 * 1024, SlabBufferPool.ExhaustedAction.FAIL);
+        DefaultPoolFactory.setDefaultPool(pool);
+        try {
+            final ByteBuffer bb1 = pool.allocateDirect(64 * 1024);
+            final ByteBuffer bb2 = pool.allocateDirect(64 * 1024);
+            pool.releaseDirect(bb1);
+            pool.releaseDirect(bb2);
+
+            MemoryPressureMonitor.trimPools();
+            assertEquals(64 * 1024, pool.getReservedBytes());
+        } finally {
+            DefaultPoolFactory.setDefaultPool(previous);
+        }
+    }
+
+    @Test
+    public void testUninstall() {
+        CachingBufferPool.getInstance();
+        MemoryPressureMonitor.install();
+        assertTrue(MemoryPressureMonitor.getListenedEmitters() > 0);
+        try {
+            MemoryPressureMonitor.uninstall();
+            assertEquals(0, MemoryPressureMonitor.getListenedEmitters());
+            MemoryPressureMonitor.uninstall();
+        } finally {
+            MemoryPressureMonitor.install();
+        }
+        assertTrue(MemoryPressureMonitor.getListenedEmitters() > 0);
+    }
+}
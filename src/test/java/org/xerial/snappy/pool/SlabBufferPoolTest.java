@@ -0,0 +1,186 @@
+package org.xerial.snappy.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.xerial.snappy.pool.SlabBufferPool.ExhaustedAction;
+
+public class SlabBufferPoolTest {
+
+    private static final int SLAB_SIZE = 64 * 1024;
+
+    @Test
+    public void testBuffersAreCarvedFromSlab() {
+        final SlabBufferPool pool = new SlabBufferPool(SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer first = pool.allocateDirect(5000);
+        final ByteBuffer second = pool.allocateDirect(5000);
+        assertTrue(first.isDirect());
+        assertEquals(CachingBufferPool.adjustSize(5000), first.capacity());
+        // 10 buffers of 6KB fit into the slab
+        assertEquals(10 * first.capacity(), pool.getReservedBytes());
+
+        first.put(0, (byte) 1);
+        second.put(0, (byte) 2);
+        assertEquals(1, first.get(0));
+
+        pool.releaseDirect(first);
+        first.position(10);
+        final ByteBuffer third = pool.allocateDirect(5000);
+        assertSame(first, third);
+        assertEquals(0, third.position());
+        assertEquals(third.capacity(), third.limit());
+        pool.releaseDirect(second);
+        pool.releaseDirect(third);
+    }
+
+    @Test
+    public void testFailWhenExhausted() {
+        final SlabBufferPool pool = new SlabBufferPool(2 * SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer first = pool.allocateDirect(SLAB_SIZE);
+        final ByteBuffer second = pool.allocateDirect(SLAB_SIZE);
+        try {
+            pool.allocateDirect(SLAB_SIZE);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.releaseDirect(first);
+        assertSame(first, pool.allocateDirect(SLAB_SIZE));
+        pool.releaseDirect(first);
+        pool.releaseDirect(second);
+    }
+
+    @Test
+    public void testAllocateUnpooledWhenExhausted() {
+        final SlabBufferPool pool = new SlabBufferPool(SLAB_SIZE, SLAB_SIZE, ExhaustedAction.ALLOCATE_UNPOOLED);
+        final ByteBuffer pooled = pool.allocateDirect(SLAB_SIZE);
+        final ByteBuffer unpooled = pool.allocateDirect(100);
+        assertTrue(unpooled.isDirect());
+        assertEquals(100, unpooled.capacity());
+        assertEquals(SLAB_SIZE, pool.getReservedBytes());
+        pool.releaseDirect(unpooled);
+        pool.releaseDirect(pooled);
+        assertEquals(SLAB_SIZE, pool.getReservedBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSlabIsEvicted() {
+        final SlabBufferPool pool = new SlabBufferPool(2 * SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer small = pool.allocateDirect(4 * 1024);
+        final ByteBuffer medium = pool.allocateDirect(8 * 1024);
+        pool.releaseDirect(small);
+        pool.releaseDirect(medium);
+        assertEquals(2 * SLAB_SIZE, pool.getReservedBytes());
+
+        // the slab of small was used least recently, so it makes room for the new size
+        final ByteBuffer large = pool.allocateDirect(16 * 1024);
+        assertEquals(2 * SLAB_SIZE, pool.getReservedBytes());
+        assertSame(medium, pool.allocateDirect(8 * 1024));
+        pool.releaseDirect(medium);
+        pool.releaseDirect(large);
+        // now medium is the least recently used
+        assertNotSame(small, pool.allocateDirect(4 * 1024));
+        assertSame(large, pool.allocateDirect(16 * 1024));
+    }
+
+    @Test
+    public void testBuffersInUseAreNotEvicted() {
+        final SlabBufferPool pool = new SlabBufferPool(SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer small = pool.allocateDirect(4 * 1024);
+        try {
+            pool.allocateDirect(8 * 1024);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pool.releaseDirect(small);
+        pool.releaseDirect(pool.allocateDirect(8 * 1024));
+    }
+
+    @Test
+    public void testLargeBuffers() {
+        final SlabBufferPool pool = new SlabBufferPool(4 * SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer large = pool.allocateDirect(3 * SLAB_SIZE);
+        assertEquals(3 * SLAB_SIZE, large.capacity());
+        assertEquals(3 * SLAB_SIZE, pool.getReservedBytes());
+        pool.releaseDirect(large);
+        assertSame(large, pool.allocateDirect(3 * SLAB_SIZE - 100));
+        pool.releaseDirect(large);
+    }
+
+    @Test
+    public void testBlockUntilReleased() throws Exception {
+        final SlabBufferPool pool = new SlabBufferPool(SLAB_SIZE, SLAB_SIZE, ExhaustedAction.BLOCK);
+        final ByteBuffer first = pool.allocateDirect(SLAB_SIZE);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<ByteBuffer> future = executor.submit(new Callable<ByteBuffer>() {
+                @Override
+                public ByteBuffer call() {
+                    return pool.allocateDirect(SLAB_SIZE);
+                }
+            });
+            try {
+                future.get(200, TimeUnit.MILLISECONDS);
+                fail("expected to block");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            pool.releaseDirect(first);
+            assertSame(first, future.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTrim() {
+        final SlabBufferPool pool = new SlabBufferPool(4 * SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer small = pool.allocateDirect(4 * 1024);
+        final ByteBuffer medium = pool.allocateDirect(8 * 1024);
+        pool.releaseDirect(small);
+        assertEquals(SLAB_SIZE, pool.trim());
+        assertEquals(SLAB_SIZE, pool.getReservedBytes());
+        pool.releaseDirect(medium);
+        assertEquals(SLAB_SIZE, pool.trim());
+        assertEquals(0, pool.getReservedBytes());
+    }
+
+    @Test
+    public void testTrimToFloor() {
+        final SlabBufferPool pool = new SlabBufferPool(4 * SLAB_SIZE, SLAB_SIZE, ExhaustedAction.FAIL);
+        final ByteBuffer first = pool.allocateDirect(SLAB_SIZE);
+        final ByteBuffer second = pool.allocateDirect(SLAB_SIZE);
+        final ByteBuffer third = pool.allocateDirect(SLAB_SIZE);
+        pool.releaseDirect(first);
+        pool.releaseDirect(third);
+        assertEquals(SLAB_SIZE, pool.trim(1));
+        assertEquals(2 * SLAB_SIZE, pool.getReservedBytes());
+        // the most recently used unused slab is kept
+        assertSame(third, pool.allocateDirect(SLAB_SIZE));
+        pool.releaseDirect(second);
+        pool.releaseDirect(third);
+    }
+
+    @Test
+    public void testForeignBuffersAreIgnored() {
+        final SlabBufferPool pool = new SlabBufferPool(SLAB_SIZE);
+        final ByteBuffer foreign = ByteBuffer.allocateDirect(100);
+        pool.releaseDirect(foreign);
+        foreign.put(0, (byte) 1);
+        assertFalse(pool.allocateDirect(100) == foreign);
+    }
+}